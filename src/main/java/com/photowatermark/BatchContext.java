@@ -0,0 +1,211 @@
+package com.photowatermark;
+
+import com.photowatermark.exception.FileOperationException;
+import com.photowatermark.sink.FileSystemSink;
+import com.photowatermark.sink.OutputSink;
+import com.photowatermark.util.BatchJournal;
+import com.photowatermark.util.MemoryAdmissionController;
+import com.photowatermark.util.OutputDurability;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 批次上下文，保存同一批次内所有图片共享的处理状态
+ * 包括内存准入控制、CPU密集工作的并发限制、批处理日志、增量处理索引、输出规格和输出目标，
+ * 以及已验证的输出目录，逐图片处理和流水线处理共用
+ */
+public class BatchContext {
+
+    // 批处理日志中已完成的图片的结果消息
+    public static final String JOURNAL_SKIP_MESSAGE = "批处理日志中已完成，跳过";
+
+    // 增量模式下输出已是最新的图片的结果消息
+    public static final String UP_TO_DATE_SKIP_MESSAGE = "输出已是最新，跳过";
+
+    private final MemoryAdmissionController admissionController;
+    // CPU密集工作的并发许可，为null时不限制
+    private final Semaphore cpuPermits;
+    // 批处理日志，为null时不记录
+    private BatchJournal journal;
+    // 增量处理索引，为null时不启用增量模式
+    private IncrementalIndex incrementalIndex;
+    // 输出规格，为空时每张图片按渲染计划输出一个文件
+    private List<Rendition> renditions = Collections.emptyList();
+    // 多个输出规格并行编码使用的线程池，为null时依次编码
+    private ExecutorService renditionExecutor;
+    // 接收编码完成的水印图片的输出目标
+    private OutputSink outputSink = new FileSystemSink(OutputDurability.NONE);
+    // 已创建并验证的输出目录，同一目录下的图片只检查一次
+    private final Set<File> preparedDirectories = ConcurrentHashMap.newKeySet();
+    // 本批次已分配的输出文件及其源图片，用于发现不同图片映射到同一输出文件的冲突
+    private final ConcurrentMap<File, Path> claimedOutputs = new ConcurrentHashMap<>();
+
+    // 不限制CPU密集工作并发数的构造函数
+    public BatchContext(MemoryAdmissionController admissionController) {
+        this(admissionController, null);
+    }
+
+    public BatchContext(MemoryAdmissionController admissionController, Semaphore cpuPermits) {
+        this.admissionController = admissionController;
+        this.cpuPermits = cpuPermits;
+    }
+
+    // Getter和Setter方法
+    public MemoryAdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    public BatchJournal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(BatchJournal journal) {
+        this.journal = journal;
+    }
+
+    public IncrementalIndex getIncrementalIndex() {
+        return incrementalIndex;
+    }
+
+    public void setIncrementalIndex(IncrementalIndex incrementalIndex) {
+        this.incrementalIndex = incrementalIndex;
+    }
+
+    public List<Rendition> getRenditions() {
+        return renditions;
+    }
+
+    public void setRenditions(List<Rendition> renditions) {
+        this.renditions = renditions != null ? renditions : Collections.emptyList();
+    }
+
+    public ExecutorService getRenditionExecutor() {
+        return renditionExecutor;
+    }
+
+    public void setRenditionExecutor(ExecutorService renditionExecutor) {
+        this.renditionExecutor = renditionExecutor;
+    }
+
+    public OutputSink getOutputSink() {
+        return outputSink;
+    }
+
+    public void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
+
+    /**
+     * 生成图片的输出文件路径，输出目标写出文件时先创建输出目录
+     * 输出目录在批次内只创建和验证一次；输出文件名由FileOutputManager根据源文件确定，与处理顺序无关。
+     * 源目录哈希等限定词不能完全排除冲突，另一张图片已占用同一输出文件时报错，而不是覆盖它的输出
+     *
+     * @param outputManager 输出管理器
+     * @param imagePath 图片路径
+     * @return 输出文件路径
+     * @throws FileOperationException 输出文件与其他图片冲突，或创建、验证输出目录失败时抛出
+     */
+    public File prepareOutputFile(FileOutputManager outputManager, String imagePath) throws FileOperationException {
+        File outputFile = outputManager.resolveWatermarkFile(imagePath);
+        Path source = new File(imagePath).getAbsoluteFile().toPath().normalize();
+        Path owner = claimedOutputs.putIfAbsent(outputFile, source);
+        if (owner != null && !owner.equals(source)) {
+            throw new FileOperationException("输出文件与其他图片冲突: " + outputFile.getPath() + " (已由 " + owner + " 使用)");
+        }
+        if (outputSink.writesFiles()) {
+            prepareDirectory(outputManager, outputFile.getParentFile(), imagePath);
+        }
+        return outputFile;
+    }
+
+    /**
+     * 创建并验证输出目录，已验证过的目录直接返回
+     * 并行处理时多个线程可能同时验证同一目录，结果相同，无需加锁
+     */
+    private void prepareDirectory(FileOutputManager outputManager, File directory, String imagePath)
+            throws FileOperationException {
+        if (preparedDirectories.contains(directory)) {
+            return;
+        }
+        outputManager.createWatermarkDirectory(imagePath);
+        try {
+            outputManager.validateOutputDirectory(directory);
+        } catch (FileOperationException e) {
+            throw new FileOperationException("输出目录验证失败: " + e.getMessage(), e);
+        }
+        preparedDirectories.add(directory);
+    }
+
+    /**
+     * 获取一个CPU密集工作的并发许可，未限制并发时直接返回
+     *
+     * @param imagePath 图片路径（用于异常信息）
+     * @throws InterruptedIOException 等待被中断时抛出
+     */
+    public void acquireCpu(String imagePath) throws InterruptedIOException {
+        if (cpuPermits == null) {
+            return;
+        }
+        try {
+            cpuPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待处理器资源时被中断: " + imagePath);
+        }
+    }
+
+    /**
+     * 归还CPU密集工作的并发许可
+     */
+    public void releaseCpu() {
+        if (cpuPermits != null) {
+            cpuPermits.release();
+        }
+    }
+
+    /**
+     * 判断图片是否可以跳过处理
+     *
+     * @param imagePath 图片路径
+     * @return 跳过原因，需要处理时返回null
+     */
+    public String getSkipReason(String imagePath) {
+        if (journal != null && journal.isCompleted(imagePath)) {
+            return JOURNAL_SKIP_MESSAGE;
+        }
+        if (incrementalIndex != null && incrementalIndex.isUpToDate(imagePath)) {
+            return UP_TO_DATE_SKIP_MESSAGE;
+        }
+        return null;
+    }
+
+    /**
+     * 将处理结果记录到批处理日志和增量处理索引，跳过的图片已有记录，不重复写入
+     *
+     * @param result 处理结果
+     */
+    public void recordResult(ImageProcessor.ProcessResult result) {
+        if (result.isSkipped()) {
+            return;
+        }
+        if (journal != null) {
+            journal.record(result.getImagePath(), result.isSuccess());
+        }
+        if (incrementalIndex != null) {
+            if (result.isSuccess()) {
+                incrementalIndex.record(result.getImagePath());
+            } else {
+                incrementalIndex.forget(result.getImagePath());
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.photowatermark;
+
+import com.photowatermark.ImageProcessor.ProcessResult;
+import com.photowatermark.ImageProcessor.ResultSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量处理结果发布者
+ * 每个订阅者对应一次独立的批量处理：订阅后在后台线程中开始处理，结果按完成顺序逐个发布。
+ * 只有订阅方请求了结果才会从路径来源取出新的图片，因此已开始处理但尚未发布的图片数不超过未满足的请求数
+ */
+class BatchResultPublisher implements Flow.Publisher<ProcessResult> {
+    private static final Logger logger = LoggerFactory.getLogger(BatchResultPublisher.class);
+
+    private static final AtomicInteger publisherThreadNumber = new AtomicInteger(1);
+
+    /**
+     * 批量处理的执行方式，从来源取出路径处理并把结果交给接收方，全部处理完后返回
+     */
+    interface BatchRunner {
+        void run(Iterator<String> source, ResultSink sink);
+    }
+
+    private final Iterable<String> imagePaths;
+    private final BatchRunner runner;
+
+    BatchResultPublisher(Iterable<String> imagePaths, BatchRunner runner) {
+        this.imagePaths = imagePaths;
+        this.runner = runner;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ProcessResult> subscriber) {
+        Objects.requireNonNull(subscriber, "订阅者不能为null");
+
+        BatchSubscription subscription = new BatchSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+
+        Thread thread = new Thread(subscription::run, "watermark-publisher-" + publisherThreadNumber.getAndIncrement());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 单个订阅者的订阅，负责记录请求数并串行发送信号
+     */
+    private final class BatchSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ProcessResult> subscriber;
+
+        // 保护请求数和取消标记
+        private final Object demandLock = new Object();
+        private long demand;
+        private boolean cancelled;
+
+        // 已发送终止信号，由发送信号时持有的本对象锁保护
+        private boolean terminated;
+
+        BatchSubscription(Flow.Subscriber<? super ProcessResult> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                signalError(new IllegalArgumentException("请求数量必须大于0: " + n));
+                return;
+            }
+
+            synchronized (demandLock) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                demandLock.notifyAll();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (demandLock) {
+                cancelled = true;
+                demandLock.notifyAll();
+            }
+        }
+
+        private boolean isCancelled() {
+            synchronized (demandLock) {
+                return cancelled;
+            }
+        }
+
+        /**
+         * 等待并占用一个请求名额
+         *
+         * @return 是否占用成功，订阅已取消或等待被中断时返回false
+         */
+        private boolean awaitDemand() {
+            synchronized (demandLock) {
+                try {
+                    while (demand == 0 && !cancelled) {
+                        demandLock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+
+                if (cancelled) {
+                    return false;
+                }
+                demand--;
+                return true;
+            }
+        }
+
+        /**
+         * 在后台线程中执行批量处理，结束后发送完成或错误信号
+         */
+        void run() {
+            try {
+                runner.run(new DemandIterator(imagePaths.iterator()), this::emit);
+            } catch (RuntimeException e) {
+                logger.error("批量处理出错", e);
+                signalError(e);
+                return;
+            }
+            signalComplete();
+        }
+
+        private synchronized void emit(int index, ProcessResult result) {
+            if (terminated || isCancelled()) {
+                return;
+            }
+
+            try {
+                subscriber.onNext(result);
+            } catch (RuntimeException e) {
+                // 订阅者不应在onNext中抛出异常，出现时视为订阅已取消
+                logger.error("订阅者处理结果时出错，取消订阅: {}", result.getImagePath(), e);
+                cancel();
+            }
+        }
+
+        private synchronized void signalComplete() {
+            if (terminated || isCancelled()) {
+                return;
+            }
+            terminated = true;
+            subscriber.onComplete();
+        }
+
+        private synchronized void signalError(Throwable error) {
+            if (terminated || isCancelled()) {
+                return;
+            }
+            terminated = true;
+            cancel();
+            subscriber.onError(error);
+        }
+
+        /**
+         * 按请求数放行的路径来源，每取出一个路径占用一个请求名额
+         * 只被批量处理的派发线程调用
+         */
+        private final class DemandIterator implements Iterator<String> {
+            private final Iterator<String> source;
+            private boolean demandClaimed;
+
+            DemandIterator(Iterator<String> source) {
+                this.source = source;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (!demandClaimed) {
+                    if (!awaitDemand()) {
+                        return false;
+                    }
+                    demandClaimed = true;
+                }
+                return !isCancelled() && source.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                demandClaimed = false;
+                return source.next();
+            }
+        }
+    }
+}
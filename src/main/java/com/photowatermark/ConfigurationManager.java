@@ -1,5 +1,19 @@
 package com.photowatermark;
 
+import com.photowatermark.jpeg.JpegEncoding;
+import com.photowatermark.png.PngEncoding;
+import com.photowatermark.pipeline.PipelineConfig;
+import com.photowatermark.render.RenderingBackend;
+import com.photowatermark.sink.OutputSink;
+import com.photowatermark.util.OutputDurability;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * 配置管理类，用于存储和管理程序配置参数
  */
@@ -7,12 +21,49 @@ public class ConfigurationManager {
     private int fontSize;
     private String color;
     private String position;
+    private int threadCount;
+    // 流水线配置，为null时不使用流水线模式
+    private PipelineConfig pipelineConfig;
+    // 内存准入预算（字节），小于等于0时按最大堆内存自动确定
+    private long memoryBudgetBytes;
+    // 是否在支持的Java版本上使用虚拟线程处理IO密集工作
+    private boolean virtualThreads;
+    // 批处理日志文件路径，为null时不记录
+    private String journalPath;
+    // 是否从批处理日志恢复，跳过日志中已完成的图片
+    private boolean resume;
+    // 是否启用增量模式，跳过输出已是最新的图片
+    private boolean incremental;
+    // 水印合成使用的渲染后端名称
+    private String renderingBackend = RenderingBackend.DEFAULT_NAME;
+    // 是否启用JPEG无损模式，只重新编码水印覆盖的MCU
+    private boolean losslessJpeg;
+    // 分块处理的像素数阈值，超过该值的BMP、PNG和TIFF按行带处理，小于等于0时不分块
+    private long tileThresholdPixels = WatermarkRenderPlan.DEFAULT_TILE_THRESHOLD_PIXELS;
+    // 预览图片长边的最大像素数，大于0时按预览尺寸生成低分辨率样张
+    private int previewMaxEdge;
+    // 输出规格，为空时每张图片输出一个文件
+    private List<Rendition> renditions = Collections.emptyList();
+    // 重新编码JPEG输出时使用的编码设置
+    private JpegEncoding jpegEncoding = JpegEncoding.DEFAULT;
+    // 是否把源文件的EXIF、XMP和ICC配置文件按原始字节复制到输出
+    private boolean metadataPassthrough;
+    // 重新编码PNG输出时使用的编码设置
+    private PngEncoding pngEncoding = PngEncoding.DEFAULT;
+    // 输出文件的刷盘方式，输出文件总是原子写出
+    private OutputDurability outputDurability = OutputDurability.NONE;
+    // 调用方提供的输出目标，由调用方负责关闭，为null时每个输出写成独立的文件
+    private OutputSink outputSink;
+
+    // 设置指纹的格式版本，影响输出的处理逻辑变化时递增，使旧的增量记录失效
+    private static final int SETTINGS_FINGERPRINT_VERSION = 1;
 
     // 默认构造函数，使用默认值
     public ConfigurationManager() {
         this.fontSize = 20;
         this.color = "white";
         this.position = "bottom-right";
+        this.threadCount = 1;
     }
 
     // 带参数的构造函数
@@ -20,6 +71,7 @@ public class ConfigurationManager {
         this.fontSize = fontSize;
         this.color = color;
         this.position = position;
+        this.threadCount = 1;
     }
 
     // Getter和Setter方法
@@ -47,12 +99,226 @@ public class ConfigurationManager {
         this.position = position;
     }
 
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public void setMemoryBudgetBytes(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public String getJournalPath() {
+        return journalPath;
+    }
+
+    public void setJournalPath(String journalPath) {
+        this.journalPath = journalPath;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public String getRenderingBackend() {
+        return renderingBackend;
+    }
+
+    public void setRenderingBackend(String renderingBackend) {
+        this.renderingBackend = renderingBackend;
+    }
+
+    public boolean isLosslessJpeg() {
+        return losslessJpeg;
+    }
+
+    public void setLosslessJpeg(boolean losslessJpeg) {
+        this.losslessJpeg = losslessJpeg;
+    }
+
+    public long getTileThresholdPixels() {
+        return tileThresholdPixels;
+    }
+
+    public void setTileThresholdPixels(long tileThresholdPixels) {
+        this.tileThresholdPixels = tileThresholdPixels;
+    }
+
+    public int getPreviewMaxEdge() {
+        return previewMaxEdge;
+    }
+
+    public void setPreviewMaxEdge(int previewMaxEdge) {
+        this.previewMaxEdge = previewMaxEdge;
+    }
+
+    public List<Rendition> getRenditions() {
+        return renditions;
+    }
+
+    public void setRenditions(List<Rendition> renditions) {
+        this.renditions = renditions != null ? Collections.unmodifiableList(new ArrayList<>(renditions))
+                : Collections.emptyList();
+    }
+
+    public JpegEncoding getJpegEncoding() {
+        return jpegEncoding;
+    }
+
+    public void setJpegEncoding(JpegEncoding jpegEncoding) {
+        this.jpegEncoding = jpegEncoding != null ? jpegEncoding : JpegEncoding.DEFAULT;
+    }
+
+    public boolean isMetadataPassthrough() {
+        return metadataPassthrough;
+    }
+
+    public void setMetadataPassthrough(boolean metadataPassthrough) {
+        this.metadataPassthrough = metadataPassthrough;
+    }
+
+    public PngEncoding getPngEncoding() {
+        return pngEncoding;
+    }
+
+    public void setPngEncoding(PngEncoding pngEncoding) {
+        this.pngEncoding = pngEncoding != null ? pngEncoding : PngEncoding.DEFAULT;
+    }
+
+    public OutputDurability getOutputDurability() {
+        return outputDurability;
+    }
+
+    public void setOutputDurability(OutputDurability outputDurability) {
+        this.outputDurability = outputDurability != null ? outputDurability : OutputDurability.NONE;
+    }
+
+    public OutputSink getOutputSink() {
+        return outputSink;
+    }
+
+    public void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
+
+    /**
+     * 将当前的水印设置编译为渲染计划
+     * 渲染计划不可变，批次内的所有图片和工作线程共用同一个计划
+     *
+     * @return 水印渲染计划
+     */
+    public WatermarkRenderPlan compileRenderPlan() {
+        return WatermarkRenderPlan.compile(fontSize, color, position, renderingBackend)
+                .withLosslessJpeg(losslessJpeg)
+                .withTileThreshold(tileThresholdPixels)
+                .withPreview(previewMaxEdge)
+                .withJpegEncoding(jpegEncoding)
+                .withMetadataPassthrough(metadataPassthrough)
+                .withPngEncoding(pngEncoding);
+    }
+
+    /**
+     * 计算影响输出内容的设置的指纹
+     * 增量模式用它判断已有的水印图片是否按当前设置生成；线程数、内存预算等只影响处理方式的设置不参与计算。
+     * JPEG无损模式、预览尺寸、输出规格、JPEG编码设置和元数据复制改变输出内容，只在启用时参与计算，未启用时的指纹与之前的版本相同。
+     * PNG编码设置只改变压缩率，解码后的像素不变，不参与计算
+     *
+     * @return 设置指纹
+     */
+    public String getSettingsFingerprint() {
+        return getSettingsFingerprint(fontSize, color, position);
+    }
+
+    /**
+     * 使用实际生效的水印参数计算设置指纹
+     *
+     * @param effectiveFontSize 实际使用的字体大小
+     * @param effectiveColor 实际使用的字体颜色
+     * @param effectivePosition 实际使用的水印位置
+     * @return 设置指纹
+     */
+    public String getSettingsFingerprint(int effectiveFontSize, String effectiveColor, String effectivePosition) {
+        String settings = "v" + SETTINGS_FINGERPRINT_VERSION +
+                "|fontSize=" + effectiveFontSize +
+                "|color=" + effectiveColor +
+                "|position=" + effectivePosition +
+                (losslessJpeg ? "|losslessJpeg" : "") +
+                (previewMaxEdge > 0 ? "|preview=" + previewMaxEdge : "") +
+                (renditions.isEmpty() ? "" : "|renditions=" + renditions) +
+                (jpegEncoding.isDefault() ? "" : "|jpeg=" + jpegEncoding) +
+                (metadataPassthrough ? "|metadata" : "");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(settings.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // 所有Java平台都必须支持SHA-256
+            throw new IllegalStateException("不支持SHA-256摘要算法", e);
+        }
+    }
+
+    public PipelineConfig getPipelineConfig() {
+        return pipelineConfig;
+    }
+
+    public void setPipelineConfig(PipelineConfig pipelineConfig) {
+        this.pipelineConfig = pipelineConfig;
+    }
+
     @Override
     public String toString() {
         return "ConfigurationManager{" +
                 "fontSize=" + fontSize +
                 ", color='" + color + '\'' +
                 ", position='" + position + '\'' +
+                ", threadCount=" + threadCount +
+                ", pipelineConfig=" + pipelineConfig +
+                ", memoryBudgetBytes=" + memoryBudgetBytes +
+                ", virtualThreads=" + virtualThreads +
+                ", journalPath='" + journalPath + '\'' +
+                ", resume=" + resume +
+                ", incremental=" + incremental +
+                ", renderingBackend='" + renderingBackend + '\'' +
+                ", losslessJpeg=" + losslessJpeg +
+                ", tileThresholdPixels=" + tileThresholdPixels +
+                ", previewMaxEdge=" + previewMaxEdge +
+                ", renditions=" + renditions +
+                ", jpegEncoding=" + jpegEncoding +
+                ", metadataPassthrough=" + metadataPassthrough +
+                ", pngEncoding=" + pngEncoding +
+                ", outputDurability=" + outputDurability +
+                ", outputSink=" + (outputSink != null ? outputSink.getClass().getSimpleName() : null) +
                 '}';
     }
 }
\ No newline at end of file
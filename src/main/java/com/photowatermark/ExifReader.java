@@ -5,18 +5,21 @@ import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.Directory;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.Tag;
+import com.drew.metadata.exif.ExifIFD0Directory;
 import com.drew.metadata.exif.ExifSubIFDDirectory;
 import com.photowatermark.exception.ExifReadException;
 import com.photowatermark.util.DateFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.Date;
 
 /**
  * EXIF信息读取类，用于从图片文件中提取拍摄时间等EXIF信息
+ * 本类不保存可变状态，可在多个工作线程之间共享
  */
 public class ExifReader {
     private static final Logger logger = LoggerFactory.getLogger(ExifReader.class);
@@ -54,34 +57,83 @@ public class ExifReader {
         try {
             // 读取图片元数据
             Metadata metadata = ImageMetadataReader.readMetadata(imageFile);
+            return extractCaptureDate(metadata, imageFile.getPath());
+        } catch (IOException e) {
+            throw new ExifReadException("读取图片文件时发生IO异常: " + imageFile.getPath(), e);
+        } catch (ImageProcessingException e) {
+            throw new ExifReadException("处理图片文件时发生异常: " + imageFile.getPath(), e);
+        } catch (Exception e) {
+            throw new ExifReadException("读取EXIF信息时发生未知异常: " + imageFile.getPath(), e);
+        }
+    }
 
-            // 查找EXIF子IFD目录
-            ExifSubIFDDirectory directory = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
-            if (directory == null) {
-                logger.warn("图片文件中未找到EXIF信息: {}", imageFile.getPath());
-                return null;
-            }
+    /**
+     * 从已读入内存的图片数据中读取拍摄时间和方向信息
+     * 用于流水线模式，避免EXIF阶段再次读取文件
+     *
+     * @param imageData 图片文件的完整字节内容
+     * @param sourceName 图片来源名称（用于日志和异常信息）
+     * @return EXIF信息，拍摄时间可能为null
+     * @throws ExifReadException EXIF读取异常
+     */
+    public ExifInfo readExifInfo(byte[] imageData, String sourceName) throws ExifReadException {
+        if (imageData == null) {
+            throw new ExifReadException("图片数据不能为null");
+        }
 
-            // 获取拍摄时间
-            Date captureDate = directory.getDate(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL);
-            if (captureDate == null) {
-                captureDate = directory.getDate(ExifSubIFDDirectory.TAG_DATETIME);
-            }
+        logger.debug("正在读取图片数据的EXIF信息: {}", sourceName);
 
-            if (captureDate != null) {
-                logger.debug("成功读取拍摄时间: {} from {}", captureDate, imageFile.getPath());
-            } else {
-                logger.warn("图片文件中未找到拍摄时间信息: {}", imageFile.getPath());
+        try {
+            Metadata metadata = ImageMetadataReader.readMetadata(new ByteArrayInputStream(imageData), imageData.length);
+            Date captureDate = extractCaptureDate(metadata, sourceName);
+
+            int orientation = ExifInfo.ORIENTATION_NORMAL;
+            ExifIFD0Directory ifd0 = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+            if (ifd0 != null && ifd0.containsTag(ExifIFD0Directory.TAG_ORIENTATION)) {
+                Integer value = ifd0.getInteger(ExifIFD0Directory.TAG_ORIENTATION);
+                if (value != null) {
+                    orientation = value;
+                }
             }
 
-            return captureDate;
+            return new ExifInfo(captureDate, orientation);
         } catch (IOException e) {
-            throw new ExifReadException("读取图片文件时发生IO异常: " + imageFile.getPath(), e);
+            throw new ExifReadException("读取图片数据时发生IO异常: " + sourceName, e);
         } catch (ImageProcessingException e) {
-            throw new ExifReadException("处理图片文件时发生异常: " + imageFile.getPath(), e);
+            throw new ExifReadException("处理图片数据时发生异常: " + sourceName, e);
         } catch (Exception e) {
-            throw new ExifReadException("读取EXIF信息时发生未知异常: " + imageFile.getPath(), e);
+            throw new ExifReadException("读取EXIF信息时发生未知异常: " + sourceName, e);
+        }
+    }
+
+    /**
+     * 从元数据中提取拍摄时间
+     *
+     * @param metadata 图片元数据
+     * @param sourceName 图片来源名称（用于日志）
+     * @return 拍摄时间，如果不存在则返回null
+     */
+    private Date extractCaptureDate(Metadata metadata, String sourceName) {
+        // 查找EXIF子IFD目录
+        ExifSubIFDDirectory directory = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+        if (directory == null) {
+            logger.warn("图片文件中未找到EXIF信息: {}", sourceName);
+            return null;
+        }
+
+        // 获取拍摄时间
+        Date captureDate = directory.getDate(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL);
+        if (captureDate == null) {
+            captureDate = directory.getDate(ExifSubIFDDirectory.TAG_DATETIME);
         }
+
+        if (captureDate != null) {
+            logger.debug("成功读取拍摄时间: {} from {}", captureDate, sourceName);
+        } else {
+            logger.warn("图片文件中未找到拍摄时间信息: {}", sourceName);
+        }
+
+        return captureDate;
     }
 
     /**
@@ -126,4 +178,32 @@ public class ExifReader {
             throw new ExifReadException("读取EXIF信息时发生未知异常: " + imageFile.getPath(), e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * EXIF信息类，保存流水线处理所需的拍摄时间和图片方向
+     */
+    public static class ExifInfo {
+        public static final int ORIENTATION_NORMAL = 1;
+
+        private final Date captureDate;
+        private final int orientation;
+
+        public ExifInfo(Date captureDate, int orientation) {
+            this.captureDate = captureDate;
+            this.orientation = orientation;
+        }
+
+        // Getter方法
+        public Date getCaptureDate() {
+            return captureDate;
+        }
+
+        public String getCaptureDateAsString() {
+            return captureDate != null ? DateFormatter.format(captureDate) : null;
+        }
+
+        public int getOrientation() {
+            return orientation;
+        }
+    }
+}
@@ -5,15 +5,64 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
 
 /**
  * 文件输出管理器类，用于管理水印图片的输出目录和文件保存
+ * 本类只缓存源目录中的同名图片，缓存线程安全，可在多个工作线程之间共享
  */
 public class FileOutputManager {
     private static final Logger logger = LoggerFactory.getLogger(FileOutputManager.class);
 
     private static final String WATERMARK_DIR_SUFFIX = "_watermark";
 
+    // 水印图片文件名的默认后缀
+    public static final String WATERMARK_FILE_SUFFIX = "_watermark";
+
+    // 预览模式输出文件名的后缀，预览与正式输出放在同一目录中互不覆盖
+    public static final String PREVIEW_FILE_SUFFIX = "_preview";
+
+    private final String fileNameSuffix;
+    // 固定的输出目录，为null时输出到源图片所在目录旁的水印目录
+    private final File outputDirectory;
+    // 输出文件的扩展名（不含点），为null时与源文件相同
+    private final String extension;
+    // 各源目录中以多种图片扩展名出现的主文件名，每个目录只列出一次
+    private final ConcurrentMap<File, Set<String>> namesakes = new ConcurrentHashMap<>();
+
+    // 默认构造函数，输出文件名使用_watermark后缀
+    public FileOutputManager() {
+        this(WATERMARK_FILE_SUFFIX);
+    }
+
+    // 使用指定文件名后缀的构造函数
+    public FileOutputManager(String fileNameSuffix) {
+        this(fileNameSuffix, null, null);
+    }
+
+    // 使用指定文件名后缀、输出目录和扩展名的构造函数，用于多规格输出
+    public FileOutputManager(String fileNameSuffix, File outputDirectory, String extension) {
+        if (fileNameSuffix == null || fileNameSuffix.isEmpty()) {
+            throw new IllegalArgumentException("文件名后缀不能为空");
+        }
+        this.fileNameSuffix = fileNameSuffix;
+        this.outputDirectory = outputDirectory;
+        this.extension = extension;
+    }
+
+    public String getFileNameSuffix() {
+        return fileNameSuffix;
+    }
+
     /**
      * 创建水印图片的输出目录
      *
@@ -26,23 +75,14 @@ public class FileOutputManager {
             throw new IllegalArgumentException("原始图片路径不能为空");
         }
 
-        File originalFile = new File(originalImagePath);
-        File parentDir = originalFile.getParentFile();
-
-        // 如果原始图片在根目录，则在当前目录创建水印目录
-        if (parentDir == null) {
-            parentDir = new File(".");
-        }
-
-        String parentDirName = parentDir.getName();
-        String watermarkDirName = parentDirName + WATERMARK_DIR_SUFFIX;
-        File watermarkDir = new File(parentDir, watermarkDirName);
+        File watermarkDir = getWatermarkDirectory(new File(originalImagePath));
 
         logger.debug("创建水印目录: {}", watermarkDir.getAbsolutePath());
 
         // 创建目录（如果不存在）
         if (!watermarkDir.exists()) {
-            if (!watermarkDir.mkdirs()) {
+            // 并行处理时其他线程可能已创建同一目录，mkdirs失败后需再次确认
+            if (!watermarkDir.mkdirs() && !watermarkDir.isDirectory()) {
                 throw new FileOperationException("无法创建水印目录: " + watermarkDir.getAbsolutePath());
             }
             logger.debug("成功创建水印目录: {}", watermarkDir.getAbsolutePath());
@@ -53,6 +93,52 @@ public class FileOutputManager {
         return watermarkDir;
     }
 
+    /**
+     * 计算原始图片对应的水印图片输出文件，不创建目录也不检查目录状态
+     *
+     * @param originalImagePath 原始图片路径
+     * @return 水印图片输出文件的File对象
+     */
+    public File resolveWatermarkFile(String originalImagePath) {
+        if (originalImagePath == null || originalImagePath.isEmpty()) {
+            throw new IllegalArgumentException("原始图片路径不能为空");
+        }
+
+        File originalFile = new File(originalImagePath);
+        return new File(getWatermarkDirectory(originalFile), generateOutputFileName(originalFile));
+    }
+
+    /**
+     * 判断目录名是否为本程序生成的水印输出目录
+     *
+     * @param directoryName 目录名
+     * @return 是否为水印输出目录
+     */
+    public static boolean isWatermarkDirectoryName(String directoryName) {
+        return directoryName != null && directoryName.endsWith(WATERMARK_DIR_SUFFIX);
+    }
+
+    /**
+     * 获取原始图片对应的水印目录
+     *
+     * @param originalFile 原始图片文件
+     * @return 水印目录
+     */
+    private File getWatermarkDirectory(File originalFile) {
+        if (outputDirectory != null) {
+            return outputDirectory;
+        }
+
+        File parentDir = originalFile.getParentFile();
+
+        // 如果原始图片在根目录，则在当前目录创建水印目录
+        if (parentDir == null) {
+            parentDir = new File(".");
+        }
+
+        return new File(parentDir, parentDir.getName() + WATERMARK_DIR_SUFFIX);
+    }
+
     /**
      * 生成水印图片的输出文件路径
      *
@@ -73,9 +159,7 @@ public class FileOutputManager {
             throw new FileOperationException("输出目录验证失败: " + e.getMessage(), e);
         }
 
-        String originalFileName = originalImageFile.getName();
-        String watermarkFileName = generateWatermarkFileName(originalFileName);
-        return new File(watermarkDir, watermarkFileName);
+        return new File(watermarkDir, generateOutputFileName(originalImageFile));
     }
 
     /**
@@ -92,11 +176,98 @@ public class FileOutputManager {
         int lastDotIndex = originalFileName.lastIndexOf('.');
         if (lastDotIndex > 0) {
             String name = originalFileName.substring(0, lastDotIndex);
-            String extension = originalFileName.substring(lastDotIndex);
-            return name + "_watermark" + extension;
+            String originalExtension = originalFileName.substring(lastDotIndex);
+            return name + fileNameSuffix + (extension != null ? "." + extension : originalExtension);
         } else {
-            return originalFileName + "_watermark.jpg";
+            return originalFileName + fileNameSuffix + "." + (extension != null ? extension : "jpg");
+        }
+    }
+
+    /**
+     * 生成输出文件名，在可能与其他图片映射到同一输出文件时，在扩展名前加入由源文件得出的限定词
+     * 限定词只取决于源文件路径和源目录中的同名图片，与处理顺序和是否跳过无关，
+     * 同一图片每次运行都得到相同的输出文件名：
+     * 指定输出目录时，不同目录中的同名图片会输出到一起，总是加入源目录绝对路径的8位十六进制哈希，
+     * 哈希相同的极少数情况由BatchContext在分配输出文件时发现并报错；
+     * 指定输出格式时，同一目录中主文件名相同的图片会输出到一起，存在其他扩展名的同名图片时加入源扩展名，
+     * 扩展名与输出格式相同的图片保留原来的文件名；同名图片按本管理器首次遇到该目录时的目录内容判断，
+     * 处理过程中新出现的同名图片不会改变已确定的输出文件名
+     *
+     * @param originalFile 原始图片文件
+     * @return 输出文件名，例如photo_watermark_1a2b3c4d_png.jpg
+     */
+    private String generateOutputFileName(File originalFile) {
+        String fileName = generateWatermarkFileName(originalFile.getName());
+        StringBuilder qualifier = new StringBuilder();
+        if (outputDirectory != null) {
+            qualifier.append('_').append(hashSourceDirectory(originalFile));
+        }
+        String sourceExtension = getSourceExtension(originalFile.getName());
+        if (extension != null && !sourceExtension.isEmpty() && !sourceExtension.equalsIgnoreCase(extension)
+                && hasNamesake(originalFile)) {
+            qualifier.append('_').append(sourceExtension);
+        }
+        if (qualifier.length() == 0) {
+            return fileName;
+        }
+
+        int lastDotIndex = fileName.lastIndexOf('.');
+        return fileName.substring(0, lastDotIndex) + qualifier + fileName.substring(lastDotIndex);
+    }
+
+    /**
+     * 计算源图片所在目录绝对路径的哈希
+     */
+    private static String hashSourceDirectory(File originalFile) {
+        File parentDir = originalFile.getAbsoluteFile().toPath().normalize().toFile().getParentFile();
+        CRC32 crc = new CRC32();
+        if (parentDir != null) {
+            crc.update(parentDir.getPath().getBytes(StandardCharsets.UTF_8));
+        }
+        return String.format("%08x", crc.getValue());
+    }
+
+    /**
+     * 获取源文件的小写扩展名（不含点），没有扩展名时返回空字符串
+     */
+    private static String getSourceExtension(String fileName) {
+        int lastDotIndex = fileName.lastIndexOf('.');
+        return lastDotIndex > 0 ? fileName.substring(lastDotIndex + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * 判断源目录中是否存在主文件名相同、扩展名不同的其他图片
+     * 每个源目录只列出一次，之后同一目录的图片查询缓存的结果，不再逐个检查候选文件
+     */
+    private boolean hasNamesake(File originalFile) {
+        String fileName = originalFile.getName();
+        String baseName = fileName.substring(0, fileName.lastIndexOf('.'));
+        File parentDir = originalFile.getAbsoluteFile().getParentFile();
+        return namesakes.computeIfAbsent(parentDir, FileOutputManager::listNamesakes).contains(baseName);
+    }
+
+    /**
+     * 列出目录中以多种图片扩展名出现的主文件名
+     */
+    private static Set<String> listNamesakes(File directory) {
+        String[] fileNames = directory.list();
+        if (fileNames == null) {
+            return Collections.emptySet();
+        }
+        Map<String, String> firstExtensions = new HashMap<>();
+        Set<String> result = new HashSet<>();
+        for (String fileName : fileNames) {
+            String sourceExtension = getSourceExtension(fileName);
+            if (!ImageFileDiscovery.SUPPORTED_EXTENSIONS.contains("." + sourceExtension)) {
+                continue;
+            }
+            String baseName = fileName.substring(0, fileName.lastIndexOf('.'));
+            String previous = firstExtensions.putIfAbsent(baseName, sourceExtension);
+            if (previous != null && !previous.equals(sourceExtension)) {
+                result.add(baseName);
+            }
         }
+        return result;
     }
 
     /**
@@ -0,0 +1,543 @@
+package com.photowatermark;
+
+import com.photowatermark.jpeg.JpegEncoding;
+import com.photowatermark.jpeg.JpegScaledDecoder;
+import com.photowatermark.png.ParallelPngEncoder;
+import com.photowatermark.png.PngEncoding;
+import com.photowatermark.util.ImageBufferPool;
+import com.photowatermark.util.ImageHeader;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+/**
+ * 图片编解码器类，负责图片数据与BufferedImage之间的转换
+ * 流水线模式下解码和编码作为独立阶段执行，输出格式与Thumbnailator按扩展名选择的格式保持一致。
+ * 配置了缓冲池时，JPEG和PNG图片会解码到池中复用的缓冲区，使用完毕后应通过release归还
+ * 本类不保存可变状态（缓冲池本身线程安全），可在多个工作线程之间共享
+ */
+public class ImageCodec {
+    private static final Logger logger = LoggerFactory.getLogger(ImageCodec.class);
+
+    // 无扩展名时使用的默认输出格式
+    private static final String DEFAULT_FORMAT = "jpg";
+
+    private final ImageBufferPool bufferPool;
+
+    // 默认构造函数，不使用缓冲池
+    public ImageCodec() {
+        this(null);
+    }
+
+    // 使用缓冲池的构造函数
+    public ImageCodec(ImageBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * 将图片文件内容解码为BufferedImage，并按EXIF方向校正
+     *
+     * @param imageData 图片文件的完整字节内容
+     * @param sourceName 图片来源名称（用于日志和异常信息）
+     * @return 解码后的图片
+     * @throws IOException 数据无法解码时抛出
+     */
+    public BufferedImage decode(byte[] imageData, String sourceName) throws IOException {
+        return decode(imageData, null, sourceName);
+    }
+
+    /**
+     * 按已识别的格式将图片文件内容解码为BufferedImage，并按EXIF方向校正
+     *
+     * @param imageData 图片文件的完整字节内容
+     * @param format 文件头识别出的图片格式，为null时按内容探测
+     * @param sourceName 图片来源名称（用于日志和异常信息）
+     * @return 解码后的图片
+     * @throws IOException 数据无法解码时抛出
+     */
+    public BufferedImage decode(byte[] imageData, ImageHeader.Format format, String sourceName) throws IOException {
+        if (imageData == null) {
+            throw new IllegalArgumentException("图片数据不能为null");
+        }
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            return decode(stream, format, sourceName);
+        }
+    }
+
+    /**
+     * 将图片文件解码为BufferedImage，并按EXIF方向校正
+     *
+     * @param imageFile 图片文件
+     * @return 解码后的图片
+     * @throws IOException 文件无法读取或解码时抛出
+     */
+    public BufferedImage decode(File imageFile) throws IOException {
+        return decode(imageFile, null);
+    }
+
+    /**
+     * 按已识别的格式将图片文件解码为BufferedImage，并按EXIF方向校正
+     *
+     * @param imageFile 图片文件
+     * @param format 文件头识别出的图片格式，为null时按文件内容探测
+     * @return 解码后的图片
+     * @throws IOException 文件无法读取或解码时抛出
+     */
+    public BufferedImage decode(File imageFile, ImageHeader.Format format) throws IOException {
+        if (imageFile == null) {
+            throw new IllegalArgumentException("图片文件不能为null");
+        }
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(imageFile)) {
+            if (stream == null) {
+                throw new IOException("无法读取图片文件: " + imageFile.getPath());
+            }
+            return decode(stream, format, imageFile.getPath());
+        }
+    }
+
+    /**
+     * 按预览尺寸解码图片文件
+     *
+     * @param imageFile 图片文件
+     * @param format 文件头识别出的图片格式，为null时按文件内容探测
+     * @param maxEdge 预览图片长边的最大像素数
+     * @return 预览图片及其相对原图的缩放比例
+     * @throws IOException 文件无法读取或解码时抛出
+     * @see #decodePreview(byte[], ImageHeader.Format, String, int)
+     */
+    public ScaledImage decodePreview(File imageFile, ImageHeader.Format format, int maxEdge) throws IOException {
+        if (imageFile == null) {
+            throw new IllegalArgumentException("图片文件不能为null");
+        }
+        return decodePreview(Files.readAllBytes(imageFile.toPath()), format, imageFile.getPath(), maxEdge);
+    }
+
+    /**
+     * 按预览尺寸解码图片文件内容，并按EXIF方向校正
+     * 先按长边与预览尺寸的整数倍率缩小解码：倍率不小于8的JPEG只读取直流系数直接得到1/8图片，
+     * 其他情况使用ImageReadParam的源采样间隔跳过多余的像素；再用双线性插值缩小到不超过预览尺寸。
+     * 原图不大于预览尺寸时按原尺寸解码，不会放大
+     *
+     * @param imageData 图片文件的完整字节内容
+     * @param format 文件头识别出的图片格式，为null时按内容探测
+     * @param sourceName 图片来源名称（用于日志和异常信息）
+     * @param maxEdge 预览图片长边的最大像素数，必须大于0
+     * @return 预览图片及其相对原图的缩放比例
+     * @throws IOException 数据无法解码时抛出
+     */
+    public ScaledImage decodePreview(byte[] imageData, ImageHeader.Format format, String sourceName, int maxEdge)
+            throws IOException {
+        if (imageData == null) {
+            throw new IllegalArgumentException("图片数据不能为null");
+        }
+        if (maxEdge <= 0) {
+            throw new IllegalArgumentException("预览尺寸必须大于0: " + maxEdge);
+        }
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            Iterator<ImageReader> readers = ImageHeader.getImageReaders(format, stream);
+            if (!readers.hasNext()) {
+                throw new IOException("不支持的图片格式: " + sourceName);
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream);
+                int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int period = Math.max(1, longEdge / maxEdge);
+
+                BufferedImage image = null;
+                if (period >= JpegScaledDecoder.SCALE && isJpeg(reader)) {
+                    image = JpegScaledDecoder.decode(imageData);
+                }
+                if (image == null) {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(period, period, 0, 0);
+                    image = reader.read(0, param);
+
+                    Orientation orientation = isJpeg(reader) ? ExifUtils.getExifOrientation(reader, 0) : null;
+                    if (orientation != null && orientation != Orientation.TOP_LEFT) {
+                        image = ExifFilterUtils.getFilterForOrientation(orientation).apply(image);
+                    }
+                }
+
+                BufferedImage preview = scaleToFit(image, maxEdge);
+                double scale = (double) Math.max(preview.getWidth(), preview.getHeight()) / longEdge;
+                logger.debug("预览解码完成: {} ({}x{}，采样间隔 {})", sourceName, preview.getWidth(),
+                        preview.getHeight(), period);
+                return new ScaledImage(preview, scale);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 用双线性插值把图片缩小到长边不超过指定尺寸
+     * 缩小超过一半时先逐次减半，每次减半相当于2x2平均，避免跳过像素产生锯齿
+     *
+     * @param image 图片，不会被修改
+     * @param maxEdge 长边的最大像素数
+     * @return 缩小后的新图片，不需要缩小时返回原图片
+     */
+    public BufferedImage scaleToFit(BufferedImage image, int maxEdge) {
+        BufferedImage current = image;
+        while (Math.max(current.getWidth(), current.getHeight()) > maxEdge) {
+            int longEdge = Math.max(current.getWidth(), current.getHeight());
+            double ratio = longEdge >= maxEdge * 2 ? 0.5 : (double) maxEdge / longEdge;
+            int width = Math.max(1, (int) Math.round(current.getWidth() * ratio));
+            int height = Math.max(1, (int) Math.round(current.getHeight() * ratio));
+
+            BufferedImage scaled = new BufferedImage(width, height, current.getColorModel().hasAlpha()
+                    ? BufferedImage.TYPE_INT_ARGB
+                    : current.getType() == BufferedImage.TYPE_BYTE_GRAY
+                    ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = scaled.createGraphics();
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(current, 0, 0, width, height, null);
+            graphics.dispose();
+            current = scaled;
+        }
+        return current;
+    }
+
+    /**
+     * 归还不再使用的图片，供后续相同尺寸的图片复用
+     * 调用方必须保证归还后不再访问该图片
+     *
+     * @param image 图片
+     */
+    public void release(BufferedImage image) {
+        if (bufferPool != null) {
+            bufferPool.release(image);
+        }
+    }
+
+    /**
+     * 从图片输入流解码，JPEG和PNG解码到缓冲池中的复用缓冲区
+     *
+     * @param stream 图片输入流
+     * @param format 图片格式，已知时直接选用该格式的读取器
+     * @param sourceName 图片来源名称（用于日志和异常信息）
+     * @return 解码并按EXIF方向校正后的图片
+     * @throws IOException 数据无法解码时抛出
+     */
+    private BufferedImage decode(ImageInputStream stream, ImageHeader.Format format, String sourceName)
+            throws IOException {
+        Iterator<ImageReader> readers = ImageHeader.getImageReaders(format, stream);
+        if (!readers.hasNext()) {
+            throw new IOException("不支持的图片格式: " + sourceName);
+        }
+
+        ImageReader reader = readers.next();
+        BufferedImage destination = null;
+        try {
+            reader.setInput(stream);
+            ImageReadParam param = reader.getDefaultReadParam();
+            destination = acquireDestination(reader);
+            if (destination != null) {
+                param.setDestination(destination);
+            }
+
+            BufferedImage image = reader.read(0, param);
+            logger.debug("图片解码完成: {} ({}x{})", sourceName, image.getWidth(), image.getHeight());
+
+            // 与Thumbnailator读取文件时的行为一致，JPEG图片按EXIF方向旋转或翻转
+            Orientation orientation = isJpeg(reader) ? ExifUtils.getExifOrientation(reader, 0) : null;
+            if (orientation != null && orientation != Orientation.TOP_LEFT) {
+                BufferedImage oriented = ExifFilterUtils.getFilterForOrientation(orientation).apply(image);
+                release(image);
+                return oriented;
+            }
+            return image;
+        } catch (IOException | RuntimeException e) {
+            release(destination);
+            throw e;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * 从缓冲池获取解码目标缓冲区
+     * 只对JPEG和PNG使用复用缓冲区，这两种格式解码时会覆盖全部像素；
+     * 其他格式（例如RLE压缩的BMP）可能跳过部分像素，使用新缓冲区更安全
+     *
+     * @param reader 已设置输入的图片读取器
+     * @return 目标缓冲区，不适用时返回null
+     * @throws IOException 读取图片头失败时抛出
+     */
+    private BufferedImage acquireDestination(ImageReader reader) throws IOException {
+        if (bufferPool == null) {
+            return null;
+        }
+
+        if (!isJpeg(reader) && !"png".equalsIgnoreCase(reader.getFormatName())) {
+            return null;
+        }
+
+        Iterator<ImageTypeSpecifier> imageTypes = reader.getImageTypes(0);
+        if (imageTypes == null || !imageTypes.hasNext()) {
+            return null;
+        }
+        return bufferPool.acquire(imageTypes.next(), reader.getWidth(0), reader.getHeight(0));
+    }
+
+    private boolean isJpeg(ImageReader reader) throws IOException {
+        return "jpeg".equalsIgnoreCase(reader.getFormatName());
+    }
+
+    /**
+     * 将图片编码为指定格式的字节数据
+     *
+     * @param image 图片
+     * @param formatName 输出格式名称，例如jpg、png
+     * @return 编码后的字节数据
+     * @throws IOException 编码失败时抛出
+     */
+    public byte[] encode(BufferedImage image, String formatName) throws IOException {
+        return encode(image, formatName, -1);
+    }
+
+    /**
+     * 按指定的编码质量将图片编码为指定格式的字节数据
+     *
+     * @param image 图片
+     * @param formatName 输出格式名称，例如jpg、png
+     * @param quality 编码质量，0到1之间；小于0或格式不支持压缩质量时使用编码器的默认设置
+     * @return 编码后的字节数据
+     * @throws IOException 编码失败时抛出
+     */
+    public byte[] encode(BufferedImage image, String formatName, float quality) throws IOException {
+        return encode(image, formatName, quality, null);
+    }
+
+    /**
+     * 按JPEG编码设置将图片编码为指定格式的字节数据
+     *
+     * @param image 图片
+     * @param formatName 输出格式名称，例如jpg、png
+     * @param jpegEncoding JPEG编码设置，只在输出格式为jpg时使用，为null时使用编码器的默认设置
+     * @return 编码后的字节数据
+     * @throws IOException 编码失败时抛出
+     */
+    public byte[] encode(BufferedImage image, String formatName, JpegEncoding jpegEncoding) throws IOException {
+        return encode(image, formatName, -1, jpegEncoding);
+    }
+
+    /**
+     * 按压缩质量和JPEG编码设置将图片编码为指定格式的字节数据
+     *
+     * @param image 图片
+     * @param formatName 输出格式名称，例如jpg、png
+     * @param quality 编码质量，0到1之间，不小于0时覆盖JPEG编码设置中的质量
+     * @param jpegEncoding JPEG编码设置，只在输出格式为jpg时使用，为null时使用编码器的默认设置
+     * @return 编码后的字节数据
+     * @throws IOException 编码失败时抛出
+     */
+    public byte[] encode(BufferedImage image, String formatName, float quality, JpegEncoding jpegEncoding)
+            throws IOException {
+        return encode(image, formatName, quality, jpegEncoding, null);
+    }
+
+    /**
+     * 按压缩质量、JPEG编码设置和PNG编码设置将图片编码为指定格式的字节数据
+     * PNG编码设置不是默认设置时使用并行分块压缩的编码器，图片类型不被支持时仍使用ImageIO编码
+     *
+     * @param image 图片
+     * @param formatName 输出格式名称，例如jpg、png
+     * @param quality 编码质量，0到1之间，不小于0时覆盖JPEG编码设置中的质量
+     * @param jpegEncoding JPEG编码设置，只在输出格式为jpg时使用，为null时使用编码器的默认设置
+     * @param pngEncoding PNG编码设置，只在输出格式为png时使用，为null时使用编码器的默认设置
+     * @return 编码后的字节数据
+     * @throws IOException 编码失败时抛出
+     */
+    public byte[] encode(BufferedImage image, String formatName, float quality, JpegEncoding jpegEncoding,
+                         PngEncoding pngEncoding) throws IOException {
+        if (image == null) {
+            throw new IllegalArgumentException("图片不能为null");
+        }
+
+        BufferedImage outputImage = image;
+        if (image.getColorModel().hasAlpha() && !supportsAlpha(formatName)) {
+            outputImage = removeAlpha(image);
+        }
+
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(estimateEncodedSize(image));
+            JpegEncoding encoding = jpegEncoding != null && DEFAULT_FORMAT.equals(formatName)
+                    ? jpegEncoding.withQuality(quality) : null;
+            if (encoding != null && !encoding.isDefault()) {
+                write(outputImage, formatName, encoding, outputStream);
+            } else if (pngEncoding != null && !pngEncoding.isDefault() && "png".equals(formatName)
+                    && ParallelPngEncoder.supports(outputImage)) {
+                ParallelPngEncoder.encode(outputImage, pngEncoding, outputStream);
+            } else if (quality >= 0) {
+                write(outputImage, formatName, quality, outputStream);
+            } else if (!ImageIO.write(outputImage, formatName, outputStream)) {
+                throw new IOException("没有可用的图片编码器: " + formatName);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            if (outputImage != image) {
+                release(outputImage);
+            }
+        }
+    }
+
+    /**
+     * 使用显式的压缩质量编码
+     */
+    private void write(BufferedImage image, String formatName, float quality, ByteArrayOutputStream output)
+            throws IOException {
+        ImageWriter writer = getImageWriter(image, formatName);
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionType() == null) {
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                }
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * 按JPEG编码设置编码，色度子采样通过图片元数据中的采样因子设置
+     */
+    private void write(BufferedImage image, String formatName, JpegEncoding encoding, ByteArrayOutputStream output)
+            throws IOException {
+        ImageWriter writer = getImageWriter(image, formatName);
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            IIOMetadata metadata = encoding.configure(writer, param, image);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * 选择图片编码器，方式与ImageIO.write相同
+     */
+    private ImageWriter getImageWriter(BufferedImage image, String formatName) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(image),
+                formatName);
+        if (!writers.hasNext()) {
+            throw new IOException("没有可用的图片编码器: " + formatName);
+        }
+        return writers.next();
+    }
+
+    /**
+     * 根据文件扩展名确定输出格式名称
+     *
+     * @param file 输出文件
+     * @return 格式名称
+     */
+    public String getFormatName(File file) {
+        String fileName = file.getName();
+        int lastDotIndex = fileName.lastIndexOf('.');
+        if (lastDotIndex < 0 || lastDotIndex == fileName.length() - 1) {
+            return DEFAULT_FORMAT;
+        }
+
+        String extension = fileName.substring(lastDotIndex + 1).toLowerCase();
+        return "jpeg".equals(extension) ? DEFAULT_FORMAT : extension;
+    }
+
+    /**
+     * 判断输出格式是否支持透明通道
+     *
+     * @param formatName 格式名称
+     * @return 是否支持透明通道
+     */
+    private boolean supportsAlpha(String formatName) {
+        return "png".equals(formatName) || "gif".equals(formatName);
+    }
+
+    /**
+     * 去除图片的透明通道，用于JPEG、BMP等不支持透明度的格式
+     *
+     * @param image 带透明通道的图片
+     * @return 不带透明通道的图片
+     */
+    private BufferedImage removeAlpha(BufferedImage image) {
+        BufferedImage rgbImage = bufferPool != null
+                ? bufferPool.acquire(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB)
+                : new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgbImage.createGraphics();
+        // 复用的缓冲区内容未清空，使用Src规则直接覆盖全部像素
+        graphics.setComposite(AlphaComposite.Src);
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return rgbImage;
+    }
+
+    /**
+     * 估算编码后的数据大小，用于预分配输出缓冲区
+     *
+     * @param image 图片
+     * @return 估算的字节数
+     */
+    private int estimateEncodedSize(BufferedImage image) {
+        long pixels = (long) image.getWidth() * image.getHeight();
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(8192, pixels / 2));
+    }
+
+    /**
+     * 缩小解码的图片及其相对原图的缩放比例
+     */
+    public static final class ScaledImage {
+        private final BufferedImage image;
+        private final double scale;
+
+        public ScaledImage(BufferedImage image, double scale) {
+            this.image = image;
+            this.scale = scale;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        /**
+         * @return 预览图片长边与原图长边之比，不大于1
+         */
+        public double getScale() {
+            return scale;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.photowatermark;
+
+import com.photowatermark.util.WorkerExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片文件查找器，从命令行给出的文件和目录中查找支持的图片
+ * 目录会递归查找，各子目录由多个线程并行遍历，找到的路径通过有界队列逐个交给处理方，
+ * 不必等全部遍历完成即可开始处理。遍历时每个目录项只读取一次文件属性，
+ * 本程序生成的水印输出目录会被跳过。给出的路径统一为绝对路径，重复给出或同时在目录中找到的图片只给出一次；
+ * 跟随指向目录的符号链接，按真实路径记录已遍历的目录，链接形成的循环和重复到达的目录只遍历一次。
+ * 每次调用iterator都会重新遍历一次。
+ * 直接给出但不存在、无法读取或格式不支持的路径只记录日志，需要提示用户时由调用方通过RejectionListener接收
+ */
+public class ImageFileDiscovery implements Iterable<String>, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ImageFileDiscovery.class);
+
+    // 支持的图片扩展名
+    static final List<String> SUPPORTED_EXTENSIONS = Collections.unmodifiableList(Arrays.asList(
+        ".jpg", ".jpeg", ".png", ".bmp", ".gif", ".tif", ".tiff"
+    ));
+
+    // 默认的目录遍历线程数
+    private static final int DEFAULT_WALKER_THREADS = 4;
+
+    // 已找到但尚未被取走的路径数上限，处理跟不上时遍历暂停
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // 放入队列时检查是否已关闭的间隔
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    // 表示遍历结束的标记路径，按引用比较
+    private static final Path END = Paths.get("");
+
+    private final List<String> paths;
+    private final int walkerThreads;
+    private final Set<Walk> activeWalks = ConcurrentHashMap.newKeySet();
+    private final AtomicLong discoveredCount = new AtomicLong();
+    private volatile RejectionListener rejectionListener;
+
+    /**
+     * 接收被忽略的命令行路径，在遍历线程上调用
+     */
+    public interface RejectionListener {
+        /**
+         * @param path 命令行给出的路径
+         * @param reason 忽略的原因
+         */
+        void rejected(String path, String reason);
+    }
+
+    // 默认构造函数，使用默认的遍历线程数
+    public ImageFileDiscovery(List<String> paths) {
+        this(paths, DEFAULT_WALKER_THREADS);
+    }
+
+    public ImageFileDiscovery(List<String> paths, int walkerThreads) {
+        this.paths = new ArrayList<>(paths);
+        this.walkerThreads = Math.max(1, walkerThreads);
+    }
+
+    /**
+     * 设置接收被忽略的命令行路径的监听器
+     *
+     * @param rejectionListener 监听器，为null时只记录日志
+     */
+    public void setRejectionListener(RejectionListener rejectionListener) {
+        this.rejectionListener = rejectionListener;
+    }
+
+    /**
+     * 判断文件名是否为支持的图片格式
+     *
+     * @param fileName 文件名
+     * @return 是否为支持的图片格式
+     */
+    public static boolean isSupportedImageName(String fileName) {
+        if (fileName == null) {
+            return false;
+        }
+
+        String lowerCaseName = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : SUPPORTED_EXTENSIONS) {
+            if (lowerCaseName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 开始一次新的遍历，返回按找到顺序给出图片路径的迭代器
+     * 迭代器只能由一个线程使用
+     *
+     * @return 图片路径迭代器
+     */
+    @Override
+    public Iterator<String> iterator() {
+        Walk walk = new Walk();
+        activeWalks.add(walk);
+        walk.start();
+        return walk;
+    }
+
+    /**
+     * 获取累计找到的图片数
+     *
+     * @return 图片数
+     */
+    public long getDiscoveredCount() {
+        return discoveredCount.get();
+    }
+
+    /**
+     * 停止所有尚未结束的遍历
+     */
+    @Override
+    public void close() {
+        for (Walk walk : activeWalks) {
+            walk.close();
+        }
+    }
+
+    /**
+     * 一次遍历，由遍历线程放入路径，迭代器一方取出
+     */
+    private final class Walk implements Iterator<String> {
+        private final BlockingQueue<Path> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        // 尚未遍历完成的目录数（包括处理命令行参数的初始任务）
+        private final AtomicInteger pendingDirectories = new AtomicInteger();
+        private final ExecutorService executor = WorkerExecutors.newPlatformExecutor("watermark-discovery", walkerThreads);
+        // 命令行直接给出的图片文件，绝对路径
+        private final Set<Path> explicitFiles = ConcurrentHashMap.newKeySet();
+        // 已提交遍历的目录的真实路径
+        private final Set<Path> visitedDirectories = ConcurrentHashMap.newKeySet();
+        private volatile boolean closed;
+        private Path next;
+        private boolean finished;
+
+        void start() {
+            pendingDirectories.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    // 先给出直接指定的文件，遍历目录时跳过它们，不会因遍历线程先找到而重复
+                    List<Path> directories = new ArrayList<>();
+                    for (String path : paths) {
+                        if (closed) {
+                            break;
+                        }
+                        visitArgument(path, directories);
+                    }
+                    for (Path directory : directories) {
+                        submitDirectory(directory);
+                    }
+                } finally {
+                    finishDirectory();
+                }
+            });
+        }
+
+        /**
+         * 处理命令行给出的路径，目录留待遍历，文件直接检查格式
+         */
+        private void visitArgument(String path, List<Path> directories) {
+            Path file = Paths.get(path).toAbsolutePath().normalize();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                logger.warn("文件不存在: {}", path);
+                reject(path, "文件不存在");
+                return;
+            } catch (IOException e) {
+                logger.warn("无法读取文件属性: {}", path, e);
+                reject(path, "无法读取文件");
+                return;
+            }
+
+            if (attributes.isDirectory()) {
+                directories.add(file);
+            } else if (isSupportedImageName(file.getFileName().toString())) {
+                if (explicitFiles.add(file)) {
+                    emit(file);
+                }
+            } else {
+                logger.warn("不支持的文件格式: {}", path);
+                reject(path, "不支持的文件格式");
+            }
+        }
+
+        private void reject(String path, String reason) {
+            RejectionListener listener = rejectionListener;
+            if (listener != null) {
+                listener.rejected(path, reason);
+            }
+        }
+
+        /**
+         * 提交目录的遍历任务，真实路径已遍历过的目录（符号链接循环或重复给出）跳过
+         */
+        private void submitDirectory(Path directory) {
+            Path realDirectory;
+            try {
+                realDirectory = directory.toRealPath();
+            } catch (IOException e) {
+                logger.warn("无法访问目录: {} ({})", directory, e.getMessage());
+                return;
+            }
+            if (!visitedDirectories.add(realDirectory)) {
+                logger.debug("目录已遍历过，跳过: {} -> {}", directory, realDirectory);
+                return;
+            }
+
+            pendingDirectories.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        walkDirectory(directory);
+                    } finally {
+                        finishDirectory();
+                    }
+                });
+            } catch (RuntimeException e) {
+                // 遍历已关闭，执行器不再接受任务
+                finishDirectory();
+            }
+        }
+
+        /**
+         * 遍历单层目录，子目录作为新任务提交，使各子目录可以并行遍历
+         * 指向目录的符号链接同样作为子目录提交，指向文件的符号链接按目标文件处理
+         */
+        private void walkDirectory(Path directory) {
+            try {
+                // 只遍历一层，跟随符号链接不会陷入循环，链接目录的循环由submitDirectory按真实路径检测
+                Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if (closed) {
+                            return FileVisitResult.TERMINATE;
+                        }
+
+                        // 符号链接按链接目标的属性给出，失效的链接既不是目录也不是普通文件
+                        String fileName = file.getFileName().toString();
+                        if (attributes.isDirectory()) {
+                            if (!FileOutputManager.isWatermarkDirectoryName(fileName)) {
+                                submitDirectory(file);
+                            }
+                        } else if (isSupportedImageName(fileName) && attributes.isRegularFile()
+                                && !explicitFiles.contains(file)) {
+                            emit(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        logger.warn("无法访问: {} ({})", file, e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                logger.warn("遍历目录失败: {}", directory, e);
+            }
+        }
+
+        private void finishDirectory() {
+            if (pendingDirectories.decrementAndGet() == 0) {
+                executor.shutdown();
+                put(END);
+            }
+        }
+
+        private void emit(Path file) {
+            if (put(file)) {
+                discoveredCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * 放入路径，队列满时等待，遍历关闭后放弃
+         *
+         * @return 是否放入成功
+         */
+        private boolean put(Path file) {
+            try {
+                while (!closed) {
+                    if (queue.offer(file, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !finished) {
+                try {
+                    Path taken = queue.take();
+                    if (taken == END) {
+                        finished = true;
+                        activeWalks.remove(this);
+                    } else {
+                        next = taken;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    finished = true;
+                    close();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String path = next.toString();
+            next = null;
+            return path;
+        }
+
+        void close() {
+            closed = true;
+            executor.shutdownNow();
+            activeWalks.remove(this);
+            // 唤醒可能正在等待的迭代方
+            queue.clear();
+            queue.offer(END);
+        }
+    }
+}
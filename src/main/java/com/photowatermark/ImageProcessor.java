@@ -2,29 +2,65 @@ package com.photowatermark;
 
 import com.photowatermark.exception.ExifReadException;
 import com.photowatermark.exception.FileOperationException;
+import com.photowatermark.pipeline.ImagePipeline;
+import com.photowatermark.sink.FileSystemSink;
+import com.photowatermark.sink.OutputSink;
+import com.photowatermark.tile.TiledWatermarker;
+import com.photowatermark.util.BatchJournal;
+import com.photowatermark.util.ImageBufferPool;
+import com.photowatermark.util.ImageHeader;
+import com.photowatermark.util.MemoryAdmissionController;
 import com.photowatermark.util.MemoryUtils;
+import com.photowatermark.util.OutputDurability;
+import com.photowatermark.util.WorkerExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 图片处理器类，用于处理图片水印添加的完整流程
+ * 内部组件均为无状态对象，可在并行批量处理的工作线程之间共享
  */
 public class ImageProcessor {
     private static final Logger logger = LoggerFactory.getLogger(ImageProcessor.class);
 
-    private ExifReader exifReader;
-    private WatermarkProcessor watermarkProcessor;
-    private FileOutputManager fileOutputManager;
+    // 估算水印图层内存时使用的文本长度（yyyy-MM-dd HH:mm:ss）
+    private static final int ESTIMATED_WATERMARK_TEXT_LENGTH = 19;
+
+    private final ExifReader exifReader;
+    private final WatermarkProcessor watermarkProcessor;
+    private final FileOutputManager fileOutputManager;
+    private final FileOutputManager previewOutputManager;
+    private final ImageCodec imageCodec;
+    private final ImageBufferPool bufferPool;
+    // 缓冲池的默认保留上限，各批次从准入预算中预留这部分内存
+    private final long bufferPoolBytes;
+    private final MemoryAdmissionController defaultAdmissionController;
 
     public ImageProcessor() {
+        this.bufferPool = new ImageBufferPool();
+        this.bufferPoolBytes = bufferPool.getMaxRetainedBytes();
+        this.imageCodec = new ImageCodec(bufferPool);
         this.exifReader = new ExifReader();
-        this.watermarkProcessor = new WatermarkProcessor();
+        this.watermarkProcessor = new WatermarkProcessor(imageCodec);
         this.fileOutputManager = new FileOutputManager();
+        this.previewOutputManager = new FileOutputManager(FileOutputManager.PREVIEW_FILE_SUFFIX);
+        // 缓冲池保留的缓冲区从准入预算中预留，不与正在处理的图片重复使用同一部分堆内存
+        this.defaultAdmissionController = new MemoryAdmissionController(0, bufferPoolBytes);
 
         // 记录初始化时的内存使用情况
         MemoryUtils.logMemoryUsage();
@@ -44,6 +80,23 @@ public class ImageProcessor {
      */
     public void processImage(String imagePath, int fontSize, String color, String position, ConfigurationManager config)
             throws ExifReadException, FileOperationException, IOException {
+        processImage(imagePath, WatermarkRenderPlan.compile(fontSize, color, position),
+                new BatchContext(defaultAdmissionController));
+    }
+
+    /**
+     * 在内存准入控制下处理单个图片文件
+     * 处理前根据图片头信息估算内存占用并申请额度，额度不足时阻塞等待
+     *
+     * @param imagePath 图片路径
+     * @param plan 水印渲染计划
+     * @param context 批次上下文
+     * @throws ExifReadException EXIF读取异常
+     * @throws FileOperationException 文件操作异常
+     * @throws IOException IO异常
+     */
+    private void processImage(String imagePath, WatermarkRenderPlan plan, BatchContext context)
+            throws ExifReadException, FileOperationException, IOException {
         if (imagePath == null || imagePath.isEmpty()) {
             throw new IllegalArgumentException("图片路径不能为空");
         }
@@ -53,12 +106,53 @@ public class ImageProcessor {
             throw new FileOperationException("图片文件不存在: " + imagePath);
         }
 
-        logger.info("开始处理图片: {}", imagePath);
+        // 读取文件头确认实际格式，非图片文件在读取全部内容之前即被拒绝
+        ImageHeader header = ImageHeader.read(originalImageFile);
+        header.checkSupported(imagePath);
+
+        // 申请内存额度，分块处理的超大图片只按行带大小计算，预览只按预览尺寸计算
+        long overlayBytes = MemoryAdmissionController.estimateOverlayBytes(plan.getFontSize(),
+                ESTIMATED_WATERMARK_TEXT_LENGTH);
+        boolean tiled = watermarkProcessor.isTiled(originalImageFile, header.getFormat(),
+                imageCodec.getFormatName(originalImageFile), plan);
+        long footprint = !context.getRenditions().isEmpty()
+                ? estimateRenditionFootprint(originalImageFile, header.getFormat(), context, overlayBytes)
+                : plan.isPreview()
+                ? MemoryAdmissionController.estimatePreviewFootprint(originalImageFile, plan.getPreviewMaxEdge(),
+                        overlayBytes)
+                : tiled ? TiledWatermarker.estimateFootprint(overlayBytes)
+                : context.getAdmissionController().estimateFootprint(originalImageFile, header.getFormat(), overlayBytes);
+        MemoryAdmissionController.Permit permit;
+        try {
+            permit = context.getAdmissionController().acquire(footprint);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待内存额度时被中断: " + imagePath);
+        }
 
-        // 检查内存是否充足
-        if (!MemoryUtils.isMemorySufficient(50 * 1024 * 1024)) { // 假设需要50MB
-            logger.warn("内存可能不足，当前处理: {}", imagePath);
+        try {
+            processAdmittedImage(originalImageFile, header.getFormat(), imagePath, plan, context);
+        } finally {
+            permit.close();
         }
+    }
+
+    /**
+     * 处理已获得内存额度的图片
+     *
+     * @param originalImageFile 原始图片文件
+     * @param format 文件头识别出的图片格式
+     * @param imagePath 图片路径
+     * @param plan 水印渲染计划
+     * @param context 批次上下文
+     * @throws ExifReadException EXIF读取异常
+     * @throws FileOperationException 文件操作异常
+     * @throws IOException IO异常
+     */
+    private void processAdmittedImage(File originalImageFile, ImageHeader.Format format, String imagePath,
+                                      WatermarkRenderPlan plan, BatchContext context)
+            throws ExifReadException, FileOperationException, IOException {
+        logger.info("开始处理图片: {}", imagePath);
 
         // 1. 读取EXIF信息获取拍摄时间
         String captureDate = exifReader.readCaptureDateAsString(originalImageFile);
@@ -67,14 +161,22 @@ public class ImageProcessor {
             captureDate = "No EXIF Date";
         }
 
-        // 2. 创建水印目录
-        File watermarkDir = fileOutputManager.createWatermarkDirectory(imagePath);
+        if (!context.getRenditions().isEmpty()) {
+            processRenditions(originalImageFile, format, imagePath, captureDate, plan, context);
+            return;
+        }
 
-        // 3. 生成输出文件路径
-        File outputFile = fileOutputManager.generateWatermarkFilePath(watermarkDir, originalImageFile);
+        // 2. 生成输出文件路径，输出目标写出文件时先创建水印目录
+        File outputFile = context.prepareOutputFile(getOutputManager(plan), imagePath);
 
-        // 4. 添加水印
-        watermarkProcessor.addTextWatermark(originalImageFile, captureDate, fontSize, color, position, outputFile);
+        // 3. 添加水印（虚拟线程模式下限制同时进行的CPU密集工作数量）
+        context.acquireCpu(imagePath);
+        try {
+            watermarkProcessor.addTextWatermark(originalImageFile, format, captureDate, plan, outputFile,
+                    context.getOutputSink());
+        } finally {
+            context.releaseCpu();
+        }
 
         logger.info("图片处理完成: {} -> {}", imagePath, outputFile.getPath());
 
@@ -82,8 +184,73 @@ public class ImageProcessor {
         MemoryUtils.logMemoryUsage();
     }
 
+    /**
+     * 按批次配置的多个输出规格处理图片，源图片只解码一次
+     *
+     * @param originalImageFile 原始图片文件
+     * @param format 文件头识别出的图片格式
+     * @param imagePath 图片路径
+     * @param captureDate 水印文本
+     * @param plan 水印渲染计划
+     * @param context 批次上下文
+     * @throws FileOperationException 创建输出目录失败时抛出
+     * @throws IOException IO异常
+     */
+    private void processRenditions(File originalImageFile, ImageHeader.Format format, String imagePath,
+                                   String captureDate, WatermarkRenderPlan plan, BatchContext context)
+            throws FileOperationException, IOException {
+        List<Rendition> renditions = context.getRenditions();
+        List<File> outputFiles = new ArrayList<>(renditions.size());
+        for (Rendition rendition : renditions) {
+            outputFiles.add(context.prepareOutputFile(rendition.getOutputManager(), imagePath));
+        }
+
+        context.acquireCpu(imagePath);
+        try {
+            watermarkProcessor.addTextWatermark(originalImageFile, format, captureDate, plan, renditions, outputFiles,
+                    context.getRenditionExecutor(), context.getOutputSink());
+        } finally {
+            context.releaseCpu();
+        }
+
+        logger.info("图片处理完成: {} -> {} 个输出规格", imagePath, renditions.size());
+    }
+
+    /**
+     * 估算按多个输出规格处理一张图片所需的内存
+     * 解码部分与单个输出相同（没有原尺寸规格时按最大的规格估算），每个缩小的规格另需一份图片和编码缓冲区
+     */
+    private long estimateRenditionFootprint(File imageFile, ImageHeader.Format format, BatchContext context,
+                                            long overlayBytes) {
+        boolean fullSize = false;
+        int largestEdge = 0;
+        long scaledBytes = 0;
+        for (Rendition rendition : context.getRenditions()) {
+            fullSize |= rendition.isFullSize();
+            largestEdge = Math.max(largestEdge, rendition.getMaxEdge());
+            scaledBytes += (long) rendition.getMaxEdge() * rendition.getMaxEdge() * 5;
+        }
+        long decodeBytes = fullSize
+                ? context.getAdmissionController().estimateFootprint(imageFile, format, overlayBytes)
+                : MemoryAdmissionController.estimatePreviewFootprint(imageFile, largestEdge, overlayBytes);
+        return decodeBytes + scaledBytes;
+    }
+
+    /**
+     * 获取渲染计划对应的输出管理器，预览模式的输出文件名使用_preview后缀
+     *
+     * @param plan 水印渲染计划
+     * @return 输出管理器
+     */
+    private FileOutputManager getOutputManager(WatermarkRenderPlan plan) {
+        return plan.isPreview() ? previewOutputManager : fileOutputManager;
+    }
+
     /**
      * 批量处理图片文件
+     * 配置了流水线时按阶段流水线处理；否则当配置的线程数大于1时使用有界工作线程池并行处理。
+     * 启用虚拟线程且运行在Java 21及以上版本时，每个图片使用一个虚拟线程，水印合成等CPU密集工作限制为处理器核心数。
+     * 各种方式的结果顺序都与输入顺序保持一致
      *
      * @param imagePaths 图片路径列表
      * @param fontSize 字体大小
@@ -93,44 +260,336 @@ public class ImageProcessor {
      * @return 处理结果列表
      */
     public List<ProcessResult> processImages(List<String> imagePaths, int fontSize, String color, String position, ConfigurationManager config) {
-        List<ProcessResult> results = new ArrayList<>();
-
         if (imagePaths == null || imagePaths.isEmpty()) {
             logger.warn("图片路径列表为空");
-            return results;
+            return new ArrayList<>();
         }
 
-        logger.info("开始批量处理 {} 个图片文件", imagePaths.size());
+        ProcessResult[] results = new ProcessResult[imagePaths.size()];
+        runBatch(imagePaths.iterator(), imagePaths.size(), fontSize, color, position, config,
+                (index, result) -> results[index] = result);
+
+        List<ProcessResult> orderedResults = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++) {
+            ProcessResult result = results[i];
+            orderedResults.add(result != null ? result : new ProcessResult(imagePaths.get(i), false, "处理被中断"));
+        }
+        return orderedResults;
+    }
+
+    /**
+     * 以流式方式批量处理图片，返回按完成顺序发布处理结果的发布者
+     * 每次订阅都会重新遍历图片路径来源并处理一遍。只有订阅方请求了结果，才会从来源取出新的图片开始处理，
+     * 因此已开始处理但尚未发布的图片数不会超过未满足的请求数，处理超大批量时也无需在内存中保存全部结果
+     *
+     * @param imagePaths 图片路径来源，可以是按需生成路径的惰性集合
+     * @param fontSize 字体大小
+     * @param color 字体颜色
+     * @param position 水印位置
+     * @param config 配置管理器
+     * @return 处理结果发布者
+     */
+    public Flow.Publisher<ProcessResult> publishResults(Iterable<String> imagePaths, int fontSize, String color,
+                                                        String position, ConfigurationManager config) {
+        if (imagePaths == null) {
+            throw new IllegalArgumentException("图片路径来源不能为null");
+        }
+
+        return new BatchResultPublisher(imagePaths,
+                (source, sink) -> runBatch(source, -1, fontSize, color, position, config, sink));
+    }
+
+    /**
+     * 执行一个批次的处理，按配置选择流水线、并行或顺序方式
+     *
+     * @param source 图片路径来源
+     * @param expectedCount 图片数量，未知时为-1
+     * @param fontSize 字体大小
+     * @param color 字体颜色
+     * @param position 水印位置
+     * @param config 配置管理器
+     * @param sink 结果接收方，按完成顺序接收结果
+     */
+    private void runBatch(Iterator<String> source, int expectedCount, int fontSize, String color, String position,
+                          ConfigurationManager config, ResultSink sink) {
+        int threadCount = config != null ? Math.max(1, config.getThreadCount()) : 1;
+        if (expectedCount >= 0) {
+            threadCount = Math.min(threadCount, Math.max(1, expectedCount));
+            logger.info("开始批量处理 {} 个图片文件，线程数: {}", expectedCount, threadCount);
+        } else {
+            logger.info("开始流式批量处理图片文件，线程数: {}", threadCount);
+        }
 
         // 记录处理前的内存使用情况
         MemoryUtils.logMemoryUsage();
 
-        for (String imagePath : imagePaths) {
-            try {
-                processImage(imagePath, fontSize, color, position, config);
-                results.add(new ProcessResult(imagePath, true, "处理成功"));
-            } catch (Exception e) {
-                logger.error("处理图片失败: {}", imagePath, e);
-                results.add(new ProcessResult(imagePath, false, e.getMessage()));
+        // 水印设置在批次内不变，编译一次供所有图片共用
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(fontSize, color, position,
+                config != null ? config.getRenderingBackend() : null)
+                .withLosslessJpeg(config != null && config.isLosslessJpeg())
+                .withTileThreshold(config != null ? config.getTileThresholdPixels()
+                        : WatermarkRenderPlan.DEFAULT_TILE_THRESHOLD_PIXELS)
+                .withPreview(config != null ? config.getPreviewMaxEdge() : 0)
+                .withJpegEncoding(config != null ? config.getJpegEncoding() : null)
+                .withMetadataPassthrough(config != null && config.isMetadataPassthrough())
+                .withPngEncoding(config != null ? config.getPngEncoding() : null);
+        logger.debug("水印渲染计划: {}", plan);
+
+        MemoryAdmissionController admissionController = config != null && config.getMemoryBudgetBytes() > 0
+                ? new MemoryAdmissionController(config.getMemoryBudgetBytes(), bufferPoolBytes)
+                : defaultAdmissionController;
+        // 预算较小时预留部分不足缓冲池的默认上限，缓冲池按实际预留的大小保留
+        bufferPool.setMaxRetainedBytes(admissionController.getReservedBytes());
+        boolean virtualThreads = config != null
+                && WorkerExecutors.isVirtualThreadModeActive(config.isVirtualThreads());
+        BatchContext context = new BatchContext(admissionController,
+                virtualThreads ? new Semaphore(WorkerExecutors.getCpuParallelism()) : null);
+        // 调用方提供的输出目标由调用方关闭，批次结束时只刷出；否则按持久化方式写出文件
+        OutputSink callerSink = config != null ? config.getOutputSink() : null;
+        OutputDurability durability = config != null ? config.getOutputDurability() : OutputDurability.NONE;
+        FileSystemSink fileSink = callerSink == null ? new FileSystemSink(durability) : null;
+        context.setOutputSink(callerSink != null ? callerSink : fileSink);
+        if (config != null && config.getJournalPath() != null && !context.getOutputSink().writesFiles()) {
+            // 归档等目标关闭时才生成输出，中断后恢复会跳过已记录完成的图片，新的输出中缺少它们
+            throw new IllegalArgumentException("批处理日志只能用于写出独立文件的输出目标");
+        }
+        context.setJournal(openJournal(config));
+        boolean groupedDurability = durability.getMode() == OutputDurability.Mode.INTERVAL
+                || durability.getMode() == OutputDurability.Mode.BATCH;
+        if (context.getJournal() != null && fileSink != null && groupedDurability) {
+            // 输出按组刷盘，每组刷盘成功后再写入这组输出对应的完成记录，日志写入不会提前触发输出刷盘
+            context.getJournal().setDeferCompletions(true);
+            fileSink.setFlushListener(context.getJournal());
+        } else if (context.getJournal() != null && durability.getMode() != OutputDurability.Mode.NONE) {
+            // 日志中的完成记录落盘前先刷出对应的输出
+            context.getJournal().setOutputs(context.getOutputSink());
+        }
+        List<Rendition> renditions = config != null ? config.getRenditions() : Collections.emptyList();
+        context.setRenditions(renditions);
+        if (renditions.size() > 1) {
+            context.setRenditionExecutor(WorkerExecutors.newPlatformExecutor("watermark-encode",
+                    WorkerExecutors.getCpuParallelism()));
+        }
+        if (config != null && config.isIncremental() && !context.getOutputSink().writesFiles()) {
+            logger.warn("增量模式按已有的输出文件判断是否需要重新生成，输出目标不写出文件时不启用");
+        } else if (config != null && config.isIncremental()) {
+            List<FileOutputManager> outputManagers = new ArrayList<>();
+            for (Rendition rendition : renditions) {
+                outputManagers.add(rendition.getOutputManager());
             }
+            context.setIncrementalIndex(new IncrementalIndex(
+                    renditions.isEmpty() ? Collections.singletonList(getOutputManager(plan)) : outputManagers,
+                    config.getSettingsFingerprint(fontSize, color, position)));
+        }
+
+        AtomicInteger successCount = new AtomicInteger();
+        AtomicInteger failureCount = new AtomicInteger();
+        AtomicInteger skippedCount = new AtomicInteger();
+        ResultSink countingSink = (index, result) -> {
+            (result.isSkipped() ? skippedCount : result.isSuccess() ? successCount : failureCount).incrementAndGet();
+            context.recordResult(result);
+            sink.accept(index, result);
+        };
 
-            // 每处理10个文件建议一次垃圾回收
-            if (results.size() % 10 == 0) {
-                MemoryUtils.suggestGarbageCollection();
+        try {
+            if (config != null && config.getPipelineConfig() != null && !renditions.isEmpty()) {
+                logger.warn("多规格输出不支持流水线模式，改为逐图片处理，线程数: {}", threadCount);
+            }
+            if (config != null && config.getPipelineConfig() != null && renditions.isEmpty()) {
+                ImagePipeline pipeline = new ImagePipeline(exifReader, watermarkProcessor, getOutputManager(plan),
+                        imageCodec, context, config.getPipelineConfig());
+                pipeline.process(source, plan, countingSink);
+            } else if (threadCount > 1) {
+                processImagesInParallel(source, plan, threadCount, virtualThreads, context, countingSink);
+            } else {
+                for (int index = 0; source.hasNext(); index++) {
+                    countingSink.accept(index, processSingleImage(source.next(), plan, context));
+                }
+            }
+        } finally {
+            if (context.getRenditionExecutor() != null) {
+                context.getRenditionExecutor().shutdown();
+            }
+            // 输出文件先于批处理日志和增量处理索引落盘
+            boolean outputsFlushed = closeOutputSink(context.getOutputSink(), callerSink == null);
+            if (!outputsFlushed && context.getJournal() != null) {
+                int discarded = context.getJournal().discardDeferredCompletions();
+                if (discarded > 0) {
+                    logger.warn("输出刷盘失败，{} 个图片的完成记录不写入批处理日志，恢复时将重新处理", discarded);
+                }
+            }
+            closeJournal(context.getJournal());
+            if (context.getIncrementalIndex() != null && outputsFlushed) {
+                context.getIncrementalIndex().save();
+            } else if (context.getIncrementalIndex() != null) {
+                // 索引中可能有刷盘或重命名失败的输出的新记录，保存后下次会跳过仍是旧内容的输出
+                logger.warn("输出刷盘失败，不保存本批次的增量处理索引，下次将重新检查这些图片");
             }
+            // 缓冲区只在批次内复用，批次结束后交给垃圾回收
+            bufferPool.clear();
         }
 
-        logger.info("批量处理完成，成功: {}，失败: {}",
-            results.stream().filter(r -> r.isSuccess()).count(),
-            results.stream().filter(r -> !r.isSuccess()).count());
+        logger.info("批量处理完成，成功: {}，失败: {}，跳过: {}",
+                successCount.get(), failureCount.get(), skippedCount.get());
 
         // 记录处理后的内存使用情况
         MemoryUtils.logMemoryUsage();
+        bufferPool.logStatistics();
+        watermarkProcessor.getOverlayCache().logStatistics();
+    }
 
-        // 最后建议一次垃圾回收
-        MemoryUtils.suggestGarbageCollection();
+    /**
+     * 按配置打开批处理日志
+     * 恢复模式下读入日志中已完成的图片并继续追加，否则新建日志
+     *
+     * @param config 配置管理器
+     * @return 批处理日志，未配置时返回null
+     * @throws UncheckedIOException 日志文件无法打开时抛出
+     */
+    private BatchJournal openJournal(ConfigurationManager config) {
+        if (config == null || config.getJournalPath() == null) {
+            return null;
+        }
 
-        return results;
+        Path journalFile = Paths.get(config.getJournalPath());
+        try {
+            return config.isResume() ? BatchJournal.resume(journalFile) : BatchJournal.create(journalFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法打开批处理日志: " + journalFile, e);
+        }
+    }
+
+    /**
+     * 关闭或刷出输出目标
+     *
+     * @return 是否成功刷出全部输出
+     */
+    private boolean closeOutputSink(OutputSink outputSink, boolean owned) {
+        try {
+            if (owned) {
+                outputSink.close();
+            } else {
+                outputSink.flush();
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("刷出输出失败", e);
+            return false;
+        }
+    }
+
+    private void closeJournal(BatchJournal journal) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.error("关闭批处理日志失败", e);
+        }
+    }
+
+    /**
+     * 使用有界工作线程池并行处理图片
+     * 同时提交的任务数限制为线程数的两倍，避免超大批量时任务队列无限增长；
+     * 每个任务还需获得内存额度才能开始，因此实际并行宽度不会超过内存预算允许的范围。
+     * 来源读取出错时，已提交的图片处理完后抛出该异常
+     *
+     * @param source 图片路径来源
+     * @param plan 水印渲染计划
+     * @param threadCount 工作线程数，虚拟线程模式下为同时处理的图片数
+     * @param virtualThreads 是否使用虚拟线程
+     * @param context 批次上下文
+     * @param sink 结果接收方
+     */
+    private void processImagesInParallel(Iterator<String> source, WatermarkRenderPlan plan, int threadCount,
+                                         boolean virtualThreads, BatchContext context, ResultSink sink) {
+        // 虚拟线程模式下每个任务都有独立线程，无需额外的排队余量
+        int maxInFlight = virtualThreads ? threadCount : threadCount * 2;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger completed = new AtomicInteger();
+        ExecutorService executor = WorkerExecutors.newIoExecutor("watermark-worker", threadCount, virtualThreads);
+
+        RuntimeException sourceError = null;
+        try {
+            for (int i = 0; ; i++) {
+                inFlight.acquire();
+                String nextPath;
+                try {
+                    nextPath = source.hasNext() ? source.next() : null;
+                } catch (RuntimeException e) {
+                    logger.error("读取图片路径来源失败，停止提交新的图片", e);
+                    sourceError = e;
+                    nextPath = null;
+                }
+                if (nextPath == null) {
+                    inFlight.release();
+                    break;
+                }
+
+                final int index = i;
+                final String imagePath = nextPath;
+                executor.execute(() -> {
+                    try {
+                        sink.accept(index, processSingleImage(imagePath, plan, context));
+                        completed.incrementAndGet();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            // 取回全部许可即表示所有任务都已结束
+            inFlight.acquire(maxInFlight);
+        } catch (InterruptedException e) {
+            logger.warn("批量处理被中断，已完成: {}", completed.get());
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+
+        // 已提交的图片处理完后再报告来源异常
+        if (sourceError != null) {
+            throw sourceError;
+        }
+    }
+
+    /**
+     * 处理单个图片并将结果包装为处理结果对象，不向外抛出异常
+     *
+     * @param imagePath 图片路径
+     * @param plan 水印渲染计划
+     * @param context 批次上下文
+     * @return 处理结果
+     */
+    private ProcessResult processSingleImage(String imagePath, WatermarkRenderPlan plan, BatchContext context) {
+        String skipReason = context.getSkipReason(imagePath);
+        if (skipReason != null) {
+            logger.debug("{}: {}", skipReason, imagePath);
+            return ProcessResult.skipped(imagePath, skipReason);
+        }
+
+        try {
+            processImage(imagePath, plan, context);
+            return new ProcessResult(imagePath, true, "处理成功");
+        } catch (Exception e) {
+            logger.error("处理图片失败: {}", imagePath, e);
+            return new ProcessResult(imagePath, false, e.getMessage());
+        }
+    }
+
+    /**
+     * 批量处理结果的接收方
+     * 结果按完成顺序传入，并行处理时可能被多个工作线程同时调用
+     */
+    public interface ResultSink {
+        /**
+         * 接收一个处理结果
+         *
+         * @param index 图片在来源中的序号，从0开始
+         * @param result 处理结果
+         */
+        void accept(int index, ProcessResult result);
     }
 
     /**
@@ -140,11 +599,28 @@ public class ImageProcessor {
         private String imagePath;
         private boolean success;
         private String message;
+        private boolean skipped;
 
         public ProcessResult(String imagePath, boolean success, String message) {
+            this(imagePath, success, message, false);
+        }
+
+        public ProcessResult(String imagePath, boolean success, String message, boolean skipped) {
             this.imagePath = imagePath;
             this.success = success;
             this.message = message;
+            this.skipped = skipped;
+        }
+
+        /**
+         * 创建跳过处理的结果，跳过的图片视为成功
+         *
+         * @param imagePath 图片路径
+         * @param message 跳过原因
+         * @return 处理结果
+         */
+        public static ProcessResult skipped(String imagePath, String message) {
+            return new ProcessResult(imagePath, true, message, true);
         }
 
         // Getter方法
@@ -159,5 +635,9 @@ public class ImageProcessor {
         public String getMessage() {
             return message;
         }
+
+        public boolean isSkipped() {
+            return skipped;
+        }
     }
 }
\ No newline at end of file
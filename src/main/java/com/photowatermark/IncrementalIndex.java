@@ -0,0 +1,206 @@
+package com.photowatermark;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 增量处理索引，记录每个水印图片生成时的源文件大小、修改时间和设置指纹
+ * 索引按输出目录分别保存在水印目录下的索引文件中，首次访问某个目录时读入，以实际写出的输出文件名为键；
+ * 输出文件名只取决于源文件，与处理顺序和哪些图片被跳过无关，检查和记录得到的键总是相同。
+ * 输出文件存在且记录与当前源文件和设置一致时，该图片无需重新生成；配置了多个输出规格时，每个输出文件都须满足。
+ * 新的记录在批次结束时通过临时文件加原子替换写回，处理中途崩溃只会导致部分图片下次重新生成
+ */
+public class IncrementalIndex {
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalIndex.class);
+
+    // 索引文件名
+    static final String INDEX_FILE_NAME = ".photowatermark-index";
+
+    // 索引文件的首行标识
+    private static final String HEADER = "# PhotoWatermark incremental index v1";
+
+    private final List<FileOutputManager> outputManagers;
+    private final String settingsFingerprint;
+    private final Map<File, DirectoryIndex> directories = new ConcurrentHashMap<>();
+    // 检查时记录的源文件状态，处理成功后写入索引，避免处理期间源文件变化被误记为最新
+    private final Map<String, String> checkedStamps = new ConcurrentHashMap<>();
+
+    public IncrementalIndex(FileOutputManager fileOutputManager, String settingsFingerprint) {
+        this(Collections.singletonList(fileOutputManager), settingsFingerprint);
+    }
+
+    // 每张图片有多个输出文件的构造函数，用于多规格输出
+    public IncrementalIndex(List<FileOutputManager> outputManagers, String settingsFingerprint) {
+        this.outputManagers = outputManagers;
+        this.settingsFingerprint = settingsFingerprint;
+    }
+
+    /**
+     * 判断图片的水印输出是否已是最新
+     *
+     * @param imagePath 图片路径
+     * @return 输出文件存在且源文件和设置都未变化时返回true
+     */
+    public boolean isUpToDate(String imagePath) {
+        String stamp = readStamp(new File(imagePath));
+        if (stamp == null) {
+            return false;
+        }
+
+        boolean upToDate = true;
+        for (FileOutputManager outputManager : outputManagers) {
+            File outputFile = outputManager.resolveWatermarkFile(imagePath);
+            if (!stamp.equals(getDirectory(outputFile.getParentFile()).entries.get(outputFile.getName()))
+                    || !outputFile.isFile()) {
+                upToDate = false;
+                break;
+            }
+        }
+        if (upToDate) {
+            return true;
+        }
+
+        checkedStamps.put(imagePath, stamp);
+        return false;
+    }
+
+    /**
+     * 记录图片已成功生成水印输出
+     *
+     * @param imagePath 图片路径
+     */
+    public void record(String imagePath) {
+        String stamp = checkedStamps.remove(imagePath);
+        if (stamp == null) {
+            stamp = readStamp(new File(imagePath));
+        }
+        if (stamp == null) {
+            return;
+        }
+
+        for (FileOutputManager outputManager : outputManagers) {
+            File outputFile = outputManager.resolveWatermarkFile(imagePath);
+            String outputName = outputFile.getName();
+            if (outputName.indexOf('\t') >= 0 || outputName.indexOf('\n') >= 0 || outputName.indexOf('\r') >= 0) {
+                // 文件名包含分隔符时无法写入索引，下次仍会重新生成
+                continue;
+            }
+
+            DirectoryIndex directory = getDirectory(outputFile.getParentFile());
+            directory.entries.put(outputName, stamp);
+            directory.dirty = true;
+        }
+    }
+
+    /**
+     * 丢弃图片检查时记录的源文件状态，用于处理失败的图片
+     *
+     * @param imagePath 图片路径
+     */
+    public void forget(String imagePath) {
+        checkedStamps.remove(imagePath);
+    }
+
+    /**
+     * 将有变化的目录索引写回磁盘
+     */
+    public void save() {
+        for (DirectoryIndex directory : directories.values()) {
+            if (!directory.dirty) {
+                continue;
+            }
+            try {
+                directory.save();
+            } catch (IOException e) {
+                logger.error("保存增量处理索引失败: {}", directory.indexFile, e);
+            }
+        }
+    }
+
+    private DirectoryIndex getDirectory(File watermarkDir) {
+        return directories.computeIfAbsent(watermarkDir.getAbsoluteFile(), DirectoryIndex::new);
+    }
+
+    /**
+     * 读取源文件的大小和修改时间，与设置指纹组合成记录值
+     *
+     * @param sourceFile 源文件
+     * @return 记录值，文件无法读取时返回null
+     */
+    private String readStamp(File sourceFile) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(sourceFile.toPath(), BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            return attributes.size() + "\t" + attributes.lastModifiedTime().toMillis() + "\t" + settingsFingerprint;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 单个水印目录的索引
+     */
+    private static final class DirectoryIndex {
+        private final Path indexFile;
+        private final Map<String, String> entries = new ConcurrentHashMap<>();
+        private volatile boolean dirty;
+
+        DirectoryIndex(File watermarkDir) {
+            this.indexFile = new File(watermarkDir, INDEX_FILE_NAME).toPath();
+            load();
+        }
+
+        private void load() {
+            if (!Files.isRegularFile(indexFile)) {
+                return;
+            }
+
+            try {
+                List<String> lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    int separator = line.indexOf('\t');
+                    if (separator > 0) {
+                        entries.put(line.substring(0, separator), line.substring(separator + 1));
+                    }
+                }
+            } catch (IOException e) {
+                // 索引无法读取时视为没有记录，图片会被重新生成
+                logger.warn("读取增量处理索引失败，将重新生成该目录的图片: {}", indexFile, e);
+            }
+        }
+
+        synchronized void save() throws IOException {
+            StringBuilder content = new StringBuilder(HEADER).append('\n');
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                content.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+            }
+
+            Path tempFile = indexFile.resolveSibling(INDEX_FILE_NAME + ".tmp");
+            Files.write(tempFile, content.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        }
+    }
+}
@@ -1,13 +1,22 @@
 package com.photowatermark;
 
+import com.photowatermark.jpeg.JpegEncoding;
+import com.photowatermark.png.PngEncoding;
+import com.photowatermark.pipeline.PipelineConfig;
+import com.photowatermark.render.RenderingBackend;
+import com.photowatermark.sink.ArchiveSink;
+import com.photowatermark.util.OutputDurability;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
 
 /**
  * 图片水印命令行程序主类
@@ -20,16 +29,34 @@ public class PhotoWatermark {
     private static final int DEFAULT_FONT_SIZE = 20;
     private static final String DEFAULT_COLOR = "white";
     private static final String DEFAULT_POSITION = "bottom-right";
+    private static final int DEFAULT_THREAD_COUNT = 1;
+
+    // 输出处理结果时最多同时请求的结果数
+    private static final int DEFAULT_RESULT_WINDOW = 32;
 
-    // 支持的图片扩展名
-    private static final List<String> SUPPORTED_EXTENSIONS = Arrays.asList(
-        ".jpg", ".jpeg", ".png", ".bmp", ".gif"
-    );
 
     // 命令行选项
     private static final String OPTION_FONT_SIZE = "fontSize";
     private static final String OPTION_COLOR = "color";
     private static final String OPTION_POSITION = "position";
+    private static final String OPTION_THREADS = "threads";
+    private static final String OPTION_PIPELINE = "pipeline";
+    private static final String OPTION_STAGE_THREADS = "stageThreads";
+    private static final String OPTION_MEMORY_BUDGET = "memoryBudget";
+    private static final String OPTION_VIRTUAL_THREADS = "virtualThreads";
+    private static final String OPTION_JOURNAL = "journal";
+    private static final String OPTION_RESUME = "resume";
+    private static final String OPTION_INCREMENTAL = "incremental";
+    private static final String OPTION_BACKEND = "backend";
+    private static final String OPTION_LOSSLESS_JPEG = "jpegLossless";
+    private static final String OPTION_TILE_THRESHOLD = "tileThreshold";
+    private static final String OPTION_PREVIEW = "preview";
+    private static final String OPTION_RENDITION = "rendition";
+    private static final String OPTION_JPEG_ENCODING = "jpegEncoding";
+    private static final String OPTION_PNG_ENCODING = "pngEncoding";
+    private static final String OPTION_DURABILITY = "durability";
+    private static final String OPTION_ARCHIVE = "archive";
+    private static final String OPTION_KEEP_METADATA = "keepMetadata";
     private static final String OPTION_HELP = "help";
 
     public static void main(String[] args) {
@@ -70,9 +97,26 @@ public class PhotoWatermark {
         int fontSize = getFontSize(cmd);
         String color = getColor(cmd);
         String position = getPosition(cmd);
+        int threadCount = getThreadCount(cmd);
+        boolean virtualThreads = cmd.hasOption(OPTION_VIRTUAL_THREADS);
 
         // 创建配置管理器
         ConfigurationManager config = new ConfigurationManager(fontSize, color, position);
+        config.setThreadCount(threadCount);
+        config.setVirtualThreads(virtualThreads);
+        config.setPipelineConfig(getPipelineConfig(cmd, threadCount, virtualThreads));
+        config.setMemoryBudgetBytes(getMemoryBudgetBytes(cmd));
+        applyJournalOptions(cmd, config);
+        config.setIncremental(cmd.hasOption(OPTION_INCREMENTAL));
+        config.setRenderingBackend(getRenderingBackend(cmd));
+        config.setLosslessJpeg(cmd.hasOption(OPTION_LOSSLESS_JPEG));
+        config.setTileThresholdPixels(getTileThresholdPixels(cmd));
+        config.setPreviewMaxEdge(getPreviewMaxEdge(cmd));
+        config.setRenditions(getRenditions(cmd));
+        config.setJpegEncoding(getJpegEncoding(cmd));
+        config.setPngEncoding(getPngEncoding(cmd));
+        config.setMetadataPassthrough(cmd.hasOption(OPTION_KEEP_METADATA));
+        config.setOutputDurability(getOutputDurability(cmd));
 
         // 输出参数信息（用于调试）
         logger.info("程序启动参数:");
@@ -80,106 +124,214 @@ public class PhotoWatermark {
         logger.info("  字体大小: {}", fontSize);
         logger.info("  字体颜色: {}", color);
         logger.info("  水印位置: {}", position);
+        logger.info("  线程数: {}", threadCount);
+        logger.info("  虚拟线程: {}", virtualThreads);
+        logger.info("  渲染后端: {}", config.getRenderingBackend());
+        if (config.getPipelineConfig() != null) {
+            logger.info("  流水线配置: {}", config.getPipelineConfig());
+        }
 
         System.out.println("图片水印程序启动...");
         System.out.println("字体大小: " + fontSize);
         System.out.println("字体颜色: " + color);
         System.out.println("水印位置: " + position);
+        System.out.println("线程数: " + threadCount);
+        if (virtualThreads) {
+            System.out.println("虚拟线程: 已启用");
+        }
+        if (config.isIncremental()) {
+            System.out.println("增量模式: 跳过输出已是最新的图片");
+        }
+        if (config.isLosslessJpeg()) {
+            System.out.println("JPEG无损模式: 只重新编码水印覆盖的区域");
+        }
+        if (cmd.hasOption(OPTION_TILE_THRESHOLD)) {
+            System.out.println(config.getTileThresholdPixels() > 0
+                    ? "分块处理阈值: " + config.getTileThresholdPixels() / 1000000 + " 百万像素"
+                    : "分块处理: 已关闭");
+        }
+        if (config.getPreviewMaxEdge() > 0) {
+            System.out.println("预览模式: 长边不超过 " + config.getPreviewMaxEdge() + " 像素，输出文件名后缀为"
+                    + FileOutputManager.PREVIEW_FILE_SUFFIX);
+        }
+        for (Rendition rendition : config.getRenditions()) {
+            System.out.println("输出规格: " + rendition);
+        }
+        if (!config.getJpegEncoding().isDefault()) {
+            System.out.println("JPEG编码设置: " + config.getJpegEncoding());
+        }
+        if (!config.getPngEncoding().isDefault()) {
+            System.out.println("PNG编码设置: " + config.getPngEncoding() + "，按块并行压缩");
+        }
+        if (config.isMetadataPassthrough()) {
+            System.out.println("元数据: 复制源文件的EXIF、XMP和ICC配置文件");
+        }
+        if (config.getOutputDurability() != OutputDurability.NONE) {
+            System.out.println("输出刷盘方式: " + describeDurability(config.getOutputDurability()));
+        }
+        if (config.getJournalPath() != null) {
+            System.out.println((config.isResume() ? "从批处理日志恢复: " : "批处理日志: ") + config.getJournalPath());
+        }
+        if (config.getPipelineConfig() != null) {
+            System.out.println("流水线模式: " + config.getPipelineConfig());
+        }
+
+        if (!cmd.hasOption(OPTION_ARCHIVE)) {
+            // 处理图片
+            processImages(imagePaths, config);
+            return;
+        }
 
-        // 处理图片
-        processImages(imagePaths, config);
+        // 所有输出写入同一个归档，处理结束后写完归档结尾
+        if (config.getJournalPath() != null) {
+            // 归档在处理结束后才生成，中断后恢复会跳过日志中已完成的图片，新的归档中缺少它们
+            logger.error("-archive 不能与 -journal 或 -resume 同时使用");
+            System.err.println("错误: -archive 不能与 -journal 或 -resume 同时使用，"
+                    + "归档在处理结束后才生成，中断后恢复的归档会缺少已完成的图片");
+            return;
+        }
+        File archiveFile = new File(cmd.getOptionValue(OPTION_ARCHIVE));
+        ArchiveSink archive;
+        try {
+            archive = ArchiveSink.open(archiveFile, null, config.getOutputDurability());
+        } catch (IllegalArgumentException | IOException e) {
+            logger.error("无法创建输出归档: {}", archiveFile, e);
+            System.err.println("错误: 无法创建输出归档: " + e.getMessage());
+            return;
+        }
+        System.out.println("输出归档: " + archiveFile.getPath());
+        config.setOutputSink(archive);
+        try {
+            processImages(imagePaths, config);
+        } finally {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                logger.error("写入输出归档失败: {}", archiveFile, e);
+                System.err.println("错误: 写入输出归档失败: " + e.getMessage());
+            }
+        }
     }
 
     /**
      * 处理图片
+     * 图片查找与处理同时进行，查找到的图片立即进入处理
      * @param imagePaths 图片路径数组
      * @param config 配置管理器
      */
     private void processImages(String[] imagePaths, ConfigurationManager config) {
         ImageProcessor processor = new ImageProcessor();
 
-        // 解析和过滤图片路径
-        List<String> validImagePaths = parseAndFilterImagePaths(Arrays.asList(imagePaths));
+        try (ImageFileDiscovery discovery = new ImageFileDiscovery(Arrays.asList(imagePaths))) {
+            discovery.setRejectionListener((path, reason) -> System.err.println("警告: " + reason + ": " + path));
+            processDiscoveredImages(processor, discovery, config);
+        }
+    }
 
-        if (validImagePaths.isEmpty()) {
+    /**
+     * 处理查找到的图片并输出结果
+     * @param processor 图片处理器
+     * @param discovery 图片文件查找器
+     * @param config 配置管理器
+     */
+    private void processDiscoveredImages(ImageProcessor processor, ImageFileDiscovery discovery,
+                                         ConfigurationManager config) {
+        // 流式批量处理图片，每完成一个图片就输出结果
+        System.out.println("\n处理结果:");
+        int window = Math.max(DEFAULT_RESULT_WINDOW, config.getThreadCount() * 2);
+        ResultPrinter printer = new ResultPrinter(window);
+        processor.publishResults(
+                discovery,
+                config.getFontSize(),
+                config.getColor(),
+                config.getPosition(),
+                config).subscribe(printer);
+
+        try {
+            printer.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("处理被中断");
+        }
+
+        if (discovery.getDiscoveredCount() == 0) {
             System.err.println("错误: 没有找到任何有效的图片文件");
             return;
         }
 
-        System.out.println("找到 " + validImagePaths.size() + " 个有效的图片文件");
+        System.out.println("\n总结:");
+        System.out.println("找到图片: " + discovery.getDiscoveredCount() + " 个文件");
+        System.out.println("成功处理: " + printer.getSuccessCount() + " 个文件");
+        System.out.println("处理失败: " + printer.getFailureCount() + " 个文件");
+        if (printer.getSkippedCount() > 0) {
+            System.out.println("跳过处理: " + printer.getSkippedCount() + " 个文件");
+        }
+    }
 
-        // 批量处理图片
-        List<ImageProcessor.ProcessResult> results = processor.processImages(
-                validImagePaths,
-                config.getFontSize(),
-                config.getColor(),
-                config.getPosition(),
-                config);
+    /**
+     * 处理结果输出器，逐个输出处理结果并累计成功和失败数量
+     * 每输出一个结果再请求一个，使处理中的图片数保持在请求窗口之内
+     */
+    private static class ResultPrinter implements Flow.Subscriber<ImageProcessor.ProcessResult> {
+        private final int window;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Flow.Subscription subscription;
+        private volatile long successCount;
+        private volatile long failureCount;
+        private volatile long skippedCount;
+
+        ResultPrinter(int window) {
+            this.window = window;
+        }
 
-        // 输出处理结果
-        System.out.println("\n处理结果:");
-        for (ImageProcessor.ProcessResult result : results) {
-            if (result.isSuccess()) {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(window);
+        }
+
+        @Override
+        public void onNext(ImageProcessor.ProcessResult result) {
+            if (result.isSkipped()) {
+                skippedCount++;
+                System.out.println("- " + result.getImagePath() + " - " + result.getMessage());
+            } else if (result.isSuccess()) {
+                successCount++;
                 System.out.println("✓ " + result.getImagePath() + " - 处理成功");
             } else {
+                failureCount++;
                 System.err.println("✗ " + result.getImagePath() + " - 处理失败: " + result.getMessage());
             }
+            subscription.request(1);
         }
 
-        long successCount = results.stream().filter(r -> r.isSuccess()).count();
-        long failureCount = results.size() - successCount;
+        @Override
+        public void onError(Throwable throwable) {
+            logger.error("批量处理出错: {}", throwable.getMessage(), throwable);
+            System.err.println("错误: 批量处理出错: " + throwable.getMessage());
+            done.countDown();
+        }
 
-        System.out.println("\n总结:");
-        System.out.println("成功处理: " + successCount + " 个文件");
-        System.out.println("处理失败: " + failureCount + " 个文件");
-    }
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
 
-    /**
-     * 解析和过滤图片路径
-     * @param paths 路径列表
-     * @return 有效的图片路径列表
-     */
-    private List<String> parseAndFilterImagePaths(List<String> paths) {
-        return paths.stream()
-                .flatMap(path -> {
-                    File file = new File(path);
-                    if (file.isDirectory()) {
-                        // 如果是目录，返回目录下所有支持的图片文件
-                        File[] files = file.listFiles();
-                        if (files != null) {
-                            return Arrays.stream(files)
-                                    .filter(f -> isSupportedImageFile(f))
-                                    .map(File::getAbsolutePath);
-                        }
-                        return java.util.stream.Stream.empty();
-                    } else if (file.exists() && isSupportedImageFile(file)) {
-                        // 如果是支持的图片文件，直接返回
-                        return java.util.stream.Stream.of(path);
-                    } else {
-                        // 不支持的文件或不存在的文件
-                        if (!file.exists()) {
-                            System.err.println("警告: 文件不存在: " + path);
-                        } else if (!isSupportedImageFile(file)) {
-                            System.err.println("警告: 不支持的文件格式: " + path);
-                        }
-                        return java.util.stream.Stream.empty();
-                    }
-                })
-                .collect(Collectors.toList());
-    }
+        void awaitCompletion() throws InterruptedException {
+            done.await();
+        }
 
-    /**
-     * 检查是否为支持的图片文件
-     * @param file 文件
-     * @return 是否为支持的图片文件
-     */
-    private boolean isSupportedImageFile(File file) {
-        if (file == null || !file.exists() || file.isDirectory()) {
-            return false;
+        long getSuccessCount() {
+            return successCount;
+        }
+
+        long getFailureCount() {
+            return failureCount;
         }
 
-        String fileName = file.getName().toLowerCase();
-        return SUPPORTED_EXTENSIONS.stream().anyMatch(ext -> fileName.endsWith(ext));
+        long getSkippedCount() {
+            return skippedCount;
+        }
     }
 
     /**
@@ -222,6 +374,128 @@ public class PhotoWatermark {
                 .desc("水印位置 (默认: " + DEFAULT_POSITION + ") 可选值: top-left, center, bottom-right")
                 .build());
 
+        options.addOption(Option.builder()
+                .longOpt(OPTION_THREADS)
+                .hasArg()
+                .argName("N")
+                .desc("并行处理的线程数 (默认: " + DEFAULT_THREAD_COUNT + ")")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_PIPELINE)
+                .desc("使用分阶段流水线处理（读取、EXIF、解码、水印、编码、写出）")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_STAGE_THREADS)
+                .hasArg()
+                .argName("spec")
+                .desc("流水线各阶段并发度和队列容量，例如: read=4,decode=8,write=2,queue=16")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_MEMORY_BUDGET)
+                .hasArg()
+                .argName("MB")
+                .desc("图片处理可使用的堆内存预算，单位MB (默认: 最大堆内存的70%)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_VIRTUAL_THREADS)
+                .desc("读取和写出等IO工作使用虚拟线程，水印合成限制为处理器核心数（需要Java 21及以上版本）")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_JOURNAL)
+                .hasArg()
+                .argName("file")
+                .desc("将每个图片的处理结果记录到批处理日志，中断后可通过 -resume 继续")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_RESUME)
+                .hasArg()
+                .argName("file")
+                .desc("从批处理日志恢复，跳过日志中已完成的图片并继续记录")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_INCREMENTAL)
+                .desc("增量模式: 水印图片已存在且源文件和水印设置都未变化时跳过")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_BACKEND)
+                .hasArg()
+                .argName("name")
+                .desc("水印合成使用的渲染后端: java2d, raster, thumbnailator (默认: " + RenderingBackend.DEFAULT_NAME + ")")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_LOSSLESS_JPEG)
+                .desc("JPEG无损模式: JPEG输出为JPEG时只重新编码水印覆盖的8x8/16x16块，其余区域保持原样")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_TILE_THRESHOLD)
+                .hasArg()
+                .argName("MP")
+                .desc("超过该像素数(百万)的BMP、PNG和TIFF按行带分块处理，内存占用与图片尺寸无关，0表示不分块 (默认: "
+                        + WatermarkRenderPlan.DEFAULT_TILE_THRESHOLD_PIXELS / 1000000 + ")")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_PREVIEW)
+                .hasArg()
+                .argName("maxEdge")
+                .desc("预览模式: 按长边不超过maxEdge像素缩小解码、合成水印和编码，快速生成供审阅的低分辨率样张")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_RENDITION)
+                .hasArg()
+                .argName("spec")
+                .desc("输出规格，可重复指定，每张图片只解码一次并按各规格输出，例如: "
+                        + "edge=2048,format=jpg,quality=85,dir=/out/web,suffix=_web (edge=0表示原尺寸)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_JPEG_ENCODING)
+                .hasArg()
+                .argName("preset|spec")
+                .desc("JPEG输出的编码设置，预设: default(ImageIO默认，最快)、balanced(优化Huffman表)、archive(渐进式，文件最小)，"
+                        + "也可以覆盖各项设置，例如: preset=default,quality=90,progressive=true,optimize=true,subsampling=444")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_PNG_ENCODING)
+                .hasArg()
+                .argName("preset|spec")
+                .desc("PNG输出的编码设置，非默认设置时按块并行压缩，预设: fast(最快)、balanced(与默认压缩率接近)、"
+                        + "archive(文件最小)，也可以覆盖各项设置，例如: preset=fast,level=6,filter=paeth "
+                        + "(filter可选none、sub、up、average、paeth、adaptive)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_KEEP_METADATA)
+                .desc("把源文件的EXIF、XMP和ICC配置文件按原始字节复制到JPEG和PNG输出，EXIF方向改为正常方向")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_DURABILITY)
+                .hasArg()
+                .argName("mode")
+                .desc("输出文件的刷盘方式: none(不主动刷盘)、file(每个文件)、N(每N个文件)、batch(每1000个文件、512MB或30秒一组，批次结束时刷出最后一组)，"
+                        + "输出总是先写临时文件再原子重命名 (默认: none)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(OPTION_ARCHIVE)
+                .hasArg()
+                .argName("file")
+                .desc("把所有输出写入一个归档文件，按扩展名选择格式: .zip或.tar，不创建水印目录和独立的输出文件")
+                .build());
+
         options.addOption(Option.builder()
                 .longOpt(OPTION_HELP)
                 .desc("显示帮助信息")
@@ -268,6 +542,259 @@ public class PhotoWatermark {
         return position != null ? position : DEFAULT_POSITION;
     }
 
+    /**
+     * 获取线程数参数
+     * @param cmd 命令行对象
+     * @return 线程数
+     */
+    private int getThreadCount(CommandLine cmd) {
+        String threadsStr = cmd.getOptionValue(OPTION_THREADS);
+        if (threadsStr != null) {
+            try {
+                int threadCount = Integer.parseInt(threadsStr);
+                if (threadCount > 0) {
+                    return threadCount;
+                }
+            } catch (NumberFormatException e) {
+                // 在下方统一输出警告
+            }
+            logger.warn("无效的线程数: {}, 使用默认值: {}", threadsStr, DEFAULT_THREAD_COUNT);
+            System.err.println("警告: 无效的线程数: " + threadsStr + ", 使用默认值: " + DEFAULT_THREAD_COUNT);
+        }
+        return DEFAULT_THREAD_COUNT;
+    }
+
+    /**
+     * 获取内存预算参数
+     * @param cmd 命令行对象
+     * @return 内存预算字节数，未指定或无效时返回0表示自动确定
+     */
+    private long getMemoryBudgetBytes(CommandLine cmd) {
+        String budgetStr = cmd.getOptionValue(OPTION_MEMORY_BUDGET);
+        if (budgetStr != null) {
+            try {
+                long budgetMb = Long.parseLong(budgetStr);
+                if (budgetMb > 0) {
+                    return budgetMb * 1024 * 1024;
+                }
+            } catch (NumberFormatException e) {
+                // 在下方统一输出警告
+            }
+            logger.warn("无效的内存预算: {}, 使用默认值", budgetStr);
+            System.err.println("警告: 无效的内存预算: " + budgetStr + ", 使用默认值");
+        }
+        return 0;
+    }
+
+    /**
+     * 获取分块处理阈值参数
+     * @param cmd 命令行对象
+     * @return 分块处理的像素数阈值，0表示不分块，未指定或无效时返回默认值
+     */
+    private long getTileThresholdPixels(CommandLine cmd) {
+        String thresholdStr = cmd.getOptionValue(OPTION_TILE_THRESHOLD);
+        if (thresholdStr != null) {
+            try {
+                long megapixels = Long.parseLong(thresholdStr);
+                if (megapixels >= 0) {
+                    return megapixels * 1000000;
+                }
+            } catch (NumberFormatException e) {
+                // 在下方统一输出警告
+            }
+            logger.warn("无效的分块处理阈值: {}, 使用默认值", thresholdStr);
+            System.err.println("警告: 无效的分块处理阈值: " + thresholdStr + ", 使用默认值");
+        }
+        return WatermarkRenderPlan.DEFAULT_TILE_THRESHOLD_PIXELS;
+    }
+
+    /**
+     * 获取预览尺寸参数
+     * @param cmd 命令行对象
+     * @return 预览图片长边的最大像素数，未指定或无效时返回0（不启用预览模式）
+     */
+    private int getPreviewMaxEdge(CommandLine cmd) {
+        String maxEdgeStr = cmd.getOptionValue(OPTION_PREVIEW);
+        if (maxEdgeStr != null) {
+            try {
+                int maxEdge = Integer.parseInt(maxEdgeStr);
+                if (maxEdge > 0) {
+                    return maxEdge;
+                }
+            } catch (NumberFormatException e) {
+                // 在下方统一输出警告
+            }
+            logger.warn("无效的预览尺寸: {}, 不启用预览模式", maxEdgeStr);
+            System.err.println("警告: 无效的预览尺寸: " + maxEdgeStr + ", 不启用预览模式");
+        }
+        return 0;
+    }
+
+    /**
+     * 获取输出规格参数
+     * @param cmd 命令行对象
+     * @return 输出规格列表，无效的规格被忽略，未指定时返回空列表
+     */
+    private List<Rendition> getRenditions(CommandLine cmd) {
+        List<Rendition> renditions = new ArrayList<>();
+        String[] specs = cmd.getOptionValues(OPTION_RENDITION);
+        if (specs == null) {
+            return renditions;
+        }
+
+        for (String spec : specs) {
+            try {
+                renditions.add(Rendition.parse(spec));
+            } catch (IllegalArgumentException e) {
+                logger.warn("无效的输出规格: {}, 已忽略", spec);
+                System.err.println("警告: " + e.getMessage() + ", 已忽略输出规格: " + spec);
+            }
+        }
+        return renditions;
+    }
+
+    /**
+     * 获取JPEG编码设置参数
+     * @param cmd 命令行对象
+     * @return JPEG编码设置，未指定或无效时返回默认设置
+     */
+    private JpegEncoding getJpegEncoding(CommandLine cmd) {
+        String spec = cmd.getOptionValue(OPTION_JPEG_ENCODING);
+        if (spec == null) {
+            return JpegEncoding.DEFAULT;
+        }
+
+        try {
+            return JpegEncoding.parse(spec);
+        } catch (IllegalArgumentException e) {
+            logger.warn("无效的JPEG编码设置: {}, 使用默认设置", spec);
+            System.err.println("警告: " + e.getMessage() + ", 使用默认的JPEG编码设置");
+            return JpegEncoding.DEFAULT;
+        }
+    }
+
+    /**
+     * 获取PNG编码设置参数
+     * @param cmd 命令行对象
+     * @return PNG编码设置，未指定或无效时返回默认设置
+     */
+    private PngEncoding getPngEncoding(CommandLine cmd) {
+        String spec = cmd.getOptionValue(OPTION_PNG_ENCODING);
+        if (spec == null) {
+            return PngEncoding.DEFAULT;
+        }
+
+        try {
+            return PngEncoding.parse(spec);
+        } catch (IllegalArgumentException e) {
+            logger.warn("无效的PNG编码设置: {}, 使用默认设置", spec);
+            System.err.println("警告: " + e.getMessage() + ", 使用默认的PNG编码设置");
+            return PngEncoding.DEFAULT;
+        }
+    }
+
+    /**
+     * 获取输出文件刷盘方式参数
+     * @param cmd 命令行对象
+     * @return 刷盘方式，未指定或无效时返回none
+     */
+    private OutputDurability getOutputDurability(CommandLine cmd) {
+        String spec = cmd.getOptionValue(OPTION_DURABILITY);
+        if (spec == null) {
+            return OutputDurability.NONE;
+        }
+
+        try {
+            return OutputDurability.parse(spec);
+        } catch (IllegalArgumentException e) {
+            logger.warn("无效的刷盘方式: {}, 不主动刷盘", spec);
+            System.err.println("警告: " + e.getMessage() + ", 不主动刷盘");
+            return OutputDurability.NONE;
+        }
+    }
+
+    private static String describeDurability(OutputDurability durability) {
+        switch (durability.getMode()) {
+            case FILE:
+                return "每个文件";
+            case INTERVAL:
+                return "每 " + durability.getInterval() + " 个文件";
+            case BATCH:
+                return "按组(每1000个文件、512MB或30秒)";
+            default:
+                return "不主动刷盘";
+        }
+    }
+
+    /**
+     * 获取渲染后端参数
+     * @param cmd 命令行对象
+     * @return 渲染后端名称，未指定或无效时返回默认后端
+     */
+    private String getRenderingBackend(CommandLine cmd) {
+        String backendName = cmd.getOptionValue(OPTION_BACKEND);
+        if (backendName != null) {
+            try {
+                return RenderingBackend.forName(backendName).getName();
+            } catch (IllegalArgumentException e) {
+                logger.warn("无效的渲染后端: {}, 使用默认值: {}", backendName, RenderingBackend.DEFAULT_NAME);
+                System.err.println("警告: 无效的渲染后端: " + backendName + ", 使用默认值: " + RenderingBackend.DEFAULT_NAME);
+            }
+        }
+        return RenderingBackend.DEFAULT_NAME;
+    }
+
+    /**
+     * 设置批处理日志参数，同时指定 -journal 和 -resume 时以 -resume 的日志文件为准
+     * @param cmd 命令行对象
+     * @param config 配置管理器
+     */
+    private void applyJournalOptions(CommandLine cmd, ConfigurationManager config) {
+        String resumePath = cmd.getOptionValue(OPTION_RESUME);
+        String journalPath = cmd.getOptionValue(OPTION_JOURNAL);
+        if (resumePath != null) {
+            if (journalPath != null && !journalPath.equals(resumePath)) {
+                logger.warn("同时指定了 -journal 和 -resume，使用恢复日志: {}", resumePath);
+                System.err.println("警告: 同时指定了 -journal 和 -resume，使用恢复日志: " + resumePath);
+            }
+            config.setJournalPath(resumePath);
+            config.setResume(true);
+        } else {
+            config.setJournalPath(journalPath);
+        }
+    }
+
+    /**
+     * 获取流水线配置参数
+     * @param cmd 命令行对象
+     * @param threadCount 线程数，用作CPU密集阶段的默认并发度
+     * @param virtualThreads IO密集阶段是否使用虚拟线程
+     * @return 流水线配置，未启用流水线模式时返回null
+     */
+    private PipelineConfig getPipelineConfig(CommandLine cmd, int threadCount, boolean virtualThreads) {
+        if (!cmd.hasOption(OPTION_PIPELINE) && !cmd.hasOption(OPTION_STAGE_THREADS)) {
+            return null;
+        }
+
+        PipelineConfig pipelineConfig = createDefaultPipelineConfig(cmd, threadCount, virtualThreads);
+        String spec = cmd.getOptionValue(OPTION_STAGE_THREADS);
+        try {
+            pipelineConfig.applySpec(spec);
+        } catch (IllegalArgumentException e) {
+            logger.warn("无效的流水线阶段设置: {}, 使用默认值", spec);
+            System.err.println("警告: " + e.getMessage() + ", 使用默认流水线配置");
+            pipelineConfig = createDefaultPipelineConfig(cmd, threadCount, virtualThreads);
+        }
+        return pipelineConfig;
+    }
+
+    private PipelineConfig createDefaultPipelineConfig(CommandLine cmd, int threadCount, boolean virtualThreads) {
+        PipelineConfig pipelineConfig = cmd.hasOption(OPTION_THREADS)
+                ? new PipelineConfig(threadCount) : new PipelineConfig();
+        pipelineConfig.setVirtualThreads(virtualThreads);
+        return pipelineConfig;
+    }
+
     /**
      * 显示帮助信息
      */
@@ -280,7 +807,23 @@ public class PhotoWatermark {
                            "  PhotoWatermark /path/to/image.jpg\n" +
                            "  PhotoWatermark /path/to/image1.jpg /path/to/image2.jpg\n" +
                            "  PhotoWatermark /path/to/images/\n" +
-                           "  PhotoWatermark /path/to/images/*.jpg\n",
+                           "  PhotoWatermark /path/to/images/*.jpg\n" +
+                           "  PhotoWatermark -threads 8 /path/to/images/\n" +
+                           "  PhotoWatermark -pipeline -stageThreads read=4,write=4 /path/to/images/\n" +
+                           "  PhotoWatermark -threads 64 -virtualThreads /mnt/nas/photos/\n" +
+                           "  PhotoWatermark -journal batch.journal /path/to/images/\n" +
+                           "  PhotoWatermark -resume batch.journal /path/to/images/\n" +
+                           "  PhotoWatermark -incremental /path/to/images/\n" +
+                           "  PhotoWatermark -backend thumbnailator /path/to/images/\n" +
+                           "  PhotoWatermark -jpegLossless /path/to/images/\n" +
+                           "  PhotoWatermark -tileThreshold 16 /path/to/scans/\n" +
+                           "  PhotoWatermark -preview 1024 /path/to/images/\n" +
+                           "  PhotoWatermark -rendition edge=0 -rendition edge=2048,quality=85 -rendition edge=400 /path/to/images/\n" +
+                           "  PhotoWatermark -jpegEncoding archive /path/to/images/\n" +
+                           "  PhotoWatermark -pngEncoding fast /path/to/scans/\n" +
+                           "  PhotoWatermark -keepMetadata /path/to/images/\n" +
+                           "  PhotoWatermark -durability 200 /mnt/nas/photos/\n" +
+                           "  PhotoWatermark -archive delivery.zip /path/to/images/\n",
                            options);
     }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+package com.photowatermark;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * 输出规格，描述同一张源图片的一种输出：尺寸、格式、编码质量、输出目录和文件名后缀
+ * 配置多个输出规格时，每张图片只解码一次，按各规格分别缩小、合成水印并编码。
+ * 本类不可变，可在多个工作线程之间共享
+ */
+public final class Rendition {
+
+    private final int maxEdge;
+    private final String formatName;
+    private final float quality;
+    private final File outputDirectory;
+    private final String fileNameSuffix;
+    private final FileOutputManager outputManager;
+
+    /**
+     * @param maxEdge 长边的最大像素数，0表示保持原尺寸
+     * @param formatName 输出格式，例如jpg、png，为null时与源文件扩展名相同
+     * @param quality 编码质量，0到1之间，小于0时使用编码器的默认质量
+     * @param outputDirectory 输出目录，为null时使用默认的水印目录
+     * @param fileNameSuffix 输出文件名后缀，为null时原尺寸使用_watermark，其他尺寸使用_长边像素数
+     */
+    public Rendition(int maxEdge, String formatName, float quality, File outputDirectory, String fileNameSuffix) {
+        if (maxEdge < 0) {
+            throw new IllegalArgumentException("输出尺寸不能为负数: " + maxEdge);
+        }
+        if (quality > 1) {
+            throw new IllegalArgumentException("编码质量必须在0到1之间: " + quality);
+        }
+        this.maxEdge = maxEdge;
+        this.formatName = formatName != null ? normalizeFormat(formatName) : null;
+        this.quality = quality;
+        this.outputDirectory = outputDirectory;
+        this.fileNameSuffix = fileNameSuffix != null ? fileNameSuffix
+                : maxEdge > 0 ? "_" + maxEdge : FileOutputManager.WATERMARK_FILE_SUFFIX;
+        this.outputManager = new FileOutputManager(this.fileNameSuffix, outputDirectory, this.formatName);
+    }
+
+    /**
+     * 解析输出规格，格式为逗号分隔的键值对，例如: edge=2048,format=jpg,quality=85,dir=/out/web,suffix=_web
+     * 所有键都可以省略；quality为1到100的整数
+     *
+     * @param spec 输出规格字符串
+     * @return 输出规格
+     * @throws IllegalArgumentException 格式错误时抛出
+     */
+    public static Rendition parse(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            throw new IllegalArgumentException("输出规格不能为空");
+        }
+
+        int maxEdge = 0;
+        String formatName = null;
+        float quality = -1;
+        File outputDirectory = null;
+        String fileNameSuffix = null;
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length != 2 || parts[1].trim().isEmpty()) {
+                throw new IllegalArgumentException("无效的输出规格设置: " + entry);
+            }
+            String value = parts[1].trim();
+            switch (parts[0].trim().toLowerCase(Locale.ROOT)) {
+                case "edge":
+                    maxEdge = parseInt(entry, value);
+                    break;
+                case "format":
+                    formatName = value;
+                    break;
+                case "quality":
+                    int percent = parseInt(entry, value);
+                    if (percent < 1 || percent > 100) {
+                        throw new IllegalArgumentException("编码质量必须在1到100之间: " + entry);
+                    }
+                    quality = percent / 100f;
+                    break;
+                case "dir":
+                    outputDirectory = new File(value);
+                    break;
+                case "suffix":
+                    fileNameSuffix = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的输出规格设置: " + entry);
+            }
+        }
+        return new Rendition(maxEdge, formatName, quality, outputDirectory, fileNameSuffix);
+    }
+
+    private static int parseInt(String entry, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的输出规格设置: " + entry, e);
+        }
+    }
+
+    /**
+     * 格式名称统一为小写，jpeg与jpg相同
+     */
+    private static String normalizeFormat(String formatName) {
+        String format = formatName.toLowerCase(Locale.ROOT);
+        return "jpeg".equals(format) ? "jpg" : format;
+    }
+
+    public int getMaxEdge() {
+        return maxEdge;
+    }
+
+    public boolean isFullSize() {
+        return maxEdge == 0;
+    }
+
+    public String getFormatName() {
+        return formatName;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public String getFileNameSuffix() {
+        return fileNameSuffix;
+    }
+
+    /**
+     * 获取按本规格确定输出目录和文件名的输出管理器
+     *
+     * @return 输出管理器
+     */
+    public FileOutputManager getOutputManager() {
+        return outputManager;
+    }
+
+    /**
+     * 转换为可以被parse解析的规格字符串，也用于计算设置指纹
+     */
+    @Override
+    public String toString() {
+        StringBuilder spec = new StringBuilder("edge=").append(maxEdge);
+        if (formatName != null) {
+            spec.append(",format=").append(formatName);
+        }
+        if (quality >= 0) {
+            spec.append(",quality=").append(Math.round(quality * 100));
+        }
+        if (outputDirectory != null) {
+            spec.append(",dir=").append(outputDirectory.getPath());
+        }
+        return spec.append(",suffix=").append(fileNameSuffix).toString();
+    }
+}
@@ -1,27 +1,67 @@
 package com.photowatermark;
 
+import com.photowatermark.jpeg.JpegMcuTranscoder;
+import com.photowatermark.sink.FileSystemSink;
+import com.photowatermark.sink.OutputSink;
+import com.photowatermark.tile.TiledWatermarker;
+import com.photowatermark.util.ImageHeader;
 import com.photowatermark.util.MemoryUtils;
-import net.coobird.thumbnailator.Thumbnails;
-import net.coobird.thumbnailator.geometry.Positions;
+import com.photowatermark.util.OutputDurability;
+import com.photowatermark.util.SourceMetadata;
+import com.photowatermark.util.WatermarkOverlayCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * 水印处理器类，用于在图片上添加文本水印
+ * 除线程安全的水印图层缓存外不保存可变状态，可在多个工作线程之间共享
  */
 public class WatermarkProcessor {
     private static final Logger logger = LoggerFactory.getLogger(WatermarkProcessor.class);
 
-    // 默认字体名称
-    private static final String DEFAULT_FONT_NAME = "Arial";
+    // 未指定输出目标时使用，原子写出文件但不主动刷盘，不保存状态，可以共用
+    private static final OutputSink DEFAULT_OUTPUT_SINK = new FileSystemSink(OutputDurability.NONE);
 
-    // 默认字体样式
-    private static final int DEFAULT_FONT_STYLE = Font.BOLD;
+    private final ImageCodec imageCodec;
+    private final WatermarkOverlayCache overlayCache;
+
+    // 默认构造函数，不使用缓冲池
+    public WatermarkProcessor() {
+        this(new ImageCodec());
+    }
+
+    // 使用指定编解码器的构造函数，解码缓冲区可在批次内复用
+    public WatermarkProcessor(ImageCodec imageCodec) {
+        this(imageCodec, new WatermarkOverlayCache());
+    }
+
+    // 使用指定编解码器和水印图层缓存的构造函数
+    public WatermarkProcessor(ImageCodec imageCodec, WatermarkOverlayCache overlayCache) {
+        this.imageCodec = imageCodec;
+        this.overlayCache = overlayCache;
+    }
+
+    /**
+     * 获取水印图层缓存
+     *
+     * @return 水印图层缓存
+     */
+    public WatermarkOverlayCache getOverlayCache() {
+        return overlayCache;
+    }
 
     /**
      * 在图片上添加文本水印
@@ -36,6 +76,39 @@ public class WatermarkProcessor {
      */
     public void addTextWatermark(File originalImage, String watermarkText, int fontSize,
                                 String color, String position, File outputFile) throws IOException {
+        addTextWatermark(originalImage, null, watermarkText, WatermarkRenderPlan.compile(fontSize, color, position),
+                outputFile);
+    }
+
+    /**
+     * 按渲染计划在已识别格式的图片上添加文本水印
+     *
+     * @param originalImage 原始图片文件
+     * @param format 文件头识别出的图片格式，为null时按文件内容探测
+     * @param watermarkText 水印文本
+     * @param plan 水印渲染计划
+     * @param outputFile 输出文件
+     * @throws IOException IO异常
+     */
+    public void addTextWatermark(File originalImage, ImageHeader.Format format, String watermarkText,
+                                 WatermarkRenderPlan plan, File outputFile) throws IOException {
+        addTextWatermark(originalImage, format, watermarkText, plan, outputFile, DEFAULT_OUTPUT_SINK);
+    }
+
+    /**
+     * 按渲染计划在已识别格式的图片上添加文本水印，写出到指定的输出目标
+     *
+     * @param originalImage 原始图片文件
+     * @param format 文件头识别出的图片格式，为null时按文件内容探测
+     * @param watermarkText 水印文本
+     * @param plan 水印渲染计划
+     * @param outputFile 输出文件
+     * @param outputSink 输出目标
+     * @throws IOException IO异常
+     */
+    public void addTextWatermark(File originalImage, ImageHeader.Format format, String watermarkText,
+                                 WatermarkRenderPlan plan, File outputFile, OutputSink outputSink)
+            throws IOException {
         if (originalImage == null || !originalImage.exists()) {
             throw new IllegalArgumentException("原始图片文件不存在: " + (originalImage != null ? originalImage.getPath() : "null"));
         }
@@ -50,178 +123,425 @@ public class WatermarkProcessor {
 
         logger.debug("开始处理图片水印: {}", originalImage.getPath());
 
-        // 检查内存是否充足
-        if (!MemoryUtils.isMemorySufficient(30 * 1024 * 1024)) { // 假设需要30MB
-            logger.warn("内存可能不足，当前处理: {}", originalImage.getPath());
-        }
-
+        BufferedImage image = null;
+        BufferedImage composited = null;
         try {
             // 记录处理前的内存使用情况
             MemoryUtils.logMemoryUsage();
 
-            // 使用Thumbnailator处理图片
-            Thumbnails.Builder<File> builder = Thumbnails.of(originalImage);
+            String formatName = imageCodec.getFormatName(outputFile);
+            if (plan.isPreview()) {
+                // 预览模式按缩小的尺寸解码，水印字体按同样的比例缩小
+                ImageCodec.ScaledImage preview = imageCodec.decodePreview(originalImage, format,
+                        plan.getPreviewMaxEdge());
+                image = preview.getImage();
+                composited = composite(image, watermarkText, plan.forScale(preview.getScale()));
+                byte[] encoded = imageCodec.encode(composited, formatName, -1, plan.getJpegEncoding(),
+                        plan.getPngEncoding());
+                outputSink.write(outputFile, readMetadata(originalImage, format, null, formatName, plan)
+                        .insertInto(encoded, formatName));
+                logger.debug("预览水印添加成功: {} -> {}", originalImage.getPath(), outputFile.getPath());
+                return;
+            }
+
+            ImageHeader.Format sourceFormat = format;
+            if (sourceFormat == null && (plan.isLosslessJpeg() || plan.getTileThresholdPixels() > 0)) {
+                sourceFormat = ImageHeader.read(originalImage).getFormat();
+            }
+
+            if (isTiled(originalImage, sourceFormat, formatName, plan)) {
+                // 超大图片按行带流式处理，直接写出到输出文件
+                watermarkTiled(originalImage, sourceFormat, watermarkText, plan, outputFile, outputSink);
+                logger.debug("分块水印添加成功: {} -> {}", originalImage.getPath(), outputFile.getPath());
+                return;
+            }
+
+            byte[] encoded = null;
+            byte[] sourceData = null;
+            if (plan.isLosslessJpeg()) {
+                if (isLosslessJpegEligible(sourceFormat, formatName, plan)) {
+                    sourceData = Files.readAllBytes(originalImage.toPath());
+                    encoded = transcodeJpeg(sourceData, watermarkText, plan);
+                    if (encoded == null) {
+                        image = imageCodec.decode(sourceData, sourceFormat, originalImage.getPath());
+                    }
+                }
+            }
 
-            // 设置水印位置
-            Positions watermarkPosition = parsePosition(position);
+            if (encoded == null) {
+                // 解码到可复用的缓冲区，由渲染后端合成水印后按输出文件扩展名编码
+                if (image == null) {
+                    image = imageCodec.decode(originalImage, format);
+                }
+                composited = composite(image, watermarkText, plan);
+                encoded = imageCodec.encode(composited, formatName, -1, plan.getJpegEncoding(),
+                        plan.getPngEncoding());
+                encoded = readMetadata(originalImage, sourceFormat, sourceData, formatName, plan)
+                        .insertInto(encoded, formatName);
+            }
+            outputSink.write(outputFile, encoded);
 
-            // 设置字体
-            Font font = new Font(DEFAULT_FONT_NAME, DEFAULT_FONT_STYLE, fontSize);
+            logger.debug("水印添加成功: {} -> {}", originalImage.getPath(), outputFile.getPath());
 
-            // 设置颜色
-            Color textColor = parseColor(color);
+            // 记录处理后的内存使用情况
+            MemoryUtils.logMemoryUsage();
+        } catch (Exception e) {
+            logger.error("添加水印时发生错误: {}", e.getMessage(), e);
+            throw new IOException("添加水印时发生错误: " + e.getMessage(), e);
+        } finally {
+            if (composited != image) {
+                imageCodec.release(composited);
+            }
+            imageCodec.release(image);
+        }
+    }
 
-            // 添加水印
-            builder.watermark(watermarkPosition, createWatermarkImage(watermarkText, font, textColor), 0.5f);
+    /**
+     * 按多个输出规格添加文本水印，源图片只解码一次
+     * 所有规格都缩小时按最大的规格缩小解码；各规格从上一个更大的图片逐级缩小，水印字体按各自的缩放比例缩小。
+     * 第一个规格在当前线程合成、编码和写出，其余规格在编码线程池中并行执行
+     *
+     * @param originalImage 原始图片文件
+     * @param format 文件头识别出的图片格式，为null时按文件内容探测
+     * @param watermarkText 水印文本
+     * @param plan 水印渲染计划，只使用字体、颜色、位置、渲染后端和JPEG编码设置，输出规格的质量覆盖编码设置中的质量
+     * @param renditions 输出规格
+     * @param outputFiles 与输出规格一一对应的输出文件
+     * @param encodeExecutor 并行编码使用的线程池，为null时在当前线程依次处理
+     * @param outputSink 输出目标
+     * @throws IOException 解码、编码或写出失败时抛出
+     */
+    public void addTextWatermark(File originalImage, ImageHeader.Format format, String watermarkText,
+                                 WatermarkRenderPlan plan, List<Rendition> renditions, List<File> outputFiles,
+                                 ExecutorService encodeExecutor, OutputSink outputSink) throws IOException {
+        if (originalImage == null || !originalImage.exists()) {
+            throw new IllegalArgumentException("原始图片文件不存在: " + (originalImage != null ? originalImage.getPath() : "null"));
+        }
 
-            // 输出图片
-            builder.scale(1.0).toFile(outputFile);
+        if (watermarkText == null || watermarkText.isEmpty()) {
+            throw new IllegalArgumentException("水印文本不能为空");
+        }
 
-            logger.debug("水印添加成功: {} -> {}", originalImage.getPath(), outputFile.getPath());
+        if (renditions == null || renditions.isEmpty() || outputFiles == null
+                || outputFiles.size() != renditions.size()) {
+            throw new IllegalArgumentException("输出规格和输出文件必须一一对应");
+        }
 
-            // 记录处理后的内存使用情况
-            MemoryUtils.logMemoryUsage();
+        logger.debug("开始按 {} 个输出规格处理图片水印: {}", renditions.size(), originalImage.getPath());
 
-            // 建议垃圾回收
-            MemoryUtils.suggestGarbageCollection();
+        int count = renditions.size();
+        BufferedImage[] images = new BufferedImage[count];
+        BufferedImage[] composited = new BufferedImage[count];
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            // 有原尺寸的规格时完整解码，否则按最大的规格缩小解码
+            int largestEdge = 0;
+            boolean fullSize = false;
+            for (Rendition rendition : renditions) {
+                fullSize |= rendition.isFullSize();
+                largestEdge = Math.max(largestEdge, rendition.getMaxEdge());
+            }
+            // 元数据只读取一次，各输出规格共用
+            SourceMetadata metadata = readMetadata(originalImage, format, outputFiles, plan);
+
+            BufferedImage decoded;
+            double decodedScale = 1.0;
+            if (fullSize) {
+                decoded = imageCodec.decode(originalImage, format);
+            } else {
+                ImageCodec.ScaledImage scaled = imageCodec.decodePreview(originalImage, format, largestEdge);
+                decoded = scaled.getImage();
+                decodedScale = scaled.getScale();
+            }
+
+            // 从大到小逐级缩小，全部缩小完成后再合成水印，每个规格使用独立的图片
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                order.add(i);
+            }
+            order.sort((a, b) -> Integer.compare(edgeOrder(renditions.get(b)), edgeOrder(renditions.get(a))));
+            Set<BufferedImage> assigned = Collections.newSetFromMap(new IdentityHashMap<>());
+            double[] scales = new double[count];
+            BufferedImage current = decoded;
+            int decodedEdge = Math.max(decoded.getWidth(), decoded.getHeight());
+            for (int index : order) {
+                Rendition rendition = renditions.get(index);
+                BufferedImage image = rendition.isFullSize() ? decoded
+                        : imageCodec.scaleToFit(current, rendition.getMaxEdge());
+                if (!assigned.add(image)) {
+                    image = copy(image);
+                    assigned.add(image);
+                }
+                images[index] = image;
+                scales[index] = decodedScale * Math.max(image.getWidth(), image.getHeight()) / decodedEdge;
+                current = image;
+            }
+
+            int inline = encodeExecutor != null ? 1 : count;
+            for (int i = inline; i < count; i++) {
+                int index = i;
+                futures.add(encodeExecutor.submit(() -> {
+                    writeRendition(images, composited, scales, index, watermarkText, plan, renditions, outputFiles,
+                            metadata, outputSink);
+                    return null;
+                }));
+            }
+            IOException error = null;
+            try {
+                for (int i = 0; i < inline; i++) {
+                    writeRendition(images, composited, scales, i, watermarkText, plan, renditions, outputFiles,
+                            metadata, outputSink);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            IOException asyncError = awaitAll(futures);
+            if (error != null || asyncError != null) {
+                throw error != null ? error : asyncError;
+            }
+
+            logger.debug("水印添加成功: {} -> {} 个输出规格", originalImage.getPath(), count);
         } catch (Exception e) {
             logger.error("添加水印时发生错误: {}", e.getMessage(), e);
             throw new IOException("添加水印时发生错误: " + e.getMessage(), e);
+        } finally {
+            // 仍在执行的编码任务结束后才能归还缓冲区
+            awaitAll(futures);
+            for (int i = 0; i < count; i++) {
+                if (composited[i] != images[i]) {
+                    imageCodec.release(composited[i]);
+                }
+                imageCodec.release(images[i]);
+            }
         }
     }
 
     /**
-     * 解析水印位置参数
-     *
-     * @param position 位置字符串
-     * @return Positions枚举值
-     */
-    private Positions parsePosition(String position) {
-        if (position == null || position.isEmpty()) {
-            return Positions.BOTTOM_RIGHT;
-        }
-
-        switch (position.toLowerCase()) {
-            case "top-left":
-                return Positions.TOP_LEFT;
-            case "top-center":
-            case "top":
-                return Positions.TOP_CENTER;
-            case "top-right":
-                return Positions.TOP_RIGHT;
-            case "center-left":
-            case "left":
-                return Positions.CENTER_LEFT;
-            case "center":
-                return Positions.CENTER;
-            case "center-right":
-            case "right":
-                return Positions.CENTER_RIGHT;
-            case "bottom-left":
-                return Positions.BOTTOM_LEFT;
-            case "bottom-center":
-            case "bottom":
-                return Positions.BOTTOM_CENTER;
-            case "bottom-right":
-            default:
-                return Positions.BOTTOM_RIGHT;
-        }
-    }
-
-    /**
-     * 解析颜色参数
-     *
-     * @param color 颜色字符串
-     * @return Color对象
-     */
-    private Color parseColor(String color) {
-        if (color == null || color.isEmpty()) {
-            return Color.WHITE;
-        }
-
-        switch (color.toLowerCase()) {
-            case "black":
-                return Color.BLACK;
-            case "blue":
-                return Color.BLUE;
-            case "cyan":
-                return Color.CYAN;
-            case "darkgray":
-            case "darkgrey":
-                return Color.DARK_GRAY;
-            case "gray":
-            case "grey":
-                return Color.GRAY;
-            case "green":
-                return Color.GREEN;
-            case "lightgray":
-            case "lightgrey":
-                return Color.LIGHT_GRAY;
-            case "magenta":
-                return Color.MAGENTA;
-            case "orange":
-                return Color.ORANGE;
-            case "pink":
-                return Color.PINK;
-            case "red":
-                return Color.RED;
-            case "white":
-                return Color.WHITE;
-            case "yellow":
-                return Color.YELLOW;
-            default:
-                // 尝试解析十六进制颜色值
+     * 读取多个输出规格共用的源文件元数据，没有支持元数据的输出格式时不读取
+     */
+    private SourceMetadata readMetadata(File originalImage, ImageHeader.Format format, List<File> outputFiles,
+                                        WatermarkRenderPlan plan) {
+        for (File outputFile : outputFiles) {
+            String formatName = imageCodec.getFormatName(outputFile);
+            if (SourceMetadata.supportsOutputFormat(formatName)) {
+                return readMetadata(originalImage, format, null, formatName, plan);
+            }
+        }
+        return SourceMetadata.EMPTY;
+    }
+
+    /**
+     * 合成、编码并写出一个输出规格
+     */
+    private void writeRendition(BufferedImage[] images, BufferedImage[] composited, double[] scales, int index,
+                                String watermarkText, WatermarkRenderPlan plan, List<Rendition> renditions,
+                                List<File> outputFiles, SourceMetadata metadata, OutputSink outputSink)
+            throws IOException {
+        File outputFile = outputFiles.get(index);
+        String formatName = imageCodec.getFormatName(outputFile);
+        composited[index] = composite(images[index], watermarkText, plan.forScale(scales[index]));
+        byte[] encoded = imageCodec.encode(composited[index], formatName, renditions.get(index).getQuality(),
+                plan.getJpegEncoding(), plan.getPngEncoding());
+        outputSink.write(outputFile, metadata.insertInto(encoded, formatName));
+    }
+
+    /**
+     * 等待所有编码任务结束，返回第一个失败任务的异常
+     */
+    private static IOException awaitAll(List<Future<?>> futures) {
+        IOException error = null;
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
                 try {
-                    if (color.startsWith("#") && color.length() == 7) {
-                        int r = Integer.parseInt(color.substring(1, 3), 16);
-                        int g = Integer.parseInt(color.substring(3, 5), 16);
-                        int b = Integer.parseInt(color.substring(5, 7), 16);
-                        return new Color(r, g, b);
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        Throwable cause = e.getCause();
+                        error = cause instanceof IOException ? (IOException) cause
+                                : new IOException(cause.getMessage(), cause);
                     }
-                } catch (NumberFormatException e) {
-                    logger.warn("无法解析颜色值: {}, 使用默认颜色白色", color);
+                    break;
                 }
-                return Color.WHITE;
+            }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return error;
+    }
+
+    // 原尺寸的规格排在最前
+    private static int edgeOrder(Rendition rendition) {
+        return rendition.isFullSize() ? Integer.MAX_VALUE : rendition.getMaxEdge();
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
     }
 
     /**
-     * 创建水印图片
+     * 在已解码的图片上添加文本水印，不涉及文件读写
      *
-     * @param text 水印文本
-     * @param font 字体
-     * @param color 颜色
-     * @return 水印图片
+     * @param image 已解码的图片
+     * @param watermarkText 水印文本
+     * @param fontSize 字体大小
+     * @param color 字体颜色
+     * @param position 水印位置
+     * @return 添加水印后的图片
+     * @throws IOException 合成失败时抛出
      */
-    private BufferedImage createWatermarkImage(String text, Font font, Color color) {
-        // 创建一个临时的图形上下文来计算文本大小
-        BufferedImage tempImage = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D tempGraphics = tempImage.createGraphics();
-        tempGraphics.setFont(font);
-        FontMetrics fontMetrics = tempGraphics.getFontMetrics();
+    public BufferedImage applyWatermark(BufferedImage image, String watermarkText, int fontSize,
+                                        String color, String position) throws IOException {
+        return applyWatermark(image, watermarkText, WatermarkRenderPlan.compile(fontSize, color, position));
+    }
 
-        int width = fontMetrics.stringWidth(text) + 20;  // 添加一些边距
-        int height = fontMetrics.getHeight() + 20;       // 添加一些边距
+    /**
+     * 按渲染计划在已解码的图片上添加文本水印，不涉及文件读写
+     * 用于流水线模式中的水印合成阶段。直接合成的后端会在传入的图片上原地绘制并返回同一对象
+     *
+     * @param image 已解码的图片
+     * @param watermarkText 水印文本
+     * @param plan 水印渲染计划
+     * @return 添加水印后的图片
+     * @throws IOException 合成失败时抛出
+     */
+    public BufferedImage applyWatermark(BufferedImage image, String watermarkText, WatermarkRenderPlan plan)
+            throws IOException {
+        if (image == null) {
+            throw new IllegalArgumentException("图片不能为null");
+        }
 
-        tempGraphics.dispose();
+        if (watermarkText == null || watermarkText.isEmpty()) {
+            throw new IllegalArgumentException("水印文本不能为空");
+        }
 
-        // 创建实际的水印图片
-        BufferedImage watermarkImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D graphics = watermarkImage.createGraphics();
+        return composite(image, watermarkText, plan);
+    }
 
-        // 设置抗锯齿
-        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    /**
+     * 按渲染计划读取需要复制到输出的源文件元数据，只截取元数据段，不解码图片
+     * 元数据损坏不影响水印处理，此时记录警告并不复制元数据
+     *
+     * @param sourceFile 源图片文件
+     * @param sourceFormat 文件头识别出的源图片格式，为null时按文件头识别
+     * @param sourceData 已读入内存的源文件内容，为null时从源文件读取
+     * @param outputFormatName 输出格式名称
+     * @param plan 水印渲染计划
+     * @return 源文件元数据，未启用元数据复制或输出格式不支持时返回SourceMetadata.EMPTY
+     */
+    public SourceMetadata readMetadata(File sourceFile, ImageHeader.Format sourceFormat, byte[] sourceData,
+                                       String outputFormatName, WatermarkRenderPlan plan) {
+        if (!plan.isMetadataPassthrough() || !SourceMetadata.supportsOutputFormat(outputFormatName)) {
+            return SourceMetadata.EMPTY;
+        }
+        try {
+            return sourceData != null && sourceFormat != null ? SourceMetadata.read(sourceData, sourceFormat)
+                    : SourceMetadata.read(sourceFile, sourceFormat);
+        } catch (IOException e) {
+            logger.warn("无法读取源文件元数据，输出不包含元数据: {} ({})", sourceFile.getPath(), e.getMessage());
+            return SourceMetadata.EMPTY;
+        }
+    }
 
-        // 设置字体和颜色
-        graphics.setFont(font);
-        graphics.setColor(color);
+    /**
+     * 判断图片能否以JPEG无损模式处理：渲染计划启用了该模式且未启用预览模式，源文件和输出都是JPEG
+     *
+     * @param sourceFormat 文件头识别出的源图片格式
+     * @param outputFormatName 输出格式名称
+     * @param plan 水印渲染计划
+     * @return 是否可以尝试只重新编码水印覆盖的MCU
+     */
+    public boolean isLosslessJpegEligible(ImageHeader.Format sourceFormat, String outputFormatName,
+                                          WatermarkRenderPlan plan) {
+        return plan.isLosslessJpeg() && !plan.isPreview() && sourceFormat == ImageHeader.Format.JPEG && "jpg".equals(outputFormatName);
+    }
 
-        // 绘制文本
-        graphics.drawString(text, 10, fontMetrics.getAscent() + 10);
+    /**
+     * 以JPEG无损模式添加文本水印，只重新编码水印覆盖的MCU，其余区域的压缩数据保持不变
+     *
+     * @param jpegData 源JPEG文件内容
+     * @param watermarkText 水印文本
+     * @param plan 水印渲染计划
+     * @return 添加水印后的JPEG文件内容；渐进式、CMYK、需要按EXIF方向旋转等不支持的JPEG返回null，
+     *         调用方应完整解码后重新编码
+     * @throws IOException JPEG数据损坏或合成失败时抛出
+     */
+    public byte[] transcodeJpeg(byte[] jpegData, String watermarkText, WatermarkRenderPlan plan) throws IOException {
+        byte[] transcoded = JpegMcuTranscoder.watermark(jpegData, getWatermarkImage(watermarkText, plan),
+                plan.getAnchor(), plan.getOpacity(), plan.getBackend());
+        if (transcoded == null) {
+            logger.debug("JPEG不支持只重新编码水印区域，改为完整解码");
+        }
+        return transcoded;
+    }
 
-        graphics.dispose();
+    /**
+     * 判断图片是否应分块处理：未启用预览模式，源格式和输出格式都支持按行带读写，且像素数超过渲染计划的分块阈值
+     *
+     * @param sourceFile 源图片文件
+     * @param sourceFormat 文件头识别出的源图片格式
+     * @param outputFormatName 输出格式名称
+     * @param plan 水印渲染计划
+     * @return 是否分块处理
+     */
+    public boolean isTiled(File sourceFile, ImageHeader.Format sourceFormat, String outputFormatName,
+                           WatermarkRenderPlan plan) {
+        if (plan.isPreview() || plan.getTileThresholdPixels() <= 0 || !TiledWatermarker.supports(sourceFormat, outputFormatName)) {
+            return false;
+        }
+        return plan.isTiled(TiledWatermarker.getPixelCount(sourceFile, sourceFormat));
+    }
 
-        return watermarkImage;
+    /**
+     * 分块添加文本水印，按行带读取源图片、只在水印所在的行带上合成，处理完的行带立即写出到输出文件
+     *
+     * @param sourceFile 源图片文件
+     * @param sourceFormat 文件头识别出的源图片格式
+     * @param watermarkText 水印文本
+     * @param plan 水印渲染计划
+     * @param outputFile 输出文件，行带写入临时文件，全部写完后才交给输出目标
+     * @param outputSink 输出目标
+     * @throws IOException 读写失败或合成失败时抛出
+     */
+    public void watermarkTiled(File sourceFile, ImageHeader.Format sourceFormat, String watermarkText,
+                               WatermarkRenderPlan plan, File outputFile, OutputSink outputSink)
+            throws IOException {
+        String formatName = imageCodec.getFormatName(outputFile);
+        BufferedImage overlay = getWatermarkImage(watermarkText, plan);
+        outputSink.write(outputFile, tempFile -> TiledWatermarker.watermark(sourceFile, sourceFormat, tempFile,
+                formatName, overlay, plan.getAnchor(), plan.getOpacity(), plan.getBackend()));
+    }
+
+    private BufferedImage composite(BufferedImage image, String watermarkText, WatermarkRenderPlan plan)
+            throws IOException {
+        return plan.getBackend().composite(image, getWatermarkImage(watermarkText, plan), plan.getAnchor(),
+                plan.getOpacity());
+    }
+
+    /**
+     * 获取水印图片，相同文本、字体和颜色的水印图片从缓存中复用
+     *
+     * @param text 水印文本
+     * @param plan 水印渲染计划
+     * @return 水印图片，可能被其他线程同时使用，不得修改
+     */
+    private BufferedImage getWatermarkImage(String text, WatermarkRenderPlan plan) {
+        return overlayCache.get(text, plan.getFont(), plan.getColor(), plan.getOpacity(),
+                () -> createWatermarkImage(text, plan));
+    }
+
+    /**
+     * 创建水印图片，尺寸由渲染计划中预先取得的字体度量计算，文本由渲染计划的字形图集拼接
+     *
+     * @param text 水印文本
+     * @param plan 水印渲染计划
+     * @return 水印图片
+     */
+    private BufferedImage createWatermarkImage(String text, WatermarkRenderPlan plan) {
+        return plan.createOverlay(text);
     }
-}
\ No newline at end of file
+}
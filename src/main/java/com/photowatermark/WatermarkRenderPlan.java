@@ -0,0 +1,489 @@
+package com.photowatermark;
+
+import com.photowatermark.jpeg.JpegEncoding;
+import com.photowatermark.png.PngEncoding;
+import com.photowatermark.render.GlyphAtlas;
+import com.photowatermark.render.RenderingBackend;
+import net.coobird.thumbnailator.geometry.Positions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 水印渲染计划，由字体大小、颜色、位置和渲染后端设置编译而成
+ * 字体、颜色、水印位置、字体度量、渲染提示和合成后端在编译时一次性解析，同一批次的所有图片共用，不再逐个图片解析设置。
+ * 水印文本通过字形图集绘制，批次内每个字符只光栅化一次。
+ * 启用JPEG无损模式时，JPEG到JPEG的处理只重新编码水印覆盖的MCU，其余区域保持源文件的压缩数据不变。
+ * 启用预览模式时，图片按预览尺寸缩小解码，水印字体按同样的比例缩小后合成和编码。
+ * 除首次使用时填充的线程安全字形图集和缩放计划缓存外本类不可变，可在多个工作线程之间共享
+ */
+public final class WatermarkRenderPlan {
+    private static final Logger logger = LoggerFactory.getLogger(WatermarkRenderPlan.class);
+
+    // 默认字体名称
+    private static final String DEFAULT_FONT_NAME = "Arial";
+
+    // 默认字体样式
+    private static final int DEFAULT_FONT_STYLE = Font.BOLD;
+
+    // 水印图层的不透明度
+    private static final float DEFAULT_OPACITY = 0.5f;
+
+    // 水印文本四周的边距
+    private static final int PADDING = 10;
+
+    // 默认的分块处理阈值，像素数超过该值的BMP、PNG和TIFF按行带分块处理
+    public static final long DEFAULT_TILE_THRESHOLD_PIXELS = 64L * 1000 * 1000;
+
+    // 预览中水印字体的最小大小，保证缩小后的文字仍然可读
+    static final int MIN_PREVIEW_FONT_SIZE = 8;
+
+    private final int fontSize;
+    private final Font font;
+    private final Color color;
+    private final Positions anchor;
+    private final float opacity;
+    private final FontMetrics fontMetrics;
+    private final RenderingHints renderingHints;
+    private final RenderingBackend backend;
+    private final GlyphAtlas glyphAtlas;
+    private final boolean losslessJpeg;
+    private final long tileThresholdPixels;
+    private final int previewMaxEdge;
+    private final JpegEncoding jpegEncoding;
+    private final boolean metadataPassthrough;
+    private final PngEncoding pngEncoding;
+
+    // 按缩放后的字体大小编译的渲染计划，同一批次内相同字体大小的图片共用
+    private final Map<Integer, WatermarkRenderPlan> scaledPlans = new ConcurrentHashMap<>();
+
+    private WatermarkRenderPlan(int fontSize, Color color, Positions anchor, RenderingBackend backend) {
+        this.fontSize = fontSize;
+        this.font = new Font(DEFAULT_FONT_NAME, DEFAULT_FONT_STYLE, fontSize);
+        this.color = color;
+        this.anchor = anchor;
+        this.opacity = DEFAULT_OPACITY;
+        this.backend = backend;
+        this.losslessJpeg = false;
+        this.tileThresholdPixels = DEFAULT_TILE_THRESHOLD_PIXELS;
+        this.previewMaxEdge = 0;
+        this.jpegEncoding = JpegEncoding.DEFAULT;
+        this.metadataPassthrough = false;
+        this.pngEncoding = PngEncoding.DEFAULT;
+
+        RenderingHints hints = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        hints.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        this.renderingHints = hints;
+        this.glyphAtlas = new GlyphAtlas(font, color, hints);
+
+        // 字体度量与图形上下文无关，释放上下文后仍可使用
+        Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        try {
+            graphics.setFont(font);
+            this.fontMetrics = graphics.getFontMetrics();
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    // 复制渲染计划并修改JPEG无损模式、分块阈值、预览尺寸、编码设置和元数据复制，共用已解析的字体、度量和字形图集
+    private WatermarkRenderPlan(WatermarkRenderPlan plan, boolean losslessJpeg, long tileThresholdPixels,
+                                int previewMaxEdge, JpegEncoding jpegEncoding, boolean metadataPassthrough,
+                                PngEncoding pngEncoding) {
+        this.fontSize = plan.fontSize;
+        this.font = plan.font;
+        this.color = plan.color;
+        this.anchor = plan.anchor;
+        this.opacity = plan.opacity;
+        this.backend = plan.backend;
+        this.renderingHints = plan.renderingHints;
+        this.glyphAtlas = plan.glyphAtlas;
+        this.fontMetrics = plan.fontMetrics;
+        this.losslessJpeg = losslessJpeg;
+        this.tileThresholdPixels = tileThresholdPixels;
+        this.previewMaxEdge = previewMaxEdge;
+        this.jpegEncoding = jpegEncoding;
+        this.metadataPassthrough = metadataPassthrough;
+        this.pngEncoding = pngEncoding;
+    }
+
+    /**
+     * 编译渲染计划
+     *
+     * @param fontSize 字体大小
+     * @param color 字体颜色，颜色名称或#RRGGBB格式
+     * @param position 水印位置
+     * @return 渲染计划
+     */
+    public static WatermarkRenderPlan compile(int fontSize, String color, String position) {
+        return compile(fontSize, color, position, RenderingBackend.DEFAULT_NAME);
+    }
+
+    /**
+     * 编译使用指定渲染后端的渲染计划
+     *
+     * @param fontSize 字体大小
+     * @param color 字体颜色，颜色名称或#RRGGBB格式
+     * @param position 水印位置
+     * @param backendName 渲染后端名称，为null时使用默认后端
+     * @return 渲染计划
+     * @throws IllegalArgumentException 后端名称未知时抛出
+     */
+    public static WatermarkRenderPlan compile(int fontSize, String color, String position, String backendName) {
+        return new WatermarkRenderPlan(fontSize, parseColor(color), parsePosition(position),
+                RenderingBackend.forName(backendName));
+    }
+
+    public int getFontSize() {
+        return fontSize;
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public Positions getAnchor() {
+        return anchor;
+    }
+
+    public float getOpacity() {
+        return opacity;
+    }
+
+    public FontMetrics getFontMetrics() {
+        return fontMetrics;
+    }
+
+    public RenderingBackend getBackend() {
+        return backend;
+    }
+
+    public boolean isLosslessJpeg() {
+        return losslessJpeg;
+    }
+
+    /**
+     * 获取启用或关闭JPEG无损模式的渲染计划
+     * JPEG无损模式下，JPEG输入输出为JPEG时只重新编码水印覆盖的MCU，不支持的JPEG仍完整解码后重新编码
+     *
+     * @param enabled 是否启用
+     * @return 渲染计划，设置未变化时返回本对象
+     */
+    public WatermarkRenderPlan withLosslessJpeg(boolean enabled) {
+        return enabled == losslessJpeg ? this : new WatermarkRenderPlan(this, enabled, tileThresholdPixels,
+                previewMaxEdge, jpegEncoding, metadataPassthrough, pngEncoding);
+    }
+
+    public long getTileThresholdPixels() {
+        return tileThresholdPixels;
+    }
+
+    /**
+     * 获取使用指定分块阈值的渲染计划
+     * 像素数超过阈值的BMP、PNG和TIFF按行带流式读取、合成和写出，内存占用与图片尺寸无关
+     *
+     * @param pixels 分块处理的像素数阈值，不大于0时不分块处理
+     * @return 渲染计划，设置未变化时返回本对象
+     */
+    public WatermarkRenderPlan withTileThreshold(long pixels) {
+        long threshold = Math.max(0, pixels);
+        return threshold == tileThresholdPixels ? this : new WatermarkRenderPlan(this, losslessJpeg, threshold,
+                previewMaxEdge, jpegEncoding, metadataPassthrough, pngEncoding);
+    }
+
+    /**
+     * 判断指定像素数的图片是否应分块处理
+     *
+     * @param pixels 图片像素数，未知时为负数
+     * @return 是否超过分块阈值
+     */
+    public boolean isTiled(long pixels) {
+        return tileThresholdPixels > 0 && pixels > tileThresholdPixels;
+    }
+
+    public int getPreviewMaxEdge() {
+        return previewMaxEdge;
+    }
+
+    public boolean isPreview() {
+        return previewMaxEdge > 0;
+    }
+
+    /**
+     * 获取使用指定预览尺寸的渲染计划
+     * 预览模式下图片按缩小的尺寸解码、合成水印和编码，用于快速生成供审阅的低分辨率样张；
+     * 预览模式优先于JPEG无损模式和分块处理
+     *
+     * @param maxEdge 预览图片长边的最大像素数，不大于0时关闭预览模式
+     * @return 渲染计划，设置未变化时返回本对象
+     */
+    public WatermarkRenderPlan withPreview(int maxEdge) {
+        int edge = Math.max(0, maxEdge);
+        return edge == previewMaxEdge ? this : new WatermarkRenderPlan(this, losslessJpeg, tileThresholdPixels, edge,
+                jpegEncoding, metadataPassthrough, pngEncoding);
+    }
+
+    public JpegEncoding getJpegEncoding() {
+        return jpegEncoding;
+    }
+
+    /**
+     * 获取使用指定JPEG编码设置的渲染计划
+     * 编码设置用于完整解码后重新编码的JPEG输出，包括预览和输出规格；
+     * JPEG无损模式只重新编码部分MCU，沿用源文件的量化表和采样方式，不使用编码设置
+     *
+     * @param encoding JPEG编码设置，为null时使用默认设置
+     * @return 渲染计划，设置未变化时返回本对象
+     */
+    public WatermarkRenderPlan withJpegEncoding(JpegEncoding encoding) {
+        JpegEncoding newEncoding = encoding != null ? encoding : JpegEncoding.DEFAULT;
+        return newEncoding == jpegEncoding ? this : new WatermarkRenderPlan(this, losslessJpeg, tileThresholdPixels,
+                previewMaxEdge, newEncoding, metadataPassthrough, pngEncoding);
+    }
+
+    public boolean isMetadataPassthrough() {
+        return metadataPassthrough;
+    }
+
+    /**
+     * 获取启用或关闭元数据复制的渲染计划
+     * 启用时源文件的EXIF、XMP和ICC配置文件按原始字节复制到完整解码后重新编码的JPEG和PNG输出；
+     * JPEG无损模式本身保留源文件的标记段，分块处理的输出不复制元数据
+     *
+     * @param enabled 是否启用
+     * @return 渲染计划，设置未变化时返回本对象
+     */
+    public WatermarkRenderPlan withMetadataPassthrough(boolean enabled) {
+        return enabled == metadataPassthrough ? this : new WatermarkRenderPlan(this, losslessJpeg,
+                tileThresholdPixels, previewMaxEdge, jpegEncoding, enabled, pngEncoding);
+    }
+
+    public PngEncoding getPngEncoding() {
+        return pngEncoding;
+    }
+
+    /**
+     * 获取使用指定PNG编码设置的渲染计划
+     * 非默认设置时完整解码后重新编码的PNG输出按块并行压缩，包括预览和输出规格；
+     * 分块处理的超大图片按行带流式写出，不使用编码设置
+     *
+     * @param encoding PNG编码设置，为null时使用默认设置
+     * @return 渲染计划，设置未变化时返回本对象
+     */
+    public WatermarkRenderPlan withPngEncoding(PngEncoding encoding) {
+        PngEncoding newEncoding = encoding != null ? encoding : PngEncoding.DEFAULT;
+        return newEncoding == pngEncoding ? this : new WatermarkRenderPlan(this, losslessJpeg, tileThresholdPixels,
+                previewMaxEdge, jpegEncoding, metadataPassthrough, newEncoding);
+    }
+
+    /**
+     * 获取按缩放比例缩小字体的渲染计划，使水印在预览或缩小的输出规格中与原图中的相对大小一致
+     * 字体不小于MIN_PREVIEW_FONT_SIZE，缩放后的计划按字体大小缓存
+     *
+     * @param scale 缩小后的图片相对原图的缩放比例
+     * @return 渲染计划，字体大小未变化时返回本对象
+     */
+    public WatermarkRenderPlan forScale(double scale) {
+        int scaledSize = Math.max(Math.min(fontSize, MIN_PREVIEW_FONT_SIZE), (int) Math.round(fontSize * scale));
+        if (scaledSize >= fontSize) {
+            return this;
+        }
+        return scaledPlans.computeIfAbsent(scaledSize, size -> new WatermarkRenderPlan(
+                new WatermarkRenderPlan(size, color, anchor, backend), losslessJpeg, tileThresholdPixels,
+                previewMaxEdge, jpegEncoding, metadataPassthrough, pngEncoding));
+    }
+
+    /**
+     * 获取绘制水印文本使用的渲染提示
+     *
+     * @return 渲染提示的副本
+     */
+    public RenderingHints getRenderingHints() {
+        return (RenderingHints) renderingHints.clone();
+    }
+
+    /**
+     * 获取水印图层的宽度
+     *
+     * @param text 水印文本
+     * @return 宽度（包括边距）
+     */
+    public int getOverlayWidth(String text) {
+        return fontMetrics.stringWidth(text) + PADDING * 2;
+    }
+
+    /**
+     * 获取水印图层的高度
+     *
+     * @return 高度（包括边距）
+     */
+    public int getOverlayHeight() {
+        return fontMetrics.getHeight() + PADDING * 2;
+    }
+
+    /**
+     * 将字体、颜色和渲染提示应用到图形上下文，并在图层中绘制水印文本
+     *
+     * @param graphics 水印图层的图形上下文
+     * @param text 水印文本
+     */
+    public void drawText(Graphics2D graphics, String text) {
+        graphics.addRenderingHints(renderingHints);
+        graphics.setFont(font);
+        graphics.setColor(color);
+        graphics.drawString(text, PADDING, fontMetrics.getAscent() + PADDING);
+    }
+
+    /**
+     * 创建绘有水印文本的水印图层
+     * 可打印的ASCII文本由字形图集拼接，其他文本使用drawString绘制，两者结果相同
+     *
+     * @param text 水印文本
+     * @return TYPE_INT_ARGB的水印图层
+     */
+    public BufferedImage createOverlay(String text) {
+        BufferedImage overlay = new BufferedImage(getOverlayWidth(text), getOverlayHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        if (glyphAtlas.canRender(text)) {
+            glyphAtlas.drawText(overlay, text, PADDING, fontMetrics.getAscent() + PADDING);
+            return overlay;
+        }
+
+        Graphics2D graphics = overlay.createGraphics();
+        try {
+            drawText(graphics, text);
+        } finally {
+            graphics.dispose();
+        }
+        return overlay;
+    }
+
+    GlyphAtlas getGlyphAtlas() {
+        return glyphAtlas;
+    }
+
+    /**
+     * 解析水印位置参数
+     *
+     * @param position 位置字符串
+     * @return Positions枚举值
+     */
+    static Positions parsePosition(String position) {
+        if (position == null || position.isEmpty()) {
+            return Positions.BOTTOM_RIGHT;
+        }
+
+        switch (position.toLowerCase(Locale.ROOT)) {
+            case "top-left":
+                return Positions.TOP_LEFT;
+            case "top-center":
+            case "top":
+                return Positions.TOP_CENTER;
+            case "top-right":
+                return Positions.TOP_RIGHT;
+            case "center-left":
+            case "left":
+                return Positions.CENTER_LEFT;
+            case "center":
+                return Positions.CENTER;
+            case "center-right":
+            case "right":
+                return Positions.CENTER_RIGHT;
+            case "bottom-left":
+                return Positions.BOTTOM_LEFT;
+            case "bottom-center":
+            case "bottom":
+                return Positions.BOTTOM_CENTER;
+            case "bottom-right":
+            default:
+                return Positions.BOTTOM_RIGHT;
+        }
+    }
+
+    /**
+     * 解析颜色参数
+     *
+     * @param color 颜色字符串
+     * @return Color对象
+     */
+    static Color parseColor(String color) {
+        if (color == null || color.isEmpty()) {
+            return Color.WHITE;
+        }
+
+        switch (color.toLowerCase(Locale.ROOT)) {
+            case "black":
+                return Color.BLACK;
+            case "blue":
+                return Color.BLUE;
+            case "cyan":
+                return Color.CYAN;
+            case "darkgray":
+            case "darkgrey":
+                return Color.DARK_GRAY;
+            case "gray":
+            case "grey":
+                return Color.GRAY;
+            case "green":
+                return Color.GREEN;
+            case "lightgray":
+            case "lightgrey":
+                return Color.LIGHT_GRAY;
+            case "magenta":
+                return Color.MAGENTA;
+            case "orange":
+                return Color.ORANGE;
+            case "pink":
+                return Color.PINK;
+            case "red":
+                return Color.RED;
+            case "white":
+                return Color.WHITE;
+            case "yellow":
+                return Color.YELLOW;
+            default:
+                // 尝试解析十六进制颜色值
+                try {
+                    if (color.startsWith("#") && color.length() == 7) {
+                        int r = Integer.parseInt(color.substring(1, 3), 16);
+                        int g = Integer.parseInt(color.substring(3, 5), 16);
+                        int b = Integer.parseInt(color.substring(5, 7), 16);
+                        return new Color(r, g, b);
+                    }
+                } catch (NumberFormatException e) {
+                    logger.warn("无法解析颜色值: {}, 使用默认颜色白色", color);
+                }
+                return Color.WHITE;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WatermarkRenderPlan{" +
+                "fontSize=" + fontSize +
+                ", color=#" + String.format("%06X", color.getRGB() & 0xFFFFFF) +
+                ", anchor=" + anchor +
+                ", opacity=" + opacity +
+                ", backend=" + backend.getName() +
+                ", losslessJpeg=" + losslessJpeg +
+                ", tileThresholdPixels=" + tileThresholdPixels +
+                ", previewMaxEdge=" + previewMaxEdge +
+                ", jpegEncoding=" + jpegEncoding +
+                ", metadataPassthrough=" + metadataPassthrough +
+                ", pngEncoding=" + pngEncoding +
+                '}';
+    }
+}
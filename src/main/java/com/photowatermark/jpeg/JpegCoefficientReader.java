@@ -0,0 +1,700 @@
+package com.photowatermark.jpeg;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基线JPEG的系数读取器，只做霍夫曼解码，得到量化后的DCT系数，不做反量化和反变换
+ * 支持8位精度、1个或3个分量（YCbCr）的顺序霍夫曼编码图片，包括重启间隔和多个非交错扫描。
+ * 渐进式、算术编码、12位精度、CMYK/RGB图片以及EXIF方向不是正常方向的图片不支持，read返回null，由调用方回退到完整解码
+ */
+final class JpegCoefficientReader {
+
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int DRI = 0xDD;
+    private static final int DHT = 0xC4;
+    private static final int APP1 = 0xE1;
+    private static final int APP2 = 0xE2;
+    private static final int APP14 = 0xEE;
+
+    // EXIF中方向标签的编号
+    private static final int ORIENTATION_TAG = 0x0112;
+
+    private final byte[] data;
+    // 是否只保存直流系数
+    private final boolean dcOnly;
+    private final HuffmanTable[] dcTables = new HuffmanTable[4];
+    private final HuffmanTable[] acTables = new HuffmanTable[4];
+    private final int[][] quantizationTables = new int[4][];
+    // 原样保留的标记段
+    private final List<byte[]> segments = new ArrayList<>();
+    // 霍夫曼表和重启间隔标记段，复制熵编码数据时随扫描头一起写出
+    private final List<byte[]> scanSegments = new ArrayList<>();
+    private JpegFrame frame;
+    private int scanCount;
+    private int restartInterval;
+    private boolean adobeRgb;
+    private boolean[] decodedComponents;
+    private int orientation;
+
+    private JpegCoefficientReader(byte[] data, boolean dcOnly) {
+        this.data = data;
+        this.dcOnly = dcOnly;
+    }
+
+    /**
+     * 读取JPEG图片的DCT系数
+     *
+     * @param data JPEG文件内容
+     * @return 系数形式的图片，不支持的JPEG返回null
+     * @throws IOException 数据损坏时抛出
+     */
+    static JpegFrame read(byte[] data) throws IOException {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != SOI) {
+            throw new IOException("不是JPEG数据");
+        }
+        return new JpegCoefficientReader(data, false).readSegments();
+    }
+
+    /**
+     * 只读取JPEG图片的直流系数，交流系数解码后丢弃
+     * 每个块只保存直流系数，内存占用为完整读取的1/64；需要按EXIF方向旋转的图片也可以读取，方向记录在结果中
+     *
+     * @param data JPEG文件内容
+     * @return 每个块只有直流系数的图片，不支持的JPEG返回null
+     * @throws IOException 数据损坏时抛出
+     */
+    static JpegFrame readDcOnly(byte[] data) throws IOException {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != SOI) {
+            throw new IOException("不是JPEG数据");
+        }
+        return new JpegCoefficientReader(data, true).readSegments();
+    }
+
+    private JpegFrame readSegments() throws IOException {
+        int pos = 2;
+        while (true) {
+            if (pos + 1 >= data.length) {
+                throw new IOException("JPEG数据不完整");
+            }
+            if ((data[pos] & 0xFF) != 0xFF) {
+                throw new IOException("JPEG标记无效，位置: " + pos);
+            }
+            int marker = data[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // 填充字节
+                pos++;
+                continue;
+            }
+            pos += 2;
+            if (marker == EOI) {
+                break;
+            }
+            if (marker == SOI || (marker >= 0xD0 && marker <= 0xD7) || marker == 0x01) {
+                continue;
+            }
+
+            if (pos + 2 > data.length) {
+                throw new IOException("JPEG数据不完整");
+            }
+            int length = readUnsignedShort(pos);
+            if (length < 2 || pos + length > data.length) {
+                throw new IOException("JPEG标记段长度无效，位置: " + pos);
+            }
+            int start = pos + 2;
+            int end = pos + length;
+
+            switch (marker) {
+                case 0xC0:
+                case 0xC1:
+                    if (frame != null || !readFrame(start, end)) {
+                        return null;
+                    }
+                    keep(pos - 2, end);
+                    break;
+                case DHT:
+                    readHuffmanTables(start, end);
+                    scanSegments.add(Arrays.copyOfRange(data, pos - 2, end));
+                    break;
+                case DQT:
+                    readQuantizationTables(start, end);
+                    keep(pos - 2, end);
+                    break;
+                case DRI:
+                    restartInterval = readUnsignedShort(start);
+                    scanSegments.add(Arrays.copyOfRange(data, pos - 2, end));
+                    break;
+                case SOS:
+                    if (frame == null || adobeRgb) {
+                        return null;
+                    }
+                    Integer scanEnd = readScan(pos - 2, start, end);
+                    if (scanEnd == null) {
+                        return null;
+                    }
+                    pos = scanEnd;
+                    continue;
+                case APP1:
+                    int exifOrientation = getExifOrientation(start, end);
+                    if (exifOrientation > 1) {
+                        if (!dcOnly) {
+                            return null;
+                        }
+                        orientation = exifOrientation;
+                    }
+                    keep(pos - 2, end);
+                    break;
+                case APP2:
+                    // 多图片格式的偏移量指向原文件之后的数据，重新编码后失效
+                    if (!startsWith(start, end, "MPF\0")) {
+                        keep(pos - 2, end);
+                    }
+                    break;
+                case APP14:
+                    if (startsWith(start, end, "Adobe") && end - start >= 12) {
+                        adobeRgb = (data[start + 11] & 0xFF) == 0;
+                    }
+                    keep(pos - 2, end);
+                    break;
+                default:
+                    if (marker >= 0xC0 && marker <= 0xCF) {
+                        // 渐进式、无损、分层和算术编码
+                        return null;
+                    }
+                    keep(pos - 2, end);
+                    break;
+            }
+            pos = end;
+        }
+
+        if (frame == null || decodedComponents == null) {
+            throw new IOException("JPEG数据不完整");
+        }
+        for (boolean decoded : decodedComponents) {
+            if (!decoded) {
+                throw new IOException("JPEG数据缺少分量的扫描");
+            }
+        }
+        for (JpegFrame.Component component : frame.components) {
+            if (quantizationTables[component.quantizationTable] == null) {
+                throw new IOException("JPEG分量引用了未定义的量化表");
+            }
+        }
+        System.arraycopy(quantizationTables, 0, frame.quantizationTables, 0, quantizationTables.length);
+        frame.segments.addAll(segments);
+        frame.orientation = orientation;
+        return frame;
+    }
+
+    private void keep(int start, int end) {
+        segments.add(Arrays.copyOfRange(data, start, end));
+    }
+
+    private boolean readFrame(int start, int end) {
+        int precision = data[start] & 0xFF;
+        int height = readUnsignedShort(start + 1);
+        int width = readUnsignedShort(start + 3);
+        int count = data[start + 5] & 0xFF;
+        if (precision != 8 || width == 0 || height == 0 || (count != 1 && count != 3) || end - start < 6 + count * 3) {
+            return false;
+        }
+
+        JpegFrame.Component[] components = new JpegFrame.Component[count];
+        for (int i = 0; i < count; i++) {
+            int offset = start + 6 + i * 3;
+            int sampling = data[offset + 1] & 0xFF;
+            int h = sampling >> 4;
+            int v = sampling & 0x0F;
+            int tq = data[offset + 2] & 0xFF;
+            if (h < 1 || h > 4 || v < 1 || v > 4 || tq > 3) {
+                return false;
+            }
+            components[i] = new JpegFrame.Component(data[offset] & 0xFF, h, v, tq);
+        }
+        if (count == 3 && components[0].id == 'R' && components[1].id == 'G' && components[2].id == 'B') {
+            return false;
+        }
+
+        JpegFrame candidate = new JpegFrame(width, height, components, dcOnly ? 1 : 64);
+        for (JpegFrame.Component component : components) {
+            // 色度重采样只支持整数倍
+            if (candidate.maxHorizontalSampling % component.horizontalSampling != 0
+                    || candidate.maxVerticalSampling % component.verticalSampling != 0) {
+                return false;
+            }
+        }
+        frame = candidate;
+        decodedComponents = new boolean[count];
+        return true;
+    }
+
+    private void readQuantizationTables(int start, int end) throws IOException {
+        int pos = start;
+        while (pos < end) {
+            int precision = (data[pos] & 0xFF) >> 4;
+            int id = data[pos] & 0x0F;
+            pos++;
+            if (id > 3 || pos + 64 * (precision + 1) > end) {
+                throw new IOException("JPEG量化表无效");
+            }
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                table[JpegFrame.ZIGZAG[k]] = precision == 0 ? data[pos++] & 0xFF : readUnsignedShort((pos += 2) - 2);
+            }
+            quantizationTables[id] = table;
+        }
+    }
+
+    private void readHuffmanTables(int start, int end) throws IOException {
+        int pos = start;
+        while (pos < end) {
+            int tableClass = (data[pos] & 0xFF) >> 4;
+            int id = data[pos] & 0x0F;
+            pos++;
+            if (tableClass > 1 || id > 3 || pos + 16 > end) {
+                throw new IOException("JPEG霍夫曼表无效");
+            }
+            int[] counts = new int[17];
+            int total = 0;
+            for (int i = 1; i <= 16; i++) {
+                counts[i] = data[pos++] & 0xFF;
+                total += counts[i];
+            }
+            if (total > 256 || pos + total > end) {
+                throw new IOException("JPEG霍夫曼表无效");
+            }
+            int[] values = new int[total];
+            for (int i = 0; i < total; i++) {
+                values[i] = data[pos++] & 0xFF;
+            }
+            (tableClass == 0 ? dcTables : acTables)[id] = new HuffmanTable(counts, values);
+        }
+    }
+
+    /**
+     * 解码一个扫描
+     * 熵编码数据先去除填充字节和重启标记，再从中解码；扫描包含全部分量时记录每个编码单元的起始位，供写出时原样复制
+     *
+     * @return 扫描数据之后下一个标记的位置，扫描参数不是基线模式时返回null
+     */
+    private Integer readScan(int headerStart, int start, int end) throws IOException {
+        int count = data[start] & 0xFF;
+        if (count < 1 || count > frame.components.length || end - start < 4 + count * 2) {
+            throw new IOException("JPEG扫描头无效");
+        }
+
+        JpegFrame.Component[] scanComponents = new JpegFrame.Component[count];
+        HuffmanTable[] dc = new HuffmanTable[count];
+        HuffmanTable[] ac = new HuffmanTable[count];
+        boolean frameOrder = count == frame.components.length;
+        for (int i = 0; i < count; i++) {
+            int id = data[start + 1 + i * 2] & 0xFF;
+            int tables = data[start + 2 + i * 2] & 0xFF;
+            int index = findComponent(id);
+            if (index < 0 || (tables >> 4) > 3 || (tables & 0x0F) > 3) {
+                throw new IOException("JPEG扫描头无效");
+            }
+            scanComponents[i] = frame.components[index];
+            frameOrder &= index == i;
+            dc[i] = dcTables[tables >> 4];
+            ac[i] = acTables[tables & 0x0F];
+            if (dc[i] == null || ac[i] == null) {
+                throw new IOException("JPEG扫描引用了未定义的霍夫曼表");
+            }
+            decodedComponents[index] = true;
+        }
+        int spectralStart = data[start + 1 + count * 2] & 0xFF;
+        int spectralEnd = data[start + 2 + count * 2] & 0xFF;
+        int approximation = data[start + 3 + count * 2] & 0xFF;
+        if (spectralStart != 0 || spectralEnd != 63 || approximation != 0) {
+            return null;
+        }
+
+        EntropyData entropy = unstuff(end);
+        BitReader reader = new BitReader(entropy.bytes, entropy.length);
+        int units = count == 1
+                ? scanComponents[0].scanBlocksPerLine(frame) * scanComponents[0].scanBlocksPerColumn(frame)
+                : frame.mcusPerLine * frame.mcusPerColumn;
+        int intervals = restartInterval > 0 ? (units + restartInterval - 1) / restartInterval : 1;
+        if (entropy.intervalStarts.size() < intervals - 1) {
+            throw new IOException("JPEG缺少重启标记");
+        }
+        long[] unitPositions = new long[units];
+        long[] intervalEnds = new long[intervals];
+
+        int[] predictors = new int[count];
+        for (int unit = 0; unit < units; unit++) {
+            if (restartInterval > 0 && unit > 0 && unit % restartInterval == 0) {
+                int interval = unit / restartInterval;
+                intervalEnds[interval - 1] = reader.position();
+                reader.seek(entropy.intervalStarts.get(interval - 1));
+                Arrays.fill(predictors, 0);
+            }
+            unitPositions[unit] = reader.position();
+
+            if (count == 1) {
+                JpegFrame.Component component = scanComponents[0];
+                int blocksPerLine = component.scanBlocksPerLine(frame);
+                predictors[0] = decodeBlock(reader, dc[0], ac[0], component.coefficients,
+                        component.blockOffset(unit / blocksPerLine, unit % blocksPerLine), predictors[0], dcOnly);
+                continue;
+            }
+            int mcuRow = unit / frame.mcusPerLine;
+            int mcuColumn = unit % frame.mcusPerLine;
+            for (int i = 0; i < count; i++) {
+                JpegFrame.Component component = scanComponents[i];
+                for (int v = 0; v < component.verticalSampling; v++) {
+                    for (int h = 0; h < component.horizontalSampling; h++) {
+                        predictors[i] = decodeBlock(reader, dc[i], ac[i], component.coefficients,
+                                component.blockOffset(mcuRow * component.verticalSampling + v,
+                                        mcuColumn * component.horizontalSampling + h), predictors[i], dcOnly);
+                    }
+                }
+            }
+        }
+        intervalEnds[intervals - 1] = reader.position();
+
+        scanCount++;
+        if (scanCount == 1 && frameOrder && !dcOnly) {
+            int[][][] dcCodes = new int[count][][];
+            int[][][] acCodes = new int[count][][];
+            for (int i = 0; i < count; i++) {
+                dcCodes[i] = new int[][] {dc[i].counts, dc[i].values};
+                acCodes[i] = new int[][] {ac[i].counts, ac[i].values};
+            }
+            List<byte[]> headers = new ArrayList<>(scanSegments);
+            headers.add(Arrays.copyOfRange(data, headerStart, end));
+            frame.scan = new JpegFrame.Scan(entropy.bytes, unitPositions, intervalEnds, restartInterval,
+                    dcCodes, acCodes, headers);
+        } else {
+            frame.scan = null;
+        }
+        return entropy.markerPosition;
+    }
+
+    /**
+     * 从扫描数据开始处读取熵编码数据，去除0xFF之后填充的0x00字节、标记前的填充字节和重启标记
+     *
+     * @param start 扫描数据的起始位置
+     * @return 去除填充后的数据和各重启间隔的起始位置
+     */
+    private EntropyData unstuff(int start) throws IOException {
+        EntropyData entropy = new EntropyData(new byte[data.length - start]);
+        byte[] bytes = entropy.bytes;
+        int length = 0;
+        int pos = start;
+        while (true) {
+            if (pos >= data.length) {
+                throw new IOException("JPEG数据不完整");
+            }
+            byte b = data[pos];
+            if (b != (byte) 0xFF) {
+                bytes[length++] = b;
+                pos++;
+                continue;
+            }
+            if (pos + 1 >= data.length) {
+                throw new IOException("JPEG数据不完整");
+            }
+            int next = data[pos + 1] & 0xFF;
+            if (next == 0) {
+                bytes[length++] = b;
+                pos += 2;
+            } else if (next == 0xFF) {
+                pos++;
+            } else if (next >= 0xD0 && next <= 0xD7) {
+                entropy.intervalStarts.add(length);
+                pos += 2;
+            } else {
+                break;
+            }
+        }
+        entropy.length = length;
+        entropy.markerPosition = pos;
+        return entropy;
+    }
+
+    private int findComponent(int id) {
+        for (int i = 0; i < frame.components.length; i++) {
+            if (frame.components[i].id == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 解码一个8x8块的系数
+     *
+     * @param dcOnly 是否只保存直流系数，交流系数解码后丢弃
+     * @return 解码后的直流系数，作为下一个块的预测值
+     */
+    private static int decodeBlock(BitReader reader, HuffmanTable dc, HuffmanTable ac, short[] coefficients,
+                                   int offset, int predictor, boolean dcOnly) throws IOException {
+        int value = predictor + reader.receiveExtend(reader.decode(dc));
+        coefficients[offset] = (short) value;
+        for (int k = 1; k < 64; ) {
+            int fast = reader.decodeShortAc(ac);
+            if (fast != 0) {
+                k += (fast >> 4) & 0x0F;
+                if (k > 63) {
+                    throw new IOException("JPEG系数超出块范围");
+                }
+                if (!dcOnly) {
+                    coefficients[offset + JpegFrame.ZIGZAG[k]] = (short) (fast >> 16);
+                }
+                k++;
+                continue;
+            }
+            int symbol = reader.decode(ac);
+            int run = symbol >> 4;
+            int size = symbol & 0x0F;
+            if (size == 0) {
+                if (run != 15) {
+                    break;
+                }
+                k += 16;
+                continue;
+            }
+            k += run;
+            if (k > 63) {
+                throw new IOException("JPEG系数超出块范围");
+            }
+            int coefficient = reader.receiveExtend(size);
+            if (!dcOnly) {
+                coefficients[offset + JpegFrame.ZIGZAG[k]] = (short) coefficient;
+            }
+            k++;
+        }
+        return value;
+    }
+
+    /**
+     * 从EXIF中读取方向标签
+     *
+     * @return 方向值，没有EXIF或方向标签时返回0
+     */
+    private int getExifOrientation(int start, int end) {
+        if (!startsWith(start, end, "Exif\0\0") || end - start < 14) {
+            return 0;
+        }
+        int tiff = start + 6;
+        boolean littleEndian = data[tiff] == 'I';
+        long ifdOffset = readInt(tiff + 4, littleEndian) & 0xFFFFFFFFL;
+        int ifd = (int) Math.min(tiff + ifdOffset, end);
+        if (ifd + 2 > end) {
+            return 0;
+        }
+        int entries = readShort(ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                return 0;
+            }
+            if (readShort(entry, littleEndian) == ORIENTATION_TAG) {
+                return readShort(entry + 8, littleEndian);
+            }
+        }
+        return 0;
+    }
+
+    private boolean startsWith(int start, int end, String prefix) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.US_ASCII);
+        if (end - start < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (data[start + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int readUnsignedShort(int pos) {
+        return (data[pos] & 0xFF) << 8 | (data[pos + 1] & 0xFF);
+    }
+
+    private int readShort(int pos, boolean littleEndian) {
+        return littleEndian ? (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8 : readUnsignedShort(pos);
+    }
+
+    private int readInt(int pos, boolean littleEndian) {
+        return littleEndian
+                ? readShort(pos, true) | readShort(pos + 2, true) << 16
+                : readUnsignedShort(pos) << 16 | readUnsignedShort(pos + 2);
+    }
+
+    /**
+     * 霍夫曼解码表，9位以内的码字查表解码，更长的码字逐位比较
+     */
+    static final class HuffmanTable {
+        private static final int LOOKAHEAD_BITS = 9;
+
+        // 每项为码长 << 8 | 符号，0表示码字超过查表位数
+        private final int[] lookup = new int[1 << LOOKAHEAD_BITS];
+        // 码字和附加位合计不超过查表位数的非零交流系数: 系数值 << 16 | 总位数 << 8 | 前面的零个数 << 4，其余为0
+        private final int[] shortAc = new int[1 << LOOKAHEAD_BITS];
+        private final int[] maxCode = new int[18];
+        private final int[] minCode = new int[17];
+        private final int[] valuePointer = new int[17];
+        private final int[] counts;
+        private final int[] values;
+
+        HuffmanTable(int[] counts, int[] values) {
+            this.counts = counts;
+            this.values = values;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                valuePointer[length] = index;
+                minCode[length] = code;
+                for (int i = 0; i < counts[length]; i++, code++, index++) {
+                    if (length <= LOOKAHEAD_BITS) {
+                        int shift = LOOKAHEAD_BITS - length;
+                        int first = code << shift;
+                        for (int j = 0; j < 1 << shift; j++) {
+                            lookup[first + j] = length << 8 | values[index];
+                        }
+                        int size = values[index] & 0x0F;
+                        if (size > 0 && length + size <= LOOKAHEAD_BITS) {
+                            for (int j = 0; j < 1 << shift; j++) {
+                                int extra = (j >> (shift - size)) & ((1 << size) - 1);
+                                int value = extra < 1 << (size - 1) ? extra - (1 << size) + 1 : extra;
+                                shortAc[first + j] = value << 16 | (length + size) << 8 | (values[index] & 0xF0);
+                            }
+                        }
+                    }
+                }
+                maxCode[length] = counts[length] > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+            // 哨兵，保证逐位比较在16位内结束
+            maxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 去除填充字节后的熵编码数据
+     */
+    private static final class EntropyData {
+        final byte[] bytes;
+        // 第2个及之后各重启间隔在bytes中的起始位置
+        final List<Integer> intervalStarts = new ArrayList<>();
+        int length;
+        // 扫描之后下一个标记的位置
+        int markerPosition;
+
+        EntropyData(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * 已去除填充字节的熵编码数据的位读取器，数据结束后读到的都是0
+     */
+    private static final class BitReader {
+        private final byte[] data;
+        private final int length;
+        private int pos;
+        // 左对齐的位缓冲区
+        private long buffer;
+        private int bitCount;
+
+        BitReader(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        private void fill() {
+            while (bitCount <= 56) {
+                int b = pos < length ? data[pos] & 0xFF : 0;
+                pos++;
+                buffer |= (long) b << (56 - bitCount);
+                bitCount += 8;
+            }
+        }
+
+        int decode(HuffmanTable table) throws IOException {
+            if (bitCount < 32) {
+                fill();
+            }
+            int entry = table.lookup[(int) (buffer >>> (64 - HuffmanTable.LOOKAHEAD_BITS))];
+            if (entry != 0) {
+                skip(entry >> 8);
+                return entry & 0xFF;
+            }
+
+            for (int length = HuffmanTable.LOOKAHEAD_BITS + 1; length <= 16; length++) {
+                int code = (int) (buffer >>> (64 - length));
+                if (code <= table.maxCode[length]) {
+                    skip(length);
+                    int index = table.valuePointer[length] + code - table.minCode[length];
+                    if (index < 0 || index >= table.values.length) {
+                        break;
+                    }
+                    return table.values[index];
+                }
+            }
+            throw new IOException("JPEG霍夫曼编码无效");
+        }
+
+        /**
+         * 码字和附加位都在查表范围内的非零交流系数一次解出
+         *
+         * @return 系数值 << 16 | 总位数 << 8 | 前面的零个数 << 4，不在查表范围内时返回0且不消耗数据
+         */
+        int decodeShortAc(HuffmanTable table) {
+            if (bitCount < 32) {
+                fill();
+            }
+            int entry = table.shortAc[(int) (buffer >>> (64 - HuffmanTable.LOOKAHEAD_BITS))];
+            if (entry != 0) {
+                skip((entry >> 8) & 0xFF);
+            }
+            return entry;
+        }
+
+        /**
+         * 读取size位附加位并按符号扩展
+         */
+        int receiveExtend(int size) {
+            if (size == 0) {
+                return 0;
+            }
+            if (bitCount < 32) {
+                fill();
+            }
+            int value = (int) (buffer >>> (64 - size));
+            skip(size);
+            return value < 1 << (size - 1) ? value - (1 << size) + 1 : value;
+        }
+
+        private void skip(int bits) {
+            buffer <<= bits;
+            bitCount -= bits;
+        }
+
+        /**
+         * 下一个未读取的位在数据中的位置
+         */
+        long position() {
+            return (long) pos * 8 - bitCount;
+        }
+
+        /**
+         * 跳到重启间隔的起始字节，丢弃当前字节中剩余的填充位
+         */
+        void seek(int bytePosition) {
+            pos = bytePosition;
+            buffer = 0;
+            bitCount = 0;
+        }
+    }
+}
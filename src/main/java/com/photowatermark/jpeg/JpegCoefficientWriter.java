@@ -0,0 +1,583 @@
+package com.photowatermark.jpeg;
+
+import java.util.Arrays;
+
+/**
+ * 基线JPEG的系数写出器
+ * 保留的标记段（包括帧头和量化表）原样写出。原文件只有一个扫描且修改过的编码单元能用原霍夫曼表编码时，
+ * 沿用原文件的霍夫曼表和重启间隔，未修改的编码单元直接按位复制原熵编码数据，只有修改过的单元和紧随其后、
+ * 直流预测值随之变化的单元重新编码。否则全部系数重新做霍夫曼编码，霍夫曼表按实际系数统计生成，
+ * 输出为一个扫描，不使用重启间隔
+ */
+final class JpegCoefficientWriter {
+
+    // 亮度分量使用0号霍夫曼表，色度分量使用1号表
+    private static final int LUMINANCE = 0;
+    private static final int CHROMINANCE = 1;
+
+    // 8位精度基线JPEG系数的取值范围
+    private static final int MIN_DC = -1024;
+    private static final int MAX_DC = 1023;
+    private static final int MAX_AC = 1023;
+
+    private JpegCoefficientWriter() {
+    }
+
+    /**
+     * 将系数形式的图片编码为JPEG文件内容，未修改的MCU尽量从原文件按位复制
+     *
+     * @param frame 系数形式的图片
+     * @param changedMcus 按MCU编号标记系数被修改过的MCU
+     * @param sizeHint 预计的输出大小
+     * @return JPEG文件内容
+     */
+    static byte[] write(JpegFrame frame, boolean[] changedMcus, int sizeHint) {
+        JpegFrame.Scan scan = frame.scan;
+        if (scan == null) {
+            return write(frame, sizeHint);
+        }
+
+        int count = frame.components.length;
+        int[] componentTables = new int[count];
+        for (int i = 0; i < count; i++) {
+            componentTables[i] = i;
+        }
+        boolean[] reencode = new boolean[frame.getUnitCount()];
+        for (int unit = 0; unit < reencode.length; unit++) {
+            boolean startsInterval = scan.restartInterval > 0 && unit % scan.restartInterval == 0;
+            reencode[unit] = changedMcus[frame.getMcuIndex(unit)]
+                    || (unit > 0 && !startsInterval && changedMcus[frame.getMcuIndex(unit - 1)]);
+        }
+
+        // 先统计需要重新编码的单元用到的符号，原霍夫曼表缺少其中的符号时改为全部重新编码
+        EntropyEncoder counter = new EntropyEncoder(count, componentTables, null);
+        spliceScan(frame, reencode, counter, null);
+        HuffmanCode[] dcCodes = new HuffmanCode[count];
+        HuffmanCode[] acCodes = new HuffmanCode[count];
+        for (int i = 0; i < count; i++) {
+            dcCodes[i] = new HuffmanCode(scan.dcTables[i][0], scan.dcTables[i][1]);
+            acCodes[i] = new HuffmanCode(scan.acTables[i][0], scan.acTables[i][1]);
+            if (!dcCodes[i].covers(counter.dcFrequencies[i]) || !acCodes[i].covers(counter.acFrequencies[i])) {
+                return write(frame, sizeHint);
+            }
+        }
+
+        OutputBuffer output = new OutputBuffer(sizeHint);
+        output.write(0xFF);
+        output.write(0xD8);
+        for (byte[] segment : frame.segments) {
+            output.write(segment, 0, segment.length);
+        }
+        for (byte[] segment : scan.segments) {
+            output.write(segment, 0, segment.length);
+        }
+
+        BitWriter bitWriter = new BitWriter(output);
+        EntropyEncoder encoder = new EntropyEncoder(count, componentTables, bitWriter);
+        encoder.dcCodes = dcCodes;
+        encoder.acCodes = acCodes;
+        spliceScan(frame, reencode, encoder, bitWriter);
+        bitWriter.flush();
+
+        output.write(0xFF);
+        output.write(0xD9);
+        return output.toByteArray();
+    }
+
+    /**
+     * 将系数形式的图片编码为JPEG文件内容
+     *
+     * @param frame 系数形式的图片
+     * @param sizeHint 预计的输出大小
+     * @return JPEG文件内容
+     */
+    static byte[] write(JpegFrame frame, int sizeHint) {
+        int tableCount = frame.components.length > 1 ? 2 : 1;
+
+        // 第一遍统计各符号出现的次数，生成最优霍夫曼表
+        int[] componentTables = new int[frame.components.length];
+        for (int i = 1; i < componentTables.length; i++) {
+            componentTables[i] = CHROMINANCE;
+        }
+        EntropyEncoder counter = new EntropyEncoder(tableCount, componentTables, null);
+        encodeScan(frame, counter);
+        HuffmanCode[] dcCodes = new HuffmanCode[tableCount];
+        HuffmanCode[] acCodes = new HuffmanCode[tableCount];
+        for (int i = 0; i < tableCount; i++) {
+            dcCodes[i] = HuffmanCode.optimal(counter.dcFrequencies[i]);
+            acCodes[i] = HuffmanCode.optimal(counter.acFrequencies[i]);
+        }
+
+        OutputBuffer output = new OutputBuffer(sizeHint);
+        output.write(0xFF);
+        output.write(0xD8);
+        for (byte[] segment : frame.segments) {
+            output.write(segment, 0, segment.length);
+        }
+        writeHuffmanTables(output, dcCodes, acCodes);
+        writeScanHeader(output, frame);
+
+        // 第二遍写出熵编码数据
+        BitWriter bitWriter = new BitWriter(output);
+        EntropyEncoder encoder = new EntropyEncoder(tableCount, componentTables, bitWriter);
+        encoder.dcCodes = dcCodes;
+        encoder.acCodes = acCodes;
+        encodeScan(frame, encoder);
+        bitWriter.flush();
+
+        output.write(0xFF);
+        output.write(0xD9);
+        return output.toByteArray();
+    }
+
+    private static void encodeScan(JpegFrame frame, EntropyEncoder encoder) {
+        int[] predictors = new int[frame.components.length];
+        int units = frame.getUnitCount();
+        for (int unit = 0; unit < units; unit++) {
+            encoder.encodeUnit(frame, unit, predictors);
+        }
+    }
+
+    /**
+     * 沿用原文件重启间隔写出扫描，需要重新编码的单元按系数编码，其余单元从原熵编码数据按位复制
+     *
+     * @param writer 位写出器，为null时只统计需要重新编码的单元的符号
+     */
+    private static void spliceScan(JpegFrame frame, boolean[] reencode, EntropyEncoder encoder, BitWriter writer) {
+        JpegFrame.Scan scan = frame.scan;
+        int[] predictors = new int[frame.components.length];
+        int units = reencode.length;
+        int unit = 0;
+        while (unit < units) {
+            int restartInterval = scan.restartInterval;
+            if (restartInterval > 0 && unit > 0 && unit % restartInterval == 0) {
+                Arrays.fill(predictors, 0);
+                if (writer != null) {
+                    writer.flush();
+                    writer.writeMarker(0xD0 + (unit / restartInterval - 1) % 8);
+                }
+            }
+
+            if (reencode[unit]) {
+                encoder.encodeUnit(frame, unit, predictors);
+                unit++;
+                continue;
+            }
+
+            // 复制到下一个需要重新编码的单元或重启间隔结束
+            int intervalEnd = restartInterval > 0 ? Math.min(units, (unit / restartInterval + 1) * restartInterval) : units;
+            int runEnd = unit + 1;
+            while (runEnd < intervalEnd && !reencode[runEnd]) {
+                runEnd++;
+            }
+            if (writer != null) {
+                long to = runEnd < intervalEnd
+                        ? scan.unitPositions[runEnd]
+                        : scan.intervalEnds[restartInterval > 0 ? unit / restartInterval : 0];
+                writer.copy(scan.data, scan.unitPositions[unit], to);
+            }
+            frame.lastDcValues(runEnd - 1, predictors);
+            unit = runEnd;
+        }
+    }
+
+    private static void writeHuffmanTables(OutputBuffer output, HuffmanCode[] dcCodes, HuffmanCode[] acCodes) {
+        int length = 2;
+        for (int i = 0; i < dcCodes.length; i++) {
+            length += 17 + dcCodes[i].symbols.length + 17 + acCodes[i].symbols.length;
+        }
+        output.write(0xFF);
+        output.write(0xC4);
+        output.write(length >> 8);
+        output.write(length & 0xFF);
+        for (int i = 0; i < dcCodes.length; i++) {
+            dcCodes[i].writeTable(output, i);
+            acCodes[i].writeTable(output, 0x10 | i);
+        }
+    }
+
+    private static void writeScanHeader(OutputBuffer output, JpegFrame frame) {
+        int count = frame.components.length;
+        int length = 6 + count * 2;
+        output.write(0xFF);
+        output.write(0xDA);
+        output.write(length >> 8);
+        output.write(length & 0xFF);
+        output.write(count);
+        for (int i = 0; i < count; i++) {
+            int table = i == 0 ? LUMINANCE : CHROMINANCE;
+            output.write(frame.components[i].id);
+            output.write(table << 4 | table);
+        }
+        // 基线扫描: 全部64个系数，无逐次逼近
+        output.write(0);
+        output.write(63);
+        output.write(0);
+    }
+
+    /**
+     * 熵编码器，未设置位写出器时只统计符号出现的次数
+     */
+    private static final class EntropyEncoder {
+        private final BitWriter writer;
+        // 各分量使用的霍夫曼表编号
+        private final int[] componentTables;
+        // 多一个保留符号，保证生成的码表中没有全1的码字
+        final long[][] dcFrequencies;
+        final long[][] acFrequencies;
+        HuffmanCode[] dcCodes;
+        HuffmanCode[] acCodes;
+
+        EntropyEncoder(int tableCount, int[] componentTables, BitWriter writer) {
+            this.writer = writer;
+            this.componentTables = componentTables;
+            this.dcFrequencies = new long[tableCount][257];
+            this.acFrequencies = new long[tableCount][257];
+        }
+
+        /**
+         * 编码一个编码单元，交错扫描为一个MCU的全部块，单分量扫描为一个块
+         *
+         * @param predictors 各分量的直流预测值，编码后更新
+         */
+        void encodeUnit(JpegFrame frame, int unit, int[] predictors) {
+            if (frame.components.length == 1) {
+                JpegFrame.Component component = frame.components[0];
+                int blocksPerLine = component.scanBlocksPerLine(frame);
+                predictors[0] = encodeBlock(component.coefficients,
+                        component.blockOffset(unit / blocksPerLine, unit % blocksPerLine), predictors[0],
+                        componentTables[0]);
+                return;
+            }
+
+            int mcuRow = unit / frame.mcusPerLine;
+            int mcuColumn = unit % frame.mcusPerLine;
+            for (int i = 0; i < frame.components.length; i++) {
+                JpegFrame.Component component = frame.components[i];
+                for (int v = 0; v < component.verticalSampling; v++) {
+                    for (int h = 0; h < component.horizontalSampling; h++) {
+                        predictors[i] = encodeBlock(component.coefficients,
+                                component.blockOffset(mcuRow * component.verticalSampling + v,
+                                        mcuColumn * component.horizontalSampling + h),
+                                predictors[i], componentTables[i]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 编码一个8x8块
+         *
+         * @return 块的直流系数，作为下一个块的预测值
+         */
+        int encodeBlock(short[] coefficients, int offset, int predictor, int table) {
+            int dc = clamp(coefficients[offset], MIN_DC, MAX_DC);
+            int diff = dc - predictor;
+            int size = bitLength(diff);
+            if (writer == null) {
+                dcFrequencies[table][size]++;
+            } else {
+                dcCodes[table].write(writer, size);
+                writer.write(additionalBits(diff, size), size);
+            }
+
+            int run = 0;
+            for (int k = 1; k < 64; k++) {
+                int value = clamp(coefficients[offset + JpegFrame.ZIGZAG[k]], -MAX_AC, MAX_AC);
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    emitAc(table, 0xF0, 0, 0);
+                    run -= 16;
+                }
+                int valueSize = bitLength(value);
+                emitAc(table, run << 4 | valueSize, additionalBits(value, valueSize), valueSize);
+                run = 0;
+            }
+            if (run > 0) {
+                // 块结束
+                emitAc(table, 0x00, 0, 0);
+            }
+            return dc;
+        }
+
+        private void emitAc(int table, int symbol, int bits, int size) {
+            if (writer == null) {
+                acFrequencies[table][symbol]++;
+            } else {
+                acCodes[table].write(writer, symbol);
+                writer.write(bits, size);
+            }
+        }
+
+        private static int clamp(int value, int min, int max) {
+            return Math.max(min, Math.min(max, value));
+        }
+
+        private static int bitLength(int value) {
+            return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+        }
+
+        /**
+         * 附加位: 正数为其本身，负数为减1后的低位
+         */
+        private static int additionalBits(int value, int size) {
+            return (value < 0 ? value - 1 : value) & ((1 << size) - 1);
+        }
+    }
+
+    /**
+     * 霍夫曼编码表
+     */
+    private static final class HuffmanCode {
+        // 各码长的码字个数，下标为码长
+        private final int[] counts;
+        // 按码长排列的符号
+        private final int[] symbols;
+        private final int[] codes = new int[256];
+        private final int[] lengths = new int[256];
+
+        private HuffmanCode(int[] counts, int[] symbols) {
+            this.counts = counts;
+            this.symbols = symbols;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < counts[length]; i++, index++, code++) {
+                    codes[symbols[index]] = code;
+                    lengths[symbols[index]] = length;
+                }
+                code <<= 1;
+            }
+        }
+
+        /**
+         * 按符号出现次数生成码长不超过16位的最优霍夫曼表（JPEG标准附录K.2的方法）
+         *
+         * @param frequencies 257个符号的出现次数，最后一个为保留符号
+         * @return 霍夫曼编码表
+         */
+        static HuffmanCode optimal(long[] frequencies) {
+            long[] frequency = Arrays.copyOf(frequencies, 257);
+            frequency[256] = 1;
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            Arrays.fill(others, -1);
+
+            while (true) {
+                // 出现次数最少的两个符号，次数相同时取较大的符号
+                int c1 = -1;
+                long v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (frequency[i] != 0 && frequency[i] <= v) {
+                        v = frequency[i];
+                        c1 = i;
+                    }
+                }
+                int c2 = -1;
+                v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (frequency[i] != 0 && frequency[i] <= v && i != c1) {
+                        v = frequency[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) {
+                    break;
+                }
+
+                frequency[c1] += frequency[c2];
+                frequency[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+
+            int[] bits = new int[33];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] > 0) {
+                    bits[codeSize[i]]++;
+                }
+            }
+            // 把超过16位的码字移到较短的码长上
+            for (int i = 32; i > 16; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
+            }
+            // 去掉保留符号占用的最长码字
+            int longest = 16;
+            while (bits[longest] == 0) {
+                longest--;
+            }
+            bits[longest]--;
+
+            int total = 0;
+            for (int i = 1; i <= 16; i++) {
+                total += bits[i];
+            }
+            int[] symbols = new int[total];
+            int index = 0;
+            for (int length = 1; length <= 32 && index < total; length++) {
+                for (int symbol = 0; symbol < 256 && index < total; symbol++) {
+                    if (codeSize[symbol] == length) {
+                        symbols[index++] = symbol;
+                    }
+                }
+            }
+            return new HuffmanCode(Arrays.copyOf(bits, 17), symbols);
+        }
+
+        /**
+         * 判断码表是否包含所有出现过的符号
+         *
+         * @param frequencies 各符号出现的次数
+         */
+        boolean covers(long[] frequencies) {
+            for (int symbol = 0; symbol < 256; symbol++) {
+                if (frequencies[symbol] > 0 && lengths[symbol] == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void write(BitWriter writer, int symbol) {
+            writer.write(codes[symbol], lengths[symbol]);
+        }
+
+        void writeTable(OutputBuffer output, int tableClassAndId) {
+            output.write(tableClassAndId);
+            for (int length = 1; length <= 16; length++) {
+                output.write(counts[length]);
+            }
+            for (int symbol : symbols) {
+                output.write(symbol);
+            }
+        }
+    }
+
+    /**
+     * 可增长的输出缓冲区，逐字节写出时不需要ByteArrayOutputStream的同步
+     */
+    private static final class OutputBuffer {
+        private byte[] bytes;
+        private int size;
+
+        OutputBuffer(int capacity) {
+            bytes = new byte[Math.max(1024, capacity)];
+        }
+
+        void write(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void write(byte[] data, int offset, int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+            System.arraycopy(data, offset, bytes, size, length);
+            size += length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * 熵编码数据的位写出器，0xFF字节之后补0x00
+     */
+    private static final class BitWriter {
+        private final OutputBuffer output;
+        private long buffer;
+        private int bitCount;
+
+        BitWriter(OutputBuffer output) {
+            this.output = output;
+        }
+
+        void write(int bits, int size) {
+            if (size == 0) {
+                return;
+            }
+            buffer = buffer << size | bits;
+            bitCount += size;
+            while (bitCount >= 8) {
+                int b = (int) (buffer >> (bitCount - 8)) & 0xFF;
+                output.write(b);
+                if (b == 0xFF) {
+                    output.write(0);
+                }
+                bitCount -= 8;
+            }
+        }
+
+        /**
+         * 按位复制已去除填充字节的熵编码数据
+         *
+         * @param source 熵编码数据
+         * @param from 起始位（包含）
+         * @param to 结束位（不包含）
+         */
+        void copy(byte[] source, long from, long to) {
+            long position = from;
+            // 先对齐到源数据的字节边界，之后每次复制3个字节
+            int head = (int) Math.min(to - position, (8 - (position & 7)) & 7);
+            if (head > 0) {
+                write(((source[(int) (position >> 3)] & 0xFF) >> (8 - (int) (position & 7) - head)) & ((1 << head) - 1),
+                        head);
+                position += head;
+            }
+            int index = (int) (position >> 3);
+            int end = (int) (to >> 3);
+            for (; index + 3 <= end; index += 3) {
+                write((source[index] & 0xFF) << 16 | (source[index + 1] & 0xFF) << 8 | (source[index + 2] & 0xFF), 24);
+            }
+            for (; index < end; index++) {
+                write(source[index] & 0xFF, 8);
+            }
+            int tail = (int) (to & 7);
+            if (tail > 0 && ((long) index << 3) >= position) {
+                write((source[index] & 0xFF) >> (8 - tail), tail);
+            }
+        }
+
+        /**
+         * 用1填满最后一个字节
+         */
+        void flush() {
+            if (bitCount > 0) {
+                write((1 << (8 - bitCount)) - 1, 8 - bitCount);
+            }
+        }
+
+        /**
+         * 写出标记，调用前应先flush对齐到字节
+         */
+        void writeMarker(int marker) {
+            output.write(0xFF);
+            output.write(marker);
+        }
+    }
+}
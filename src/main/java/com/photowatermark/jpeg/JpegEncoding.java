@@ -0,0 +1,296 @@
+package com.photowatermark.jpeg;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+
+/**
+ * JPEG编码设置：压缩质量、渐进式或基线、优化的Huffman表和色度子采样
+ * 预设在编码速度和文件大小之间取舍：default与未指定设置时ImageIO的默认输出相同，
+ * 是最快的基线编码，也不经过显式写入参数；balanced优化Huffman表，archive的文件最小。
+ * 本类不可变，可在多个工作线程之间共享
+ */
+public final class JpegEncoding {
+
+    /**
+     * 色度子采样方式，按亮度分量的水平和垂直采样因子表示
+     */
+    public enum ChromaSubsampling {
+        // 色度不降采样，色彩边缘最清晰，文件最大
+        S444("444", 1, 1),
+        // 色度水平方向减半
+        S422("422", 2, 1),
+        // 色度水平和垂直方向都减半，ImageIO的默认方式
+        S420("420", 2, 2);
+
+        private final String name;
+        private final int horizontalSampling;
+        private final int verticalSampling;
+
+        ChromaSubsampling(String name, int horizontalSampling, int verticalSampling) {
+            this.name = name;
+            this.horizontalSampling = horizontalSampling;
+            this.verticalSampling = verticalSampling;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        static ChromaSubsampling forName(String name) {
+            for (ChromaSubsampling subsampling : values()) {
+                if (subsampling.name.equals(name)) {
+                    return subsampling;
+                }
+            }
+            throw new IllegalArgumentException("未知的色度子采样方式: " + name + "，可选值: 444、422、420");
+        }
+    }
+
+    // 与ImageIO默认输出相同的设置
+    public static final JpegEncoding DEFAULT = new JpegEncoding("default", -1, false, false, null);
+
+    // 网页发布：较高的质量，优化Huffman表减小文件，编码仍为一遍
+    public static final JpegEncoding BALANCED = new JpegEncoding("balanced", 0.85f, false, true,
+            ChromaSubsampling.S420);
+
+    // 归档：渐进式编码和优化的Huffman表，相同质量下文件最小
+    public static final JpegEncoding ARCHIVE = new JpegEncoding("archive", 0.85f, true, true, ChromaSubsampling.S420);
+
+    private static final JpegEncoding[] PRESETS = {DEFAULT, BALANCED, ARCHIVE};
+
+    private final String presetName;
+    private final float quality;
+    private final boolean progressive;
+    private final boolean optimizeHuffman;
+    private final ChromaSubsampling subsampling;
+
+    /**
+     * @param presetName 基于的预设名称，用于日志和规格字符串
+     * @param quality 压缩质量，0到1之间，小于0时使用编码器的默认质量
+     * @param progressive 是否使用渐进式编码
+     * @param optimizeHuffman 是否按图片内容生成优化的Huffman表
+     * @param subsampling 色度子采样方式，为null时使用编码器的默认方式
+     */
+    public JpegEncoding(String presetName, float quality, boolean progressive, boolean optimizeHuffman,
+                        ChromaSubsampling subsampling) {
+        if (quality > 1) {
+            throw new IllegalArgumentException("JPEG质量必须在0到1之间: " + quality);
+        }
+        this.presetName = presetName;
+        this.quality = quality;
+        this.progressive = progressive;
+        this.optimizeHuffman = optimizeHuffman;
+        this.subsampling = subsampling;
+    }
+
+    /**
+     * 获取预设
+     *
+     * @param name 预设名称：default、balanced或archive
+     * @return 预设
+     * @throws IllegalArgumentException 名称未知时抛出
+     */
+    public static JpegEncoding forPreset(String name) {
+        String presetName = name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+        for (JpegEncoding preset : PRESETS) {
+            if (preset.presetName.equals(presetName)) {
+                return preset;
+            }
+        }
+        throw new IllegalArgumentException("未知的JPEG编码预设: " + name + "，可选值: default、balanced、archive");
+    }
+
+    /**
+     * 解析JPEG编码设置，可以只给出预设名称，也可以在预设的基础上用逗号分隔的键值对覆盖各项设置，
+     * 例如: archive 或 preset=default,quality=90,progressive=true,optimize=true,subsampling=444
+     *
+     * @param spec 设置字符串
+     * @return JPEG编码设置
+     * @throws IllegalArgumentException 格式错误时抛出
+     */
+    public static JpegEncoding parse(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            throw new IllegalArgumentException("JPEG编码设置不能为空");
+        }
+        if (spec.indexOf('=') < 0) {
+            return forPreset(spec);
+        }
+
+        JpegEncoding base = DEFAULT;
+        String[] entries = spec.split(",");
+        for (String entry : entries) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length == 2 && "preset".equalsIgnoreCase(parts[0].trim())) {
+                base = forPreset(parts[1]);
+            }
+        }
+
+        float quality = base.quality;
+        boolean progressive = base.progressive;
+        boolean optimizeHuffman = base.optimizeHuffman;
+        ChromaSubsampling subsampling = base.subsampling;
+        for (String entry : entries) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length != 2 || parts[1].trim().isEmpty()) {
+                throw new IllegalArgumentException("无效的JPEG编码设置: " + entry);
+            }
+            String value = parts[1].trim().toLowerCase(Locale.ROOT);
+            switch (parts[0].trim().toLowerCase(Locale.ROOT)) {
+                case "preset":
+                    break;
+                case "quality":
+                    quality = parseQuality(entry, value);
+                    break;
+                case "progressive":
+                    progressive = parseBoolean(entry, value);
+                    break;
+                case "optimize":
+                    optimizeHuffman = parseBoolean(entry, value);
+                    break;
+                case "subsampling":
+                    subsampling = ChromaSubsampling.forName(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的JPEG编码设置: " + entry);
+            }
+        }
+        return new JpegEncoding(base.presetName, quality, progressive, optimizeHuffman, subsampling);
+    }
+
+    private static float parseQuality(String entry, String value) {
+        try {
+            int percent = Integer.parseInt(value);
+            if (percent >= 1 && percent <= 100) {
+                return percent / 100f;
+            }
+        } catch (NumberFormatException e) {
+            // 在下方统一抛出异常
+        }
+        throw new IllegalArgumentException("JPEG质量必须是1到100之间的整数: " + entry);
+    }
+
+    private static boolean parseBoolean(String entry, String value) {
+        if ("true".equals(value) || "yes".equals(value) || "on".equals(value)) {
+            return true;
+        }
+        if ("false".equals(value) || "no".equals(value) || "off".equals(value)) {
+            return false;
+        }
+        throw new IllegalArgumentException("无效的JPEG编码设置: " + entry);
+    }
+
+    /**
+     * 获取修改压缩质量后的设置
+     *
+     * @param newQuality 压缩质量，0到1之间，小于0时保持当前设置
+     * @return JPEG编码设置，质量未变化时返回本对象
+     */
+    public JpegEncoding withQuality(float newQuality) {
+        if (newQuality < 0 || newQuality == quality) {
+            return this;
+        }
+        return new JpegEncoding(presetName, newQuality, progressive, optimizeHuffman, subsampling);
+    }
+
+    public String getPresetName() {
+        return presetName;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    public boolean isOptimizeHuffman() {
+        return optimizeHuffman;
+    }
+
+    public ChromaSubsampling getSubsampling() {
+        return subsampling;
+    }
+
+    /**
+     * 判断是否与ImageIO的默认输出相同，相同时可以直接使用ImageIO.write
+     *
+     * @return 是否为默认设置
+     */
+    public boolean isDefault() {
+        return quality < 0 && !progressive && !optimizeHuffman
+                && (subsampling == null || subsampling == ChromaSubsampling.S420);
+    }
+
+    /**
+     * 将设置应用到JPEG写入参数，需要改变色度子采样时返回修改了采样因子的图片元数据
+     *
+     * @param writer JPEG写入器
+     * @param param 写入器的默认写入参数
+     * @param image 要编码的图片
+     * @return 图片元数据，不需要修改时返回null
+     * @throws IIOException 修改元数据失败时抛出
+     */
+    public IIOMetadata configure(ImageWriter writer, ImageWriteParam param, BufferedImage image)
+            throws IIOException {
+        if (quality >= 0) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        }
+        param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+        if (optimizeHuffman && param instanceof JPEGImageWriteParam) {
+            ((JPEGImageWriteParam) param).setOptimizeHuffmanTables(true);
+        }
+
+        // 灰度图片只有一个分量，不涉及色度子采样；默认的4:2:0无需修改元数据
+        if (subsampling == null || subsampling == ChromaSubsampling.S420
+                || image.getColorModel().getNumColorComponents() < 3) {
+            return null;
+        }
+
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        String format = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+        NodeList components = root.getElementsByTagName("componentSpec");
+        for (int i = 0; i < components.getLength(); i++) {
+            Element component = (Element) components.item(i);
+            // 第一个分量为亮度，色度分量的采样因子为1
+            component.setAttribute("HsamplingFactor", String.valueOf(i == 0 ? subsampling.horizontalSampling : 1));
+            component.setAttribute("VsamplingFactor", String.valueOf(i == 0 ? subsampling.verticalSampling : 1));
+        }
+        try {
+            metadata.setFromTree(format, root);
+        } catch (IIOInvalidTreeException e) {
+            throw new IIOException("无法设置JPEG色度子采样: " + subsampling.name, e);
+        }
+        return metadata;
+    }
+
+    /**
+     * 转换为可以被parse解析的规格字符串，也用于计算设置指纹
+     */
+    @Override
+    public String toString() {
+        StringBuilder spec = new StringBuilder("preset=").append(presetName);
+        if (quality >= 0) {
+            spec.append(",quality=").append(Math.round(quality * 100));
+        }
+        spec.append(",progressive=").append(progressive);
+        spec.append(",optimize=").append(optimizeHuffman);
+        if (subsampling != null) {
+            spec.append(",subsampling=").append(subsampling.name);
+        }
+        return spec.toString();
+    }
+}
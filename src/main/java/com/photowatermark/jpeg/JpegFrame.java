@@ -0,0 +1,201 @@
+package com.photowatermark.jpeg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以DCT系数形式保存的基线JPEG图片
+ * 系数按自然顺序（行优先）保存，未经反量化。除霍夫曼表、重启间隔和扫描以外的标记段按原样保留，写出时原样输出。
+ * 只读取直流系数时每个块只保存一个系数，用于按1/8缩小解码
+ */
+final class JpegFrame {
+
+    // Z字形扫描顺序中第k个系数在自然顺序中的位置
+    static final int[] ZIGZAG = {
+        0, 1, 8, 16, 9, 2, 3, 10,
+        17, 24, 32, 25, 18, 11, 4, 5,
+        12, 19, 26, 33, 40, 48, 41, 34,
+        27, 20, 13, 6, 7, 14, 21, 28,
+        35, 42, 49, 56, 57, 50, 43, 36,
+        29, 22, 15, 23, 30, 37, 44, 51,
+        58, 59, 52, 45, 38, 31, 39, 46,
+        53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    final int width;
+    final int height;
+    final Component[] components;
+    final int maxHorizontalSampling;
+    final int maxVerticalSampling;
+    // MCU的列数和行数
+    final int mcusPerLine;
+    final int mcusPerColumn;
+    // 按自然顺序保存的量化表
+    final int[][] quantizationTables = new int[4][];
+    // 按原顺序保留的标记段，包括标记本身和长度
+    final List<byte[]> segments = new ArrayList<>();
+    // 每个块保存的系数个数，只读取直流系数时为1
+    final int coefficientsPerBlock;
+    // 原文件只有一个包含全部分量的扫描时保存其熵编码数据，多个扫描时为null
+    Scan scan;
+    // EXIF方向，只在读取直流系数时记录，完整读取时需要旋转的图片不受支持
+    int orientation;
+
+    JpegFrame(int width, int height, Component[] components) {
+        this(width, height, components, 64);
+    }
+
+    JpegFrame(int width, int height, Component[] components, int coefficientsPerBlock) {
+        this.width = width;
+        this.height = height;
+        this.components = components;
+
+        int hMax = 1;
+        int vMax = 1;
+        for (Component component : components) {
+            hMax = Math.max(hMax, component.horizontalSampling);
+            vMax = Math.max(vMax, component.verticalSampling);
+        }
+        this.maxHorizontalSampling = hMax;
+        this.maxVerticalSampling = vMax;
+        this.mcusPerLine = (width + 8 * hMax - 1) / (8 * hMax);
+        this.mcusPerColumn = (height + 8 * vMax - 1) / (8 * vMax);
+        this.coefficientsPerBlock = coefficientsPerBlock;
+
+        for (Component component : components) {
+            component.blocksPerLine = mcusPerLine * component.horizontalSampling;
+            component.blocksPerColumn = mcusPerColumn * component.verticalSampling;
+            component.coefficientsPerBlock = coefficientsPerBlock;
+            component.coefficients = new short[component.blocksPerLine * component.blocksPerColumn * coefficientsPerBlock];
+        }
+    }
+
+    int getMcuWidth() {
+        return 8 * maxHorizontalSampling;
+    }
+
+    int getMcuHeight() {
+        return 8 * maxVerticalSampling;
+    }
+
+    /**
+     * 扫描中编码单元的个数，交错扫描为MCU数，单分量扫描为不按MCU补齐的块数
+     */
+    int getUnitCount() {
+        if (components.length == 1) {
+            return components[0].scanBlocksPerLine(this) * components[0].scanBlocksPerColumn(this);
+        }
+        return mcusPerLine * mcusPerColumn;
+    }
+
+    /**
+     * 获取编码单元所在的MCU编号
+     */
+    int getMcuIndex(int unit) {
+        if (components.length == 1) {
+            Component component = components[0];
+            int blocksPerLine = component.scanBlocksPerLine(this);
+            return unit / blocksPerLine / component.verticalSampling * mcusPerLine
+                    + unit % blocksPerLine / component.horizontalSampling;
+        }
+        return unit;
+    }
+
+    /**
+     * 获取编码单元中各分量最后一个块的直流系数，即下一个编码单元的直流预测值
+     *
+     * @param unit 编码单元编号
+     * @param dcValues 写入各分量的直流系数
+     */
+    void lastDcValues(int unit, int[] dcValues) {
+        if (components.length == 1) {
+            Component component = components[0];
+            int blocksPerLine = component.scanBlocksPerLine(this);
+            dcValues[0] = component.coefficients[component.blockOffset(unit / blocksPerLine, unit % blocksPerLine)];
+            return;
+        }
+        int mcuRow = unit / mcusPerLine;
+        int mcuColumn = unit % mcusPerLine;
+        for (int i = 0; i < components.length; i++) {
+            Component component = components[i];
+            dcValues[i] = component.coefficients[component.blockOffset(
+                    (mcuRow + 1) * component.verticalSampling - 1, (mcuColumn + 1) * component.horizontalSampling - 1)];
+        }
+    }
+
+    /**
+     * 原文件的唯一扫描
+     * 熵编码数据已去除填充的0x00字节和重启标记，每个编码单元的起始位置按位记录，
+     * 写出时未修改的编码单元可以直接按位复制，不必重新做霍夫曼编码
+     */
+    static final class Scan {
+        // 去除填充字节和重启标记后的熵编码数据
+        final byte[] data;
+        // 每个编码单元在data中的起始位
+        final long[] unitPositions;
+        // 每个重启间隔最后一个编码单元的结束位，不含补齐字节的填充位
+        final long[] intervalEnds;
+        final int restartInterval;
+        // 各分量使用的霍夫曼表，数组元素为{各码长的码字个数, 按码长排列的符号}
+        final int[][][] dcTables;
+        final int[][][] acTables;
+        // 原样写出的霍夫曼表、重启间隔和扫描头标记段
+        final List<byte[]> segments;
+
+        Scan(byte[] data, long[] unitPositions, long[] intervalEnds, int restartInterval,
+             int[][][] dcTables, int[][][] acTables, List<byte[]> segments) {
+            this.data = data;
+            this.unitPositions = unitPositions;
+            this.intervalEnds = intervalEnds;
+            this.restartInterval = restartInterval;
+            this.dcTables = dcTables;
+            this.acTables = acTables;
+            this.segments = segments;
+        }
+    }
+
+    /**
+     * 单个颜色分量
+     */
+    static final class Component {
+        final int id;
+        final int horizontalSampling;
+        final int verticalSampling;
+        final int quantizationTable;
+        // 按MCU补齐后的块网格
+        int blocksPerLine;
+        int blocksPerColumn;
+        int coefficientsPerBlock;
+        short[] coefficients;
+
+        Component(int id, int horizontalSampling, int verticalSampling, int quantizationTable) {
+            this.id = id;
+            this.horizontalSampling = horizontalSampling;
+            this.verticalSampling = verticalSampling;
+            this.quantizationTable = quantizationTable;
+        }
+
+        /**
+         * 获取块在系数数组中的起始位置
+         */
+        int blockOffset(int blockRow, int blockColumn) {
+            return (blockRow * blocksPerLine + blockColumn) * coefficientsPerBlock;
+        }
+
+        /**
+         * 单独扫描该分量时的块列数，不按MCU补齐
+         */
+        int scanBlocksPerLine(JpegFrame frame) {
+            int samples = (frame.width * horizontalSampling + frame.maxHorizontalSampling - 1) / frame.maxHorizontalSampling;
+            return (samples + 7) / 8;
+        }
+
+        /**
+         * 单独扫描该分量时的块行数，不按MCU补齐
+         */
+        int scanBlocksPerColumn(JpegFrame frame) {
+            int samples = (frame.height * verticalSampling + frame.maxVerticalSampling - 1) / frame.maxVerticalSampling;
+            return (samples + 7) / 8;
+        }
+    }
+}
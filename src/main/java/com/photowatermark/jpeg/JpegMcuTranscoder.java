@@ -0,0 +1,338 @@
+package com.photowatermark.jpeg;
+
+import com.photowatermark.render.RenderingBackend;
+import net.coobird.thumbnailator.geometry.Position;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+
+/**
+ * JPEG水印转码器，只重新编码水印覆盖的MCU
+ * 源文件只做霍夫曼解码得到DCT系数，水印所在的MCU解码为像素、合成水印后按源文件的量化表重新量化，
+ * 其余MCU的系数原样保留，因此水印以外的区域不会再经历一次压缩损失，也省去了整张图片的反变换、颜色转换和正变换。
+ * 未修改的MCU的熵编码数据尽量从源文件按位复制，省去重新做霍夫曼编码；APP等标记段原样保留。
+ * 不支持的JPEG（渐进式、算术编码、CMYK、EXIF方向需要旋转等）返回null，由调用方完整解码后重新编码。
+ * 本类不保存状态，可在多个工作线程中同时使用
+ */
+public final class JpegMcuTranscoder {
+
+    // 8x8 DCT基函数: COSINES[u][x] = C(u) / 2 * cos((2x + 1)uπ / 16)
+    private static final double[][] COSINES = new double[8][8];
+
+    static {
+        for (int u = 0; u < 8; u++) {
+            double scale = u == 0 ? Math.sqrt(0.5) / 2 : 0.5;
+            for (int x = 0; x < 8; x++) {
+                COSINES[u][x] = scale * Math.cos((2 * x + 1) * u * Math.PI / 16);
+            }
+        }
+    }
+
+    private JpegMcuTranscoder() {
+    }
+
+    /**
+     * 在JPEG图片上添加水印，只重新编码水印改动了像素的MCU
+     *
+     * @param jpegData 源JPEG文件内容
+     * @param overlay 水印图层
+     * @param anchor 水印位置
+     * @param opacity 不透明度
+     * @param backend 合成水印使用的渲染后端
+     * @return 添加水印后的JPEG文件内容，源文件不支持只重新编码部分MCU时返回null
+     * @throws IOException 数据损坏或合成失败时抛出
+     */
+    public static byte[] watermark(byte[] jpegData, BufferedImage overlay, Position anchor, float opacity,
+                                   RenderingBackend backend) throws IOException {
+        JpegFrame frame = JpegCoefficientReader.read(jpegData);
+        if (frame == null) {
+            return null;
+        }
+
+        Point origin = anchor.calculate(frame.width, frame.height, overlay.getWidth(), overlay.getHeight(),
+                0, 0, 0, 0);
+        Rectangle ink = findInkBounds(overlay);
+        ink.translate(origin.x, origin.y);
+        ink = ink.intersection(new Rectangle(0, 0, frame.width, frame.height));
+        boolean[] changedMcus = new boolean[frame.mcusPerLine * frame.mcusPerColumn];
+        if (ink.isEmpty()) {
+            return JpegCoefficientWriter.write(frame, changedMcus, jpegData.length);
+        }
+
+        // 扩展到MCU边界
+        int mcuWidth = frame.getMcuWidth();
+        int mcuHeight = frame.getMcuHeight();
+        int x0 = ink.x / mcuWidth * mcuWidth;
+        int y0 = ink.y / mcuHeight * mcuHeight;
+        int x1 = (ink.x + ink.width + mcuWidth - 1) / mcuWidth * mcuWidth;
+        int y1 = (ink.y + ink.height + mcuHeight - 1) / mcuHeight * mcuHeight;
+        Rectangle region = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+
+        BufferedImage pixels = decodeRegion(frame, region);
+        int[] before = ((DataBufferInt) pixels.getRaster().getDataBuffer()).getData().clone();
+        Position regionAnchor = (enclosingWidth, enclosingHeight, width, height,
+                                 insetLeft, insetRight, insetTop, insetBottom) -> new Point(origin.x - x0, origin.y - y0);
+        BufferedImage composited = backend.composite(pixels, overlay, regionAnchor, opacity);
+        int[] after = composited.getRGB(0, 0, region.width, region.height, null, 0, region.width);
+
+        encodeChangedMcus(frame, region, before, after, changedMcus);
+        return JpegCoefficientWriter.write(frame, changedMcus, jpegData.length);
+    }
+
+    /**
+     * 查找水印图层中不完全透明的像素的包围矩形
+     */
+    private static Rectangle findInkBounds(BufferedImage overlay) {
+        int width = overlay.getWidth();
+        int height = overlay.getHeight();
+        int[] argb = overlay.getRGB(0, 0, width, height, null, 0, width);
+        int minX = width;
+        int minY = height;
+        int maxX = -1;
+        int maxY = -1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (argb[y * width + x] >>> 24 != 0) {
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+        }
+        return maxX < 0 ? new Rectangle() : new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * 将MCU对齐的区域解码为RGB像素，色度按最近邻上采样
+     */
+    private static BufferedImage decodeRegion(JpegFrame frame, Rectangle region) {
+        int[][] planes = new int[frame.components.length][];
+        for (int i = 0; i < frame.components.length; i++) {
+            planes[i] = decodePlane(frame, frame.components[i], region);
+        }
+
+        BufferedImage image = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+        int[] rgb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < region.height; y++) {
+            for (int x = 0; x < region.width; x++) {
+                int luma = sample(frame, 0, planes[0], region, x, y);
+                if (frame.components.length == 1) {
+                    rgb[y * region.width + x] = luma << 16 | luma << 8 | luma;
+                    continue;
+                }
+                double cb = sample(frame, 1, planes[1], region, x, y) - 128;
+                double cr = sample(frame, 2, planes[2], region, x, y) - 128;
+                int r = clamp(luma + 1.402 * cr);
+                int g = clamp(luma - 0.344136 * cb - 0.714136 * cr);
+                int b = clamp(luma + 1.772 * cb);
+                rgb[y * region.width + x] = r << 16 | g << 8 | b;
+            }
+        }
+        return image;
+    }
+
+    private static int sample(JpegFrame frame, int index, int[] plane, Rectangle region, int x, int y) {
+        JpegFrame.Component component = frame.components[index];
+        int planeWidth = region.width * component.horizontalSampling / frame.maxHorizontalSampling;
+        int px = x * component.horizontalSampling / frame.maxHorizontalSampling;
+        int py = y * component.verticalSampling / frame.maxVerticalSampling;
+        return plane[py * planeWidth + px];
+    }
+
+    /**
+     * 反量化并反变换区域内一个分量的所有块
+     */
+    private static int[] decodePlane(JpegFrame frame, JpegFrame.Component component, Rectangle region) {
+        int planeWidth = region.width * component.horizontalSampling / frame.maxHorizontalSampling;
+        int planeHeight = region.height * component.verticalSampling / frame.maxVerticalSampling;
+        int blockColumn0 = region.x * component.horizontalSampling / frame.maxHorizontalSampling / 8;
+        int blockRow0 = region.y * component.verticalSampling / frame.maxVerticalSampling / 8;
+        int[] quantization = frame.quantizationTables[component.quantizationTable];
+
+        int[] plane = new int[planeWidth * planeHeight];
+        double[] block = new double[64];
+        for (int by = 0; by < planeHeight / 8; by++) {
+            for (int bx = 0; bx < planeWidth / 8; bx++) {
+                int offset = component.blockOffset(blockRow0 + by, blockColumn0 + bx);
+                for (int i = 0; i < 64; i++) {
+                    block[i] = component.coefficients[offset + i] * quantization[i];
+                }
+                inverseDct(block);
+                for (int y = 0; y < 8; y++) {
+                    for (int x = 0; x < 8; x++) {
+                        plane[(by * 8 + y) * planeWidth + bx * 8 + x] = clamp(block[y * 8 + x] + 128);
+                    }
+                }
+            }
+        }
+        return plane;
+    }
+
+    /**
+     * 重新计算像素有变化的MCU的系数，其余MCU的系数保持不变
+     *
+     * @param changedMcus 按MCU编号标记重新计算过的MCU
+     */
+    private static void encodeChangedMcus(JpegFrame frame, Rectangle region, int[] before, int[] after,
+                                          boolean[] changedMcus) {
+        int mcuWidth = frame.getMcuWidth();
+        int mcuHeight = frame.getMcuHeight();
+        double[][] planes = null;
+        double[] block = new double[64];
+
+        for (int my = 0; my < region.height; my += mcuHeight) {
+            for (int mx = 0; mx < region.width; mx += mcuWidth) {
+                if (!isChanged(before, after, region.width, mx, my, mcuWidth, mcuHeight)) {
+                    continue;
+                }
+                if (planes == null) {
+                    planes = toYCbCr(frame, after, region);
+                }
+                changedMcus[(region.y + my) / mcuHeight * frame.mcusPerLine + (region.x + mx) / mcuWidth] = true;
+
+                for (int i = 0; i < frame.components.length; i++) {
+                    JpegFrame.Component component = frame.components[i];
+                    int horizontalScale = frame.maxHorizontalSampling / component.horizontalSampling;
+                    int verticalScale = frame.maxVerticalSampling / component.verticalSampling;
+                    int planeWidth = region.width / horizontalScale;
+                    int[] quantization = frame.quantizationTables[component.quantizationTable];
+
+                    for (int v = 0; v < component.verticalSampling; v++) {
+                        for (int h = 0; h < component.horizontalSampling; h++) {
+                            int px = mx / horizontalScale + h * 8;
+                            int py = my / verticalScale + v * 8;
+                            for (int y = 0; y < 8; y++) {
+                                System.arraycopy(planes[i], (py + y) * planeWidth + px, block, y * 8, 8);
+                            }
+                            forwardDct(block);
+
+                            int offset = component.blockOffset((region.y + my) / verticalScale / 8 + v,
+                                    (region.x + mx) / horizontalScale / 8 + h);
+                            for (int k = 0; k < 64; k++) {
+                                component.coefficients[offset + k] = (short) Math.round(block[k] / quantization[k]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isChanged(int[] before, int[] after, int stride, int x0, int y0, int width, int height) {
+        for (int y = y0; y < y0 + height; y++) {
+            for (int x = x0; x < x0 + width; x++) {
+                if (((before[y * stride + x] ^ after[y * stride + x]) & 0xFFFFFF) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 将RGB像素转换为各分量的采样平面（减去128的电平偏移），色度按采样因子取平均
+     */
+    private static double[][] toYCbCr(JpegFrame frame, int[] rgb, Rectangle region) {
+        int count = frame.components.length;
+        double[][] full = new double[count][region.width * region.height];
+        for (int i = 0; i < rgb.length; i++) {
+            int r = (rgb[i] >> 16) & 0xFF;
+            int g = (rgb[i] >> 8) & 0xFF;
+            int b = rgb[i] & 0xFF;
+            full[0][i] = 0.299 * r + 0.587 * g + 0.114 * b - 128;
+            if (count > 1) {
+                full[1][i] = -0.168736 * r - 0.331264 * g + 0.5 * b;
+                full[2][i] = 0.5 * r - 0.418688 * g - 0.081312 * b;
+            }
+        }
+
+        double[][] planes = new double[count][];
+        for (int c = 0; c < count; c++) {
+            JpegFrame.Component component = frame.components[c];
+            int horizontalScale = frame.maxHorizontalSampling / component.horizontalSampling;
+            int verticalScale = frame.maxVerticalSampling / component.verticalSampling;
+            if (horizontalScale == 1 && verticalScale == 1) {
+                planes[c] = full[c];
+                continue;
+            }
+
+            int planeWidth = region.width / horizontalScale;
+            int planeHeight = region.height / verticalScale;
+            double[] plane = new double[planeWidth * planeHeight];
+            double area = horizontalScale * verticalScale;
+            for (int y = 0; y < planeHeight; y++) {
+                for (int x = 0; x < planeWidth; x++) {
+                    double sum = 0;
+                    for (int dy = 0; dy < verticalScale; dy++) {
+                        for (int dx = 0; dx < horizontalScale; dx++) {
+                            sum += full[c][(y * verticalScale + dy) * region.width + x * horizontalScale + dx];
+                        }
+                    }
+                    plane[y * planeWidth + x] = sum / area;
+                }
+            }
+            planes[c] = plane;
+        }
+        return planes;
+    }
+
+    /**
+     * 二维正向DCT，结果按自然顺序写回
+     */
+    static void forwardDct(double[] block) {
+        double[] temp = new double[64];
+        // 行变换
+        for (int y = 0; y < 8; y++) {
+            for (int u = 0; u < 8; u++) {
+                double sum = 0;
+                for (int x = 0; x < 8; x++) {
+                    sum += COSINES[u][x] * block[y * 8 + x];
+                }
+                temp[y * 8 + u] = sum;
+            }
+        }
+        // 列变换
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                double sum = 0;
+                for (int y = 0; y < 8; y++) {
+                    sum += COSINES[v][y] * temp[y * 8 + u];
+                }
+                block[v * 8 + u] = sum;
+            }
+        }
+    }
+
+    /**
+     * 二维反向DCT，结果按行优先写回
+     */
+    static void inverseDct(double[] block) {
+        double[] temp = new double[64];
+        for (int v = 0; v < 8; v++) {
+            for (int x = 0; x < 8; x++) {
+                double sum = 0;
+                for (int u = 0; u < 8; u++) {
+                    sum += COSINES[u][x] * block[v * 8 + u];
+                }
+                temp[v * 8 + x] = sum;
+            }
+        }
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                double sum = 0;
+                for (int v = 0; v < 8; v++) {
+                    sum += COSINES[v][y] * temp[v * 8 + x];
+                }
+                block[y * 8 + x] = sum;
+            }
+        }
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
@@ -0,0 +1,106 @@
+package com.photowatermark.jpeg;
+
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+
+/**
+ * 在DCT域按1/8缩小解码JPEG图片
+ * 每个8x8块的直流系数就是块内像素的平均值，只读取直流系数即可得到1/8尺寸的图片，
+ * 省去整张图片的反变换、色度上采样和颜色转换，每个块只保存一个系数。
+ * 用于生成预览，ImageIO的JPEG读取器按源采样间隔读取时仍会完整解码每一行。
+ * 本类不保存状态，可在多个工作线程中同时使用
+ */
+public final class JpegScaledDecoder {
+
+    // 缩小的倍数
+    public static final int SCALE = 8;
+
+    private JpegScaledDecoder() {
+    }
+
+    /**
+     * 按1/8尺寸解码JPEG图片，并按EXIF方向校正
+     *
+     * @param jpegData JPEG文件内容
+     * @return 宽高为原图1/8（向上取整）的图片，灰度图片为TYPE_BYTE_GRAY，彩色图片为TYPE_INT_RGB；
+     *         渐进式、CMYK等不支持的JPEG返回null
+     * @throws IOException 数据损坏时抛出
+     */
+    public static BufferedImage decode(byte[] jpegData) throws IOException {
+        JpegFrame frame = JpegCoefficientReader.readDcOnly(jpegData);
+        if (frame == null) {
+            return null;
+        }
+
+        int width = (frame.width + SCALE - 1) / SCALE;
+        int height = (frame.height + SCALE - 1) / SCALE;
+        int[][] planes = new int[frame.components.length][];
+        for (int i = 0; i < planes.length; i++) {
+            planes[i] = toSamples(frame, frame.components[i]);
+        }
+
+        BufferedImage image;
+        if (frame.components.length == 1) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            byte[] gray = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            JpegFrame.Component component = frame.components[0];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    gray[y * width + x] = (byte) planes[0][y * component.blocksPerLine + x];
+                }
+            }
+        } else {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] rgb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int luma = sample(frame, 0, planes[0], x, y);
+                    double cb = sample(frame, 1, planes[1], x, y) - 128;
+                    double cr = sample(frame, 2, planes[2], x, y) - 128;
+                    int r = clamp(luma + 1.402 * cr);
+                    int g = clamp(luma - 0.344136 * cb - 0.714136 * cr);
+                    int b = clamp(luma + 1.772 * cb);
+                    rgb[y * width + x] = r << 16 | g << 8 | b;
+                }
+            }
+        }
+
+        if (frame.orientation > 1) {
+            return ExifFilterUtils.getFilterForOrientation(Orientation.typeOf(frame.orientation)).apply(image);
+        }
+        return image;
+    }
+
+    /**
+     * 反量化直流系数得到每个块的平均像素值
+     */
+    private static int[] toSamples(JpegFrame frame, JpegFrame.Component component) {
+        int quantization = frame.quantizationTables[component.quantizationTable][0];
+        short[] coefficients = component.coefficients;
+        int[] samples = new int[coefficients.length];
+        for (int i = 0; i < coefficients.length; i++) {
+            samples[i] = clamp(coefficients[i] * quantization / 8.0 + 128);
+        }
+        return samples;
+    }
+
+    /**
+     * 取输出像素所在块的值，色度按最近邻上采样
+     */
+    private static int sample(JpegFrame frame, int index, int[] plane, int x, int y) {
+        JpegFrame.Component component = frame.components[index];
+        int column = x * component.horizontalSampling / frame.maxHorizontalSampling;
+        int row = y * component.verticalSampling / frame.maxVerticalSampling;
+        return plane[row * component.blocksPerLine + column];
+    }
+
+    private static int clamp(double value) {
+        int rounded = (int) Math.round(value);
+        return rounded < 0 ? 0 : rounded > 255 ? 255 : rounded;
+    }
+}
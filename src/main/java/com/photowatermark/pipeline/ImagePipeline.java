@@ -0,0 +1,394 @@
+package com.photowatermark.pipeline;
+
+import com.photowatermark.BatchContext;
+import com.photowatermark.ExifReader;
+import com.photowatermark.FileOutputManager;
+import com.photowatermark.ImageCodec;
+import com.photowatermark.ImageProcessor.ProcessResult;
+import com.photowatermark.ImageProcessor.ResultSink;
+import com.photowatermark.WatermarkProcessor;
+import com.photowatermark.WatermarkRenderPlan;
+import com.photowatermark.exception.FileOperationException;
+import com.photowatermark.tile.TiledWatermarker;
+import com.photowatermark.util.ImageHeader;
+import com.photowatermark.util.MemoryAdmissionController;
+import com.photowatermark.util.SourceMetadata;
+import com.photowatermark.util.WorkerExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分阶段的图片处理流水线
+ * 将读取、EXIF解析、解码、水印合成、编码和写出拆分为独立阶段，阶段之间通过有界队列交接，
+ * 使磁盘IO与CPU计算可以重叠执行，同时队列容量限制了内存中同时存在的图片数量。
+ * 每个任务在读取阶段申请内存额度，写出完成或失败后归还
+ */
+public class ImagePipeline {
+    private static final Logger logger = LoggerFactory.getLogger(ImagePipeline.class);
+
+    // 无法读取拍摄时间时使用的水印文本
+    private static final String DEFAULT_WATERMARK_TEXT = "No EXIF Date";
+
+    // 估算水印图层内存时使用的文本长度（yyyy-MM-dd HH:mm:ss）
+    private static final int ESTIMATED_WATERMARK_TEXT_LENGTH = 19;
+
+    private final ExifReader exifReader;
+    private final WatermarkProcessor watermarkProcessor;
+    private final FileOutputManager fileOutputManager;
+    private final ImageCodec imageCodec;
+    private final BatchContext context;
+    private final PipelineConfig pipelineConfig;
+
+    public ImagePipeline(ExifReader exifReader, WatermarkProcessor watermarkProcessor,
+                         FileOutputManager fileOutputManager, ImageCodec imageCodec,
+                         MemoryAdmissionController admissionController, PipelineConfig pipelineConfig) {
+        this(exifReader, watermarkProcessor, fileOutputManager, imageCodec, new BatchContext(admissionController),
+                pipelineConfig);
+    }
+
+    public ImagePipeline(ExifReader exifReader, WatermarkProcessor watermarkProcessor,
+                         FileOutputManager fileOutputManager, ImageCodec imageCodec,
+                         BatchContext context, PipelineConfig pipelineConfig) {
+        this.exifReader = exifReader;
+        this.watermarkProcessor = watermarkProcessor;
+        this.fileOutputManager = fileOutputManager;
+        this.imageCodec = imageCodec;
+        this.context = context;
+        this.pipelineConfig = pipelineConfig;
+    }
+
+    /**
+     * 通过流水线批量处理图片
+     *
+     * @param imagePaths 图片路径列表
+     * @param fontSize 字体大小
+     * @param color 字体颜色
+     * @param position 水印位置
+     * @return 按输入顺序排列的处理结果列表
+     */
+    public List<ProcessResult> process(List<String> imagePaths, int fontSize, String color, String position) {
+        ProcessResult[] results = new ProcessResult[imagePaths.size()];
+        process(imagePaths.iterator(), fontSize, color, position, (index, result) -> results[index] = result);
+
+        List<ProcessResult> orderedResults = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++) {
+            ProcessResult result = results[i];
+            orderedResults.add(result != null ? result : new ProcessResult(imagePaths.get(i), false, "处理被中断"));
+        }
+        return orderedResults;
+    }
+
+    /**
+     * 通过流水线处理来源中的全部图片，结果按完成顺序在调用线程上交给接收方
+     * 来源只在第一个阶段的队列有空位时才被读取，因此可以是按需生成路径的惰性来源。
+     * 来源读取出错时，已送入流水线的图片处理完后抛出该异常
+     *
+     * @param source 图片路径来源
+     * @param fontSize 字体大小
+     * @param color 字体颜色
+     * @param position 水印位置
+     * @param sink 结果接收方
+     */
+    public void process(Iterator<String> source, int fontSize, String color, String position, ResultSink sink) {
+        process(source, WatermarkRenderPlan.compile(fontSize, color, position), sink);
+    }
+
+    /**
+     * 按渲染计划流式处理图片，结果按完成顺序交给接收方，全部处理完后返回
+     *
+     * @param source 图片路径来源
+     * @param plan 水印渲染计划，所有图片共用
+     * @param sink 结果接收方
+     */
+    public void process(Iterator<String> source, WatermarkRenderPlan plan, ResultSink sink) {
+        logger.info("启动流水线处理: {}", pipelineConfig);
+
+        PipelineConfig.Stage[] stages = PipelineConfig.Stage.values();
+        List<BlockingQueue<ImageTask>> queues = new ArrayList<>();
+        for (int i = 0; i <= stages.length; i++) {
+            queues.add(new ArrayBlockingQueue<>(pipelineConfig.getQueueCapacity()));
+        }
+
+        boolean virtualThreads = WorkerExecutors.isVirtualThreadModeActive(pipelineConfig.isVirtualThreads());
+        List<PipelineStage> pipelineStages = new ArrayList<>();
+        for (int i = 0; i < stages.length; i++) {
+            int concurrency = getEffectiveConcurrency(stages[i], virtualThreads);
+            PipelineStage pipelineStage = new PipelineStage(stages[i], concurrency, queues.get(i), queues.get(i + 1),
+                    createAction(stages[i], plan));
+            pipelineStage.start(createExecutor(stages[i], concurrency, virtualThreads));
+            pipelineStages.add(pipelineStage);
+        }
+
+        AtomicReference<RuntimeException> sourceError = new AtomicReference<>();
+        Thread feeder = new Thread(() -> feed(source, queues.get(0), sourceError), "watermark-pipeline-feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+
+        BlockingQueue<ImageTask> resultQueue = queues.get(stages.length);
+        try {
+            ImageTask task;
+            while ((task = resultQueue.take()) != ImageTask.END) {
+                sink.accept(task.index, toResult(task));
+            }
+            for (PipelineStage stage : pipelineStages) {
+                stage.awaitTermination();
+            }
+        } catch (InterruptedException e) {
+            logger.warn("流水线处理被中断");
+            feeder.interrupt();
+            pipelineStages.forEach(PipelineStage::shutdownNow);
+            Thread.currentThread().interrupt();
+        }
+
+        if (sourceError.get() != null) {
+            throw sourceError.get();
+        }
+    }
+
+    /**
+     * 计算阶段实际使用的并发度
+     * 虚拟线程模式下IO密集阶段可以使用很高的并发度，CPU密集阶段则限制为处理器核心数，避免计算任务互相争抢
+     *
+     * @param stage 阶段
+     * @param virtualThreads 虚拟线程模式是否生效
+     * @return 并发度
+     */
+    private int getEffectiveConcurrency(PipelineConfig.Stage stage, boolean virtualThreads) {
+        int concurrency = pipelineConfig.getConcurrency(stage);
+        if (virtualThreads && !stage.isIoBound()) {
+            return Math.min(concurrency, WorkerExecutors.getCpuParallelism());
+        }
+        return concurrency;
+    }
+
+    /**
+     * 创建阶段使用的执行器，IO密集阶段在虚拟线程模式下使用虚拟线程
+     *
+     * @param stage 阶段
+     * @param concurrency 并发度
+     * @param virtualThreads 虚拟线程模式是否生效
+     * @return 执行器
+     */
+    private ExecutorService createExecutor(PipelineConfig.Stage stage, int concurrency, boolean virtualThreads) {
+        String namePrefix = "watermark-" + stage.getOptionName();
+        if (stage.isIoBound()) {
+            return WorkerExecutors.newIoExecutor(namePrefix, concurrency, virtualThreads);
+        }
+        return WorkerExecutors.newPlatformExecutor(namePrefix, concurrency);
+    }
+
+    /**
+     * 将来源中的路径依次放入第一个阶段的队列，队列满时阻塞
+     * 来源读取出错时停止送入新路径并记录异常，已送入的任务照常完成
+     *
+     * @param source 图片路径来源
+     * @param queue 第一个阶段的输入队列
+     * @param sourceError 记录来源读取异常
+     */
+    private void feed(Iterator<String> source, BlockingQueue<ImageTask> queue,
+                      AtomicReference<RuntimeException> sourceError) {
+        try {
+            try {
+                for (int i = 0; source.hasNext(); i++) {
+                    queue.put(new ImageTask(i, source.next()));
+                }
+            } catch (RuntimeException e) {
+                logger.error("读取图片路径来源失败，停止送入新的图片", e);
+                sourceError.set(e);
+            }
+            queue.put(ImageTask.END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 创建指定阶段的处理动作
+     *
+     * @param stage 阶段
+     * @param plan 水印渲染计划
+     * @return 阶段动作
+     */
+    private PipelineStage.Action createAction(PipelineConfig.Stage stage, WatermarkRenderPlan plan) {
+        switch (stage) {
+            case READ:
+                return task -> readSource(task, plan);
+            case EXIF:
+                return this::readExif;
+            case DECODE:
+                return task -> decode(task, plan);
+            case WATERMARK:
+                return task -> watermark(task, plan);
+            case ENCODE:
+                return task -> encode(task, plan);
+            case WRITE:
+                return this::writeOutput;
+            default:
+                throw new IllegalStateException("未知的流水线阶段: " + stage);
+        }
+    }
+
+    /**
+     * 读取阶段：申请内存额度，读入源文件内容并确定输出文件
+     * 批处理日志中已完成或输出已是最新的图片在此标记为跳过，不进入后续阶段；
+     * 分块处理的超大图片不读入内容，只按行带大小申请内存额度；预览模式只按预览尺寸申请内存额度
+     */
+    private void readSource(ImageTask task, WatermarkRenderPlan plan) throws Exception {
+        if (task.imagePath == null || task.imagePath.isEmpty()) {
+            throw new IllegalArgumentException("图片路径不能为空");
+        }
+
+        String skipReason = context.getSkipReason(task.imagePath);
+        if (skipReason != null) {
+            logger.debug("{}: {}", skipReason, task.imagePath);
+            task.skip(skipReason);
+            return;
+        }
+
+        File sourceFile = new File(task.imagePath);
+        if (!sourceFile.exists()) {
+            throw new FileOperationException("图片文件不存在: " + task.imagePath);
+        }
+
+        // 读取文件头确认实际格式，非图片文件在读取全部内容之前即被拒绝
+        ImageHeader header = ImageHeader.read(sourceFile);
+        header.checkSupported(task.imagePath);
+        task.sourceFormat = header.getFormat();
+
+        // 输出文件与源文件扩展名相同，申请内存额度前即可确定输出格式
+        task.tiled = watermarkProcessor.isTiled(sourceFile, task.sourceFormat,
+                imageCodec.getFormatName(sourceFile), plan);
+        MemoryAdmissionController admissionController = context.getAdmissionController();
+        long overlayBytes = MemoryAdmissionController.estimateOverlayBytes(plan.getFontSize(),
+                ESTIMATED_WATERMARK_TEXT_LENGTH);
+        long footprint = plan.isPreview()
+                ? MemoryAdmissionController.estimatePreviewFootprint(sourceFile, plan.getPreviewMaxEdge(),
+                        overlayBytes)
+                : task.tiled ? TiledWatermarker.estimateFootprint(overlayBytes)
+                : admissionController.estimateFootprint(sourceFile, task.sourceFormat, overlayBytes);
+        task.memoryPermit = admissionController.acquire(footprint);
+
+        logger.info("开始处理图片: {}", task.imagePath);
+
+        task.sourceFile = sourceFile;
+        if (!task.tiled) {
+            task.sourceData = Files.readAllBytes(sourceFile.toPath());
+        }
+
+        task.outputFile = context.prepareOutputFile(fileOutputManager, task.imagePath);
+        task.formatName = imageCodec.getFormatName(task.outputFile);
+    }
+
+    /**
+     * EXIF阶段：从内存中的文件内容解析拍摄时间，分块处理的图片从文件读取
+     */
+    private void readExif(ImageTask task) throws Exception {
+        String captureDate = task.tiled ? exifReader.readCaptureDateAsString(task.sourceFile)
+                : exifReader.readExifInfo(task.sourceData, task.imagePath).getCaptureDateAsString();
+        if (captureDate == null || captureDate.isEmpty()) {
+            logger.warn("无法从图片中读取拍摄时间，使用默认水印文本: {}", task.imagePath);
+            captureDate = DEFAULT_WATERMARK_TEXT;
+        }
+        task.watermarkText = captureDate;
+    }
+
+    /**
+     * 解码阶段：解码图片并按EXIF方向校正，完成后释放源文件数据
+     * 可以用JPEG无损模式处理的图片不在此解码，由水印阶段直接转码；分块处理的图片由水印阶段按行带解码；
+     * 预览模式按预览尺寸缩小解码。启用元数据复制时，释放源文件数据前先截取元数据
+     */
+    private void decode(ImageTask task, WatermarkRenderPlan plan) throws Exception {
+        if (task.tiled || watermarkProcessor.isLosslessJpegEligible(task.sourceFormat, task.formatName, plan)) {
+            return;
+        }
+        task.metadata = watermarkProcessor.readMetadata(task.sourceFile, task.sourceFormat, task.sourceData,
+                task.formatName, plan);
+        if (plan.isPreview()) {
+            ImageCodec.ScaledImage preview = imageCodec.decodePreview(task.sourceData, task.sourceFormat,
+                    task.imagePath, plan.getPreviewMaxEdge());
+            task.image = preview.getImage();
+            task.previewScale = preview.getScale();
+            task.sourceData = null;
+            return;
+        }
+        task.image = imageCodec.decode(task.sourceData, task.sourceFormat, task.imagePath);
+        task.sourceData = null;
+    }
+
+    /**
+     * 水印阶段：在解码后的图片上合成水印
+     * 未解码的JPEG只重新编码水印覆盖的MCU，结果直接交给写出阶段；不支持时在此完整解码后合成。
+     * 分块处理的图片在此按行带读取、合成并直接写出输出文件
+     */
+    private void watermark(ImageTask task, WatermarkRenderPlan plan) throws Exception {
+        if (task.tiled) {
+            watermarkProcessor.watermarkTiled(task.sourceFile, task.sourceFormat, task.watermarkText, plan,
+                    task.outputFile, context.getOutputSink());
+            return;
+        }
+        if (task.image == null) {
+            task.encodedData = watermarkProcessor.transcodeJpeg(task.sourceData, task.watermarkText, plan);
+            if (task.encodedData != null) {
+                task.sourceData = null;
+                return;
+            }
+            decode(task, plan.withLosslessJpeg(false));
+        }
+
+        BufferedImage decoded = task.image;
+        WatermarkRenderPlan imagePlan = plan.isPreview() ? plan.forScale(task.previewScale) : plan;
+        task.image = watermarkProcessor.applyWatermark(decoded, task.watermarkText, imagePlan);
+        if (task.image != decoded) {
+            imageCodec.release(decoded);
+        }
+    }
+
+    /**
+     * 编码阶段：按输出格式和渲染计划中的JPEG编码设置编码图片并插入源文件元数据，完成后将图片缓冲区归还缓冲池
+     * 已由JPEG无损模式转码或已分块写出的图片直接传递
+     */
+    private void encode(ImageTask task, WatermarkRenderPlan plan) throws Exception {
+        if (task.tiled || task.encodedData != null) {
+            return;
+        }
+        task.encodedData = task.metadata.insertInto(imageCodec.encode(task.image, task.formatName, -1,
+                plan.getJpegEncoding(), plan.getPngEncoding()), task.formatName);
+        task.metadata = SourceMetadata.EMPTY;
+        imageCodec.release(task.image);
+        task.image = null;
+    }
+
+    /**
+     * 写出阶段：将编码结果写入输出文件，分块处理的图片已在水印阶段写出
+     */
+    private void writeOutput(ImageTask task) throws Exception {
+        if (!task.tiled) {
+            context.getOutputSink().write(task.outputFile, task.encodedData);
+        }
+        task.encodedData = null;
+        task.releaseMemory();
+        logger.info("图片处理完成: {} -> {}", task.imagePath, task.outputFile.getPath());
+    }
+
+    private ProcessResult toResult(ImageTask task) {
+        task.releaseMemory();
+        if (task.isFailed()) {
+            return new ProcessResult(task.imagePath, false, task.getError().getMessage());
+        }
+        if (task.isSkipped()) {
+            return ProcessResult.skipped(task.imagePath, task.getSkipReason());
+        }
+        return new ProcessResult(task.imagePath, true, "处理成功");
+    }
+}
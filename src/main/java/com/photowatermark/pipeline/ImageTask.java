@@ -0,0 +1,103 @@
+package com.photowatermark.pipeline;
+
+import com.photowatermark.util.ImageHeader;
+import com.photowatermark.util.MemoryAdmissionController;
+import com.photowatermark.util.SourceMetadata;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+/**
+ * 流水线中流转的单张图片处理任务
+ * 任务对象通过阻塞队列在阶段之间交接，同一时刻只被一个工作线程持有
+ */
+class ImageTask {
+
+    // 表示输入结束的标记任务
+    static final ImageTask END = new ImageTask(-1, null);
+
+    final int index;
+    final String imagePath;
+
+    File sourceFile;
+    ImageHeader.Format sourceFormat;
+    byte[] sourceData;
+    String watermarkText;
+    File outputFile;
+    String formatName;
+    BufferedImage image;
+    byte[] encodedData;
+    // 解码前从源文件内容中截取的元数据，编码后插入输出
+    SourceMetadata metadata = SourceMetadata.EMPTY;
+    // 超大图片分块处理，不读入源文件内容，由水印阶段直接写出输出文件
+    boolean tiled;
+    // 预览模式下解码图片相对原图的缩放比例
+    double previewScale = 1.0;
+    MemoryAdmissionController.Permit memoryPermit;
+
+    private Exception error;
+    private String skipReason;
+
+    ImageTask(int index, String imagePath) {
+        this.index = index;
+        this.imagePath = imagePath;
+    }
+
+    /**
+     * 标记任务失败并释放已持有的数据
+     *
+     * @param error 失败原因
+     */
+    void fail(Exception error) {
+        this.error = error;
+        this.sourceData = null;
+        this.image = null;
+        this.encodedData = null;
+        releaseMemory();
+    }
+
+    /**
+     * 标记任务跳过处理，后续阶段直接传递该任务
+     *
+     * @param reason 跳过原因
+     */
+    void skip(String reason) {
+        this.skipReason = reason;
+        releaseMemory();
+    }
+
+    /**
+     * 归还任务占用的内存额度
+     */
+    void releaseMemory() {
+        if (memoryPermit != null) {
+            memoryPermit.close();
+            memoryPermit = null;
+        }
+    }
+
+    boolean isFailed() {
+        return error != null;
+    }
+
+    Exception getError() {
+        return error;
+    }
+
+    boolean isSkipped() {
+        return skipReason != null;
+    }
+
+    String getSkipReason() {
+        return skipReason;
+    }
+
+    /**
+     * 任务是否已不需要后续阶段处理
+     *
+     * @return 已失败或已跳过时返回true
+     */
+    boolean isSettled() {
+        return isFailed() || isSkipped();
+    }
+}
@@ -0,0 +1,180 @@
+package com.photowatermark.pipeline;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 流水线配置类，保存各处理阶段的并发度和阶段间队列容量
+ */
+public class PipelineConfig {
+
+    /**
+     * 流水线处理阶段
+     */
+    public enum Stage {
+        READ("read", true),
+        EXIF("exif", false),
+        DECODE("decode", false),
+        WATERMARK("watermark", false),
+        ENCODE("encode", false),
+        WRITE("write", true);
+
+        private final String optionName;
+        private final boolean ioBound;
+
+        Stage(String optionName, boolean ioBound) {
+            this.optionName = optionName;
+            this.ioBound = ioBound;
+        }
+
+        public String getOptionName() {
+            return optionName;
+        }
+
+        /**
+         * 是否为IO密集阶段，IO密集阶段可以使用虚拟线程
+         *
+         * @return 是否为IO密集阶段
+         */
+        public boolean isIoBound() {
+            return ioBound;
+        }
+
+        /**
+         * 根据名称查找阶段
+         *
+         * @param name 阶段名称
+         * @return 对应的阶段，找不到时返回null
+         */
+        public static Stage fromOptionName(String name) {
+            for (Stage stage : values()) {
+                if (stage.optionName.equalsIgnoreCase(name)) {
+                    return stage;
+                }
+            }
+            return null;
+        }
+    }
+
+    // 默认的阶段间队列容量
+    private static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    // 使用虚拟线程时IO密集阶段的默认并发度
+    private static final int DEFAULT_VIRTUAL_IO_CONCURRENCY = 64;
+
+    private final Map<Stage, Integer> concurrency = new EnumMap<>(Stage.class);
+    private int queueCapacity;
+    private boolean virtualThreads;
+
+    // 默认构造函数，CPU密集阶段使用全部处理器核心
+    public PipelineConfig() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    // 指定CPU密集阶段并发度的构造函数
+    public PipelineConfig(int cpuThreads) {
+        int threads = Math.max(1, cpuThreads);
+        concurrency.put(Stage.READ, 2);
+        concurrency.put(Stage.EXIF, 1);
+        concurrency.put(Stage.DECODE, threads);
+        concurrency.put(Stage.WATERMARK, threads);
+        concurrency.put(Stage.ENCODE, threads);
+        concurrency.put(Stage.WRITE, 2);
+        this.queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    }
+
+    // Getter和Setter方法
+    public int getConcurrency(Stage stage) {
+        return concurrency.get(stage);
+    }
+
+    public void setConcurrency(Stage stage, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("阶段并发度必须大于0: " + stage.getOptionName() + "=" + threads);
+        }
+        concurrency.put(stage, threads);
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * 设置IO密集阶段是否使用虚拟线程
+     * 启用时IO密集阶段的并发度提高到虚拟线程模式的默认值，之后仍可通过applySpec覆盖
+     *
+     * @param virtualThreads 是否使用虚拟线程
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        if (virtualThreads) {
+            for (Stage stage : Stage.values()) {
+                if (stage.isIoBound()) {
+                    concurrency.put(stage, Math.max(concurrency.get(stage), DEFAULT_VIRTUAL_IO_CONCURRENCY));
+                }
+            }
+        }
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("队列容量必须大于0: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * 解析阶段并发度设置，格式为 "read=4,decode=8,queue=16"
+     *
+     * @param spec 设置字符串
+     * @throws IllegalArgumentException 格式错误时抛出
+     */
+    public void applySpec(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return;
+        }
+
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("无效的阶段设置: " + entry);
+            }
+
+            String name = parts[0].trim();
+            int value;
+            try {
+                value = Integer.parseInt(parts[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("无效的阶段设置: " + entry, e);
+            }
+
+            if ("queue".equalsIgnoreCase(name)) {
+                setQueueCapacity(value);
+                continue;
+            }
+
+            Stage stage = Stage.fromOptionName(name);
+            if (stage == null) {
+                throw new IllegalArgumentException("未知的流水线阶段: " + name);
+            }
+            setConcurrency(stage, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("PipelineConfig{");
+        for (Stage stage : Stage.values()) {
+            builder.append(stage.getOptionName()).append('=').append(concurrency.get(stage)).append(", ");
+        }
+        builder.append("queue=").append(queueCapacity);
+        if (virtualThreads) {
+            builder.append(", virtualThreads=true");
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,113 @@
+package com.photowatermark.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流水线中的单个处理阶段
+ * 多个工作线程从输入队列取任务、执行阶段动作并放入输出队列；
+ * 已失败或已跳过的任务直接传递到下游，由结果收集方统一汇总
+ */
+class PipelineStage {
+    private static final Logger logger = LoggerFactory.getLogger(PipelineStage.class);
+
+    /**
+     * 阶段动作
+     */
+    interface Action {
+        void apply(ImageTask task) throws Exception;
+    }
+
+    private final PipelineConfig.Stage stage;
+    private final int concurrency;
+    private final BlockingQueue<ImageTask> input;
+    private final BlockingQueue<ImageTask> output;
+    private final Action action;
+    private final AtomicInteger activeWorkers;
+    private ExecutorService executor;
+
+    PipelineStage(PipelineConfig.Stage stage, int concurrency, BlockingQueue<ImageTask> input,
+                  BlockingQueue<ImageTask> output, Action action) {
+        this.stage = stage;
+        this.concurrency = concurrency;
+        this.input = input;
+        this.output = output;
+        this.action = action;
+        this.activeWorkers = new AtomicInteger(concurrency);
+    }
+
+    /**
+     * 在指定执行器上启动阶段的全部工作线程，阶段结束后执行器随之关闭
+     *
+     * @param executor 执行器，至少能同时运行concurrency个任务
+     */
+    void start(ExecutorService executor) {
+        this.executor = executor;
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(this::runWorker);
+        }
+    }
+
+    /**
+     * 立即停止阶段的工作线程
+     */
+    void shutdownNow() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 等待阶段的工作线程退出
+     *
+     * @throws InterruptedException 等待被中断
+     */
+    void awaitTermination() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void runWorker() {
+        try {
+            while (true) {
+                ImageTask task = input.take();
+                if (task == ImageTask.END) {
+                    // 放回结束标记，让同阶段的其他工作线程也能退出
+                    input.put(ImageTask.END);
+                    break;
+                }
+
+                if (!task.isSettled()) {
+                    try {
+                        action.apply(task);
+                    } catch (InterruptedException e) {
+                        task.fail(e);
+                        throw e;
+                    } catch (Exception | OutOfMemoryError e) {
+                        logger.error("流水线阶段 {} 处理图片失败: {}", stage.getOptionName(), task.imagePath, e);
+                        task.fail(e instanceof Exception ? (Exception) e : new Exception("内存不足: " + e.getMessage(), e));
+                    }
+                }
+                output.put(task);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // 最后一个退出的工作线程负责向下游传递结束标记
+            if (activeWorkers.decrementAndGet() == 0 && !Thread.currentThread().isInterrupted()) {
+                try {
+                    output.put(ImageTask.END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.photowatermark.png;
+
+import com.photowatermark.util.WorkerExecutors;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 并行分块压缩的PNG编码器
+ * 按pigz的方式把滤波后的扫描行按固定大小分块，各块在多个线程上分别压缩为原始DEFLATE数据：
+ * 除第一块外，每块先重新滤波前一块末尾的行，用其中最后32KB设置预置字典，使跨块的匹配不受影响；
+ * 除最后一块外，每块以同步刷新结束，使压缩数据停在字节边界上，可以直接首尾相接。
+ * 各块的Adler-32校验和合并为整个zlib数据流的校验和，写出的PNG是一个普通的单数据流PNG。
+ * 分块只取决于图片宽度，与线程数无关，相同设置下的输出字节完全相同
+ */
+public final class ParallelPngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    // 每块滤波后的数据量。比pigz默认的128KB大，宽幅图片每行就有几十KB，
+    // 块太小时为预置字典重新滤波的行占比过高；5000万像素的图片仍能分为约三百块
+    static final int CHUNK_BYTES = 512 * 1024;
+
+    // DEFLATE的回溯窗口大小
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+
+    private static final int ADLER_BASE = 65521;
+
+    private ParallelPngEncoder() {
+    }
+
+    /**
+     * 判断图片类型是否可以用本编码器写出，且写出的颜色类型与ImageIO相同
+     * 8位灰度写出为灰度PNG，其余支持的类型按有无透明通道写出为8位RGB或RGBA；
+     * 16位、索引色和自定义类型仍使用ImageIO编码
+     *
+     * @param image 图片
+     * @return 是否支持
+     */
+    public static boolean supports(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 将图片编码为PNG
+     * 只有一块时在调用线程上压缩；多块时第一块在调用线程上压缩，其余块交给共享的压缩线程池，
+     * 按顺序写出已完成的块，同时在途的块不超过线程数加一
+     *
+     * @param image 图片，类型必须被supports支持
+     * @param encoding PNG编码设置，不能是默认设置
+     * @param output 输出流
+     * @throws IOException 写出失败或压缩被中断时抛出
+     */
+    public static void encode(BufferedImage image, PngEncoding encoding, OutputStream output) throws IOException {
+        encode(image, encoding, output, CHUNK_BYTES);
+    }
+
+    /**
+     * 按指定的分块大小将图片编码为PNG，测试用较小的分块覆盖更多的块边界
+     */
+    static void encode(BufferedImage image, PngEncoding encoding, OutputStream output, int chunkBytes)
+            throws IOException {
+        if (!supports(image)) {
+            throw new IllegalArgumentException("不支持的图片类型: " + image.getType());
+        }
+        if (encoding.isDefault()) {
+            throw new IllegalArgumentException("默认PNG编码设置应使用ImageIO编码");
+        }
+
+        Layout layout = new Layout(image, encoding, chunkBytes);
+        int chunkCount = (layout.height + layout.rowsPerChunk - 1) / layout.rowsPerChunk;
+        DataOutputStream stream = new DataOutputStream(output);
+        CRC32 crc = new CRC32();
+
+        stream.write(SIGNATURE);
+        byte[] header = new byte[13];
+        writeInt(header, 0, layout.width);
+        writeInt(header, 4, layout.height);
+        header[8] = 8;
+        header[9] = (byte) layout.colorType;
+        writeChunk(stream, crc, "IHDR", header, header.length);
+
+        Deque<Future<Chunk>> futures = new ArrayDeque<>();
+        try {
+            // 只提交线程池能同时处理的块数再多一块，写出一块后再提交下一块，
+            // 已压缩未写出的数据和正在压缩的块都有上限，占用的内存与图片大小无关
+            int window = WorkerExecutors.getCpuParallelism() + 1;
+            int nextIndex = 1;
+            while (nextIndex < chunkCount && futures.size() < window) {
+                futures.add(submit(image, layout, nextIndex++, chunkCount));
+            }
+
+            Chunk first = compress(image, layout, 0, chunkCount == 1);
+            byte[] zlibHeader = zlibHeader(encoding.getLevel());
+            writeChunk(stream, crc, zlibHeader, first);
+            long adler = first.adler;
+
+            while (!futures.isEmpty()) {
+                Chunk chunk = await(futures.peek());
+                futures.poll();
+                if (nextIndex < chunkCount) {
+                    futures.add(submit(image, layout, nextIndex++, chunkCount));
+                }
+                writeChunk(stream, crc, null, chunk);
+                adler = adler32Combine(adler, chunk.adler, chunk.inputLength);
+            }
+
+            byte[] trailer = new byte[4];
+            writeInt(trailer, 0, (int) adler);
+            writeChunk(stream, crc, "IDAT", trailer, trailer.length);
+            writeChunk(stream, crc, "IEND", trailer, 0);
+            stream.flush();
+        } finally {
+            for (Future<Chunk> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 把一块交给共享的压缩线程池
+     */
+    private static Future<Chunk> submit(BufferedImage image, Layout layout, int index, int chunkCount) {
+        return DeflateExecutor.INSTANCE.submit(() -> compress(image, layout, index, index == chunkCount - 1));
+    }
+
+    /**
+     * 滤波并压缩一块扫描行
+     */
+    private static Chunk compress(BufferedImage image, Layout layout, int index, boolean last) {
+        int firstRow = index * layout.rowsPerChunk;
+        int endRow = Math.min(layout.height, firstRow + layout.rowsPerChunk);
+        int primeRow = Math.max(0, firstRow - layout.dictionaryRows);
+        int stride = layout.rowBytes + 1;
+
+        // 前一块末尾的行按同样的方式重新滤波，得到与前一块完全相同的字节作为预置字典
+        byte[] filtered = new byte[(endRow - primeRow) * stride];
+        RowReader reader = new RowReader(image, layout);
+        PngFilter filter = new PngFilter(layout.rowBytes, layout.channels, layout.filter);
+        byte[] previous = new byte[layout.rowBytes];
+        byte[] current = new byte[layout.rowBytes];
+        if (primeRow > 0) {
+            reader.read(primeRow - 1, previous);
+        }
+        for (int y = primeRow; y < endRow; y++) {
+            reader.read(y, current);
+            System.arraycopy(filter.filter(current, previous), 0, filtered, (y - primeRow) * stride, stride);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        int inputOffset = (firstRow - primeRow) * stride;
+        int inputLength = filtered.length - inputOffset;
+        int dictionaryLength = Math.min(inputOffset, DICTIONARY_BYTES);
+
+        Deflater deflater = new Deflater(layout.level, true);
+        try {
+            if (dictionaryLength > 0) {
+                deflater.setDictionary(filtered, inputOffset - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(filtered, inputOffset, inputLength);
+            byte[] buffer = new byte[Math.max(4096, inputLength / 2)];
+            int length = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    length += deflater.deflate(buffer, length, buffer.length - length);
+                }
+            } else {
+                // 同步刷新写满缓冲区时还可能有剩余数据，需要继续调用直到有空余
+                do {
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    length += deflater.deflate(buffer, length, buffer.length - length, Deflater.SYNC_FLUSH);
+                } while (length == buffer.length);
+            }
+
+            Adler32 adler = new Adler32();
+            adler.update(filtered, inputOffset, inputLength);
+            // 缓冲区按未压缩数据的一半分配，等待写出期间只保留实际的压缩数据
+            return new Chunk(Arrays.copyOf(buffer, length), length, adler.getValue(), inputLength);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待PNG压缩任务时被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("PNG压缩失败: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 合并两段数据的Adler-32校验和，算法与zlib的adler32_combine相同
+     *
+     * @param adler1 第一段数据的校验和
+     * @param adler2 第二段数据的校验和
+     * @param length2 第二段数据的长度
+     * @return 两段数据相接后的校验和
+     */
+    static long adler32Combine(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= (long) ADLER_BASE << 1) {
+            sum2 -= (long) ADLER_BASE << 1;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * 生成zlib数据流头：32KB窗口的DEFLATE，压缩级别标志与zlib相同
+     */
+    private static byte[] zlibHeader(int level) {
+        int levelFlag = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int cmf = 0x78;
+        int flg = levelFlag << 6;
+        flg += 31 - (cmf * 256 + flg) % 31;
+        return new byte[] {(byte) cmf, (byte) flg};
+    }
+
+    private static void writeChunk(DataOutputStream output, CRC32 crc, String type, byte[] data, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        output.writeInt(length);
+        output.write(typeBytes);
+        output.write(data, 0, length);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        output.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * 把一块压缩数据写为一个IDAT块，第一块前面带上zlib数据流头
+     */
+    private static void writeChunk(DataOutputStream output, CRC32 crc, byte[] prefix, Chunk chunk)
+            throws IOException {
+        byte[] typeBytes = "IDAT".getBytes(StandardCharsets.US_ASCII);
+        int prefixLength = prefix != null ? prefix.length : 0;
+        output.writeInt(prefixLength + chunk.length);
+        output.write(typeBytes);
+        crc.reset();
+        crc.update(typeBytes);
+        if (prefixLength > 0) {
+            output.write(prefix);
+            crc.update(prefix);
+        }
+        output.write(chunk.data, 0, chunk.length);
+        crc.update(chunk.data, 0, chunk.length);
+        output.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    /**
+     * 输出的颜色类型、行大小和分块方式
+     */
+    private static final class Layout {
+        final int width;
+        final int height;
+        final int channels;
+        final int colorType;
+        final int rowBytes;
+        final int rowsPerChunk;
+        final int dictionaryRows;
+        final int level;
+        final PngEncoding.Filter filter;
+
+        Layout(BufferedImage image, PngEncoding encoding, int chunkBytes) {
+            width = image.getWidth();
+            height = image.getHeight();
+            if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+                channels = 1;
+                colorType = 0;
+            } else if (image.getColorModel().hasAlpha()) {
+                channels = 4;
+                colorType = 6;
+            } else {
+                channels = 3;
+                colorType = 2;
+            }
+            rowBytes = width * channels;
+            int stride = rowBytes + 1;
+            rowsPerChunk = Math.max(1, chunkBytes / stride);
+            dictionaryRows = (DICTIONARY_BYTES + stride - 1) / stride;
+            level = encoding.getLevel();
+            filter = encoding.getFilter();
+        }
+    }
+
+    /**
+     * 按输出的通道顺序读取一行像素，常见类型直接复制栅格数据，其余类型经getRGB转换
+     */
+    private static final class RowReader {
+        private final BufferedImage image;
+        private final WritableRaster raster;
+        private final int width;
+        private final int channels;
+        private final int[] pixels;
+
+        RowReader(BufferedImage image, Layout layout) {
+            this.image = image;
+            this.raster = image.getRaster();
+            this.width = layout.width;
+            this.channels = layout.channels;
+            this.pixels = layout.channels == 1 ? null : new int[width];
+        }
+
+        void read(int y, byte[] row) {
+            switch (image.getType()) {
+                case BufferedImage.TYPE_BYTE_GRAY:
+                case BufferedImage.TYPE_3BYTE_BGR:
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    // 交错存储的字节栅格按波段顺序(R、G、B、A)返回样本，与PNG的通道顺序相同
+                    raster.getDataElements(0, y, width, 1, row);
+                    return;
+                case BufferedImage.TYPE_INT_RGB:
+                case BufferedImage.TYPE_INT_ARGB:
+                    raster.getDataElements(0, y, width, 1, pixels);
+                    break;
+                default:
+                    image.getRGB(0, y, width, 1, pixels, 0, width);
+                    break;
+            }
+
+            if (channels == 4) {
+                for (int x = 0, i = 0; x < width; x++, i += 4) {
+                    int argb = pixels[x];
+                    row[i] = (byte) (argb >> 16);
+                    row[i + 1] = (byte) (argb >> 8);
+                    row[i + 2] = (byte) argb;
+                    row[i + 3] = (byte) (argb >>> 24);
+                }
+            } else {
+                for (int x = 0, i = 0; x < width; x++, i += 3) {
+                    int rgb = pixels[x];
+                    row[i] = (byte) (rgb >> 16);
+                    row[i + 1] = (byte) (rgb >> 8);
+                    row[i + 2] = (byte) rgb;
+                }
+            }
+        }
+    }
+
+    /**
+     * 一块压缩后的数据及其未压缩数据的校验和与长度
+     */
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+        final long adler;
+        final long inputLength;
+
+        Chunk(byte[] data, int length, long adler, long inputLength) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.inputLength = inputLength;
+        }
+    }
+
+    /**
+     * 所有编码共享的压缩线程池，首次使用时创建，线程数为处理器核心数
+     * 多张图片同时编码时压缩任务在此排队，总并发不超过核心数；调用线程自己压缩第一块，不会因排队而停滞
+     */
+    private static final class DeflateExecutor {
+        static final ExecutorService INSTANCE =
+                WorkerExecutors.newPlatformExecutor("png-deflate", WorkerExecutors.getCpuParallelism());
+    }
+}
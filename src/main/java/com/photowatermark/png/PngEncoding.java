@@ -0,0 +1,196 @@
+package com.photowatermark.png;
+
+import java.util.Locale;
+
+/**
+ * PNG编码设置：DEFLATE压缩级别和扫描行滤波方式
+ * 非默认设置使用并行分块压缩的编码器，default与未指定设置时ImageIO的默认输出相同。
+ * 预设在编码速度和文件大小之间取舍：fast压缩最快，balanced与ImageIO的默认输出大小相同，archive文件最小。
+ * 分块方式与线程数无关，相同设置下输出的字节完全相同。
+ * 本类不可变，可在多个工作线程之间共享
+ */
+public final class PngEncoding {
+
+    /**
+     * 扫描行滤波方式，前五种对每行使用固定的滤波类型，adaptive逐行选择差值绝对值和最小的类型
+     */
+    public enum Filter {
+        NONE("none", 0),
+        SUB("sub", 1),
+        UP("up", 2),
+        AVERAGE("average", 3),
+        PAETH("paeth", 4),
+        ADAPTIVE("adaptive", -1);
+
+        private final String name;
+        private final int type;
+
+        Filter(String name, int type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 获取写入每行第一个字节的滤波类型，adaptive为-1
+         */
+        public int getType() {
+            return type;
+        }
+
+        static Filter forName(String name) {
+            for (Filter filter : values()) {
+                if (filter.name.equals(name)) {
+                    return filter;
+                }
+            }
+            throw new IllegalArgumentException("未知的PNG滤波方式: " + name
+                    + "，可选值: none、sub、up、average、paeth、adaptive");
+        }
+    }
+
+    // 与ImageIO默认输出相同的设置
+    public static final PngEncoding DEFAULT = new PngEncoding("default", -1, Filter.ADAPTIVE);
+
+    // 最快的编码：最低的压缩级别，不滤波
+    public static final PngEncoding FAST = new PngEncoding("fast", 1, Filter.NONE);
+
+    // 与ImageIO默认输出的压缩方式相同(压缩级别4，RGB和灰度图片不滤波)，文件大小基本相同，只是按块并行压缩
+    public static final PngEncoding BALANCED = new PngEncoding("balanced", 4, Filter.NONE);
+
+    // 归档：最高的压缩级别，逐行选择滤波类型，连续色调的照片文件最小，编码最慢
+    public static final PngEncoding ARCHIVE = new PngEncoding("archive", 9, Filter.ADAPTIVE);
+
+    private static final PngEncoding[] PRESETS = {DEFAULT, FAST, BALANCED, ARCHIVE};
+
+    private final String presetName;
+    private final int level;
+    private final Filter filter;
+
+    /**
+     * @param presetName 基于的预设名称，用于日志和规格字符串
+     * @param level DEFLATE压缩级别，0到9之间，小于0时使用ImageIO的默认编码
+     * @param filter 扫描行滤波方式
+     */
+    public PngEncoding(String presetName, int level, Filter filter) {
+        if (level > 9) {
+            throw new IllegalArgumentException("PNG压缩级别必须在0到9之间: " + level);
+        }
+        this.presetName = presetName;
+        this.level = level;
+        this.filter = filter != null ? filter : Filter.ADAPTIVE;
+    }
+
+    /**
+     * 获取预设
+     *
+     * @param name 预设名称：default、fast、balanced或archive
+     * @return 预设
+     * @throws IllegalArgumentException 名称未知时抛出
+     */
+    public static PngEncoding forPreset(String name) {
+        String presetName = name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+        for (PngEncoding preset : PRESETS) {
+            if (preset.presetName.equals(presetName)) {
+                return preset;
+            }
+        }
+        throw new IllegalArgumentException("未知的PNG编码预设: " + name + "，可选值: default、fast、balanced、archive");
+    }
+
+    /**
+     * 解析PNG编码设置，可以只给出预设名称，也可以在预设的基础上用逗号分隔的键值对覆盖各项设置，
+     * 例如: archive 或 preset=fast,level=6,filter=paeth
+     *
+     * @param spec 设置字符串
+     * @return PNG编码设置
+     * @throws IllegalArgumentException 格式错误时抛出
+     */
+    public static PngEncoding parse(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            throw new IllegalArgumentException("PNG编码设置不能为空");
+        }
+        if (spec.indexOf('=') < 0) {
+            return forPreset(spec);
+        }
+
+        PngEncoding base = BALANCED;
+        String[] entries = spec.split(",");
+        for (String entry : entries) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length == 2 && "preset".equalsIgnoreCase(parts[0].trim())) {
+                base = forPreset(parts[1]);
+            }
+        }
+
+        int level = base.level;
+        Filter filter = base.filter;
+        for (String entry : entries) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length != 2 || parts[1].trim().isEmpty()) {
+                throw new IllegalArgumentException("无效的PNG编码设置: " + entry);
+            }
+            String value = parts[1].trim().toLowerCase(Locale.ROOT);
+            switch (parts[0].trim().toLowerCase(Locale.ROOT)) {
+                case "preset":
+                    break;
+                case "level":
+                    level = parseLevel(entry, value);
+                    break;
+                case "filter":
+                    filter = Filter.forName(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的PNG编码设置: " + entry);
+            }
+        }
+        return new PngEncoding(base.presetName, level, filter);
+    }
+
+    private static int parseLevel(String entry, String value) {
+        try {
+            int level = Integer.parseInt(value);
+            if (level >= 0 && level <= 9) {
+                return level;
+            }
+        } catch (NumberFormatException e) {
+            // 在下方统一抛出异常
+        }
+        throw new IllegalArgumentException("PNG压缩级别必须是0到9之间的整数: " + entry);
+    }
+
+    public String getPresetName() {
+        return presetName;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * 判断是否使用ImageIO的默认编码，只覆盖滤波方式而未指定压缩级别时也视为默认设置
+     *
+     * @return 是否为默认设置
+     */
+    public boolean isDefault() {
+        return level < 0;
+    }
+
+    /**
+     * 转换为可以被parse解析的规格字符串，也用于计算设置指纹
+     */
+    @Override
+    public String toString() {
+        if (isDefault()) {
+            return presetName;
+        }
+        return "preset=" + presetName + ",level=" + level + ",filter=" + filter.name;
+    }
+}
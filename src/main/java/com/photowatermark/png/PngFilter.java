@@ -0,0 +1,115 @@
+package com.photowatermark.png;
+
+/**
+ * PNG扫描行滤波
+ * 固定滤波方式只计算一种滤波类型；adaptive对每行尝试全部五种类型，返回差值绝对值和最小的结果。
+ * 每个实例持有与行宽对应的候选缓冲区，不能在线程之间共享
+ */
+public final class PngFilter {
+
+    private final int rowBytes;
+    private final int unit;
+    private final PngEncoding.Filter strategy;
+    // 五种滤波类型的候选结果，每个候选的第一个字节为滤波类型
+    private final byte[][] candidates = new byte[5][];
+
+    /**
+     * @param rowBytes 每行的字节数，不含滤波类型字节
+     * @param bytesPerPixel 每个像素的字节数
+     * @param strategy 滤波方式
+     */
+    public PngFilter(int rowBytes, int bytesPerPixel, PngEncoding.Filter strategy) {
+        this.rowBytes = rowBytes;
+        this.unit = bytesPerPixel;
+        this.strategy = strategy;
+        for (int i = 0; i < candidates.length; i++) {
+            if (strategy == PngEncoding.Filter.ADAPTIVE || strategy.getType() == i) {
+                candidates[i] = new byte[rowBytes + 1];
+                candidates[i][0] = (byte) i;
+            }
+        }
+    }
+
+    /**
+     * 对一行滤波
+     *
+     * @param row 当前行
+     * @param previous 上一行，第一行传入全零的数组
+     * @return 以滤波类型开头、长度为rowBytes+1的结果，在下次调用前有效
+     */
+    public byte[] filter(byte[] row, byte[] previous) {
+        if (strategy == PngEncoding.Filter.ADAPTIVE) {
+            return filterAdaptive(row, previous);
+        }
+        int type = strategy.getType();
+        byte[] target = candidates[type];
+        for (int i = 0; i < rowBytes; i++) {
+            int value = row[i] & 0xFF;
+            int left = i >= unit ? row[i - unit] & 0xFF : 0;
+            int up = previous[i] & 0xFF;
+            switch (type) {
+                case 1:
+                    value -= left;
+                    break;
+                case 2:
+                    value -= up;
+                    break;
+                case 3:
+                    value -= (left + up) >> 1;
+                    break;
+                case 4:
+                    value -= paeth(left, up, i >= unit ? previous[i - unit] & 0xFF : 0);
+                    break;
+                default:
+                    break;
+            }
+            target[i + 1] = (byte) value;
+        }
+        return target;
+    }
+
+    private byte[] filterAdaptive(byte[] row, byte[] previous) {
+        long[] sums = new long[5];
+        for (int i = 0; i < rowBytes; i++) {
+            int value = row[i] & 0xFF;
+            int left = i >= unit ? row[i - unit] & 0xFF : 0;
+            int up = previous[i] & 0xFF;
+            int upperLeft = i >= unit ? previous[i - unit] & 0xFF : 0;
+
+            byte none = (byte) value;
+            byte sub = (byte) (value - left);
+            byte upFiltered = (byte) (value - up);
+            byte average = (byte) (value - ((left + up) >> 1));
+            byte paeth = (byte) (value - paeth(left, up, upperLeft));
+            candidates[0][i + 1] = none;
+            candidates[1][i + 1] = sub;
+            candidates[2][i + 1] = upFiltered;
+            candidates[3][i + 1] = average;
+            candidates[4][i + 1] = paeth;
+            sums[0] += Math.abs(none);
+            sums[1] += Math.abs(sub);
+            sums[2] += Math.abs(upFiltered);
+            sums[3] += Math.abs(average);
+            sums[4] += Math.abs(paeth);
+        }
+
+        int best = 0;
+        for (int i = 1; i < sums.length; i++) {
+            if (sums[i] < sums[best]) {
+                best = i;
+            }
+        }
+        return candidates[best];
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+}
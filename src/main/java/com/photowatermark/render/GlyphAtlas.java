@@ -0,0 +1,295 @@
+package com.photowatermark.render;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 字形图集，按字体、字号和颜色把每个字符预先光栅化一次，之后拼接字形图块生成水印文本
+ * 拍摄时间水印只由数字、短横线、冒号和空格组成，逐个图片重新排版和抗锯齿光栅化整段文本的开销远大于复制图块。
+ * 字符间距取自字体对相邻两个字符的排版结果；字形都落在整数像素位置，因此与Graphics2D.drawString绘制的结果逐像素相同。
+ * 相邻字形的抗锯齿边缘重叠时，后一个字形改用Graphics2D绘制，以保持与drawString相同的混合结果。
+ * 只支持可打印的ASCII字符；启用字距调整等排版属性的字体会把字形放在非整数位置，也不支持。
+ * 不支持的文本由调用方使用drawString绘制。本类线程安全
+ */
+public final class GlyphAtlas {
+
+    // 字形图块在字形像素边界之外保留的边距，容纳抗锯齿的边缘
+    private static final int TILE_MARGIN = 1;
+
+    private final Font font;
+    private final Color color;
+    private final RenderingHints renderingHints;
+    private final FontRenderContext fontRenderContext;
+    private final ConcurrentMap<Character, Glyph> glyphs = new ConcurrentHashMap<>();
+    // 相邻字符对的间距，键为两个字符拼成的int
+    private final ConcurrentMap<Integer, Integer> pairAdvances = new ConcurrentHashMap<>();
+
+    /**
+     * 创建字形图集，字形在首次使用时光栅化
+     *
+     * @param font 字体
+     * @param color 文本颜色
+     * @param renderingHints 绘制文本使用的渲染提示
+     */
+    public GlyphAtlas(Font font, Color color, RenderingHints renderingHints) {
+        this.font = font;
+        this.color = color;
+        this.renderingHints = (RenderingHints) renderingHints.clone();
+
+        // 与绘制时使用相同的渲染上下文，使字符间距与drawString一致
+        Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        try {
+            prepare(graphics);
+            this.fontRenderContext = graphics.getFontRenderContext();
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * 判断文本能否用字形图集绘制
+     *
+     * @param text 文本
+     * @return 是否只包含可打印的ASCII字符，且字体没有排版属性
+     */
+    public boolean canRender(String text) {
+        if (text == null || text.isEmpty() || font.hasLayoutAttributes()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x20 || c > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在水印图层上绘制文本，效果与在该位置调用drawString相同
+     * 调用前应先通过canRender确认支持
+     *
+     * @param overlay 新建的TYPE_INT_ARGB水印图层，文本区域应为完全透明
+     * @param text 文本
+     * @param x 文本起点的横坐标
+     * @param baseline 基线的纵坐标
+     */
+    public void drawText(BufferedImage overlay, String text, int x, int baseline) {
+        if (overlay.getType() != BufferedImage.TYPE_INT_ARGB || overlay.getRaster().getParent() != null
+                || !canRender(text)) {
+            throw new IllegalArgumentException("字形图集不支持绘制: " + text);
+        }
+
+        int[] pixels = ((DataBufferInt) overlay.getRaster().getDataBuffer()).getData();
+        int width = overlay.getWidth();
+        int height = overlay.getHeight();
+        Graphics2D graphics = null;
+        try {
+            int penX = x;
+            // 已绘制字形的最右边界，之后的字形从此处开始时不可能与已绘制的像素重叠
+            int inkRight = Integer.MIN_VALUE;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (i > 0) {
+                    penX += getPairAdvance(text.charAt(i - 1), c);
+                }
+
+                Glyph glyph = getGlyph(c);
+                if (glyph.isEmpty()) {
+                    continue;
+                }
+                int left = penX + glyph.offsetX;
+                int top = baseline + glyph.offsetY;
+                if (left >= inkRight) {
+                    glyph.copyTo(pixels, width, height, left, top);
+                } else if (!glyph.overlaps(pixels, width, height, left, top)) {
+                    glyph.mergeTo(pixels, width, height, left, top);
+                } else {
+                    if (graphics == null) {
+                        graphics = overlay.createGraphics();
+                        prepare(graphics);
+                    }
+                    graphics.drawString(String.valueOf(c), penX, baseline);
+                }
+                inkRight = Math.max(inkRight, left + glyph.width);
+            }
+        } finally {
+            if (graphics != null) {
+                graphics.dispose();
+            }
+        }
+    }
+
+    /**
+     * 获取已光栅化的字形数
+     *
+     * @return 字形数
+     */
+    public int getGlyphCount() {
+        return glyphs.size();
+    }
+
+    private void prepare(Graphics2D graphics) {
+        graphics.addRenderingHints(renderingHints);
+        graphics.setFont(font);
+        graphics.setColor(color);
+    }
+
+    private Glyph getGlyph(char c) {
+        return glyphs.computeIfAbsent(c, this::rasterize);
+    }
+
+    /**
+     * 获取两个相邻字符起点之间的距离，由字体对这两个字符排版得到
+     */
+    private int getPairAdvance(char first, char second) {
+        return pairAdvances.computeIfAbsent((first << 16) | second, key -> {
+            char[] pair = {first, second};
+            GlyphVector vector = font.layoutGlyphVector(fontRenderContext, pair, 0, 2, Font.LAYOUT_LEFT_TO_RIGHT);
+            return (int) Math.round(vector.getGlyphPosition(1).getX());
+        });
+    }
+
+    /**
+     * 光栅化单个字符，图块裁剪到实际绘制的像素范围，原点相对字符起点和基线的位置随之记录
+     */
+    private Glyph rasterize(char c) {
+        String text = String.valueOf(c);
+        Rectangle bounds = font.createGlyphVector(fontRenderContext, text).getPixelBounds(fontRenderContext, 0, 0);
+        if (bounds.isEmpty()) {
+            return new Glyph(null, 0, 0, 0, 0);
+        }
+
+        int originX = TILE_MARGIN - bounds.x;
+        int originY = TILE_MARGIN - bounds.y;
+        BufferedImage tile = new BufferedImage(bounds.width + TILE_MARGIN * 2, bounds.height + TILE_MARGIN * 2,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = tile.createGraphics();
+        try {
+            prepare(graphics);
+            graphics.drawString(text, originX, originY);
+        } finally {
+            graphics.dispose();
+        }
+
+        Rectangle ink = findInkBounds(tile);
+        if (ink.isEmpty()) {
+            return new Glyph(null, 0, 0, 0, 0);
+        }
+        int[] pixels = new int[ink.width * ink.height];
+        tile.getRGB(ink.x, ink.y, ink.width, ink.height, pixels, 0, ink.width);
+        return new Glyph(pixels, ink.width, ink.height, ink.x - originX, ink.y - originY);
+    }
+
+    /**
+     * 查找图片中所有不透明像素的包围矩形
+     */
+    private static Rectangle findInkBounds(BufferedImage tile) {
+        int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        int width = tile.getWidth();
+        int minX = width;
+        int minY = tile.getHeight();
+        int maxX = -1;
+        int maxY = -1;
+        for (int y = 0; y < tile.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                if (pixels[y * width + x] != 0) {
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+        }
+        return maxX < 0 ? new Rectangle() : new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * 字形图块
+     */
+    private static final class Glyph {
+        private final int[] pixels;
+        private final int width;
+        private final int height;
+        // 图块左上角相对字符起点和基线的偏移
+        private final int offsetX;
+        private final int offsetY;
+
+        Glyph(int[] pixels, int width, int height, int offsetX, int offsetY) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+        }
+
+        boolean isEmpty() {
+            return pixels == null;
+        }
+
+        /**
+         * 判断图块的不透明像素是否落在目标中已绘制的像素上
+         */
+        boolean overlaps(int[] target, int targetWidth, int targetHeight, int left, int top) {
+            int x0 = Math.max(0, -left);
+            int y0 = Math.max(0, -top);
+            int x1 = Math.min(width, targetWidth - left);
+            int y1 = Math.min(height, targetHeight - top);
+            for (int y = y0; y < y1; y++) {
+                int source = y * width;
+                int destination = (top + y) * targetWidth + left;
+                for (int x = x0; x < x1; x++) {
+                    if (pixels[source + x] != 0 && target[destination + x] != 0) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 按行整体复制图块，用于图块范围内的目标像素都是完全透明的情况
+         */
+        void copyTo(int[] target, int targetWidth, int targetHeight, int left, int top) {
+            int x0 = Math.max(0, -left);
+            int y0 = Math.max(0, -top);
+            int x1 = Math.min(width, targetWidth - left);
+            int y1 = Math.min(height, targetHeight - top);
+            if (x1 <= x0) {
+                return;
+            }
+            for (int y = y0; y < y1; y++) {
+                System.arraycopy(pixels, y * width + x0, target, (top + y) * targetWidth + left + x0, x1 - x0);
+            }
+        }
+
+        /**
+         * 只复制图块的不透明像素，目标中对应的像素都是完全透明的
+         */
+        void mergeTo(int[] target, int targetWidth, int targetHeight, int left, int top) {
+            int x0 = Math.max(0, -left);
+            int y0 = Math.max(0, -top);
+            int x1 = Math.min(width, targetWidth - left);
+            int y1 = Math.min(height, targetHeight - top);
+            for (int y = y0; y < y1; y++) {
+                int source = y * width;
+                int destination = (top + y) * targetWidth + left;
+                for (int x = x0; x < x1; x++) {
+                    int pixel = pixels[source + x];
+                    if (pixel != 0) {
+                        target[destination + x] = pixel;
+                    }
+                }
+            }
+        }
+    }
+}
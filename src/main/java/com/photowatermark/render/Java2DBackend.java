@@ -0,0 +1,72 @@
+package com.photowatermark.render;
+
+import net.coobird.thumbnailator.geometry.Position;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+
+/**
+ * 直接使用Java2D合成水印的后端
+ * 水印图层按不透明度直接绘制在解码后的图片上，只改动水印覆盖的区域，不复制整张图片。
+ * 索引色等无法直接混合的图片先转换为直接颜色模型后再绘制
+ */
+public final class Java2DBackend implements RenderingBackend {
+
+    static final String NAME = "java2d";
+
+    static final Java2DBackend INSTANCE = new Java2DBackend();
+
+    private Java2DBackend() {
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public BufferedImage composite(BufferedImage image, BufferedImage overlay, Position anchor, float opacity) {
+        BufferedImage target = isDirectColor(image) ? image : toDirectColor(image);
+
+        Point point = anchor.calculate(target.getWidth(), target.getHeight(), overlay.getWidth(), overlay.getHeight(),
+                0, 0, 0, 0);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+            graphics.drawImage(overlay, point.x, point.y, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * 判断图片能否直接混合绘制
+     * 索引色和二值图片混合后只能取调色板中的颜色，自定义类型的图片绘制效率很低
+     */
+    private static boolean isDirectColor(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_BYTE_INDEXED:
+            case BufferedImage.TYPE_BYTE_BINARY:
+            case BufferedImage.TYPE_CUSTOM:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static BufferedImage toDirectColor(BufferedImage image) {
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D graphics = converted.createGraphics();
+        try {
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return converted;
+    }
+}
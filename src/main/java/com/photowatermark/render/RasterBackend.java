@@ -0,0 +1,38 @@
+package com.photowatermark.render;
+
+import net.coobird.thumbnailator.geometry.Position;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+
+/**
+ * 使用专用混合内核直接在像素数组上合成水印的后端
+ * 常见的JPEG和RGB图片由RasterBlendKernel只处理水印覆盖的区域；内核不支持的图片类型回退到Java2D后端。
+ * 合成结果与Java2D后端逐像素相同，但不依赖Java2D的本地混合循环
+ */
+public final class RasterBackend implements RenderingBackend {
+
+    static final String NAME = "raster";
+
+    static final RasterBackend INSTANCE = new RasterBackend();
+
+    private RasterBackend() {
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public BufferedImage composite(BufferedImage image, BufferedImage overlay, Position anchor, float opacity) {
+        if (!RasterBlendKernel.supports(image, overlay)) {
+            return Java2DBackend.INSTANCE.composite(image, overlay, anchor, opacity);
+        }
+
+        Point point = anchor.calculate(image.getWidth(), image.getHeight(), overlay.getWidth(), overlay.getHeight(),
+                0, 0, 0, 0);
+        RasterBlendKernel.blend(image, overlay, point.x, point.y, RasterBlendKernel.toExtraAlpha(opacity));
+        return image;
+    }
+}
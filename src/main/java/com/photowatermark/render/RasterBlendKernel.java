@@ -0,0 +1,171 @@
+package com.photowatermark.render;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * 水印图层的混合内核，直接读写图片底层的像素数组
+ * 只处理水印图层覆盖的区域，逐行遍历像素数组，不经过Raster的逐像素访问方法。
+ * 水印像素先乘以不透明度得到预乘透明度的分量，再用整数运算与目标像素混合，
+ * 舍入方式与Java2D的SrcOver混合一致，两者结果逐像素相同
+ * 支持TYPE_3BYTE_BGR、TYPE_INT_RGB和TYPE_INT_BGR的目标图片，以及TYPE_INT_ARGB的水印图层；其他情况由调用方回退到Java2D
+ */
+final class RasterBlendKernel {
+
+    private RasterBlendKernel() {
+    }
+
+    /**
+     * 将不透明度转换为0-255的整数，与Java2D的换算方式一致
+     *
+     * @param opacity 不透明度
+     * @return 0-255的不透明度
+     */
+    static int toExtraAlpha(float opacity) {
+        return (int) (opacity * 255.0 + 0.5);
+    }
+
+    /**
+     * 判断内核能否处理这两张图片
+     *
+     * @param target 目标图片
+     * @param overlay 水印图层
+     * @return 是否支持
+     */
+    static boolean supports(BufferedImage target, BufferedImage overlay) {
+        if (overlay.getType() != BufferedImage.TYPE_INT_ARGB
+                || !(overlay.getRaster().getDataBuffer() instanceof DataBufferInt)) {
+            return false;
+        }
+
+        switch (target.getType()) {
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return target.getRaster().getDataBuffer() instanceof DataBufferByte
+                        && target.getRaster().getSampleModel() instanceof ComponentSampleModel;
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_BGR:
+                return target.getRaster().getDataBuffer() instanceof DataBufferInt
+                        && target.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 将水印图层按不透明度混合到目标图片的指定位置，超出目标图片的部分被裁掉
+     * 调用前应先通过supports确认支持
+     *
+     * @param target 目标图片
+     * @param overlay 水印图层
+     * @param x 水印图层左上角在目标图片中的横坐标
+     * @param y 水印图层左上角在目标图片中的纵坐标
+     * @param extraAlpha 0-255的不透明度
+     */
+    static void blend(BufferedImage target, BufferedImage overlay, int x, int y, int extraAlpha) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(target.getWidth(), x + overlay.getWidth());
+        int y1 = Math.min(target.getHeight(), y + overlay.getHeight());
+        int width = x1 - x0;
+        if (width <= 0 || y1 <= y0) {
+            return;
+        }
+
+        WritableRaster overlayRaster = overlay.getRaster();
+        SinglePixelPackedSampleModel overlayModel = (SinglePixelPackedSampleModel) overlayRaster.getSampleModel();
+        int[] overlayData = ((DataBufferInt) overlayRaster.getDataBuffer()).getData();
+        int overlayStride = overlayModel.getScanlineStride();
+        int overlayBase = overlayRaster.getDataBuffer().getOffset()
+                - overlayRaster.getSampleModelTranslateY() * overlayStride - overlayRaster.getSampleModelTranslateX()
+                + (x0 - x);
+
+        WritableRaster raster = target.getRaster();
+        boolean byteRaster = target.getType() == BufferedImage.TYPE_3BYTE_BGR;
+        boolean bgr = target.getType() == BufferedImage.TYPE_INT_BGR;
+        for (int row = y0; row < y1; row++) {
+            int overlayOffset = overlayBase + (row - y) * overlayStride;
+            if (byteRaster) {
+                blendByteRow(raster, x0, row, width, overlayData, overlayOffset, extraAlpha);
+            } else {
+                blendIntRow(raster, bgr, x0, row, width, overlayData, overlayOffset, extraAlpha);
+            }
+        }
+    }
+
+    /**
+     * 混合一行像素，目标为每像素三个字节的栅格
+     * 完全透明的水印像素直接跳过；文字水印的大部分像素是透明的，这一判断几乎总能被正确预测
+     */
+    private static void blendByteRow(WritableRaster raster, int x, int y, int width,
+                                     int[] overlayData, int overlayOffset, int extraAlpha) {
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int pixelStride = model.getPixelStride();
+        int[] bandOffsets = model.getBandOffsets();
+        int base = raster.getDataBuffer().getOffset()
+                + (y - raster.getSampleModelTranslateY()) * model.getScanlineStride()
+                + (x - raster.getSampleModelTranslateX()) * pixelStride;
+        int redOffset = bandOffsets[0];
+        int greenOffset = bandOffsets[1];
+        int blueOffset = bandOffsets[2];
+        int end = base + width * pixelStride;
+
+        for (int i = overlayOffset, p = base; p < end; i++, p += pixelStride) {
+            int argb = overlayData[i];
+            int sourceAlpha = argb >>> 24;
+            if (sourceAlpha == 0) {
+                continue;
+            }
+            // 乘以不透明度后的预乘透明度
+            int a = mul8(extraAlpha, sourceAlpha);
+            int inverse = 255 - a;
+            int r = p + redOffset;
+            int g = p + greenOffset;
+            int b = p + blueOffset;
+            data[r] = (byte) (mul8(a, (argb >> 16) & 0xFF) + mul8(inverse, data[r] & 0xFF));
+            data[g] = (byte) (mul8(a, (argb >> 8) & 0xFF) + mul8(inverse, data[g] & 0xFF));
+            data[b] = (byte) (mul8(a, argb & 0xFF) + mul8(inverse, data[b] & 0xFF));
+        }
+    }
+
+    /**
+     * 混合一行像素，目标为每像素一个int的栅格
+     */
+    private static void blendIntRow(WritableRaster raster, boolean bgr, int x, int y, int width,
+                                    int[] overlayData, int overlayOffset, int extraAlpha) {
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+        int offset = raster.getDataBuffer().getOffset()
+                + (y - raster.getSampleModelTranslateY()) * model.getScanlineStride()
+                + (x - raster.getSampleModelTranslateX());
+        // TYPE_INT_RGB为0x00RRGGBB，TYPE_INT_BGR为0x00BBGGRR
+        int redShift = bgr ? 0 : 16;
+        int blueShift = bgr ? 16 : 0;
+
+        for (int i = 0; i < width; i++) {
+            int argb = overlayData[overlayOffset + i];
+            if (argb >>> 24 == 0) {
+                continue;
+            }
+            int a = mul8(extraAlpha, argb >>> 24);
+            int inverse = 255 - a;
+            int pixel = data[offset + i];
+            int r = mul8(a, (argb >> 16) & 0xFF) + mul8(inverse, (pixel >> redShift) & 0xFF);
+            int g = mul8(a, (argb >> 8) & 0xFF) + mul8(inverse, (pixel >> 8) & 0xFF);
+            int b = mul8(a, argb & 0xFF) + mul8(inverse, (pixel >> blueShift) & 0xFF);
+            data[offset + i] = (r << redShift) | (g << 8) | (b << blueShift);
+        }
+    }
+
+    /**
+     * 计算a*b/255并四舍五入，与Java2D的mul8table取值相同
+     * 乘积最大约为2^32，按无符号数右移
+     */
+    static int mul8(int a, int b) {
+        return (a * b * 0x10101 + 0x800000) >>> 24;
+    }
+}
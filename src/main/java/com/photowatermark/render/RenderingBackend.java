@@ -0,0 +1,64 @@
+package com.photowatermark.render;
+
+import net.coobird.thumbnailator.geometry.Position;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * 水印合成后端，负责把已渲染的水印图层合成到解码后的图片上
+ * 解码和编码由调用方完成，后端只负责合成。实现必须线程安全，可在多个工作线程之间共享
+ */
+public interface RenderingBackend {
+
+    // 默认使用的后端名称
+    String DEFAULT_NAME = Java2DBackend.NAME;
+
+    /**
+     * 获取后端名称，与命令行参数中的名称一致
+     *
+     * @return 后端名称
+     */
+    String getName();
+
+    /**
+     * 将水印图层合成到图片上
+     * 实现可以直接在传入的图片上绘制并返回同一对象，也可以返回新的图片；
+     * 返回新图片时传入的图片保持不变，由调用方负责释放
+     *
+     * @param image 解码后的图片
+     * @param overlay 水印图层
+     * @param anchor 水印位置
+     * @param opacity 不透明度
+     * @return 合成后的图片
+     * @throws IOException 合成失败时抛出
+     */
+    BufferedImage composite(BufferedImage image, BufferedImage overlay, Position anchor, float opacity)
+            throws IOException;
+
+    /**
+     * 按名称获取后端
+     *
+     * @param name 后端名称，为null或空时使用默认后端
+     * @return 后端
+     * @throws IllegalArgumentException 名称未知时抛出
+     */
+    static RenderingBackend forName(String name) {
+        if (name == null || name.isEmpty()) {
+            name = DEFAULT_NAME;
+        }
+
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case RasterBackend.NAME:
+                return RasterBackend.INSTANCE;
+            case Java2DBackend.NAME:
+                return Java2DBackend.INSTANCE;
+            case ThumbnailatorBackend.NAME:
+                return ThumbnailatorBackend.INSTANCE;
+            default:
+                throw new IllegalArgumentException("未知的渲染后端: " + name
+                        + "，可选值: " + RasterBackend.NAME + ", " + Java2DBackend.NAME + ", " + ThumbnailatorBackend.NAME);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.photowatermark.render;
+
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.geometry.Position;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * 通过Thumbnailator合成水印的后端
+ * 水印滤镜和1.0倍缩放各生成一张新图片，传入的图片保持不变
+ */
+public final class ThumbnailatorBackend implements RenderingBackend {
+
+    static final String NAME = "thumbnailator";
+
+    static final ThumbnailatorBackend INSTANCE = new ThumbnailatorBackend();
+
+    private ThumbnailatorBackend() {
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public BufferedImage composite(BufferedImage image, BufferedImage overlay, Position anchor, float opacity)
+            throws IOException {
+        return Thumbnails.of(image)
+                .watermark(anchor, overlay, opacity)
+                .scale(1.0)
+                .asBufferedImage();
+    }
+}
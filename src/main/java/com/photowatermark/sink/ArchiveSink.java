@@ -0,0 +1,279 @@
+package com.photowatermark.sink;
+
+import com.photowatermark.util.OutputDurability;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * 归档输出目标，把所有输出作为条目依次追加到一个归档流中，不创建输出目录和输出文件
+ * 条目名为输出文件相对于基准目录的路径，不在基准目录下的输出使用去掉根目录的绝对路径，分隔符统一为/。
+ * 编码在各工作线程中并行完成，只有追加条目的过程串行执行。
+ * 写入文件时先写入同一目录下的临时文件，关闭时写完归档结尾再原子重命名，中断的批次不会留下损坏的归档
+ */
+public abstract class ArchiveSink implements OutputSink {
+
+    // 复制条目数据的缓冲区大小
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    // 归档的底层输出流，子类在其上写入归档格式
+    protected final OutputStream output;
+
+    private final Path baseDirectory;
+    private final Set<String> entryNames = new HashSet<>();
+    private boolean closed;
+
+    /**
+     * @param output 归档输出流，关闭目标时一并关闭
+     * @param baseDirectory 计算条目名的基准目录，为null时使用当前工作目录
+     */
+    protected ArchiveSink(OutputStream output, File baseDirectory) {
+        this.output = output;
+        this.baseDirectory = (baseDirectory != null ? baseDirectory : new File("")).toPath().toAbsolutePath()
+                .normalize();
+    }
+
+    /**
+     * 按扩展名创建写入归档文件的输出目标，.zip为ZIP归档，.tar为TAR归档
+     *
+     * @param archiveFile 归档文件，已存在时在关闭后被替换
+     * @param baseDirectory 计算条目名的基准目录，为null时使用当前工作目录
+     * @param durability 持久化方式，不为none时关闭前将归档刷到磁盘
+     * @return 输出目标
+     * @throws IllegalArgumentException 扩展名不支持时抛出
+     * @throws IOException 文件无法创建时抛出
+     */
+    public static ArchiveSink open(File archiveFile, File baseDirectory, OutputDurability durability)
+            throws IOException {
+        String name = archiveFile.getName().toLowerCase(Locale.ROOT);
+        boolean zip = name.endsWith(".zip");
+        if (!zip && !name.endsWith(".tar")) {
+            throw new IllegalArgumentException("不支持的归档格式，扩展名应为.zip或.tar: " + archiveFile.getPath());
+        }
+
+        OutputStream output = new BufferedOutputStream(AtomicFileOutputStream.create(archiveFile.toPath(),
+                durability != null && durability.getMode() != OutputDurability.Mode.NONE), COPY_BUFFER_SIZE);
+        return zip ? new ZipSink(output, baseDirectory) : new TarSink(output, baseDirectory);
+    }
+
+    @Override
+    public boolean writesFiles() {
+        return false;
+    }
+
+    @Override
+    public void write(File target, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        if (needsChecksum()) {
+            crc.update(data);
+        }
+        append(target, data.length, crc.getValue(), System.currentTimeMillis(), new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public void write(File target, Content content) throws IOException {
+        Path tempFile = Files.createTempFile("photowatermark_sink_", ".tmp");
+        try {
+            // 内容回调要求文件尚不存在，分块写出在锁外进行
+            Files.delete(tempFile);
+            content.writeTo(tempFile.toFile());
+
+            CRC32 crc = new CRC32();
+            if (needsChecksum()) {
+                try (InputStream input = Files.newInputStream(tempFile)) {
+                    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                    for (int read; (read = input.read(buffer)) > 0; ) {
+                        crc.update(buffer, 0, read);
+                    }
+                }
+            }
+            try (InputStream input = Files.newInputStream(tempFile)) {
+                append(target, Files.size(tempFile), crc.getValue(), System.currentTimeMillis(), input);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private synchronized void append(File target, long size, long crc, long modifiedMillis, InputStream data)
+            throws IOException {
+        if (closed) {
+            throw new IOException("归档已关闭: " + target.getPath());
+        }
+        String name = getEntryName(target);
+        if (!entryNames.add(name)) {
+            throw new IOException("归档中已存在同名条目: " + name);
+        }
+        writeEntry(name, size, crc, modifiedMillis, data);
+    }
+
+    /**
+     * 计算输出文件在归档中的条目名
+     *
+     * @param target 输出文件路径
+     * @return 条目名
+     */
+    String getEntryName(File target) {
+        Path path = target.toPath().toAbsolutePath().normalize();
+        Path relative = path.startsWith(baseDirectory) ? baseDirectory.relativize(path)
+                : path.getRoot() != null ? path.getRoot().relativize(path) : path;
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * 判断写入条目前是否需要计算CRC32校验值
+     *
+     * @return 是否需要校验值
+     */
+    protected abstract boolean needsChecksum();
+
+    /**
+     * 写入一个条目，调用时已持有锁
+     *
+     * @param name 条目名
+     * @param size 数据长度
+     * @param crc 数据的CRC32校验值，needsChecksum为false时为0
+     * @param modifiedMillis 修改时间
+     * @param data 条目数据
+     * @throws IOException 写入失败时抛出
+     */
+    protected abstract void writeEntry(String name, long size, long crc, long modifiedMillis, InputStream data)
+            throws IOException;
+
+    /**
+     * 写入归档结尾，调用时已持有锁
+     *
+     * @throws IOException 写入失败时抛出
+     */
+    protected abstract void finish() throws IOException;
+
+    /**
+     * 复制条目数据
+     *
+     * @param data 条目数据
+     * @param target 目标流
+     * @param size 数据长度
+     * @throws IOException 数据长度与声明不一致或写入失败时抛出
+     */
+    protected static void copy(InputStream data, OutputStream target, long size) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(1, size))];
+        long copied = 0;
+        for (int read; (read = data.read(buffer)) > 0; ) {
+            target.write(buffer, 0, read);
+            copied += read;
+        }
+        if (copied != size) {
+            throw new IOException("条目数据长度与声明不一致: " + copied + " != " + size);
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            output.flush();
+        }
+    }
+
+    /**
+     * 写入归档结尾并关闭输出流，写入文件时重命名为归档文件
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finish();
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * 写入临时文件、关闭时按需刷盘并原子重命名的文件输出流
+     */
+    private static final class AtomicFileOutputStream extends FilterOutputStream {
+        private final FileOutputStream fileOutput;
+        private final Path tempFile;
+        private final Path target;
+        private final boolean sync;
+        private boolean closed;
+
+        private AtomicFileOutputStream(Path target, Path tempFile, boolean sync) throws IOException {
+            super(new FileOutputStream(tempFile.toFile()));
+            this.fileOutput = (FileOutputStream) out;
+            this.tempFile = tempFile;
+            this.target = target;
+            this.sync = sync;
+        }
+
+        static AtomicFileOutputStream create(Path target, boolean sync) throws IOException {
+            Path absolute = target.toAbsolutePath();
+            return new AtomicFileOutputStream(absolute, absolute.resolveSibling("." + absolute.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp"), sync);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            fileOutput.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            boolean moved = false;
+            try {
+                if (sync) {
+                    fileOutput.getFD().sync();
+                }
+                fileOutput.close();
+                try {
+                    Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                moved = true;
+                if (sync) {
+                    syncDirectory(target.getParent());
+                }
+            } finally {
+                fileOutput.close();
+                if (!moved) {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+        }
+
+        /**
+         * 刷出目录项，部分平台（例如Windows）不能打开目录，此时只能依赖文件系统自身的日志
+         */
+        private static void syncDirectory(Path directory) {
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // 归档内容已刷盘，目录项由文件系统日志保证
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.photowatermark.sink;
+
+import com.photowatermark.util.AtomicFileWriter;
+import com.photowatermark.util.OutputDurability;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 文件系统输出目标，每个输出原子写出为独立的文件，按持久化方式刷盘
+ */
+public class FileSystemSink implements OutputSink {
+
+    private final AtomicFileWriter writer;
+
+    public FileSystemSink(OutputDurability durability) {
+        this.writer = new AtomicFileWriter(durability);
+    }
+
+    public OutputDurability getDurability() {
+        return writer.getDurability();
+    }
+
+    /**
+     * 设置刷盘监听器，按组刷盘时每组完成后通知
+     *
+     * @param listener 刷盘监听器，为null时不通知
+     */
+    public void setFlushListener(AtomicFileWriter.FlushListener listener) {
+        writer.setFlushListener(listener);
+    }
+
+    @Override
+    public boolean writesFiles() {
+        return true;
+    }
+
+    @Override
+    public void write(File target, byte[] data) throws IOException {
+        writer.write(target, data);
+    }
+
+    @Override
+    public void write(File target, Content content) throws IOException {
+        writer.write(target, content::writeTo);
+    }
+
+    /**
+     * 将按批刷盘时尚未刷盘的文件刷到磁盘
+     */
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.photowatermark.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 内存输出目标，按写出顺序保存每个输出的字节数据，供作为库使用的调用方直接读取，不创建任何文件
+ * 输出以输出文件路径为键，同一路径再次写出时覆盖之前的数据
+ */
+public class MemorySink implements OutputSink {
+
+    private final Map<String, byte[]> outputs = new LinkedHashMap<>();
+
+    @Override
+    public boolean writesFiles() {
+        return false;
+    }
+
+    @Override
+    public synchronized void write(File target, byte[] data) {
+        outputs.put(target.getPath(), data);
+    }
+
+    @Override
+    public void write(File target, Content content) throws IOException {
+        Path tempFile = Files.createTempFile("photowatermark_sink_", ".tmp");
+        try {
+            // 内容回调要求文件尚不存在
+            Files.delete(tempFile);
+            content.writeTo(tempFile.toFile());
+            write(target, Files.readAllBytes(tempFile));
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * 获取一个输出的数据
+     *
+     * @param target 输出文件路径
+     * @return 编码后的图片数据，未写出时返回null
+     */
+    public synchronized byte[] get(File target) {
+        return outputs.get(target.getPath());
+    }
+
+    /**
+     * 获取全部输出
+     *
+     * @return 按写出顺序排列的输出文件路径和数据，是调用时的快照
+     */
+    public synchronized Map<String, byte[]> getOutputs() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(outputs));
+    }
+
+    public synchronized int size() {
+        return outputs.size();
+    }
+
+    @Override
+    public void flush() {
+        // 数据已在内存中
+    }
+
+    @Override
+    public void close() {
+        // 输出在关闭后仍然可以读取
+    }
+}
@@ -0,0 +1,54 @@
+package com.photowatermark.sink;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * 输出目标，接收编码完成的水印图片
+ * 文件系统目标把每个输出写成独立的文件；归档目标把所有输出依次追加到一个ZIP或TAR归档；
+ * 内存目标把输出保存为字节数组，供作为库使用的调用方直接读取。
+ * 输出以FileOutputManager生成的输出文件路径标识，非文件系统目标不创建该文件和所在目录。
+ * 实现必须线程安全，同一批次的所有工作线程共用一个实例
+ */
+public interface OutputSink extends Flushable, Closeable {
+
+    /**
+     * 向临时文件写入内容，用于边处理边写出、需要随机访问输出文件的分块输出
+     */
+    @FunctionalInterface
+    interface Content {
+        /**
+         * @param tempFile 临时文件，尚不存在
+         * @throws IOException 写入失败时抛出
+         */
+        void writeTo(File tempFile) throws IOException;
+    }
+
+    /**
+     * 判断是否把每个输出写成独立的文件
+     * 为true时调用方需要先创建输出目录；增量模式按输出文件判断是否需要重新生成，只能用于写出文件的目标
+     *
+     * @return 是否写出文件
+     */
+    boolean writesFiles();
+
+    /**
+     * 写出一个输出
+     *
+     * @param target 输出文件路径
+     * @param data 编码后的图片数据
+     * @throws IOException 写出失败时抛出
+     */
+    void write(File target, byte[] data) throws IOException;
+
+    /**
+     * 写出由调用方生成的输出
+     *
+     * @param target 输出文件路径
+     * @param content 向临时文件写入内容的回调
+     * @throws IOException 写出失败时抛出
+     */
+    void write(File target, Content content) throws IOException;
+}
@@ -0,0 +1,156 @@
+package com.photowatermark.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * TAR归档输出目标，写入POSIX ustar格式
+ * 条目名超过ustar的长度限制或数据超过8GB时，在条目前写入pax扩展头记录完整的路径和长度
+ */
+public class TarSink extends ArchiveSink {
+
+    private static final int BLOCK_SIZE = 512;
+
+    // ustar头中名称和前缀字段的长度
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+
+    // ustar头中11位八进制长度字段能表示的最大值
+    private static final long MAX_USTAR_SIZE = 077777777777L;
+
+    private static final byte TYPE_FILE = '0';
+    private static final byte TYPE_PAX_HEADER = 'x';
+
+    /**
+     * @param output 归档输出流，关闭目标时一并关闭
+     * @param baseDirectory 计算条目名的基准目录，为null时使用当前工作目录
+     */
+    public TarSink(OutputStream output, File baseDirectory) {
+        super(output, baseDirectory);
+    }
+
+    @Override
+    protected boolean needsChecksum() {
+        return false;
+    }
+
+    @Override
+    protected void writeEntry(String name, long size, long crc, long modifiedMillis, InputStream data)
+            throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int split = findPrefixSplit(nameBytes);
+        long modifiedSeconds = modifiedMillis / 1000;
+        if (split < 0 || size > MAX_USTAR_SIZE) {
+            writePaxHeader(name, size, modifiedSeconds);
+        }
+
+        byte[] prefix = split > 0 ? Arrays.copyOfRange(nameBytes, 0, split) : new byte[0];
+        byte[] shortName = split > 0 ? Arrays.copyOfRange(nameBytes, split + 1, nameBytes.length)
+                : Arrays.copyOf(nameBytes, Math.min(nameBytes.length, NAME_LENGTH));
+        output.write(createHeader(shortName, prefix, size > MAX_USTAR_SIZE ? 0 : size, modifiedSeconds, TYPE_FILE));
+        copy(data, output, size);
+        pad(size);
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        // 归档以两个全零的块结尾
+        output.write(new byte[BLOCK_SIZE * 2]);
+    }
+
+    /**
+     * 查找把条目名拆分为前缀和名称的位置
+     *
+     * @param name 条目名的UTF-8字节
+     * @return 不需要拆分时返回0，拆分处的/的位置，无法放入ustar头时返回-1
+     */
+    private static int findPrefixSplit(byte[] name) {
+        if (name.length <= NAME_LENGTH) {
+            return 0;
+        }
+        for (int i = Math.min(PREFIX_LENGTH, name.length - 2); i > 0; i--) {
+            if (name[i] == '/' && name.length - i - 1 <= NAME_LENGTH) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 写入pax扩展头，记录完整的路径和长度
+     */
+    private void writePaxHeader(String name, long size, long modifiedSeconds) throws IOException {
+        StringBuilder records = new StringBuilder(paxRecord("path", name));
+        if (size > MAX_USTAR_SIZE) {
+            records.append(paxRecord("size", String.valueOf(size)));
+        }
+        byte[] content = records.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] headerName = "././@PaxHeader".getBytes(StandardCharsets.US_ASCII);
+        output.write(createHeader(headerName, new byte[0], content.length, modifiedSeconds, TYPE_PAX_HEADER));
+        output.write(content);
+        pad(content.length);
+    }
+
+    /**
+     * 生成一条pax记录，格式为"长度 键=值\n"，长度包含长度字段本身
+     */
+    private static String paxRecord(String key, String value) {
+        int length = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int total = length + String.valueOf(length).length();
+        if (String.valueOf(total).length() != String.valueOf(length).length()) {
+            total++;
+        }
+        return total + " " + key + "=" + value + "\n";
+    }
+
+    private static byte[] createHeader(byte[] name, byte[] prefix, long size, long modifiedSeconds, byte type) {
+        byte[] header = new byte[BLOCK_SIZE];
+        System.arraycopy(name, 0, header, 0, name.length);
+        writeOctal(header, 100, 8, 0644);
+        writeOctal(header, 108, 8, 0);
+        writeOctal(header, 116, 8, 0);
+        writeOctal(header, 124, 12, size);
+        writeOctal(header, 136, 12, modifiedSeconds);
+        header[156] = type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        System.arraycopy(prefix, 0, header, 345, prefix.length);
+
+        // 校验和按校验和字段为空格时计算
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        writeOctal(header, 148, 7, checksum);
+        return header;
+    }
+
+    /**
+     * 写入以NUL结尾、左侧补0的八进制数
+     */
+    private static void writeOctal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++) {
+            int index = octal.length() - digits + i;
+            header[offset + i] = (byte) (index >= 0 ? octal.charAt(index) : '0');
+        }
+        header[offset + digits] = 0;
+    }
+
+    /**
+     * 将数据补齐到块大小的整数倍
+     */
+    private void pad(long size) throws IOException {
+        int remainder = (int) (size % BLOCK_SIZE);
+        if (remainder > 0) {
+            output.write(new byte[BLOCK_SIZE - remainder]);
+        }
+    }
+}
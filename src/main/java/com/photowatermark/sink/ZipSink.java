@@ -0,0 +1,51 @@
+package com.photowatermark.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ZIP归档输出目标
+ * JPEG、PNG等图片数据已经压缩，条目以不压缩的STORED方式写入，省去无效的DEFLATE开销；
+ * 超过4GB或65535个条目时自动使用ZIP64扩展
+ */
+public class ZipSink extends ArchiveSink {
+
+    private final ZipOutputStream zip;
+
+    /**
+     * @param output 归档输出流，关闭目标时一并关闭
+     * @param baseDirectory 计算条目名的基准目录，为null时使用当前工作目录
+     */
+    public ZipSink(OutputStream output, File baseDirectory) {
+        super(output, baseDirectory);
+        this.zip = new ZipOutputStream(output);
+    }
+
+    @Override
+    protected boolean needsChecksum() {
+        return true;
+    }
+
+    @Override
+    protected void writeEntry(String name, long size, long crc, long modifiedMillis, InputStream data)
+            throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc);
+        entry.setTime(modifiedMillis);
+        zip.putNextEntry(entry);
+        copy(data, zip, size);
+        zip.closeEntry();
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        zip.finish();
+    }
+}
@@ -0,0 +1,27 @@
+package com.photowatermark.tile;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 按行带从上到下依次写出的图片输出
+ */
+interface BandSink extends Closeable {
+
+    /**
+     * 写出接下来的若干行
+     * 除最后一次外，每次写出的行数都等于创建输出时指定的行带高度
+     *
+     * @param pixels 按行优先排列的ARGB像素
+     * @param rows 行数
+     * @throws IOException 写出失败时抛出
+     */
+    void writeRows(int[] pixels, int rows) throws IOException;
+
+    /**
+     * 全部行写出后完成文件
+     *
+     * @throws IOException 写出失败时抛出
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,30 @@
+package com.photowatermark.tile;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 按行带从上到下依次读取的图片来源
+ */
+interface BandSource extends Closeable {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * 判断图片是否带透明通道
+     *
+     * @return 是否带透明通道
+     */
+    boolean hasAlpha();
+
+    /**
+     * 读取接下来的若干行
+     *
+     * @param pixels 按行优先写入ARGB像素，不带透明通道时alpha为0xFF
+     * @param rows 行数
+     * @throws IOException 读取或解码失败时抛出
+     */
+    void readRows(int[] pixels, int rows) throws IOException;
+}
@@ -0,0 +1,115 @@
+package com.photowatermark.tile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 逐行带写出的24位BMP输出
+ * BMP按从下到上的顺序保存行，每个行带的行位置可以预先算出，按位置直接写入文件，不需要缓存整幅图片
+ */
+final class BmpBandSink implements BandSink {
+
+    private static final int HEADER_SIZE = 54;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int rowStride;
+    private int nextRow;
+    private ByteBuffer buffer;
+
+    /**
+     * 创建BMP输出并写出文件头
+     *
+     * @param output 输出文件
+     * @param width 图片宽度
+     * @param height 图片高度
+     * @throws IOException 创建文件失败或图片超出BMP的4GB上限时抛出
+     */
+    BmpBandSink(File output, int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        // 每行补齐到4字节
+        this.rowStride = (width * 3 + 3) & ~3;
+        long imageSize = (long) rowStride * height;
+        if (imageSize + HEADER_SIZE > 0xFFFFFFFFL) {
+            throw new IOException("图片超出BMP格式的4GB上限: " + width + "x" + height);
+        }
+
+        this.file = new RandomAccessFile(output, "rw");
+        this.channel = file.getChannel();
+        try {
+            file.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put((byte) 'B').put((byte) 'M');
+            header.putInt((int) (imageSize + HEADER_SIZE));
+            header.putInt(0);
+            header.putInt(HEADER_SIZE);
+            header.putInt(40);
+            header.putInt(width);
+            header.putInt(height);
+            header.putShort((short) 1);
+            header.putShort((short) 24);
+            header.putInt(0);
+            header.putInt((int) imageSize);
+            header.putInt(0);
+            header.putInt(0);
+            header.putInt(0);
+            header.putInt(0);
+            header.flip();
+            writeFully(header, 0);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void writeRows(int[] pixels, int rows) throws IOException {
+        int size = rowStride * rows;
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        byte[] data = buffer.array();
+        // 行带中最下面一行在文件中最靠前
+        for (int row = 0; row < rows; row++) {
+            int source = (rows - 1 - row) * width;
+            int target = row * rowStride;
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels[source + x];
+                data[target++] = (byte) rgb;
+                data[target++] = (byte) (rgb >> 8);
+                data[target++] = (byte) (rgb >> 16);
+            }
+        }
+
+        long position = HEADER_SIZE + (long) (height - nextRow - rows) * rowStride;
+        buffer.clear().limit(size);
+        writeFully(buffer, position);
+        nextRow += rows;
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        long offset = position;
+        while (data.hasRemaining()) {
+            offset += channel.write(data, offset);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (nextRow != height) {
+            throw new IOException("BMP行数不完整: " + nextRow + "/" + height);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
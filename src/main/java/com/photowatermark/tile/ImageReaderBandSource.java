@@ -0,0 +1,120 @@
+package com.photowatermark.tile;
+
+import com.photowatermark.util.ImageHeader;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * 通过ImageIO读取器的源区域逐个行带解码的图片来源
+ * BMP和TIFF的读取器按源区域只读取需要的行或条带，每个行带只解码一次
+ */
+final class ImageReaderBandSource implements BandSource {
+
+    private final ImageInputStream stream;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final boolean alpha;
+    private int nextRow;
+    // 上一个行带的解码结果，作为下一个行带的解码目标复用
+    private BufferedImage destination;
+
+    private ImageReaderBandSource(ImageInputStream stream, ImageReader reader) throws IOException {
+        this.stream = stream;
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null) {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            type = types.hasNext() ? types.next() : null;
+        }
+        this.alpha = type != null && type.getColorModel().hasAlpha();
+    }
+
+    /**
+     * 打开图片文件
+     *
+     * @param file 图片文件
+     * @param format 文件头识别出的图片格式
+     * @return 图片来源
+     * @throws IOException 没有可用的读取器或读取图片头失败时抛出
+     */
+    static ImageReaderBandSource open(File file, ImageHeader.Format format) throws IOException {
+        ImageInputStream stream = ImageIO.createImageInputStream(file);
+        if (stream == null) {
+            throw new IOException("无法读取图片文件: " + file.getPath());
+        }
+        try {
+            Iterator<ImageReader> readers = ImageHeader.getImageReaders(format, stream);
+            if (!readers.hasNext()) {
+                throw new IOException("不支持的图片格式: " + file.getPath());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, false, true);
+                return new ImageReaderBandSource(stream, reader);
+            } catch (IOException | RuntimeException e) {
+                reader.dispose();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    @Override
+    public void readRows(int[] pixels, int rows) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, nextRow, width, rows));
+        if (destination != null && destination.getHeight() >= rows) {
+            param.setDestination(destination);
+        }
+        BufferedImage band = reader.read(0, param);
+        destination = band;
+        nextRow += rows;
+
+        // 通过Java2D转换为ARGB像素，常见的像素格式都有优化的转换路径
+        BufferedImage target = TiledWatermarker.wrap(pixels, width, rows, true);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.drawImage(band, 0, 0, width, rows, 0, 0, width, rows, null);
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        stream.close();
+    }
+}
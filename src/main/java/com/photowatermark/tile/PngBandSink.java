@@ -0,0 +1,156 @@
+package com.photowatermark.tile;
+
+import com.photowatermark.png.PngEncoding;
+import com.photowatermark.png.PngFilter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 逐行带写出的PNG输出
+ * 不带透明通道时写出8位RGB，带透明通道时写出8位RGBA。
+ * 每行按最小绝对值和的启发式选择滤波类型，压缩后的数据攒满缓冲区即作为一个IDAT块写出
+ */
+final class PngBandSink implements BandSink {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    // 与ImageIO的PNG写入器默认压缩级别接近，速度和压缩率比较均衡
+    private static final int COMPRESSION_LEVEL = 4;
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private final DataOutputStream output;
+    private final Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+    private final CRC32 crc = new CRC32();
+    private final int width;
+    private final boolean alpha;
+    private final int channels;
+    private final int rowBytes;
+    private byte[] previousRow;
+    private byte[] currentRow;
+    private final PngFilter filter;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+
+    /**
+     * 创建PNG输出并写出文件头
+     *
+     * @param file 输出文件
+     * @param width 图片宽度
+     * @param height 图片高度
+     * @param alpha 是否写出透明通道
+     * @throws IOException 创建文件失败时抛出
+     */
+    PngBandSink(File file, int width, int height, boolean alpha) throws IOException {
+        this.width = width;
+        this.alpha = alpha;
+        this.channels = alpha ? 4 : 3;
+        this.rowBytes = width * channels;
+        this.previousRow = new byte[rowBytes];
+        this.currentRow = new byte[rowBytes];
+        this.filter = new PngFilter(rowBytes, channels, PngEncoding.Filter.ADAPTIVE);
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+
+        try {
+            output.write(SIGNATURE);
+            byte[] header = new byte[13];
+            writeInt(header, 0, width);
+            writeInt(header, 4, height);
+            header[8] = 8;
+            header[9] = (byte) (alpha ? 6 : 2);
+            writeChunk("IHDR", header, header.length);
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void writeRows(int[] pixels, int rows) throws IOException {
+        for (int row = 0; row < rows; row++) {
+            int offset = row * width;
+            byte[] current = currentRow;
+            if (alpha) {
+                for (int x = 0, i = 0; x < width; x++, i += 4) {
+                    int argb = pixels[offset + x];
+                    current[i] = (byte) (argb >> 16);
+                    current[i + 1] = (byte) (argb >> 8);
+                    current[i + 2] = (byte) argb;
+                    current[i + 3] = (byte) (argb >>> 24);
+                }
+            } else {
+                for (int x = 0, i = 0; x < width; x++, i += 3) {
+                    int rgb = pixels[offset + x];
+                    current[i] = (byte) (rgb >> 16);
+                    current[i + 1] = (byte) (rgb >> 8);
+                    current[i + 2] = (byte) rgb;
+                }
+            }
+
+            byte[] filtered = filter.filter(current, previousRow);
+            deflater.setInput(filtered, 0, filtered.length);
+            drain(false);
+
+            currentRow = previousRow;
+            previousRow = current;
+        }
+    }
+
+    /**
+     * 取出压缩后的数据，缓冲区写满时作为一个IDAT块写出
+     *
+     * @param finish 是否已提交全部输入
+     */
+    private void drain(boolean finish) throws IOException {
+        while (finish ? !deflater.finished() : !deflater.needsInput()) {
+            chunkLength += deflater.deflate(chunk, chunkLength, chunk.length - chunkLength);
+            if (chunkLength == chunk.length) {
+                writeChunk("IDAT", chunk, chunkLength);
+                chunkLength = 0;
+            }
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        deflater.finish();
+        drain(true);
+        if (chunkLength > 0) {
+            writeChunk("IDAT", chunk, chunkLength);
+            chunkLength = 0;
+        }
+        writeChunk("IEND", chunk, 0);
+        output.flush();
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        output.writeInt(length);
+        output.write(typeBytes);
+        output.write(data, 0, length);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        output.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        output.close();
+    }
+}
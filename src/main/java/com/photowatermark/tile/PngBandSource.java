@@ -0,0 +1,350 @@
+package com.photowatermark.tile;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 逐行流式解码的PNG图片来源
+ * ImageIO的PNG读取器每次按源区域读取都要从头解压图像数据，逐个行带读取时总耗时随行带数平方增长；
+ * 这里只解压一遍，按行反滤波并转换为ARGB像素。
+ * 支持位深度不超过8的非隔行PNG，其他PNG由open返回null，调用方改用ImageIO读取器
+ */
+final class PngBandSource implements BandSource {
+
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504C5445;
+    private static final int TRNS = 0x74524E53;
+    private static final int IDAT = 0x49444154;
+
+    private static final int GRAY = 0;
+    private static final int RGB = 2;
+    private static final int PALETTE = 3;
+    private static final int GRAY_ALPHA = 4;
+    private static final int RGB_ALPHA = 6;
+
+    private final DataInputStream input;
+    private final Inflater inflater = new Inflater();
+    private final byte[] inputBuffer = new byte[64 * 1024];
+    private final int width;
+    private final int height;
+    private final int bitDepth;
+    private final int colorType;
+    // 反滤波时对应像素的字节距离，位深度小于8时为1
+    private final int filterUnit;
+    private final int rowBytes;
+    private int[] palette;
+    // 灰度或RGB图片中表示透明的颜色，-1表示没有
+    private int transparentColor = -1;
+    private byte[] previousRow;
+    private byte[] currentRow;
+    // 当前IDAT块中尚未读取的字节数
+    private int chunkRemaining;
+
+    private PngBandSource(DataInputStream input, int width, int height, int bitDepth, int colorType) {
+        this.input = input;
+        this.width = width;
+        this.height = height;
+        this.bitDepth = bitDepth;
+        this.colorType = colorType;
+        int channels = colorType == RGB ? 3 : colorType == GRAY_ALPHA ? 2 : colorType == RGB_ALPHA ? 4 : 1;
+        this.filterUnit = Math.max(1, channels * bitDepth / 8);
+        this.rowBytes = (int) (((long) width * channels * bitDepth + 7) / 8);
+        this.previousRow = new byte[rowBytes];
+        this.currentRow = new byte[rowBytes];
+    }
+
+    /**
+     * 打开PNG文件并读取到图像数据之前的全部块
+     *
+     * @param file PNG文件
+     * @return 图片来源，隔行扫描或16位深度等不支持的PNG返回null
+     * @throws IOException 文件不是有效的PNG时抛出
+     */
+    static PngBandSource open(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            PngBandSource source = readHeader(input);
+            if (source == null) {
+                input.close();
+            }
+            return source;
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    private static PngBandSource readHeader(DataInputStream input) throws IOException {
+        if (input.readLong() != SIGNATURE) {
+            throw new IOException("不是PNG数据");
+        }
+        int length = input.readInt();
+        if (input.readInt() != IHDR || length != 13) {
+            throw new IOException("PNG缺少IHDR块");
+        }
+        int width = input.readInt();
+        int height = input.readInt();
+        int bitDepth = input.readUnsignedByte();
+        int colorType = input.readUnsignedByte();
+        input.readUnsignedByte();
+        input.readUnsignedByte();
+        int interlace = input.readUnsignedByte();
+        input.readInt();
+        if (width <= 0 || height <= 0) {
+            throw new IOException("PNG尺寸无效");
+        }
+        boolean subByte = colorType == GRAY || colorType == PALETTE;
+        if (interlace != 0 || bitDepth > 8 || (!subByte && bitDepth != 8)
+                || (colorType != GRAY && colorType != RGB && colorType != PALETTE
+                && colorType != GRAY_ALPHA && colorType != RGB_ALPHA)) {
+            return null;
+        }
+
+        PngBandSource source = new PngBandSource(input, width, height, bitDepth, colorType);
+        while (true) {
+            length = input.readInt();
+            int type = input.readInt();
+            if (length < 0) {
+                throw new IOException("PNG块长度无效");
+            }
+            if (type == IDAT) {
+                source.chunkRemaining = length;
+                return source;
+            }
+            if (type == PLTE) {
+                source.readPalette(length);
+            } else if (type == TRNS) {
+                source.readTransparency(length);
+            } else {
+                skipFully(input, length);
+            }
+            // CRC
+            input.readInt();
+        }
+    }
+
+    private void readPalette(int length) throws IOException {
+        byte[] entries = new byte[length];
+        input.readFully(entries);
+        int[] colors = palette != null ? palette : new int[256];
+        Arrays.fill(colors, 0xFF000000);
+        for (int i = 0; i < Math.min(256, length / 3); i++) {
+            colors[i] = 0xFF000000 | (entries[i * 3] & 0xFF) << 16 | (entries[i * 3 + 1] & 0xFF) << 8
+                    | (entries[i * 3 + 2] & 0xFF);
+        }
+        palette = colors;
+    }
+
+    private void readTransparency(int length) throws IOException {
+        byte[] entries = new byte[length];
+        input.readFully(entries);
+        if (colorType == PALETTE) {
+            if (palette == null) {
+                throw new IOException("PNG的tRNS块出现在PLTE块之前");
+            }
+            for (int i = 0; i < Math.min(256, length); i++) {
+                palette[i] = (entries[i] & 0xFF) << 24 | (palette[i] & 0xFFFFFF);
+            }
+        } else if (colorType == GRAY && length >= 2) {
+            transparentColor = (entries[0] & 0xFF) << 8 | (entries[1] & 0xFF);
+        } else if (colorType == RGB && length >= 6) {
+            // 8位深度时每个分量只有低字节有效
+            transparentColor = (entries[1] & 0xFF) << 16 | (entries[3] & 0xFF) << 8 | (entries[5] & 0xFF);
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public boolean hasAlpha() {
+        return colorType == GRAY_ALPHA || colorType == RGB_ALPHA || transparentColor >= 0
+                || (colorType == PALETTE && palette != null && hasTransparentEntry());
+    }
+
+    private boolean hasTransparentEntry() {
+        for (int color : palette) {
+            if (color >>> 24 != 0xFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void readRows(int[] pixels, int rows) throws IOException {
+        byte[] filter = new byte[1];
+        for (int row = 0; row < rows; row++) {
+            inflateFully(filter, 1);
+            inflateFully(currentRow, rowBytes);
+            unfilter(filter[0] & 0xFF);
+            convert(pixels, row * width);
+
+            byte[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+    }
+
+    private void inflateFully(byte[] target, int length) throws IOException {
+        int offset = 0;
+        try {
+            while (offset < length) {
+                int inflated = inflater.inflate(target, offset, length - offset);
+                offset += inflated;
+                if (inflated > 0) {
+                    continue;
+                }
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    throw new IOException("PNG图像数据不完整");
+                }
+                if (inflater.needsInput()) {
+                    feedInflater();
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("PNG图像数据损坏: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把下一段IDAT数据交给解压器，当前块读完后跳过CRC进入下一个IDAT块
+     */
+    private void feedInflater() throws IOException {
+        while (chunkRemaining == 0) {
+            // 上一个块的CRC
+            input.readInt();
+            int length = input.readInt();
+            if (input.readInt() != IDAT || length < 0) {
+                throw new IOException("PNG图像数据不完整");
+            }
+            chunkRemaining = length;
+        }
+        int count = input.read(inputBuffer, 0, Math.min(inputBuffer.length, chunkRemaining));
+        if (count < 0) {
+            throw new EOFException("PNG图像数据不完整");
+        }
+        chunkRemaining -= count;
+        inflater.setInput(inputBuffer, 0, count);
+    }
+
+    private void unfilter(int filter) throws IOException {
+        byte[] row = currentRow;
+        byte[] previous = previousRow;
+        int unit = filterUnit;
+        switch (filter) {
+            case 0:
+                break;
+            case 1:
+                for (int i = unit; i < rowBytes; i++) {
+                    row[i] += row[i - unit];
+                }
+                break;
+            case 2:
+                for (int i = 0; i < rowBytes; i++) {
+                    row[i] += previous[i];
+                }
+                break;
+            case 3:
+                for (int i = 0; i < rowBytes; i++) {
+                    int left = i >= unit ? row[i - unit] & 0xFF : 0;
+                    row[i] += (byte) ((left + (previous[i] & 0xFF)) >> 1);
+                }
+                break;
+            case 4:
+                for (int i = 0; i < rowBytes; i++) {
+                    int left = i >= unit ? row[i - unit] & 0xFF : 0;
+                    int up = previous[i] & 0xFF;
+                    int upperLeft = i >= unit ? previous[i - unit] & 0xFF : 0;
+                    row[i] += (byte) paeth(left, up, upperLeft);
+                }
+                break;
+            default:
+                throw new IOException("PNG滤波类型无效: " + filter);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private void convert(int[] pixels, int offset) {
+        byte[] row = currentRow;
+        switch (colorType) {
+            case RGB:
+                for (int x = 0, i = 0; x < width; x++, i += 3) {
+                    int rgb = (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF);
+                    pixels[offset + x] = rgb == transparentColor ? rgb : 0xFF000000 | rgb;
+                }
+                break;
+            case RGB_ALPHA:
+                for (int x = 0, i = 0; x < width; x++, i += 4) {
+                    pixels[offset + x] = (row[i + 3] & 0xFF) << 24 | (row[i] & 0xFF) << 16
+                            | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF);
+                }
+                break;
+            case GRAY_ALPHA:
+                for (int x = 0, i = 0; x < width; x++, i += 2) {
+                    int gray = row[i] & 0xFF;
+                    pixels[offset + x] = (row[i + 1] & 0xFF) << 24 | gray << 16 | gray << 8 | gray;
+                }
+                break;
+            default:
+                // 灰度和调色板，每个像素可能不足一个字节
+                int mask = (1 << bitDepth) - 1;
+                int pixelsPerByte = 8 / bitDepth;
+                for (int x = 0; x < width; x++) {
+                    int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+                    int sample = ((row[x / pixelsPerByte] & 0xFF) >> shift) & mask;
+                    if (colorType == PALETTE) {
+                        pixels[offset + x] = palette != null ? palette[sample] : 0xFF000000;
+                    } else {
+                        int gray = sample * 255 / mask;
+                        int rgb = gray << 16 | gray << 8 | gray;
+                        pixels[offset + x] = sample == transparentColor ? rgb : 0xFF000000 | rgb;
+                    }
+                }
+                break;
+        }
+    }
+
+    private static void skipFully(DataInputStream input, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = input.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException("PNG数据不完整");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        input.close();
+    }
+}
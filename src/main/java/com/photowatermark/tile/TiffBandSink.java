@@ -0,0 +1,167 @@
+package com.photowatermark.tile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 逐行带写出的TIFF输出
+ * 每个行带写成一个未压缩的8位RGB条带，与ImageIO的TIFF写入器默认输出一致。
+ * 条带按顺序写在文件头之后，全部写出后再写入条带位置表和IFD，最后回填文件头中的IFD位置
+ */
+final class TiffBandSink implements BandSink {
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final short TYPE_SHORT = 3;
+    private static final short TYPE_LONG = 4;
+    private static final short TYPE_RATIONAL = 5;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int bandRows;
+    private final long[] stripOffsets;
+    private final long[] stripByteCounts;
+    private int stripCount;
+    private int nextRow;
+    private long position = HEADER_SIZE;
+    private ByteBuffer buffer;
+
+    /**
+     * 创建TIFF输出并写出文件头
+     *
+     * @param output 输出文件
+     * @param width 图片宽度
+     * @param height 图片高度
+     * @param bandRows 每个条带的行数
+     * @throws IOException 创建文件失败或图片超出TIFF的4GB上限时抛出
+     */
+    TiffBandSink(File output, int width, int height, int bandRows) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.bandRows = bandRows;
+        int strips = (height + bandRows - 1) / bandRows;
+        this.stripOffsets = new long[strips];
+        this.stripByteCounts = new long[strips];
+        // 条带数据之外预留条带位置表和IFD的空间
+        if ((long) width * height * 3 + strips * 8L + 4096 > 0xFFFFFFFFL) {
+            throw new IOException("图片超出TIFF格式的4GB上限: " + width + "x" + height);
+        }
+
+        this.file = new RandomAccessFile(output, "rw");
+        this.channel = file.getChannel();
+        try {
+            file.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(0);
+            header.flip();
+            writeFully(header, 0);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void writeRows(int[] pixels, int rows) throws IOException {
+        int size = width * rows * 3;
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        byte[] data = buffer.array();
+        int count = width * rows;
+        for (int i = 0, target = 0; i < count; i++) {
+            int rgb = pixels[i];
+            data[target++] = (byte) (rgb >> 16);
+            data[target++] = (byte) (rgb >> 8);
+            data[target++] = (byte) rgb;
+        }
+
+        buffer.clear().limit(size);
+        stripOffsets[stripCount] = position;
+        stripByteCounts[stripCount] = size;
+        stripCount++;
+        writeFully(buffer, position);
+        position += size;
+        nextRow += rows;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (nextRow != height) {
+            throw new IOException("TIFF行数不完整: " + nextRow + "/" + height);
+        }
+
+        // IFD引用的数组必须从偶数位置开始
+        long arraysStart = (position + 1) & ~1L;
+        long offsetsPosition = arraysStart;
+        long countsPosition = offsetsPosition + stripCount * 4L;
+        long bitsPosition = countsPosition + stripCount * 4L;
+        long resolutionPosition = bitsPosition + 6;
+        long ifdPosition = resolutionPosition + 16;
+        int entries = 13;
+
+        ByteBuffer tail = ByteBuffer.allocate((int) (ifdPosition - position) + 2 + entries * 12 + 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        tail.position((int) (arraysStart - position));
+        for (int i = 0; i < stripCount; i++) {
+            tail.putInt((int) stripOffsets[i]);
+        }
+        for (int i = 0; i < stripCount; i++) {
+            tail.putInt((int) stripByteCounts[i]);
+        }
+        tail.putShort((short) 8).putShort((short) 8).putShort((short) 8);
+        tail.putInt(72).putInt(1).putInt(72).putInt(1);
+
+        // 条目按标签号升序排列，只有一个条带时位置和字节数直接写在条目中
+        tail.putShort((short) entries);
+        putEntry(tail, 256, TYPE_LONG, 1, width);
+        putEntry(tail, 257, TYPE_LONG, 1, height);
+        putEntry(tail, 258, TYPE_SHORT, 3, bitsPosition);
+        putEntry(tail, 259, TYPE_SHORT, 1, 1);
+        putEntry(tail, 262, TYPE_SHORT, 1, 2);
+        putEntry(tail, 273, TYPE_LONG, stripCount, stripCount == 1 ? stripOffsets[0] : offsetsPosition);
+        putEntry(tail, 277, TYPE_SHORT, 1, 3);
+        putEntry(tail, 278, TYPE_LONG, 1, bandRows);
+        putEntry(tail, 279, TYPE_LONG, stripCount, stripCount == 1 ? stripByteCounts[0] : countsPosition);
+        putEntry(tail, 282, TYPE_RATIONAL, 1, resolutionPosition);
+        putEntry(tail, 283, TYPE_RATIONAL, 1, resolutionPosition + 8);
+        putEntry(tail, 284, TYPE_SHORT, 1, 1);
+        putEntry(tail, 296, TYPE_SHORT, 1, 2);
+        tail.putInt(0);
+        tail.flip();
+        writeFully(tail, position);
+
+        ByteBuffer ifdOffset = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, (int) ifdPosition);
+        writeFully(ifdOffset, 4);
+    }
+
+    /**
+     * 写入一个IFD条目，SHORT类型的单个值放在值字段的低位
+     */
+    private static void putEntry(ByteBuffer target, int tag, short type, int count, long value) {
+        target.putShort((short) tag).putShort(type).putInt(count);
+        if (type == TYPE_SHORT && count == 1) {
+            target.putShort((short) value).putShort((short) 0);
+        } else {
+            target.putInt((int) value);
+        }
+    }
+
+    private void writeFully(ByteBuffer data, long offset) throws IOException {
+        long target = offset;
+        while (data.hasRemaining()) {
+            target += channel.write(data, target);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,219 @@
+package com.photowatermark.tile;
+
+import com.photowatermark.render.RenderingBackend;
+import com.photowatermark.util.ImageHeader;
+import net.coobird.thumbnailator.geometry.Position;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+/**
+ * 分块水印处理器，用于超大图片
+ * 图片按行带从上到下流式读取，只在与水印重叠的行带上合成水印，每个行带处理完立即写出，
+ * 内存占用只与行带大小有关，与图片尺寸无关。
+ * 支持BMP、PNG和TIFF：PNG逐行流式解压，BMP和TIFF通过ImageIO读取器的源区域按行带读取；
+ * BMP和TIFF输出按行带定位写入，PNG输出逐行压缩。
+ * 本类不保存状态，可在多个工作线程中同时使用
+ */
+public final class TiledWatermarker {
+
+    // 每个行带的目标像素数，行带高度按图片宽度换算
+    static final int BAND_PIXELS = 4 * 1024 * 1024;
+
+    // 行带像素数组、读取器的行带图片和输出缓冲区，每个像素按4字节计
+    private static final int BAND_BUFFERS = 3;
+
+    private static final DirectColorModel RGB_MODEL = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+    private TiledWatermarker() {
+    }
+
+    /**
+     * 判断图片能否分块处理
+     *
+     * @param sourceFormat 文件头识别出的源图片格式
+     * @param outputFormatName 输出格式名称
+     * @return 源格式和输出格式是否都支持按行带读写
+     */
+    public static boolean supports(ImageHeader.Format sourceFormat, String outputFormatName) {
+        if (sourceFormat != ImageHeader.Format.BMP && sourceFormat != ImageHeader.Format.PNG
+                && sourceFormat != ImageHeader.Format.TIFF) {
+            return false;
+        }
+        return "bmp".equals(outputFormatName) || "png".equals(outputFormatName)
+                || "tif".equals(outputFormatName) || "tiff".equals(outputFormatName);
+    }
+
+    /**
+     * 读取图片的像素数，只读取图片头
+     *
+     * @param imageFile 图片文件
+     * @param format 文件头识别出的图片格式
+     * @return 像素数，无法读取图片头时返回-1
+     */
+    public static long getPixelCount(File imageFile, ImageHeader.Format format) {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(imageFile)) {
+            if (stream == null) {
+                return -1;
+            }
+            Iterator<ImageReader> readers = ImageHeader.getImageReaders(format, stream);
+            if (!readers.hasNext()) {
+                return -1;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 估算分块处理一张图片所需的内存，与图片尺寸无关
+     *
+     * @param overlayBytes 水印图层占用的字节数
+     * @return 估算的字节数
+     */
+    public static long estimateFootprint(long overlayBytes) {
+        return (long) BAND_PIXELS * 4 * BAND_BUFFERS + overlayBytes;
+    }
+
+    /**
+     * 分块添加水印并直接写出到输出文件
+     *
+     * @param sourceFile 源图片文件
+     * @param format 文件头识别出的图片格式
+     * @param outputFile 输出文件，处理失败时删除
+     * @param outputFormatName 输出格式名称，bmp、png、tif或tiff
+     * @param overlay 水印图层
+     * @param anchor 水印位置
+     * @param opacity 不透明度
+     * @param backend 合成水印使用的渲染后端
+     * @throws IOException 读写失败或合成失败时抛出
+     */
+    public static void watermark(File sourceFile, ImageHeader.Format format, File outputFile, String outputFormatName,
+                                 BufferedImage overlay, Position anchor, float opacity, RenderingBackend backend)
+            throws IOException {
+        watermark(sourceFile, format, outputFile, outputFormatName, overlay, anchor, opacity, backend, 0);
+    }
+
+    /**
+     * 按指定的行带高度分块添加水印
+     *
+     * @param bandRows 行带高度，不大于0时按BAND_PIXELS和图片宽度计算
+     */
+    static void watermark(File sourceFile, ImageHeader.Format format, File outputFile, String outputFormatName,
+                          BufferedImage overlay, Position anchor, float opacity, RenderingBackend backend,
+                          int bandRows) throws IOException {
+        boolean started = false;
+        boolean completed = false;
+        try (BandSource source = openSource(sourceFile, format)) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            int rowsPerBand = bandRows > 0 ? Math.min(bandRows, height)
+                    : Math.max(1, Math.min(height, BAND_PIXELS / width));
+            boolean alpha = source.hasAlpha();
+
+            started = true;
+            try (BandSink sink = createSink(outputFile, outputFormatName, width, height, rowsPerBand, alpha)) {
+                Point origin = anchor.calculate(width, height, overlay.getWidth(), overlay.getHeight(), 0, 0, 0, 0);
+                int[] pixels = new int[width * rowsPerBand];
+                for (int bandY = 0; bandY < height; bandY += rowsPerBand) {
+                    int rows = Math.min(rowsPerBand, height - bandY);
+                    source.readRows(pixels, rows);
+                    if (origin.y < bandY + rows && origin.y + overlay.getHeight() > bandY) {
+                        compositeBand(pixels, width, rows, alpha, bandY, origin, overlay, opacity, backend);
+                    }
+                    sink.writeRows(pixels, rows);
+                }
+                sink.finish();
+            }
+            completed = true;
+        } finally {
+            // 只删除本次写出的不完整文件
+            if (started && !completed) {
+                Files.deleteIfExists(outputFile.toPath());
+            }
+        }
+    }
+
+    /**
+     * 在一个行带上合成水印，水印位置换算为相对行带顶部的坐标
+     */
+    private static void compositeBand(int[] pixels, int width, int rows, boolean alpha, int bandY, Point origin,
+                                      BufferedImage overlay, float opacity, RenderingBackend backend)
+            throws IOException {
+        BufferedImage band = wrap(pixels, width, rows, alpha);
+        Position bandAnchor = (enclosingWidth, enclosingHeight, overlayWidth, overlayHeight,
+                               insetLeft, insetRight, insetTop, insetBottom) -> new Point(origin.x, origin.y - bandY);
+        BufferedImage composited = backend.composite(band, overlay, bandAnchor, opacity);
+        if (composited != band) {
+            composited.getRGB(0, 0, width, rows, pixels, 0, width);
+        }
+    }
+
+    /**
+     * 打开按行带读取的图片来源，非隔行的8位及以下PNG使用流式解码
+     */
+    private static BandSource openSource(File sourceFile, ImageHeader.Format format) throws IOException {
+        if (format == ImageHeader.Format.PNG) {
+            BandSource source = PngBandSource.open(sourceFile);
+            if (source != null) {
+                return source;
+            }
+        }
+        return ImageReaderBandSource.open(sourceFile, format);
+    }
+
+    private static BandSink createSink(File outputFile, String outputFormatName, int width, int height, int bandRows,
+                                       boolean alpha) throws IOException {
+        switch (outputFormatName) {
+            case "png":
+                return new PngBandSink(outputFile, width, height, alpha);
+            case "bmp":
+                return new BmpBandSink(outputFile, width, height);
+            case "tif":
+            case "tiff":
+                return new TiffBandSink(outputFile, width, height, bandRows);
+            default:
+                throw new IOException("不支持分块写出的图片格式: " + outputFormatName);
+        }
+    }
+
+    /**
+     * 把ARGB像素数组包装为图片，不复制像素
+     *
+     * @param pixels 按行优先排列的像素
+     * @param width 宽度
+     * @param rows 行数，可以小于数组容纳的行数
+     * @param alpha 是否带透明通道，不带时包装为TYPE_INT_RGB
+     * @return 共享像素数组的图片
+     */
+    static BufferedImage wrap(int[] pixels, int width, int rows, boolean alpha) {
+        ColorModel colorModel = alpha ? ColorModel.getRGBdefault() : RGB_MODEL;
+        DirectColorModel directModel = (DirectColorModel) colorModel;
+        int[] masks = alpha
+                ? new int[] {directModel.getRedMask(), directModel.getGreenMask(), directModel.getBlueMask(),
+                        directModel.getAlphaMask()}
+                : new int[] {directModel.getRedMask(), directModel.getGreenMask(), directModel.getBlueMask()};
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, width * rows), width, rows,
+                width, masks, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+}
@@ -0,0 +1,373 @@
+package com.photowatermark.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * 原子写出输出文件：先写入同一目录下以点开头、以.tmp结尾的临时文件，完成后重命名为目标文件
+ * 目标文件要么不存在、要么是旧的完整内容、要么是新的完整内容，下游同步任务不会读到写了一半的文件。
+ * 按持久化方式刷盘：每个文件刷盘时先刷出临时文件再重命名；按批刷盘时临时文件暂不重命名，
+ * 凑满一组后一起刷出，再依次重命名并刷出所在目录，断电后目标文件不会指向未落盘的数据。
+ * 批次结束时刷盘的方式同样按文件数、字节数和时间分组，输出在整个批次中持续可见，崩溃时只丢失最后一组。
+ * 各组依次刷盘，每组完成后通知刷盘监听器，批处理日志据此写入这组输出对应的完成记录。
+ * 每个目录第一次写入前删除以前被终止的运行残留的临时文件，因此不要让多个进程同时输出到同一目录。
+ * 本类线程安全，同一批次的所有工作线程共用一个实例
+ */
+public class AtomicFileWriter implements Flushable, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(AtomicFileWriter.class);
+
+    // 临时文件的后缀，不是图片扩展名，不会被当作待处理的图片
+    static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    // 本类生成的临时文件名：点、目标文件名、随机数的十六进制、.tmp
+    private static final Pattern TEMP_FILE_NAME = Pattern.compile("\\..+\\.[0-9a-f]{1,16}\\.tmp");
+
+    // 批次结束时刷盘的方式下，每组最多的文件数
+    private static final int BATCH_GROUP_FILES = 1000;
+
+    // 批次结束时刷盘的方式下，每组最多的字节数
+    private static final long BATCH_GROUP_BYTES = 512L * 1024 * 1024;
+
+    // 批次结束时刷盘的方式下，一组中最早的文件写出后最多等待的毫秒数，在下一次写出时检查
+    private static final long BATCH_GROUP_MILLIS = 30_000;
+
+    /**
+     * 向临时文件写入内容
+     */
+    @FunctionalInterface
+    public interface Content {
+        /**
+         * @param tempFile 临时文件，尚不存在
+         * @throws IOException 写入失败时抛出
+         */
+        void writeTo(File tempFile) throws IOException;
+    }
+
+    /**
+     * 刷盘监听器，在每组文件刷盘前后调用，两次调用之间不会开始下一组
+     */
+    public interface FlushListener {
+        /**
+         * 一组文件开始刷盘前调用，此前写出完成的文件都在这一组或更早的组中
+         *
+         * @return 传给afterFlush的标记
+         */
+        int beforeFlush();
+
+        /**
+         * 一组文件刷盘和重命名结束后调用
+         *
+         * @param mark beforeFlush返回的标记
+         * @param durable 这一组及之前各组的文件是否全部刷盘并重命名成功
+         */
+        void afterFlush(int mark, boolean durable);
+    }
+
+    /**
+     * 已写完但尚未刷盘和重命名的临时文件
+     */
+    private static final class PendingFile {
+        final Path tempFile;
+        final Path target;
+
+        PendingFile(Path tempFile, Path target) {
+            this.tempFile = tempFile;
+            this.target = target;
+        }
+    }
+
+    private final OutputDurability durability;
+    private final int groupFiles;
+    private final long groupBytes;
+    private final long groupMillis;
+    // 已写完但尚未刷盘和重命名的临时文件，按写出顺序排列
+    private final List<PendingFile> pendingFiles = new ArrayList<>();
+    private long pendingBytes;
+    private long oldestPendingMillis;
+    // 已清理过残留临时文件的目录
+    private final Map<Path, Boolean> cleanedDirectories = new ConcurrentHashMap<>();
+    // 串行化各组的刷盘，监听器按组的先后顺序收到通知
+    private final Object flushLock = new Object();
+    private volatile FlushListener flushListener;
+    // 已有文件刷盘或重命名失败，关闭时再次报告
+    private volatile boolean flushFailed;
+
+    public AtomicFileWriter(OutputDurability durability) {
+        this(durability, BATCH_GROUP_FILES, BATCH_GROUP_BYTES, BATCH_GROUP_MILLIS);
+    }
+
+    // 指定批次结束时刷盘方式下每组上限的构造函数，用于测试
+    AtomicFileWriter(OutputDurability durability, int groupFiles, long groupBytes, long groupMillis) {
+        this.durability = durability != null ? durability : OutputDurability.NONE;
+        this.groupFiles = groupFiles;
+        this.groupBytes = groupBytes;
+        this.groupMillis = groupMillis;
+    }
+
+    public OutputDurability getDurability() {
+        return durability;
+    }
+
+    /**
+     * 设置刷盘监听器
+     *
+     * @param flushListener 刷盘监听器，为null时不通知
+     */
+    public void setFlushListener(FlushListener flushListener) {
+        this.flushListener = flushListener;
+    }
+
+    /**
+     * 原子写出字节数据
+     *
+     * @param target 目标文件
+     * @param data 文件内容
+     * @throws IOException 写入、刷盘或重命名失败时抛出，临时文件已删除
+     */
+    public void write(File target, byte[] data) throws IOException {
+        write(target, tempFile -> Files.write(tempFile.toPath(), data, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE), data.length);
+    }
+
+    /**
+     * 原子写出由调用方生成的内容，用于边处理边写出的分块输出
+     *
+     * @param target 目标文件
+     * @param content 向临时文件写入内容的回调
+     * @throws IOException 写入、刷盘或重命名失败时抛出，临时文件已删除
+     */
+    public void write(File target, Content content) throws IOException {
+        write(target, content, -1);
+    }
+
+    /**
+     * @param size 内容的字节数，未知时为-1，按批刷盘时写完后读取临时文件的大小
+     */
+    private void write(File target, Content content, long size) throws IOException {
+        Path targetPath = target.toPath().toAbsolutePath();
+        Path directory = targetPath.getParent();
+        // 同一目录的其他线程等待清理完成后再写入，不会误删它们的临时文件
+        cleanedDirectories.computeIfAbsent(directory, AtomicFileWriter::removeStaleTempFiles);
+        Path tempFile = directory.resolve("." + targetPath.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMP_FILE_SUFFIX);
+        OutputDurability.Mode mode = durability.getMode();
+        boolean deferred = mode == OutputDurability.Mode.INTERVAL || mode == OutputDurability.Mode.BATCH;
+
+        boolean written = false;
+        try {
+            content.writeTo(tempFile.toFile());
+            if (mode == OutputDurability.Mode.FILE) {
+                // 内容先落盘再重命名，断电后目标文件不会指向未写入的数据
+                force(tempFile);
+            }
+            if (!deferred) {
+                move(tempFile, targetPath);
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        if (mode == OutputDurability.Mode.FILE) {
+            forceDirectory(directory);
+        } else if (deferred) {
+            long bytes = size >= 0 ? size : Files.size(tempFile);
+            boolean due;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (pendingFiles.isEmpty()) {
+                    oldestPendingMillis = now;
+                }
+                pendingFiles.add(new PendingFile(tempFile, targetPath));
+                pendingBytes += bytes;
+                due = mode == OutputDurability.Mode.INTERVAL
+                        ? pendingFiles.size() >= durability.getInterval()
+                        : pendingFiles.size() >= groupFiles || pendingBytes >= groupBytes
+                                || now - oldestPendingMillis >= groupMillis;
+            }
+            if (due) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    // 失败的是整组文件而不只是本图片，已逐个记录错误，关闭时再次报告
+                    logger.error("一组输出文件刷盘失败，将在批次结束时报告", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 将按批刷盘时尚未刷盘的临时文件一起刷到磁盘，再重命名为目标文件并刷出所在目录
+     * 某个文件刷盘或重命名失败时删除其临时文件，其余文件照常完成后抛出第一个异常
+     *
+     * @throws IOException 刷盘或重命名失败时抛出
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            FlushListener listener = flushListener;
+            int mark = listener != null ? listener.beforeFlush() : 0;
+            IOException failure = null;
+            try {
+                failure = flushGroup();
+            } finally {
+                if (failure != null) {
+                    flushFailed = true;
+                }
+                if (listener != null) {
+                    listener.afterFlush(mark, !flushFailed);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * 刷盘并重命名当前的一组文件
+     *
+     * @return 第一个失败，全部成功时返回null
+     */
+    private IOException flushGroup() {
+        List<PendingFile> files;
+        synchronized (this) {
+            if (pendingFiles.isEmpty()) {
+                return null;
+            }
+            files = new ArrayList<>(pendingFiles);
+            pendingFiles.clear();
+            pendingBytes = 0;
+        }
+
+        IOException failure = null;
+        List<PendingFile> synced = new ArrayList<>(files.size());
+        for (PendingFile file : files) {
+            try {
+                force(file.tempFile);
+                synced.add(file);
+            } catch (IOException e) {
+                failure = discard(file, e, failure);
+            }
+        }
+
+        Set<Path> directories = new LinkedHashSet<>();
+        for (PendingFile file : synced) {
+            try {
+                move(file.tempFile, file.target);
+                directories.add(file.target.getParent());
+            } catch (IOException e) {
+                failure = discard(file, e, failure);
+            }
+        }
+        for (Path directory : directories) {
+            forceDirectory(directory);
+        }
+        logger.debug("已将 {} 个输出文件刷到磁盘", synced.size());
+        return failure;
+    }
+
+    /**
+     * 删除刷盘或重命名失败的临时文件，返回需要抛出的第一个异常
+     */
+    private static IOException discard(PendingFile file, IOException e, IOException failure) {
+        logger.error("输出文件刷盘失败: {}", file.target, e);
+        try {
+            Files.deleteIfExists(file.tempFile);
+        } catch (IOException deleteFailure) {
+            e.addSuppressed(deleteFailure);
+        }
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    /**
+     * 获取尚未刷盘和重命名的文件数
+     */
+    synchronized int getUnsyncedCount() {
+        return pendingFiles.size();
+    }
+
+    /**
+     * 刷出所有尚未刷盘的文件，批次中有任何一组失败时抛出异常，使调用方不把这些输出当作已完成
+     *
+     * @throws IOException 本次或之前的刷盘失败时抛出
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (flushFailed) {
+            throw new IOException("批次中有输出文件刷盘或重命名失败，详见前面的错误日志");
+        }
+    }
+
+    /**
+     * 删除目录中以前被终止的运行残留的临时文件，目录不存在或无法列出时忽略
+     *
+     * @return 总是返回true，用于记录目录已清理
+     */
+    private static Boolean removeStaleTempFiles(Path directory) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                path -> TEMP_FILE_NAME.matcher(path.getFileName().toString()).matches())) {
+            for (Path tempFile : stream) {
+                if (Files.deleteIfExists(tempFile)) {
+                    logger.info("删除残留的临时文件: {}", tempFile);
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("无法清理目录中残留的临时文件: {}", directory, e);
+        }
+        return Boolean.TRUE;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 刷出目录项，使重命名本身在断电后仍然有效
+     * 部分平台（例如Windows）不能打开目录，此时只能依赖文件系统自身的日志
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("无法刷出目录: {}", directory, e);
+        }
+    }
+}
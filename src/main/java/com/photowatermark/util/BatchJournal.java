@@ -0,0 +1,500 @@
+package com.photowatermark.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 批处理日志，以追加方式记录每个图片的处理结果，用于中断后恢复处理
+ * 每条记录占一行，格式为 "状态\t图片路径\tCRC32"，校验值覆盖前两个字段。
+ * 记录先缓存在内存中，累计一定数量或间隔一定时间后由后台的刷盘线程批量写入并刷到磁盘，
+ * 记录处理结果的工作线程只在持有锁时追加缓冲区，不等待写入和刷盘；
+ * 写入过程中崩溃留下的不完整行在读取时因校验失败被忽略，恢复时截掉后再继续追加
+ */
+public class BatchJournal implements Closeable, AtomicFileWriter.FlushListener {
+    private static final Logger logger = LoggerFactory.getLogger(BatchJournal.class);
+
+    // 日志文件的首行标识
+    private static final String HEADER = "# PhotoWatermark batch journal v1";
+
+    private static final String STATUS_DONE = "DONE";
+    private static final String STATUS_FAILED = "FAILED";
+
+    // 累计多少条记录后写入磁盘
+    private static final int FLUSH_RECORD_COUNT = 256;
+
+    // 距上次写入超过多少毫秒后写入磁盘
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final Path journalFile;
+    private final FileChannel channel;
+    private final Set<String> completedPaths;
+    // 以下缓冲区状态由本对象的锁保护，持有时不做任何IO
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingCount;
+    private long lastFlushMillis = System.currentTimeMillis();
+    private boolean closed;
+    // 写入记录前需要先刷盘的输出，为null时不需要
+    private volatile Flushable outputs;
+    // 为true时完成记录暂存到关闭时才写入
+    private boolean deferCompletions;
+    private final StringBuilder deferredCompletions = new StringBuilder();
+    // 串行化日志文件的写入和刷盘，保证各次取出的记录按顺序写入
+    private final Object writeLock = new Object();
+    private Thread flusher;
+
+    private BatchJournal(Path journalFile, FileChannel channel, Set<String> completedPaths) {
+        this.journalFile = journalFile;
+        this.channel = channel;
+        this.completedPaths = completedPaths;
+    }
+
+    /**
+     * 创建新的批处理日志，已存在的同名文件会被清空
+     *
+     * @param journalFile 日志文件
+     * @return 批处理日志
+     * @throws IOException 文件无法创建时抛出
+     */
+    public static BatchJournal create(Path journalFile) throws IOException {
+        FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        BatchJournal journal = new BatchJournal(journalFile, channel, Collections.emptySet());
+        journal.writeHeader();
+        journal.startFlusher();
+        return journal;
+    }
+
+    /**
+     * 打开已有的批处理日志继续追加，并读入其中已完成的图片
+     * 文件末尾不完整的记录会被截掉；文件不存在时创建新日志
+     *
+     * @param journalFile 日志文件
+     * @return 批处理日志
+     * @throws IOException 文件无法读写时抛出
+     */
+    public static BatchJournal resume(Path journalFile) throws IOException {
+        if (!Files.exists(journalFile)) {
+            logger.warn("批处理日志不存在，将从头开始处理: {}", journalFile);
+            return create(journalFile);
+        }
+
+        Set<String> completedPaths = ConcurrentHashMap.newKeySet();
+        long validLength = readRecords(journalFile, completedPaths);
+
+        FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE);
+        if (channel.size() > validLength) {
+            logger.warn("批处理日志末尾存在不完整的记录，已截掉 {} 字节: {}", channel.size() - validLength, journalFile);
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+
+        BatchJournal journal = new BatchJournal(journalFile, channel, completedPaths);
+        if (validLength == 0) {
+            journal.writeHeader();
+        }
+        journal.startFlusher();
+        logger.info("从批处理日志恢复，已完成 {} 个图片: {}", completedPaths.size(), journalFile);
+        return journal;
+    }
+
+    /**
+     * 读取日志中的记录
+     *
+     * @param journalFile 日志文件
+     * @param completedPaths 用于收集已完成的图片路径
+     * @return 以换行结尾的完整内容的字节长度
+     * @throws IOException 读取失败时抛出
+     */
+    private static long readRecords(Path journalFile, Set<String> completedPaths) throws IOException {
+        byte[] content = Files.readAllBytes(journalFile);
+        int validLength = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') {
+                validLength = i + 1;
+            }
+        }
+
+        int invalidCount = 0;
+        String text = new String(content, 0, validLength, StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] record = parseRecord(line);
+            if (record == null) {
+                invalidCount++;
+            } else if (STATUS_DONE.equals(record[0])) {
+                completedPaths.add(record[1]);
+            } else {
+                completedPaths.remove(record[1]);
+            }
+        }
+
+        if (invalidCount > 0) {
+            logger.warn("批处理日志中有 {} 条记录校验失败，已忽略: {}", invalidCount, journalFile);
+        }
+        return validLength;
+    }
+
+    /**
+     * 解析一行记录
+     *
+     * @param line 记录行
+     * @return 状态和图片路径，校验失败时返回null
+     */
+    private static String[] parseRecord(String line) {
+        int checksumSeparator = line.lastIndexOf('\t');
+        if (checksumSeparator < 0) {
+            return null;
+        }
+
+        String body = line.substring(0, checksumSeparator);
+        if (!checksum(body).equals(line.substring(checksumSeparator + 1))) {
+            return null;
+        }
+
+        int statusSeparator = body.indexOf('\t');
+        if (statusSeparator < 0) {
+            return null;
+        }
+        return new String[] {body.substring(0, statusSeparator), unescape(body.substring(statusSeparator + 1))};
+    }
+
+    /**
+     * 判断图片是否在恢复的日志中已完成
+     *
+     * @param imagePath 图片路径
+     * @return 是否已完成
+     */
+    public boolean isCompleted(String imagePath) {
+        return !completedPaths.isEmpty() && completedPaths.contains(normalize(imagePath));
+    }
+
+    /**
+     * 获取恢复时读入的已完成图片数
+     *
+     * @return 已完成图片数
+     */
+    public int getCompletedCount() {
+        return completedPaths.size();
+    }
+
+    /**
+     * 设置写入记录前需要先刷盘的输出
+     * 按批刷盘输出文件时，已完成的记录不能先于对应的输出文件写入磁盘，否则断电后恢复会跳过输出已丢失的图片
+     *
+     * @param outputs 输出文件的写出器，为null时不需要
+     */
+    public void setOutputs(Flushable outputs) {
+        this.outputs = outputs;
+    }
+
+    /**
+     * 设置是否暂存完成记录，失败记录照常写入
+     * 暂存的完成记录在输出写出器的一组文件刷盘成功后写入（本日志作为写出器的刷盘监听器），
+     * 或在关闭日志时写入，用于归档等关闭时才生成输出的目标；调用方须先刷出输出再关闭日志
+     *
+     * @param deferCompletions 是否暂存完成记录
+     */
+    public synchronized void setDeferCompletions(boolean deferCompletions) {
+        this.deferCompletions = deferCompletions;
+    }
+
+    /**
+     * 记录一组输出开始刷盘时已暂存的完成记录的位置，这些记录对应的输出都在这一组或更早的组中
+     */
+    @Override
+    public synchronized int beforeFlush() {
+        return deferredCompletions.length();
+    }
+
+    /**
+     * 一组输出刷盘成功后写入标记之前暂存的完成记录，失败时丢弃，恢复时这些图片将重新处理
+     */
+    @Override
+    public synchronized void afterFlush(int mark, boolean durable) {
+        int end = Math.min(mark, deferredCompletions.length());
+        if (end == 0) {
+            return;
+        }
+        if (durable) {
+            pendingCount += countRecords(deferredCompletions.subSequence(0, end));
+            pending.append(deferredCompletions, 0, end);
+            notifyAll();
+        } else {
+            logger.warn("输出刷盘失败，{} 个图片的完成记录不写入批处理日志",
+                    countRecords(deferredCompletions.subSequence(0, end)));
+        }
+        deferredCompletions.delete(0, end);
+    }
+
+    /**
+     * 丢弃暂存的完成记录，用于批次结束时输出刷盘失败，恢复时这些图片将重新处理
+     *
+     * @return 丢弃的记录数
+     */
+    public synchronized int discardDeferredCompletions() {
+        int count = countRecords(deferredCompletions);
+        deferredCompletions.setLength(0);
+        return count;
+    }
+
+    /**
+     * 记录图片的处理结果，记录先进入缓冲区，满足写入条件时通知刷盘线程批量写入磁盘
+     *
+     * @param imagePath 图片路径
+     * @param success 是否处理成功
+     */
+    public synchronized void record(String imagePath, boolean success) {
+        if (closed) {
+            return;
+        }
+
+        String body = (success ? STATUS_DONE : STATUS_FAILED) + '\t' + escape(normalize(imagePath));
+        if (success && deferCompletions) {
+            deferredCompletions.append(body).append('\t').append(checksum(body)).append('\n');
+            return;
+        }
+        pending.append(body).append('\t').append(checksum(body)).append('\n');
+        pendingCount++;
+
+        // 第一条记录唤醒刷盘线程开始计时
+        if (pendingCount == 1 || isFlushDue()) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * 将缓冲区中的记录写入磁盘
+     * 只在取出缓冲区内容时持有本对象的锁，刷出输出、写入和刷盘期间其他线程可以继续记录
+     *
+     * @throws IOException 写入失败时抛出
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            String records = takePending();
+            if (records == null) {
+                return;
+            }
+            try {
+                if (outputs != null) {
+                    outputs.flush();
+                }
+            } catch (IOException e) {
+                // 对应的输出尚未落盘，记录放回缓冲区等下次写入
+                restorePending(records);
+                throw e;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 取出缓冲区中的全部记录
+     *
+     * @return 记录文本，缓冲区为空时返回null
+     */
+    private synchronized String takePending() {
+        lastFlushMillis = System.currentTimeMillis();
+        if (pendingCount == 0) {
+            return null;
+        }
+        String records = pending.toString();
+        pending.setLength(0);
+        pendingCount = 0;
+        return records;
+    }
+
+    /**
+     * 把未能写入的记录放回缓冲区开头，保持记录的先后顺序
+     */
+    private synchronized void restorePending(String records) {
+        pending.insert(0, records);
+        pendingCount += countRecords(records);
+    }
+
+    /**
+     * 统计记录文本中的记录数，每条记录以换行结尾
+     */
+    private static int countRecords(CharSequence records) {
+        int count = 0;
+        for (int i = 0; i < records.length(); i++) {
+            if (records.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 判断是否满足写入条件：累计记录数达到上限，或有记录且距上次写入超过间隔
+     */
+    private boolean isFlushDue() {
+        return pendingCount >= FLUSH_RECORD_COUNT
+                || pendingCount > 0 && System.currentTimeMillis() - lastFlushMillis >= FLUSH_INTERVAL_MILLIS;
+    }
+
+    private void startFlusher() {
+        flusher = new Thread(this::runFlusher, "batch-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 刷盘线程：等待满足写入条件后写入，日志关闭时退出，剩余的记录由close写入
+     */
+    private void runFlusher() {
+        while (true) {
+            synchronized (this) {
+                while (!closed && !isFlushDue()) {
+                    // 缓冲区为空时等待记录到来的通知，否则等到间隔结束
+                    long waitMillis = FLUSH_INTERVAL_MILLIS - (System.currentTimeMillis() - lastFlushMillis);
+                    try {
+                        wait(pendingCount == 0 ? 0 : Math.max(1, waitMillis));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            flushQuietly();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // 日志写入失败只影响中断后的恢复，不中断图片处理
+            logger.error("写入批处理日志失败: {}", journalFile, e);
+        }
+    }
+
+    /**
+     * 停止刷盘线程，写入剩余的记录和暂存的完成记录后关闭日志文件
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            pendingCount += countRecords(deferredCompletions);
+            pending.append(deferredCompletions);
+            deferredCompletions.setLength(0);
+        }
+        try {
+            flush();
+        } finally {
+            synchronized (writeLock) {
+                channel.close();
+            }
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((HEADER + '\n').getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 统一路径写法，使相对路径和绝对路径指向同一文件时能够匹配
+     */
+    private static String normalize(String imagePath) {
+        return Paths.get(imagePath).toAbsolutePath().normalize().toString();
+    }
+
+    private static String checksum(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+
+    /**
+     * 转义路径中的反斜杠、制表符和换行符，保证每条记录只占一行
+     */
+    private static String escape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String unescape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i == value.length() - 1) {
+                builder.append(c);
+                continue;
+            }
+
+            char next = value.charAt(++i);
+            switch (next) {
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                default:
+                    builder.append(next);
+            }
+        }
+        return builder.toString();
+    }
+}
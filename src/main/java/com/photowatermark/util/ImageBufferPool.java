@@ -0,0 +1,191 @@
+package com.photowatermark.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片缓冲区池，按宽高和图片类型缓存可复用的BufferedImage
+ * 同一批次中相同分辨率的图片可以复用解码缓冲区，避免频繁分配大块内存。
+ * 池中保留的总字节数有上限，超出上限时归还的缓冲区直接交给垃圾回收；
+ * 上限应从内存准入预算中预留，批次结束时清空，避免池中的缓冲区在准入预算之外长期占用堆内存
+ */
+public class ImageBufferPool {
+    private static final Logger logger = LoggerFactory.getLogger(ImageBufferPool.class);
+
+    // 未指定上限时使用最大堆内存的比例
+    private static final int DEFAULT_HEAP_DIVISOR = 8;
+
+    private volatile long maxRetainedBytes;
+    private final Map<Key, Deque<BufferedImage>> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    // 默认构造函数，最多保留最大堆内存的1/8
+    public ImageBufferPool() {
+        this(Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_DIVISOR);
+    }
+
+    // 指定保留上限的构造函数
+    public ImageBufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = Math.max(0, maxRetainedBytes);
+    }
+
+    public long getMaxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+
+    /**
+     * 设置保留上限，已保留的缓冲区不受影响，之后归还的缓冲区按新上限保留
+     *
+     * @param maxRetainedBytes 保留上限（字节）
+     */
+    public void setMaxRetainedBytes(long maxRetainedBytes) {
+        this.maxRetainedBytes = Math.max(0, maxRetainedBytes);
+    }
+
+    /**
+     * 获取与图片类型说明一致的缓冲区，池中没有时新建
+     *
+     * @param imageType 图片类型说明
+     * @param width 宽度
+     * @param height 高度
+     * @return 缓冲区，内容未清空；TYPE_CUSTOM类型的图片不参与池化，返回null
+     */
+    public BufferedImage acquire(ImageTypeSpecifier imageType, int width, int height) {
+        int bufferedImageType = imageType.getBufferedImageType();
+        if (bufferedImageType == BufferedImage.TYPE_CUSTOM) {
+            return null;
+        }
+
+        BufferedImage image = poll(new Key(width, height, bufferedImageType));
+        return image != null ? image : imageType.createBufferedImage(width, height);
+    }
+
+    /**
+     * 获取指定尺寸和类型的缓冲区，池中没有时新建
+     *
+     * @param width 宽度
+     * @param height 高度
+     * @param bufferedImageType BufferedImage类型常量
+     * @return 缓冲区，内容未清空
+     */
+    public BufferedImage acquire(int width, int height, int bufferedImageType) {
+        BufferedImage image = poll(new Key(width, height, bufferedImageType));
+        return image != null ? image : new BufferedImage(width, height, bufferedImageType);
+    }
+
+    /**
+     * 归还不再使用的缓冲区
+     * 调用方必须保证归还后不再访问该图片
+     *
+     * @param image 图片
+     */
+    public void release(BufferedImage image) {
+        if (image == null || image.getType() == BufferedImage.TYPE_CUSTOM) {
+            return;
+        }
+
+        long size = sizeOf(image);
+        long retained = retainedBytes.addAndGet(size);
+        if (retained > maxRetainedBytes) {
+            retainedBytes.addAndGet(-size);
+            return;
+        }
+
+        Key key = new Key(image.getWidth(), image.getHeight(), image.getType());
+        buffers.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>()).offerFirst(image);
+    }
+
+    /**
+     * 清空缓冲池
+     */
+    public void clear() {
+        // 逐个取出并扣减保留字节数，与同时进行的获取和归还保持一致
+        for (Deque<BufferedImage> deque : buffers.values()) {
+            BufferedImage image;
+            while ((image = deque.pollFirst()) != null) {
+                retainedBytes.addAndGet(-sizeOf(image));
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * 记录缓冲池的命中情况到日志
+     */
+    public void logStatistics() {
+        logger.info("图片缓冲池 - 命中: {}, 未命中: {}, 保留: {} MB",
+                hitCount.get(), missCount.get(), retainedBytes.get() / (1024 * 1024));
+    }
+
+    private BufferedImage poll(Key key) {
+        Deque<BufferedImage> deque = buffers.get(key);
+        BufferedImage image = deque != null ? deque.pollFirst() : null;
+        if (image != null) {
+            retainedBytes.addAndGet(-sizeOf(image));
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return image;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        return (long) dataBuffer.getSize() * dataBuffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+    }
+
+    /**
+     * 缓冲区键，由宽高和图片类型组成
+     */
+    private static final class Key {
+        private final int width;
+        private final int height;
+        private final int type;
+
+        Key(int width, int height, int type) {
+            this.width = width;
+            this.height = height;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + type;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.photowatermark.util;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * 图片文件头，根据文件开头的特征字节判断图片的实际格式
+ * 文件头只读取一次，非图片文件和不支持的格式在完整读取之前即可被拒绝；
+ * 识别出的格式随后交给内存估算和解码使用，使其直接按格式选择读取器，不必逐个探测ImageIO插件
+ */
+public final class ImageHeader {
+
+    // 读取的文件头字节数，足以识别所有支持和已知的格式
+    public static final int LENGTH = 32;
+
+    /**
+     * 按文件头识别出的图片格式
+     */
+    public enum Format {
+        JPEG("JPEG", "jpeg", true),
+        PNG("PNG", "png", true),
+        GIF("GIF", "gif", true),
+        BMP("BMP", "bmp", true),
+        TIFF("TIFF", "tiff", true),
+        WEBP("WebP", "webp", false),
+        HEIF("HEIF/AVIF", "heif", false);
+
+        private final String displayName;
+        private final String readerFormatName;
+        private final boolean supported;
+
+        Format(String displayName, String readerFormatName, boolean supported) {
+            this.displayName = displayName;
+            this.readerFormatName = readerFormatName;
+            this.supported = supported;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * 获取ImageIO读取器使用的格式名称
+         */
+        public String getReaderFormatName() {
+            return readerFormatName;
+        }
+
+        /**
+         * 判断本程序是否支持处理该格式
+         */
+        public boolean isSupported() {
+            return supported;
+        }
+    }
+
+    // HEIF和AVIF文件ftyp box中的主品牌
+    private static final String[] HEIF_BRANDS = {"heic", "heix", "hevc", "hevx", "heim", "heis", "mif1", "msf1", "avif", "avis"};
+
+    private final byte[] bytes;
+    private final Format format;
+
+    private ImageHeader(byte[] bytes, Format format) {
+        this.bytes = bytes;
+        this.format = format;
+    }
+
+    /**
+     * 读取图片文件的文件头
+     *
+     * @param imageFile 图片文件
+     * @return 文件头
+     * @throws IOException 文件无法读取时抛出
+     */
+    public static ImageHeader read(File imageFile) throws IOException {
+        if (imageFile == null) {
+            throw new IllegalArgumentException("图片文件不能为null");
+        }
+
+        byte[] buffer = new byte[LENGTH];
+        int length;
+        try (InputStream inputStream = Files.newInputStream(imageFile.toPath())) {
+            length = inputStream.readNBytes(buffer, 0, LENGTH);
+        }
+        return of(buffer, length);
+    }
+
+    /**
+     * 从已读入内存的文件内容中识别文件头
+     *
+     * @param data 文件内容（至少包含文件开头部分）
+     * @param length 有效字节数
+     * @return 文件头
+     */
+    public static ImageHeader of(byte[] data, int length) {
+        if (data == null) {
+            throw new IllegalArgumentException("图片数据不能为null");
+        }
+
+        byte[] bytes = Arrays.copyOf(data, Math.min(Math.min(length, data.length), LENGTH));
+        return new ImageHeader(bytes, detect(bytes));
+    }
+
+    /**
+     * 根据特征字节识别格式
+     *
+     * @param header 文件头
+     * @return 格式，无法识别时返回null
+     */
+    private static Format detect(byte[] header) {
+        if (startsWith(header, 0, 0xFF, 0xD8, 0xFF)) {
+            return Format.JPEG;
+        }
+        if (startsWith(header, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return Format.PNG;
+        }
+        if (startsWith(header, 0, 'G', 'I', 'F', '8', '7', 'a') || startsWith(header, 0, 'G', 'I', 'F', '8', '9', 'a')) {
+            return Format.GIF;
+        }
+        if (isBmp(header)) {
+            return Format.BMP;
+        }
+        if (startsWith(header, 0, 'I', 'I', 0x2A, 0x00) || startsWith(header, 0, 'M', 'M', 0x00, 0x2A)) {
+            return Format.TIFF;
+        }
+        if (startsWith(header, 0, 'R', 'I', 'F', 'F') && startsWith(header, 8, 'W', 'E', 'B', 'P')) {
+            return Format.WEBP;
+        }
+        if (startsWith(header, 4, 'f', 't', 'y', 'p') && header.length >= 12) {
+            String brand = new String(header, 8, 4, StandardCharsets.US_ASCII);
+            for (String heifBrand : HEIF_BRANDS) {
+                if (heifBrand.equals(brand)) {
+                    return Format.HEIF;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * BMP只有两个字节的标识，再检查信息头长度以避免把以BM开头的文本误判为图片
+     */
+    private static boolean isBmp(byte[] header) {
+        if (!startsWith(header, 0, 'B', 'M') || header.length < 18) {
+            return false;
+        }
+
+        int infoHeaderSize = (header[14] & 0xFF) | (header[15] & 0xFF) << 8
+                | (header[16] & 0xFF) << 16 | (header[17] & 0xFF) << 24;
+        switch (infoHeaderSize) {
+            case 12:
+            case 40:
+            case 52:
+            case 56:
+            case 64:
+            case 108:
+            case 124:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean startsWith(byte[] header, int offset, int... signature) {
+        if (header.length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取识别出的格式
+     *
+     * @return 格式，无法识别时返回null
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * 获取文件头字节
+     *
+     * @return 文件头字节的副本
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * 判断是否为支持处理的图片格式
+     *
+     * @return 是否支持
+     */
+    public boolean isSupported() {
+        return format != null && format.isSupported();
+    }
+
+    /**
+     * 检查文件头是否为支持处理的图片格式
+     *
+     * @param sourceName 图片来源名称（用于异常信息）
+     * @throws IOException 不是图片或格式不受支持时抛出
+     */
+    public void checkSupported(String sourceName) throws IOException {
+        if (format == null) {
+            throw new IOException("文件内容不是有效的图片: " + sourceName);
+        }
+        if (!format.isSupported()) {
+            throw new IOException("不支持的图片格式 " + format.getDisplayName() + ": " + sourceName);
+        }
+    }
+
+    /**
+     * 获取读取指定格式的ImageIO读取器，未指定格式时按输入内容探测
+     *
+     * @param format 图片格式，可以为null
+     * @param stream 图片输入流
+     * @return 读取器迭代器
+     */
+    public static Iterator<ImageReader> getImageReaders(Format format, ImageInputStream stream) {
+        if (format != null) {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(format.getReaderFormatName());
+            if (readers.hasNext()) {
+                return readers;
+            }
+        }
+        return ImageIO.getImageReaders(stream);
+    }
+}
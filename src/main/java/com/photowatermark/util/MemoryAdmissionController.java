@@ -0,0 +1,240 @@
+package com.photowatermark.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存准入控制器，根据图片头信息估算解码后的内存占用，并在可配置的堆内存预算内分配额度
+ * 额度不足时处理线程阻塞等待，直到其他图片处理完成并归还额度，从而使并行处理的宽度受内存约束
+ */
+public class MemoryAdmissionController {
+    private static final Logger logger = LoggerFactory.getLogger(MemoryAdmissionController.class);
+
+    // 未指定预算时使用最大堆内存的比例
+    private static final double DEFAULT_HEAP_FRACTION = 0.7;
+
+    // 额度以KB为单位计数，避免int溢出
+    private static final int UNIT = 1024;
+
+    // 水印合成时的工作副本按ARGB每像素4字节估算
+    private static final int WORKING_COPY_BYTES_PER_PIXEL = 4;
+
+    // 编码输出缓冲区按每像素0.5字节估算
+    private static final double ENCODER_BYTES_PER_PIXEL = 0.5;
+
+    // 无法读取图片头时按文件大小的倍数估算
+    private static final int UNKNOWN_HEADER_FILE_SIZE_FACTOR = 16;
+
+    private final long budgetBytes;
+    private final long reservedBytes;
+    private final int totalPermits;
+    private final Semaphore permits;
+
+    /**
+     * 创建准入控制器
+     *
+     * @param budgetBytes 内存预算（字节），小于等于0时使用最大堆内存的70%
+     */
+    public MemoryAdmissionController(long budgetBytes) {
+        this(budgetBytes, 0);
+    }
+
+    /**
+     * 创建从预算中预留一部分内存的准入控制器
+     * 预留的内存不参与准入分配，供批次之间保留数据的缓冲池等使用，最多预留预算的一半
+     *
+     * @param budgetBytes 内存预算（字节），小于等于0时使用最大堆内存的70%
+     * @param reservedBytes 预留的字节数
+     */
+    public MemoryAdmissionController(long budgetBytes, long reservedBytes) {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        long budget = budgetBytes > 0 ? budgetBytes : (long) (maxMemory * DEFAULT_HEAP_FRACTION);
+        this.reservedBytes = Math.max(0, Math.min(reservedBytes, budget / 2));
+        this.totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (budget - this.reservedBytes) / UNIT));
+        this.budgetBytes = (long) totalPermits * UNIT;
+        // 公平模式保证大图不会被持续到达的小图饿死
+        this.permits = new Semaphore(totalPermits, true);
+        logger.debug("内存准入预算: {} MB，预留: {} MB", this.budgetBytes / (1024 * 1024),
+                this.reservedBytes / (1024 * 1024));
+    }
+
+    /**
+     * 估算处理一张图片所需的内存
+     * 包括源文件数据、解码后的像素缓冲区、水印合成的工作副本、编码输出缓冲区和水印图层
+     *
+     * @param imageFile 图片文件
+     * @param overlayBytes 水印图层占用的字节数
+     * @return 估算的字节数
+     */
+    public long estimateFootprint(File imageFile, long overlayBytes) {
+        return estimateFootprint(imageFile, null, overlayBytes);
+    }
+
+    /**
+     * 按已识别的图片格式估算处理一张图片所需的内存，直接使用该格式的读取器读取尺寸
+     *
+     * @param imageFile 图片文件
+     * @param format 文件头识别出的图片格式，为null时按文件内容探测
+     * @param overlayBytes 水印图层占用的字节数
+     * @return 估算的字节数
+     */
+    public long estimateFootprint(File imageFile, ImageHeader.Format format, long overlayBytes) {
+        long fileSize = imageFile.length();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(imageFile)) {
+            if (stream != null) {
+                Iterator<ImageReader> readers = ImageHeader.getImageReaders(format, stream);
+                if (readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(stream, true, true);
+                        long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                        int bytesPerPixel = getBytesPerPixel(reader);
+                        return fileSize
+                                + pixels * bytesPerPixel
+                                + pixels * WORKING_COPY_BYTES_PER_PIXEL
+                                + (long) (pixels * ENCODER_BYTES_PER_PIXEL)
+                                + overlayBytes;
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("无法读取图片头信息，按文件大小估算内存: {}", imageFile.getPath());
+        }
+
+        return fileSize * UNKNOWN_HEADER_FILE_SIZE_FACTOR + overlayBytes;
+    }
+
+    /**
+     * 估算预览模式下处理一张图片所需的内存，只与文件大小和预览尺寸有关
+     * 按采样间隔缩小解码的图片长边小于预览尺寸的2倍，缩小到预览尺寸后合成和编码
+     *
+     * @param imageFile 图片文件
+     * @param maxEdge 预览图片长边的最大像素数
+     * @param overlayBytes 水印图层占用的字节数
+     * @return 估算的字节数
+     */
+    public static long estimatePreviewFootprint(File imageFile, int maxEdge, long overlayBytes) {
+        long previewPixels = (long) maxEdge * maxEdge;
+        long subsampledPixels = previewPixels * 4;
+        return imageFile.length()
+                + subsampledPixels * 4
+                + previewPixels * WORKING_COPY_BYTES_PER_PIXEL
+                + (long) (previewPixels * ENCODER_BYTES_PER_PIXEL)
+                + overlayBytes;
+    }
+
+    /**
+     * 估算水印图层占用的字节数
+     *
+     * @param fontSize 字体大小
+     * @param textLength 水印文本长度
+     * @return 估算的字节数
+     */
+    public static long estimateOverlayBytes(int fontSize, int textLength) {
+        // 与WatermarkProcessor创建水印图片时的20像素边距保持一致
+        long width = (long) fontSize * textLength + 20;
+        long height = fontSize * 2L + 20;
+        return width * height * 4;
+    }
+
+    /**
+     * 申请内存额度，额度不足时阻塞等待
+     * 超过总预算的申请按总预算处理，使其可以在其他任务全部完成后单独执行
+     *
+     * @param bytes 申请的字节数
+     * @return 内存额度，使用完毕后必须关闭以归还额度
+     * @throws InterruptedException 等待被中断
+     */
+    public Permit acquire(long bytes) throws InterruptedException {
+        int requested = toPermits(bytes);
+        if (requested == totalPermits && bytes > budgetBytes) {
+            logger.warn("单张图片预计占用 {} MB，超过内存预算 {} MB，将独占预算执行",
+                    bytes / (1024 * 1024), budgetBytes / (1024 * 1024));
+        }
+
+        // 不带超时的tryAcquire不遵守公平顺序，会插到正在等待的大图前面
+        if (!permits.tryAcquire(requested, 0, TimeUnit.SECONDS)) {
+            logger.debug("内存额度不足，等待 {} KB 额度释放", requested);
+            permits.acquire(requested);
+        }
+        return new Permit(requested);
+    }
+
+    /**
+     * 获取参与准入分配的内存预算，不含预留部分
+     *
+     * @return 预算字节数
+     */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * 获取预算中预留、不参与准入分配的内存
+     *
+     * @return 预留字节数
+     */
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * 获取当前可用的内存额度
+     *
+     * @return 可用字节数
+     */
+    public long getAvailableBytes() {
+        return (long) permits.availablePermits() * UNIT;
+    }
+
+    private int toPermits(long bytes) {
+        long requested = (Math.max(0, bytes) + UNIT - 1) / UNIT;
+        return (int) Math.max(1, Math.min(totalPermits, requested));
+    }
+
+    private int getBytesPerPixel(ImageReader reader) throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (types != null && types.hasNext()) {
+            int bitsPerPixel = types.next().getColorModel().getPixelSize();
+            return Math.max(1, (bitsPerPixel + 7) / 8);
+        }
+        return WORKING_COPY_BYTES_PER_PIXEL;
+    }
+
+    /**
+     * 已分配的内存额度，关闭时归还给控制器
+     */
+    public class Permit implements AutoCloseable {
+        private final int count;
+        private boolean released;
+
+        private Permit(int count) {
+            this.count = count;
+        }
+
+        public long getBytes() {
+            return (long) count * UNIT;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                permits.release(count);
+            }
+        }
+    }
+}
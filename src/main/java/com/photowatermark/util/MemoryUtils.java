@@ -34,14 +34,6 @@ public class MemoryUtils {
         logger.debug(getMemoryUsage());
     }
 
-    /**
-     * 建议垃圾回收
-     */
-    public static void suggestGarbageCollection() {
-        System.gc();
-        logger.debug("已建议垃圾回收");
-    }
-
     /**
      * 检查内存是否充足
      *
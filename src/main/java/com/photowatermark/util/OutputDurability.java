@@ -0,0 +1,99 @@
+package com.photowatermark.util;
+
+import java.util.Locale;
+
+/**
+ * 输出文件的持久化方式，决定写出的水印图片何时刷到磁盘
+ * 输出文件总是先写入同一目录下的临时文件再原子重命名，进程崩溃或被终止时不会留下写了一半的输出；
+ * 持久化方式只影响断电或系统崩溃后已写出的文件是否可靠；按批刷盘时临时文件刷盘后才重命名为输出文件，
+ * 输出文件在刷盘前不可见，断电后也不会是空文件或半个文件。
+ * 在网络存储上每次刷盘的开销可能超过编码本身，按批刷盘可以把多次刷盘合并为一次
+ */
+public final class OutputDurability {
+
+    /**
+     * 刷盘方式
+     */
+    public enum Mode {
+        // 不主动刷盘，由操作系统决定何时写入磁盘
+        NONE,
+        // 每个文件重命名前刷盘
+        FILE,
+        // 每写出指定数量的文件后一起刷盘并重命名
+        INTERVAL,
+        // 按较大的组(文件数、字节数或时间)刷盘并重命名，批次结束时刷出最后一组
+        BATCH
+    }
+
+    public static final OutputDurability NONE = new OutputDurability(Mode.NONE, 0);
+    public static final OutputDurability PER_FILE = new OutputDurability(Mode.FILE, 1);
+    public static final OutputDurability BATCH = new OutputDurability(Mode.BATCH, 0);
+
+    private final Mode mode;
+    private final int interval;
+
+    private OutputDurability(Mode mode, int interval) {
+        this.mode = mode;
+        this.interval = interval;
+    }
+
+    /**
+     * 获取每写出指定数量的文件后刷盘的持久化方式
+     *
+     * @param files 每次刷盘的文件数，为1时等同于每个文件刷盘
+     * @return 持久化方式
+     * @throws IllegalArgumentException 文件数小于1时抛出
+     */
+    public static OutputDurability every(int files) {
+        if (files < 1) {
+            throw new IllegalArgumentException("刷盘的文件数必须大于0: " + files);
+        }
+        return files == 1 ? PER_FILE : new OutputDurability(Mode.INTERVAL, files);
+    }
+
+    /**
+     * 解析持久化方式
+     *
+     * @param spec none、file、batch，或每次刷盘的文件数
+     * @return 持久化方式
+     * @throws IllegalArgumentException 格式错误时抛出
+     */
+    public static OutputDurability parse(String spec) {
+        String value = spec == null ? "" : spec.trim().toLowerCase(Locale.ROOT);
+        switch (value) {
+            case "none":
+                return NONE;
+            case "file":
+                return PER_FILE;
+            case "batch":
+                return BATCH;
+            default:
+                try {
+                    return every(Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("无效的持久化方式: " + spec + "，可选值: none、file、batch或文件数");
+                }
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 获取每次刷盘的文件数
+     *
+     * @return 文件数，只在INTERVAL和FILE方式下有意义
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * 转换为可以被parse解析的字符串
+     */
+    @Override
+    public String toString() {
+        return mode == Mode.INTERVAL ? String.valueOf(interval) : mode.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,542 @@
+package com.photowatermark.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * 源图片的元数据段，按原始字节从源文件中截取，写出时原样插入重新编码的输出
+ * JPEG保留EXIF和XMP（APP1）以及ICC配置文件（APP2）；PNG保留tEXt、zTXt、iTXt、iCCP和eXIf块。
+ * 只扫描标记段和块的头部，图像数据按长度跳过，不解码像素，也不把元数据解析为对象后再序列化。
+ * 输出格式与源格式相同时逐字节复制；JPEG与PNG之间转换时只改写EXIF、XMP和ICC的外层封装，文本块不转换。
+ * JPEG解码时已按EXIF方向旋转像素，截取时把EXIF中的方向改为正常方向，避免查看器再次旋转
+ */
+public final class SourceMetadata {
+
+    // 没有可复制元数据的实例
+    public static final SourceMetadata EMPTY = new SourceMetadata(null, Collections.emptyList());
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int APP0 = 0xE0;
+    private static final int APP1 = 0xE1;
+    private static final int APP2 = 0xE2;
+
+    private static final String EXIF_SIGNATURE = "Exif\0\0";
+    private static final String XMP_SIGNATURE = "http://ns.adobe.com/xap/1.0/\0";
+    private static final String EXTENDED_XMP_SIGNATURE = "http://ns.adobe.com/xmp/extension/\0";
+    private static final String ICC_SIGNATURE = "ICC_PROFILE\0";
+    // PNG中存放XMP的iTXt块的关键字
+    private static final String XMP_KEYWORD = "XML:com.adobe.xmp";
+
+    // JPEG标记段数据的最大长度（不含长度字段）
+    private static final int MAX_SEGMENT_DATA = 65533;
+    // 每个APP2段中ICC配置文件数据的最大长度
+    private static final int MAX_ICC_CHUNK = MAX_SEGMENT_DATA - ICC_SIGNATURE.length() - 2;
+
+    // EXIF中方向标签的编号
+    private static final int ORIENTATION_TAG = 0x0112;
+
+    private static final String[] PNG_CHUNK_TYPES = {"tEXt", "zTXt", "iTXt", "iCCP", "eXIf"};
+
+    private final ImageHeader.Format sourceFormat;
+    // JPEG为含标记和长度的完整标记段，PNG为含长度、类型和CRC的完整块
+    private final List<byte[]> segments;
+
+    private SourceMetadata(ImageHeader.Format sourceFormat, List<byte[]> segments) {
+        this.sourceFormat = sourceFormat;
+        this.segments = segments;
+    }
+
+    /**
+     * 从源图片文件截取元数据，只读取JPEG第一个扫描之前的标记段和PNG的块头
+     *
+     * @param imageFile 源图片文件
+     * @param format 文件头识别出的图片格式，为null时按文件头识别
+     * @return 元数据，格式不支持或没有元数据时返回EMPTY
+     * @throws IOException 读取失败时抛出
+     */
+    public static SourceMetadata read(File imageFile, ImageHeader.Format format) throws IOException {
+        if (format == null) {
+            format = ImageHeader.read(imageFile).getFormat();
+        }
+        if (format != ImageHeader.Format.JPEG && format != ImageHeader.Format.PNG) {
+            return EMPTY;
+        }
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(imageFile.toPath()))) {
+            return read(input, format);
+        }
+    }
+
+    /**
+     * 从内存中的源图片文件内容截取元数据
+     *
+     * @param imageData 源图片文件内容
+     * @param format 文件头识别出的图片格式
+     * @return 元数据，格式不支持或没有元数据时返回EMPTY
+     * @throws IOException 数据损坏时抛出
+     */
+    public static SourceMetadata read(byte[] imageData, ImageHeader.Format format) throws IOException {
+        if (format != ImageHeader.Format.JPEG && format != ImageHeader.Format.PNG) {
+            return EMPTY;
+        }
+        return read(new ByteArrayInputStream(imageData), format);
+    }
+
+    private static SourceMetadata read(InputStream stream, ImageHeader.Format format) throws IOException {
+        DataInputStream input = new DataInputStream(stream);
+        List<byte[]> segments = format == ImageHeader.Format.JPEG ? readJpegSegments(input) : readPngChunks(input);
+        return segments.isEmpty() ? EMPTY : new SourceMetadata(format, segments);
+    }
+
+    private static List<byte[]> readJpegSegments(DataInputStream input) throws IOException {
+        List<byte[]> segments = new ArrayList<>();
+        if (input.readUnsignedByte() != 0xFF || input.readUnsignedByte() != SOI) {
+            throw new IOException("不是JPEG文件");
+        }
+        while (true) {
+            int marker = readJpegMarker(input);
+            if (marker == SOS || marker == EOI) {
+                return segments;
+            }
+            if (marker == 0x01 || marker >= 0xD0 && marker <= 0xD7) {
+                // 没有长度字段的独立标记
+                continue;
+            }
+            int length = input.readUnsignedShort();
+            if (length < 2) {
+                throw new IOException("JPEG标记段长度无效: " + length);
+            }
+            if (marker != APP1 && marker != APP2) {
+                skipFully(input, length - 2);
+                continue;
+            }
+
+            byte[] segment = new byte[length + 2];
+            segment[0] = (byte) 0xFF;
+            segment[1] = (byte) marker;
+            segment[2] = (byte) (length >> 8);
+            segment[3] = (byte) length;
+            input.readFully(segment, 4, length - 2);
+            boolean kept = marker == APP1
+                    ? startsWith(segment, 4, EXIF_SIGNATURE) || startsWith(segment, 4, XMP_SIGNATURE)
+                            || startsWith(segment, 4, EXTENDED_XMP_SIGNATURE)
+                    // 多图片格式（MPF）的偏移量指向原文件之后的数据，重新编码后失效，只保留ICC配置文件
+                    : startsWith(segment, 4, ICC_SIGNATURE);
+            if (kept) {
+                if (startsWith(segment, 4, EXIF_SIGNATURE)) {
+                    resetOrientation(segment, 4 + EXIF_SIGNATURE.length(), segment.length);
+                }
+                segments.add(segment);
+            }
+        }
+    }
+
+    private static int readJpegMarker(DataInputStream input) throws IOException {
+        if (input.readUnsignedByte() != 0xFF) {
+            throw new IOException("JPEG标记段格式错误");
+        }
+        int marker;
+        do {
+            // 标记前可以有任意个填充字节0xFF
+            marker = input.readUnsignedByte();
+        } while (marker == 0xFF);
+        return marker;
+    }
+
+    private static List<byte[]> readPngChunks(DataInputStream input) throws IOException {
+        byte[] signature = new byte[PNG_SIGNATURE.length];
+        input.readFully(signature);
+        for (int i = 0; i < signature.length; i++) {
+            if (signature[i] != PNG_SIGNATURE[i]) {
+                throw new IOException("不是PNG文件");
+            }
+        }
+
+        List<byte[]> chunks = new ArrayList<>();
+        while (true) {
+            int length;
+            try {
+                length = input.readInt();
+            } catch (EOFException e) {
+                // 缺少IEND块的文件，已读到的块仍然有效
+                return chunks;
+            }
+            byte[] type = new byte[4];
+            input.readFully(type);
+            String typeName = new String(type, StandardCharsets.ISO_8859_1);
+            if ("IEND".equals(typeName)) {
+                return chunks;
+            }
+            if (length < 0) {
+                throw new IOException("PNG块长度无效: " + typeName);
+            }
+            if (!isKeptPngChunk(typeName)) {
+                skipFully(input, length + 4L);
+                continue;
+            }
+
+            byte[] chunk = new byte[length + 12];
+            writeInt(chunk, 0, length);
+            System.arraycopy(type, 0, chunk, 4, 4);
+            input.readFully(chunk, 8, length + 4);
+            chunks.add(chunk);
+        }
+    }
+
+    private static boolean isKeptPngChunk(String type) {
+        for (String kept : PNG_CHUNK_TYPES) {
+            if (kept.equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    /**
+     * 判断能否把元数据写入指定格式的输出
+     *
+     * @param formatName 输出格式名称，例如jpg、png
+     * @return 是否支持
+     */
+    public static boolean supportsOutputFormat(String formatName) {
+        return "jpg".equals(formatName) || "jpeg".equals(formatName) || "png".equals(formatName);
+    }
+
+    /**
+     * 把元数据插入重新编码的输出
+     * JPEG插入到SOI及编码器写出的APP0之后，PNG插入到IHDR之后；编码器已写出ICC配置文件或sRGB块时不再插入源文件的配置文件
+     *
+     * @param encoded 编码后的图片
+     * @param formatName 输出格式名称，例如jpg、png
+     * @return 插入元数据后的图片，没有元数据或输出格式不支持时返回原数组
+     * @throws IOException 编码结果格式错误时抛出
+     */
+    public byte[] insertInto(byte[] encoded, String formatName) throws IOException {
+        if (segments.isEmpty() || !supportsOutputFormat(formatName)) {
+            return encoded;
+        }
+        return "png".equals(formatName) ? insertIntoPng(encoded) : insertIntoJpeg(encoded);
+    }
+
+    private byte[] insertIntoJpeg(byte[] encoded) throws IOException {
+        if (encoded.length < 4 || (encoded[0] & 0xFF) != 0xFF || (encoded[1] & 0xFF) != SOI) {
+            throw new IOException("编码结果不是JPEG");
+        }
+        // 插入到编码器写出的APP0（JFIF）之后，同时检查编码器是否已写出ICC配置文件
+        int insertAt = 2;
+        boolean hasIcc = false;
+        for (int pos = 2; pos + 4 <= encoded.length && (encoded[pos] & 0xFF) == 0xFF; ) {
+            int marker = encoded[pos + 1] & 0xFF;
+            if (marker < APP0 || marker > 0xEF) {
+                break;
+            }
+            int end = pos + 2 + readUnsignedShort(encoded, pos + 2);
+            hasIcc |= marker == APP2 && startsWith(encoded, pos + 4, ICC_SIGNATURE);
+            if (marker == APP0 && insertAt == pos) {
+                insertAt = end;
+            }
+            pos = end;
+        }
+
+        List<byte[]> jpegSegments = sourceFormat == ImageHeader.Format.JPEG ? segments : convertToJpeg();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(encoded.length + totalLength(jpegSegments));
+        output.write(encoded, 0, insertAt);
+        for (byte[] segment : jpegSegments) {
+            if (!(hasIcc && (segment[1] & 0xFF) == APP2)) {
+                output.write(segment);
+            }
+        }
+        output.write(encoded, insertAt, encoded.length - insertAt);
+        return output.toByteArray();
+    }
+
+    private byte[] insertIntoPng(byte[] encoded) throws IOException {
+        if (encoded.length < PNG_SIGNATURE.length + 12 || !startsWith(encoded, 0, "\u0089PNG")) {
+            throw new IOException("编码结果不是PNG");
+        }
+        // IHDR总是第一个块，插入到其后满足iCCP和eXIf必须位于IDAT之前的要求
+        int pos = PNG_SIGNATURE.length + 12 + readInt(encoded, PNG_SIGNATURE.length);
+        boolean hasColorProfile = false;
+        for (int chunk = pos; chunk + 8 <= encoded.length && readInt(encoded, chunk) >= 0;
+                chunk += 12 + readInt(encoded, chunk)) {
+            if (startsWith(encoded, chunk + 4, "iCCP") || startsWith(encoded, chunk + 4, "sRGB")) {
+                hasColorProfile = true;
+            }
+            if (startsWith(encoded, chunk + 4, "IDAT")) {
+                break;
+            }
+        }
+
+        List<byte[]> pngChunks = sourceFormat == ImageHeader.Format.PNG ? segments : convertToPng();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(encoded.length + totalLength(pngChunks));
+        output.write(encoded, 0, pos);
+        for (byte[] chunk : pngChunks) {
+            if (!(hasColorProfile && startsWith(chunk, 4, "iCCP"))) {
+                output.write(chunk);
+            }
+        }
+        output.write(encoded, pos, encoded.length - pos);
+        return output.toByteArray();
+    }
+
+    /**
+     * 把PNG的eXIf、XMP和iCCP块改写为JPEG标记段，文本块没有对应的JPEG标记段，不转换
+     */
+    private List<byte[]> convertToJpeg() throws IOException {
+        List<byte[]> converted = new ArrayList<>();
+        for (byte[] chunk : segments) {
+            int length = readInt(chunk, 0);
+            if (startsWith(chunk, 4, "eXIf") && EXIF_SIGNATURE.length() + length <= MAX_SEGMENT_DATA) {
+                converted.add(jpegSegment(APP1, EXIF_SIGNATURE, chunk, 8, length));
+            } else if (startsWith(chunk, 4, "iTXt")) {
+                byte[] xmp = getUncompressedXmp(chunk, length);
+                if (xmp != null && XMP_SIGNATURE.length() + xmp.length <= MAX_SEGMENT_DATA) {
+                    converted.add(jpegSegment(APP1, XMP_SIGNATURE, xmp, 0, xmp.length));
+                }
+            } else if (startsWith(chunk, 4, "iCCP")) {
+                byte[] profile = inflateIccProfile(chunk, length);
+                int count = (profile.length + MAX_ICC_CHUNK - 1) / MAX_ICC_CHUNK;
+                if (count > 255) {
+                    continue;
+                }
+                for (int i = 0; i < count; i++) {
+                    int offset = i * MAX_ICC_CHUNK;
+                    int size = Math.min(MAX_ICC_CHUNK, profile.length - offset);
+                    byte[] data = new byte[size + 2];
+                    data[0] = (byte) (i + 1);
+                    data[1] = (byte) count;
+                    System.arraycopy(profile, offset, data, 2, size);
+                    converted.add(jpegSegment(APP2, ICC_SIGNATURE, data, 0, data.length));
+                }
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * 把JPEG的EXIF、XMP和ICC配置文件改写为PNG块，扩展XMP只能随JPEG使用，不转换
+     */
+    private List<byte[]> convertToPng() throws IOException {
+        List<byte[]> converted = new ArrayList<>();
+        ByteArrayOutputStream iccProfile = new ByteArrayOutputStream();
+        for (byte[] segment : segments) {
+            if (startsWith(segment, 4, EXIF_SIGNATURE)) {
+                int offset = 4 + EXIF_SIGNATURE.length();
+                converted.add(pngChunk("eXIf", segment, offset, segment.length - offset));
+            } else if (startsWith(segment, 4, XMP_SIGNATURE)) {
+                int offset = 4 + XMP_SIGNATURE.length();
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                // 关键字、未压缩标志、压缩方法、空的语言标签和翻译后的关键字
+                data.write(XMP_KEYWORD.getBytes(StandardCharsets.ISO_8859_1));
+                data.write(new byte[] {0, 0, 0, 0, 0});
+                data.write(segment, offset, segment.length - offset);
+                converted.add(pngChunk("iTXt", data.toByteArray(), 0, data.size()));
+            } else if (startsWith(segment, 4, ICC_SIGNATURE)) {
+                // 分段的配置文件按文件中的顺序拼接，编码器总是按序号依次写出
+                int offset = 4 + ICC_SIGNATURE.length() + 2;
+                iccProfile.write(segment, offset, segment.length - offset);
+            }
+        }
+        if (iccProfile.size() > 0) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            data.write("ICC Profile".getBytes(StandardCharsets.ISO_8859_1));
+            // 名称结尾和压缩方法（deflate）
+            data.write(new byte[] {0, 0});
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(data, new Deflater(Deflater.BEST_SPEED))) {
+                iccProfile.writeTo(deflater);
+            }
+            converted.add(pngChunk("iCCP", data.toByteArray(), 0, data.size()));
+        }
+        return converted;
+    }
+
+    /**
+     * 获取iTXt块中未压缩的XMP数据包，不是XMP或已压缩时返回null
+     */
+    private static byte[] getUncompressedXmp(byte[] chunk, int length) {
+        int end = 8 + length;
+        if (!startsWith(chunk, 8, XMP_KEYWORD + "\0")) {
+            return null;
+        }
+        int pos = 8 + XMP_KEYWORD.length() + 1;
+        if (pos + 2 > end || chunk[pos] != 0) {
+            return null;
+        }
+        pos += 2;
+        // 跳过语言标签和翻译后的关键字
+        for (int fields = 0; fields < 2; fields++) {
+            while (pos < end && chunk[pos] != 0) {
+                pos++;
+            }
+            pos++;
+        }
+        return pos <= end ? Arrays.copyOfRange(chunk, pos, end) : null;
+    }
+
+    private static byte[] inflateIccProfile(byte[] chunk, int length) throws IOException {
+        int end = 8 + length;
+        int pos = 8;
+        while (pos < end && chunk[pos] != 0) {
+            pos++;
+        }
+        // 跳过名称结尾和压缩方法
+        pos += 2;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(chunk, pos, Math.max(0, end - pos));
+            ByteArrayOutputStream profile = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("iCCP块数据不完整");
+                }
+                profile.write(buffer, 0, inflated);
+            }
+            return profile.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("iCCP块数据损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] jpegSegment(int marker, String signature, byte[] data, int offset, int length) {
+        byte[] prefix = signature.getBytes(StandardCharsets.ISO_8859_1);
+        int segmentLength = 2 + prefix.length + length;
+        byte[] segment = new byte[segmentLength + 2];
+        segment[0] = (byte) 0xFF;
+        segment[1] = (byte) marker;
+        segment[2] = (byte) (segmentLength >> 8);
+        segment[3] = (byte) segmentLength;
+        System.arraycopy(prefix, 0, segment, 4, prefix.length);
+        System.arraycopy(data, offset, segment, 4 + prefix.length, length);
+        return segment;
+    }
+
+    private static byte[] pngChunk(String type, byte[] data, int offset, int length) {
+        byte[] chunk = new byte[length + 12];
+        writeInt(chunk, 0, length);
+        System.arraycopy(type.getBytes(StandardCharsets.ISO_8859_1), 0, chunk, 4, 4);
+        System.arraycopy(data, offset, chunk, 8, length);
+        CRC32 crc = new CRC32();
+        crc.update(chunk, 4, length + 4);
+        writeInt(chunk, length + 8, (int) crc.getValue());
+        return chunk;
+    }
+
+    /**
+     * 把EXIF第0个IFD中的方向标签改为正常方向，只修改标签值的两个字节
+     *
+     * @param data 含EXIF的数组
+     * @param tiff TIFF头的起始位置
+     * @param end EXIF数据的结束位置
+     */
+    static void resetOrientation(byte[] data, int tiff, int end) {
+        if (end - tiff < 8) {
+            return;
+        }
+        boolean littleEndian = data[tiff] == 'I';
+        long ifdOffset = readInt(data, tiff + 4, littleEndian) & 0xFFFFFFFFL;
+        if (ifdOffset > end - tiff - 2) {
+            return;
+        }
+        int ifd = tiff + (int) ifdOffset;
+        int entries = readShort(data, ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                return;
+            }
+            if (readShort(data, entry, littleEndian) == ORIENTATION_TAG) {
+                // 值为SHORT类型，位于值字段的前两个字节
+                data[entry + 8] = (byte) (littleEndian ? 1 : 0);
+                data[entry + 9] = (byte) (littleEndian ? 0 : 1);
+                return;
+            }
+        }
+    }
+
+    private static void skipFully(InputStream input, long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long skipped = input.skip(remaining);
+            if (skipped <= 0) {
+                if (input.read() < 0) {
+                    throw new EOFException("文件在元数据之前结束");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static int totalLength(List<byte[]> parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        return length;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, String prefix) {
+        if (offset < 0 || data.length - offset < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if ((data[offset + i] & 0xFF) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readUnsignedShort(byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 8 | (data[pos + 1] & 0xFF);
+    }
+
+    private static int readShort(byte[] data, int pos, boolean littleEndian) {
+        return littleEndian ? (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8 : readUnsignedShort(data, pos);
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        return readInt(data, pos, false);
+    }
+
+    private static int readInt(byte[] data, int pos, boolean littleEndian) {
+        return littleEndian
+                ? readShort(data, pos, true) | readShort(data, pos + 2, true) << 16
+                : readUnsignedShort(data, pos) << 16 | readUnsignedShort(data, pos + 2);
+    }
+
+    private static void writeInt(byte[] data, int pos, int value) {
+        data[pos] = (byte) (value >>> 24);
+        data[pos + 1] = (byte) (value >>> 16);
+        data[pos + 2] = (byte) (value >>> 8);
+        data[pos + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,34 @@
+package com.photowatermark.util;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 虚拟线程支持类
+ * 本类是Java 11版本的实现，不支持虚拟线程；在Java 21及以上版本运行时，
+ * 多版本JAR中META-INF/versions/21下的同名类会替代本类
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前运行环境是否支持虚拟线程
+     *
+     * @return 是否支持
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * 创建每个任务使用一个虚拟线程的执行器
+     *
+     * @param namePrefix 线程名前缀
+     * @return 执行器
+     * @throws UnsupportedOperationException 当前运行环境不支持虚拟线程
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        throw new UnsupportedOperationException("当前Java版本不支持虚拟线程: " + System.getProperty("java.version"));
+    }
+}
@@ -0,0 +1,160 @@
+package com.photowatermark.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 水印图层缓存，按文本、字体、颜色和不透明度缓存已渲染的水印图层
+ * 同一批次中大量图片常有相同的拍摄时间或默认水印文本，命中时直接复用已渲染的图层，无需重新排版和光栅化。
+ * 缓存按最近最少使用的顺序淘汰，保留的图层总字节数有上限。
+ * 缓存中的图层会被多个线程同时用于合成，调用方不得修改
+ */
+public class WatermarkOverlayCache {
+    private static final Logger logger = LoggerFactory.getLogger(WatermarkOverlayCache.class);
+
+    // 默认最多保留的图层字节数
+    private static final long DEFAULT_MAX_RETAINED_BYTES = 16L * 1024 * 1024;
+
+    private final long maxRetainedBytes;
+    // 按访问顺序排列，首个元素为最久未使用的图层
+    private final LinkedHashMap<Key, BufferedImage> overlays = new LinkedHashMap<>(16, 0.75f, true);
+    private long retainedBytes;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    // 默认构造函数，最多保留16MB
+    public WatermarkOverlayCache() {
+        this(DEFAULT_MAX_RETAINED_BYTES);
+    }
+
+    // 指定保留上限的构造函数，上限为0时不缓存
+    public WatermarkOverlayCache(long maxRetainedBytes) {
+        this.maxRetainedBytes = Math.max(0, maxRetainedBytes);
+    }
+
+    /**
+     * 获取水印图层，缓存中没有时渲染并放入缓存
+     * 渲染在锁外进行，多个线程同时未命中同一图层时可能各自渲染一次
+     *
+     * @param text 水印文本
+     * @param font 字体
+     * @param color 颜色
+     * @param opacity 不透明度
+     * @param renderer 缓存未命中时渲染图层
+     * @return 水印图层
+     */
+    public BufferedImage get(String text, Font font, Color color, float opacity, Supplier<BufferedImage> renderer) {
+        Key key = new Key(text, font, color, opacity);
+        synchronized (this) {
+            BufferedImage overlay = overlays.get(key);
+            if (overlay != null) {
+                hitCount.incrementAndGet();
+                return overlay;
+            }
+        }
+
+        missCount.incrementAndGet();
+        BufferedImage overlay = renderer.get();
+        put(key, overlay);
+        return overlay;
+    }
+
+    private synchronized void put(Key key, BufferedImage overlay) {
+        long size = sizeOf(overlay);
+        if (size > maxRetainedBytes) {
+            return;
+        }
+
+        BufferedImage previous = overlays.put(key, overlay);
+        if (previous != null) {
+            retainedBytes -= sizeOf(previous);
+        }
+        retainedBytes += size;
+
+        Iterator<Map.Entry<Key, BufferedImage>> eldest = overlays.entrySet().iterator();
+        while (retainedBytes > maxRetainedBytes && eldest.hasNext()) {
+            retainedBytes -= sizeOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        overlays.clear();
+        retainedBytes = 0;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public synchronized int size() {
+        return overlays.size();
+    }
+
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * 记录缓存的命中情况到日志
+     */
+    public void logStatistics() {
+        logger.info("水印图层缓存 - 命中: {}, 未命中: {}, 缓存图层: {}", hitCount.get(), missCount.get(), size());
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    /**
+     * 缓存键，由文本、字体、颜色和不透明度组成
+     */
+    private static final class Key {
+        private final String text;
+        private final Font font;
+        private final int rgb;
+        private final float opacity;
+
+        Key(String text, Font font, Color color, float opacity) {
+            this.text = text;
+            this.font = font;
+            this.rgb = color.getRGB();
+            this.opacity = opacity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return rgb == other.rgb && Float.compare(opacity, other.opacity) == 0
+                    && text.equals(other.text) && font.equals(other.font);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, font, rgb, opacity);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.photowatermark.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 工作线程执行器工具类
+ * IO密集的工作在支持虚拟线程的运行环境中可以使用虚拟线程，CPU密集的工作始终使用平台线程
+ */
+public final class WorkerExecutors {
+    private static final Logger logger = LoggerFactory.getLogger(WorkerExecutors.class);
+
+    private WorkerExecutors() {
+    }
+
+    /**
+     * 创建固定数量平台线程的执行器，线程为守护线程并带有易于识别的名称
+     *
+     * @param namePrefix 线程名前缀
+     * @param threads 线程数
+     * @return 执行器
+     */
+    public static ExecutorService newPlatformExecutor(String namePrefix, int threads) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 创建IO密集工作使用的执行器
+     * 启用虚拟线程且运行环境支持时，每个任务使用一个虚拟线程；否则回退为固定数量的平台线程
+     *
+     * @param namePrefix 线程名前缀
+     * @param threads 平台线程模式下的线程数
+     * @param virtualThreads 是否启用虚拟线程
+     * @return 执行器
+     */
+    public static ExecutorService newIoExecutor(String namePrefix, int threads, boolean virtualThreads) {
+        if (virtualThreads && VirtualThreads.isSupported()) {
+            return VirtualThreads.newThreadPerTaskExecutor(namePrefix);
+        }
+        return newPlatformExecutor(namePrefix, threads);
+    }
+
+    /**
+     * 判断虚拟线程模式是否实际生效，不生效时输出警告
+     *
+     * @param virtualThreads 是否请求启用虚拟线程
+     * @return 虚拟线程模式是否生效
+     */
+    public static boolean isVirtualThreadModeActive(boolean virtualThreads) {
+        if (virtualThreads && !VirtualThreads.isSupported()) {
+            logger.warn("当前Java版本 {} 不支持虚拟线程，使用平台线程处理", System.getProperty("java.version"));
+            return false;
+        }
+        return virtualThreads;
+    }
+
+    /**
+     * 获取CPU密集工作的并发上限，即可用处理器核心数
+     *
+     * @return 并发上限
+     */
+    public static int getCpuParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+}
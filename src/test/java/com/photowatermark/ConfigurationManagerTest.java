@@ -1,5 +1,6 @@
 package com.photowatermark;
 
+import com.photowatermark.jpeg.JpegEncoding;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -18,6 +19,7 @@ public class ConfigurationManagerTest {
         assertEquals("默认字体大小应为20", 20, config.getFontSize());
         assertEquals("默认颜色应为white", "white", config.getColor());
         assertEquals("默认位置应为bottom-right", "bottom-right", config.getPosition());
+        assertEquals("默认线程数应为1", 1, config.getThreadCount());
     }
 
     /**
@@ -64,4 +66,42 @@ public class ConfigurationManagerTest {
         assertTrue("toString结果应包含颜色", toStringResult.contains("color='blue'"));
         assertTrue("toString结果应包含位置", toStringResult.contains("position='center'"));
     }
-}
\ No newline at end of file
+
+    /**
+     * 测试设置指纹只随影响输出的设置变化
+     */
+    @Test
+    public void testSettingsFingerprint() {
+        ConfigurationManager config = new ConfigurationManager(25, "blue", "center");
+        String fingerprint = config.getSettingsFingerprint();
+
+        config.setThreadCount(8);
+        config.setMemoryBudgetBytes(1024);
+        assertEquals("处理方式的设置不应改变指纹", fingerprint, config.getSettingsFingerprint());
+
+        config.setColor("red");
+        assertNotEquals("水印颜色变化应改变指纹", fingerprint, config.getSettingsFingerprint());
+        assertEquals("实际生效的参数应决定指纹", fingerprint, config.getSettingsFingerprint(25, "blue", "center"));
+
+        config.setLosslessJpeg(true);
+        assertNotEquals("JPEG无损模式改变输出，应改变指纹", fingerprint, config.getSettingsFingerprint(25, "blue", "center"));
+        assertTrue("渲染计划应启用JPEG无损模式", config.compileRenderPlan().isLosslessJpeg());
+
+        config.setLosslessJpeg(false);
+        config.setPreviewMaxEdge(800);
+        assertNotEquals("预览尺寸改变输出，应改变指纹", fingerprint, config.getSettingsFingerprint(25, "blue", "center"));
+        assertEquals("渲染计划应启用预览模式", 800, config.compileRenderPlan().getPreviewMaxEdge());
+
+        config.setPreviewMaxEdge(0);
+        config.setJpegEncoding(JpegEncoding.DEFAULT);
+        assertEquals("默认的JPEG编码设置不应改变指纹", fingerprint, config.getSettingsFingerprint(25, "blue", "center"));
+        config.setJpegEncoding(JpegEncoding.ARCHIVE);
+        assertNotEquals("JPEG编码设置改变输出，应改变指纹", fingerprint, config.getSettingsFingerprint(25, "blue", "center"));
+        assertSame("渲染计划应使用JPEG编码设置", JpegEncoding.ARCHIVE, config.compileRenderPlan().getJpegEncoding());
+
+        config.setJpegEncoding(JpegEncoding.DEFAULT);
+        config.setMetadataPassthrough(true);
+        assertNotEquals("复制元数据改变输出，应改变指纹", fingerprint, config.getSettingsFingerprint(25, "blue", "center"));
+        assertTrue("渲染计划应启用元数据复制", config.compileRenderPlan().isMetadataPassthrough());
+    }
+}
@@ -1,10 +1,14 @@
 package com.photowatermark;
 
 import com.photowatermark.exception.FileOperationException;
+import com.photowatermark.sink.MemorySink;
+import com.photowatermark.util.MemoryAdmissionController;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 
 import static org.junit.Assert.*;
 
@@ -62,6 +66,53 @@ public class FileOutputManagerTest {
         assertTrue("水印文件路径应包含水印目录", watermarkFile.getPath().contains("test_watermark"));
     }
 
+    /**
+     * 测试转换格式时同一目录中主文件名相同的图片由源扩展名区分，扩展名与输出格式相同的图片保留原文件名，
+     * 源目录只列出一次，之后新出现的同名图片不改变输出文件名
+     */
+    @Test
+    public void testFormatConversionQualifier() throws IOException {
+        File sourceDir = Files.createTempDirectory("namesake").toFile();
+        try {
+            File jpg = new File(sourceDir, "photo.jpg");
+            File png = new File(sourceDir, "photo.PNG");
+            FileOutputManager jpgOutput = new FileOutputManager("_web", null, "jpg");
+            assertTrue(png.createNewFile());
+            assertEquals("没有同名图片时不加限定词", "photo_web.jpg", jpgOutput.resolveWatermarkFile(png.getPath()).getName());
+
+            assertTrue(jpg.createNewFile());
+            assertEquals("同一管理器内已确定的输出文件名不应改变", "photo_web.jpg",
+                    jpgOutput.resolveWatermarkFile(png.getPath()).getName());
+
+            jpgOutput = new FileOutputManager("_web", null, "jpg");
+            assertEquals("扩展名与输出格式相同时保留原文件名", "photo_web.jpg",
+                    jpgOutput.resolveWatermarkFile(jpg.getPath()).getName());
+            assertEquals("转换格式时应加入源扩展名", "photo_web_png.jpg",
+                    jpgOutput.resolveWatermarkFile(png.getPath()).getName());
+            assertEquals("不转换格式时不加限定词", "photo_watermark.PNG",
+                    fileOutputManager.resolveWatermarkFile(png.getPath()).getName());
+        } finally {
+            for (File file : sourceDir.listFiles()) {
+                file.delete();
+            }
+            sourceDir.delete();
+        }
+    }
+
+    /**
+     * 测试指定输出目录时加入源目录的哈希，同一目录的结果相同，不同目录的结果不同
+     */
+    @Test
+    public void testOutputDirectoryQualifier() {
+        FileOutputManager outputManager = new FileOutputManager("_web", new File("/out/web"), null);
+        String first = outputManager.resolveWatermarkFile("/photos/a/photo.jpg").getName();
+        assertTrue(first, first.matches("photo_web_[0-9a-f]{8}\\.jpg"));
+        assertEquals("同一源目录的哈希应相同", first,
+                outputManager.resolveWatermarkFile("/photos/b/../a/photo.jpg").getName());
+        assertNotEquals("不同源目录的哈希应不同", first,
+                outputManager.resolveWatermarkFile("/photos/b/photo.jpg").getName());
+    }
+
     /**
      * 测试使用null参数生成水印文件路径的情况
      */
@@ -92,4 +143,46 @@ public class FileOutputManagerTest {
     public void testValidateOutputDirectoryWithNullDirectory() throws FileOperationException {
         fileOutputManager.validateOutputDirectory(null);
     }
-}
\ No newline at end of file
+
+    /**
+     * 测试计算输出文件路径时不创建目录
+     */
+    @Test
+    public void testResolveWatermarkFile() {
+        File source = new File(System.getProperty("java.io.tmpdir"), "resolve_parent" + File.separator + "photo.png");
+        File outputFile = fileOutputManager.resolveWatermarkFile(source.getPath());
+
+        assertEquals("输出文件名应正确", "photo_watermark.png", outputFile.getName());
+        assertEquals("输出目录名应正确", "resolve_parent_watermark", outputFile.getParentFile().getName());
+        assertFalse("不应创建输出目录", outputFile.getParentFile().exists());
+    }
+
+    /**
+     * 测试不同图片映射到同一输出文件时报错，同一图片再次准备输出文件时不报错
+     */
+    @Test
+    public void testOutputCollisionDetected() throws FileOperationException {
+        File fixedOutput = new File(System.getProperty("java.io.tmpdir"), "collision_watermark.jpg");
+        FileOutputManager collidingManager = new FileOutputManager() {
+            @Override
+            public File resolveWatermarkFile(String originalImagePath) {
+                return fixedOutput;
+            }
+        };
+        BatchContext context = new BatchContext(new MemoryAdmissionController(1024 * 1024));
+        context.setOutputSink(new MemorySink());
+
+        File first = new File(System.getProperty("java.io.tmpdir"), "a" + File.separator + "photo.jpg");
+        assertEquals(fixedOutput, context.prepareOutputFile(collidingManager, first.getPath()));
+        File sameImage = new File(first.getParentFile(), "." + File.separator + "photo.jpg");
+        assertEquals("同一图片应可再次使用自己的输出文件",
+                fixedOutput, context.prepareOutputFile(collidingManager, sameImage.getPath()));
+        try {
+            File other = new File(System.getProperty("java.io.tmpdir"), "b" + File.separator + "photo.jpg");
+            context.prepareOutputFile(collidingManager, other.getPath());
+            fail("不同图片映射到同一输出文件时应报错");
+        } catch (FileOperationException e) {
+            assertTrue("异常信息应包含冲突的输出文件", e.getMessage().contains(fixedOutput.getPath()));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.photowatermark;
+
+import com.photowatermark.util.ImageBufferPool;
+import com.photowatermark.util.ImageHeader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * ImageCodec类的单元测试
+ */
+public class ImageCodecTest {
+
+    private ImageCodec imageCodec;
+
+    @Before
+    public void setUp() {
+        imageCodec = new ImageCodec();
+    }
+
+    /**
+     * 测试根据扩展名确定输出格式
+     */
+    @Test
+    public void testGetFormatName() {
+        assertEquals("jpg", imageCodec.getFormatName(new File("a_watermark.JPEG")));
+        assertEquals("png", imageCodec.getFormatName(new File("a_watermark.png")));
+        assertEquals("无扩展名时应使用jpg", "jpg", imageCodec.getFormatName(new File("a_watermark")));
+    }
+
+    /**
+     * 测试带透明通道的图片编码为JPEG后可以正常解码
+     */
+    @Test
+    public void testEncodeAlphaImageAsJpeg() throws IOException {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+        byte[] data = imageCodec.encode(image, "jpg");
+
+        BufferedImage decoded = imageCodec.decode(data, "memory");
+        assertEquals("宽度应保持不变", 40, decoded.getWidth());
+        assertEquals("高度应保持不变", 30, decoded.getHeight());
+    }
+
+    /**
+     * 测试解码无效数据
+     */
+    @Test(expected = IOException.class)
+    public void testDecodeInvalidData() throws IOException {
+        imageCodec.decode(new byte[]{1, 2, 3, 4}, "invalid");
+    }
+
+    /**
+     * 测试使用缓冲池解码时复用缓冲区，且复用后的解码结果正确
+     */
+    @Test
+    public void testPooledDecodeReusesBuffers() throws IOException {
+        ImageBufferPool pool = new ImageBufferPool(64L * 1024 * 1024);
+        ImageCodec pooledCodec = new ImageCodec(pool);
+
+        byte[] red = imageCodec.encode(createFilledImage(Color.RED), "png");
+        byte[] blue = imageCodec.encode(createFilledImage(Color.BLUE), "png");
+
+        BufferedImage first = pooledCodec.decode(red, "red");
+        pooledCodec.release(first);
+        BufferedImage second = pooledCodec.decode(blue, "blue");
+
+        assertSame("相同尺寸和类型的图片应复用缓冲区", first, second);
+        assertEquals("应记录一次命中", 1, pool.getHitCount());
+        assertEquals("复用缓冲区后像素应被完整覆盖", Color.BLUE.getRGB(), second.getRGB(10, 10));
+    }
+
+    /**
+     * 测试按预览尺寸解码：PNG按采样间隔读取，缩小8倍以上的JPEG按1/8解码，都缩小到不超过预览尺寸
+     */
+    @Test
+    public void testDecodePreview() throws IOException {
+        byte[] png = imageCodec.encode(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB), "png");
+        ImageCodec.ScaledImage pngPreview = imageCodec.decodePreview(png, null, "png", 200);
+        assertEquals(200, pngPreview.getImage().getWidth());
+        assertEquals(150, pngPreview.getImage().getHeight());
+        assertEquals(0.25, pngPreview.getScale(), 1e-9);
+
+        byte[] jpeg = imageCodec.encode(createFilledImage(Color.BLUE, 1600, 1200), "jpg");
+        ImageCodec.ScaledImage jpegPreview = imageCodec.decodePreview(jpeg, ImageHeader.Format.JPEG, "jpeg", 150);
+        assertEquals(150, jpegPreview.getImage().getWidth());
+        assertEquals(113, jpegPreview.getImage().getHeight());
+        assertEquals(150.0 / 1600, jpegPreview.getScale(), 1e-9);
+        int rgb = jpegPreview.getImage().getRGB(75, 56);
+        assertTrue("颜色应保持不变", (rgb & 0xFF) > 240 && (rgb >> 16 & 0xFF) < 16);
+
+        ImageCodec.ScaledImage small = imageCodec.decodePreview(png, null, "png", 1000);
+        assertEquals("原图不大于预览尺寸时不应放大", 800, small.getImage().getWidth());
+        assertEquals(1.0, small.getScale(), 1e-9);
+    }
+
+    /**
+     * 测试按指定质量编码JPEG，质量越低数据越小
+     */
+    @Test
+    public void testEncodeWithQuality() throws IOException {
+        BufferedImage image = new BufferedImage(200, 150, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 150; y++) {
+            for (int x = 0; x < 200; x++) {
+                image.setRGB(x, y, (x * 7 ^ y * 13) & 0xFFFFFF);
+            }
+        }
+
+        byte[] high = imageCodec.encode(image, "jpg", 0.95f);
+        byte[] low = imageCodec.encode(image, "jpg", 0.3f);
+        assertTrue("低质量编码的数据应更小", low.length < high.length);
+        assertEquals(200, imageCodec.decode(low, "low").getWidth());
+    }
+
+    private BufferedImage createFilledImage(Color color) {
+        return createFilledImage(color, 32, 24);
+    }
+
+    private BufferedImage createFilledImage(Color color, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,195 @@
+package com.photowatermark;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * ImageFileDiscovery类的单元测试
+ */
+public class ImageFileDiscoveryTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("photowatermark_discovery_test_");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * 测试递归查找子目录中的图片，跳过水印输出目录和不支持的文件
+     */
+    @Test
+    public void testDiscoversImagesRecursively() throws IOException {
+        Path root = tempDir.resolve("photos");
+        Files.createDirectories(root.resolve("2023/summer"));
+        Files.createDirectories(root.resolve("2024"));
+        Files.createDirectories(root.resolve("photos_watermark"));
+
+        Set<String> expected = new HashSet<>();
+        expected.add(createFile(root.resolve("a.jpg")));
+        expected.add(createFile(root.resolve("2023/b.PNG")));
+        expected.add(createFile(root.resolve("2023/summer/c.jpeg")));
+        expected.add(createFile(root.resolve("2024/d.bmp")));
+        createFile(root.resolve("notes.txt"));
+        createFile(root.resolve("photos_watermark/a_watermark.jpg"));
+
+        try (ImageFileDiscovery discovery = new ImageFileDiscovery(Collections.singletonList(root.toString()), 2)) {
+            assertEquals("应找到所有子目录中的图片", expected, collect(discovery));
+            assertEquals(4, discovery.getDiscoveredCount());
+        }
+    }
+
+    /**
+     * 测试命令行直接给出的文件，不存在和不支持的文件被忽略并通知监听器
+     */
+    @Test
+    public void testExplicitFileArguments() throws IOException {
+        String image = createFile(tempDir.resolve("single.gif"));
+        String text = createFile(tempDir.resolve("readme.txt"));
+        String missing = tempDir.resolve("missing.jpg").toString();
+
+        try (ImageFileDiscovery discovery = new ImageFileDiscovery(Arrays.asList(image, text, missing))) {
+            List<String> rejected = Collections.synchronizedList(new ArrayList<>());
+            discovery.setRejectionListener((path, reason) -> rejected.add(reason + ": " + path));
+            List<String> found = new ArrayList<>();
+            discovery.forEach(found::add);
+            assertEquals("只应保留存在的图片文件", Collections.singletonList(image), found);
+            assertEquals("被忽略的路径应通知监听器",
+                    new HashSet<>(Arrays.asList("不支持的文件格式: " + text, "文件不存在: " + missing)),
+                    new HashSet<>(rejected));
+        }
+    }
+
+    /**
+     * 测试给出的路径统一为绝对路径，重复给出和同时在目录中找到的图片只给出一次
+     */
+    @Test
+    public void testPathsAreNormalizedAndDeduplicated() throws IOException {
+        Path root = tempDir.resolve("photos");
+        Files.createDirectories(root.resolve("sub"));
+        String image = createFile(root.resolve("a.jpg"));
+        String other = createFile(root.resolve("sub/b.png"));
+
+        List<String> arguments = Arrays.asList(root.resolve("sub/../a.jpg").toString(), image, root.toString(),
+                root.resolve("sub").toString(), root.resolve("./sub/..").toString());
+        try (ImageFileDiscovery discovery = new ImageFileDiscovery(arguments, 2)) {
+            List<String> found = new ArrayList<>();
+            discovery.forEach(found::add);
+            assertEquals("直接给出的文件应先给出，且为规范的绝对路径", image, found.get(0));
+            assertEquals("每个图片只应给出一次", 2, found.size());
+            assertEquals(new HashSet<>(Arrays.asList(image, other)), new HashSet<>(found));
+        }
+    }
+
+    /**
+     * 测试跟随指向目录的符号链接，链接形成的循环只遍历一次
+     */
+    @Test
+    public void testFollowsSymlinkedDirectories() throws IOException {
+        Path root = tempDir.resolve("photos");
+        Path shared = tempDir.resolve("shared");
+        Files.createDirectories(root);
+        Files.createDirectories(shared);
+        String image = createFile(root.resolve("a.jpg"));
+        try {
+            Files.createSymbolicLink(root.resolve("linked"), shared);
+            Files.createSymbolicLink(shared.resolve("loop"), root);
+        } catch (UnsupportedOperationException | IOException e) {
+            Assume.assumeNoException("文件系统不支持符号链接", e);
+        }
+        String linked = root.resolve("linked").resolve("b.jpg").toString();
+        createFile(shared.resolve("b.jpg"));
+
+        try (ImageFileDiscovery discovery = new ImageFileDiscovery(Collections.singletonList(root.toString()), 2)) {
+            assertEquals("应找到符号链接目录中的图片，循环不应重复遍历",
+                    new HashSet<>(Arrays.asList(image, linked)), collect(discovery));
+            assertEquals(2, discovery.getDiscoveredCount());
+        }
+    }
+
+    /**
+     * 测试每次迭代都重新遍历
+     */
+    @Test
+    public void testIterateTwice() throws IOException {
+        createFile(tempDir.resolve("a.jpg"));
+        createFile(tempDir.resolve("b.png"));
+
+        try (ImageFileDiscovery discovery = new ImageFileDiscovery(Collections.singletonList(tempDir.toString()))) {
+            assertEquals(2, collect(discovery).size());
+            assertEquals("第二次迭代应得到相同的结果", 2, collect(discovery).size());
+            assertEquals(4, discovery.getDiscoveredCount());
+        }
+    }
+
+    /**
+     * 测试未遍历完时关闭，迭代随即结束
+     */
+    @Test
+    public void testCloseStopsIteration() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            createFile(tempDir.resolve("image" + i + ".jpg"));
+        }
+
+        ImageFileDiscovery discovery = new ImageFileDiscovery(Collections.singletonList(tempDir.toString()));
+        Iterator<String> iterator = discovery.iterator();
+        assertTrue(iterator.hasNext());
+        iterator.next();
+        discovery.close();
+
+        int remaining = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            remaining++;
+        }
+        assertTrue("关闭后不应继续给出全部图片", remaining < 19);
+    }
+
+    /**
+     * 测试支持的图片扩展名判断
+     */
+    @Test
+    public void testIsSupportedImageName() {
+        assertTrue(ImageFileDiscovery.isSupportedImageName("photo.JPG"));
+        assertTrue(ImageFileDiscovery.isSupportedImageName("photo.gif"));
+        assertFalse(ImageFileDiscovery.isSupportedImageName("photo.txt"));
+        assertFalse(ImageFileDiscovery.isSupportedImageName(null));
+    }
+
+    private static String createFile(Path file) throws IOException {
+        Files.write(file, new byte[] {1});
+        return file.toAbsolutePath().toString();
+    }
+
+    private static Set<String> collect(ImageFileDiscovery discovery) {
+        Set<String> found = new HashSet<>();
+        for (String path : discovery) {
+            found.add(path);
+        }
+        return found;
+    }
+}
@@ -1,10 +1,32 @@
 package com.photowatermark;
 
+import com.photowatermark.pipeline.PipelineConfig;
+import com.photowatermark.sink.FileSystemSink;
+import com.photowatermark.sink.MemorySink;
+import com.photowatermark.util.OutputDurability;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -14,10 +36,42 @@ import static org.junit.Assert.*;
 public class ImageProcessorTest {
 
     private ImageProcessor imageProcessor;
+    private File tempDir;
 
     @Before
-    public void setUp() {
+    public void setUp() throws IOException {
         imageProcessor = new ImageProcessor();
+        tempDir = Files.createTempDirectory("photowatermark_processor_test_").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir);
+    }
+
+    /**
+     * 递归删除目录和文件
+     */
+    private void deleteRecursively(File file) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * 在临时目录中创建测试图片
+     */
+    private File createTestImage(String name, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        File file = new File(tempDir, name);
+        ImageIO.write(image, "jpg", file);
+        return file;
     }
 
     /**
@@ -70,4 +124,474 @@ public class ImageProcessorTest {
         assertTrue("应处理成功", result.isSuccess());
         assertEquals("消息应正确", "处理成功", result.getMessage());
     }
-}
\ No newline at end of file
+
+    /**
+     * 测试并行批量处理时结果顺序与输入顺序一致
+     */
+    @Test
+    public void testParallelProcessingPreservesOrder() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            imagePaths.add(createTestImage("image" + i + ".jpg", 64 + i * 8, 48).getAbsolutePath());
+        }
+        // 中间插入一个不存在的文件，验证失败结果也保持原位置
+        imagePaths.add(3, new File(tempDir, "missing.jpg").getAbsolutePath());
+
+        ConfigurationManager config = new ConfigurationManager();
+        config.setThreadCount(4);
+        List<ImageProcessor.ProcessResult> results = imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+
+        assertEquals("结果数量应与输入一致", imagePaths.size(), results.size());
+        for (int i = 0; i < imagePaths.size(); i++) {
+            assertEquals("结果顺序应与输入顺序一致", imagePaths.get(i), results.get(i).getImagePath());
+            assertEquals("只有不存在的文件应处理失败", i != 3, results.get(i).isSuccess());
+        }
+
+        File watermarkDir = new File(tempDir, tempDir.getName() + "_watermark");
+        assertTrue("应生成水印图片", new File(watermarkDir, "image0_watermark.jpg").exists());
+        assertTrue("应生成水印图片", new File(watermarkDir, "image5_watermark.jpg").exists());
+    }
+
+    /**
+     * 测试配置流水线后批量处理走流水线模式
+     */
+    @Test
+    public void testPipelineProcessing() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            imagePaths.add(createTestImage("pipe" + i + ".jpg", 64, 48).getAbsolutePath());
+        }
+
+        ConfigurationManager config = new ConfigurationManager();
+        config.setPipelineConfig(new PipelineConfig(2));
+        List<ImageProcessor.ProcessResult> results = imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+
+        assertEquals("结果数量应与输入一致", 3, results.size());
+        for (ImageProcessor.ProcessResult result : results) {
+            assertTrue("应处理成功", result.isSuccess());
+        }
+        File watermarkDir = new File(tempDir, tempDir.getName() + "_watermark");
+        assertTrue("应生成水印图片", new File(watermarkDir, "pipe2_watermark.jpg").exists());
+    }
+
+    /**
+     * 测试扩展名与内容不符的文件在读取文件头后即被拒绝，两种处理模式结果一致
+     */
+    @Test
+    public void testMislabelledFilesAreRejected() throws IOException {
+        File heic = new File(tempDir, "renamed.jpg");
+        Files.write(heic.toPath(), new byte[] {0, 0, 0, 24, 'f', 't', 'y', 'p', 'h', 'e', 'i', 'c', 0, 0, 0, 0});
+        File text = new File(tempDir, "notes.png");
+        Files.write(text.toPath(), "not an image".getBytes("UTF-8"));
+        File png = new File(tempDir, "real_png.jpg");
+        ImageIO.write(new BufferedImage(32, 24, BufferedImage.TYPE_INT_RGB), "png", png);
+
+        List<String> imagePaths = new ArrayList<>();
+        imagePaths.add(heic.getAbsolutePath());
+        imagePaths.add(text.getAbsolutePath());
+        imagePaths.add(png.getAbsolutePath());
+
+        ConfigurationManager pipelineConfig = new ConfigurationManager();
+        pipelineConfig.setPipelineConfig(new PipelineConfig(1));
+        for (ConfigurationManager config : new ConfigurationManager[] {new ConfigurationManager(), pipelineConfig}) {
+            List<ImageProcessor.ProcessResult> results = imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+
+            assertFalse("HEIC文件应被拒绝", results.get(0).isSuccess());
+            assertTrue("失败原因应说明实际格式", results.get(0).getMessage().contains("HEIF"));
+            assertFalse("文本文件应被拒绝", results.get(1).isSuccess());
+            assertTrue("扩展名不符但内容为PNG的图片应处理成功", results.get(2).isSuccess());
+        }
+    }
+
+    /**
+     * 测试启用虚拟线程的并行批量处理，不支持虚拟线程的运行环境回退为平台线程
+     */
+    @Test
+    public void testParallelProcessingWithVirtualThreads() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            imagePaths.add(createTestImage("virtual" + i + ".jpg", 64, 48).getAbsolutePath());
+        }
+
+        ConfigurationManager config = new ConfigurationManager();
+        config.setThreadCount(16);
+        config.setVirtualThreads(true);
+        List<ImageProcessor.ProcessResult> results = imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+
+        assertEquals("结果数量应与输入一致", imagePaths.size(), results.size());
+        for (int i = 0; i < imagePaths.size(); i++) {
+            assertEquals("结果顺序应与输入顺序一致", imagePaths.get(i), results.get(i).getImagePath());
+            assertTrue("应处理成功", results.get(i).isSuccess());
+        }
+    }
+
+    /**
+     * 测试流式处理只在订阅方请求后才取出新的图片，并在全部完成后发送完成信号
+     */
+    @Test
+    public void testPublishResultsRespectsDemand() throws Exception {
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            imagePaths.add(createTestImage("stream" + i + ".jpg", 64, 48).getAbsolutePath());
+        }
+        AtomicInteger pulled = new AtomicInteger();
+        Iterable<String> source = () -> new Iterator<String>() {
+            private final Iterator<String> delegate = imagePaths.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public String next() {
+                pulled.incrementAndGet();
+                return delegate.next();
+            }
+        };
+
+        ConfigurationManager config = new ConfigurationManager();
+        config.setThreadCount(4);
+        RecordingSubscriber subscriber = new RecordingSubscriber(2);
+        imageProcessor.publishResults(source, 12, "white", "bottom-right", config).subscribe(subscriber);
+
+        List<String> completedPaths = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            completedPaths.add(subscriber.takeResult().getImagePath());
+        }
+        assertEquals("未请求更多结果时不应取出新的图片", 2, pulled.get());
+
+        subscriber.subscription.request(10);
+        for (int i = 0; i < 3; i++) {
+            ImageProcessor.ProcessResult result = subscriber.takeResult();
+            assertTrue("应处理成功", result.isSuccess());
+            completedPaths.add(result.getImagePath());
+        }
+        assertTrue("应发送完成信号", subscriber.completed.await(30, TimeUnit.SECONDS));
+        assertNull("不应发送错误信号", subscriber.error.get());
+        assertEquals("每个图片应恰好发布一次结果", new HashSet<>(imagePaths), new HashSet<>(completedPaths));
+        assertEquals("结果数量应与输入一致", 5, completedPaths.size());
+    }
+
+    /**
+     * 测试请求数量不合法时发送错误信号
+     */
+    @Test
+    public void testPublishResultsRejectsNonPositiveRequest() throws Exception {
+        List<String> imagePaths = new ArrayList<>();
+        imagePaths.add(createTestImage("invalid_request.jpg", 64, 48).getAbsolutePath());
+
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        imageProcessor.publishResults(imagePaths, 12, "white", "bottom-right", new ConfigurationManager())
+                .subscribe(subscriber);
+
+        assertTrue("应发送错误信号", subscriber.completed.await(30, TimeUnit.SECONDS));
+        assertTrue("错误类型应为IllegalArgumentException", subscriber.error.get() instanceof IllegalArgumentException);
+    }
+
+    /**
+     * 测试从批处理日志恢复时跳过已完成的图片，逐图片处理和流水线处理行为一致
+     */
+    @Test
+    public void testResumeSkipsJournaledImages() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            imagePaths.add(createTestImage("journal" + i + ".jpg", 64, 48).getAbsolutePath());
+        }
+        File journalFile = new File(tempDir, "batch.journal");
+
+        ConfigurationManager config = new ConfigurationManager();
+        config.setJournalPath(journalFile.getAbsolutePath());
+        List<ImageProcessor.ProcessResult> firstRun =
+                imageProcessor.processImages(imagePaths.subList(0, 2), 12, "white", "bottom-right", config);
+        assertTrue(firstRun.get(0).isSuccess());
+        assertFalse("首次运行不应跳过", firstRun.get(0).isSkipped());
+
+        config.setResume(true);
+        List<ImageProcessor.ProcessResult> resumed =
+                imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+        assertTrue("日志中已完成的图片应跳过", resumed.get(0).isSkipped());
+        assertTrue("日志中已完成的图片应跳过", resumed.get(1).isSkipped());
+        assertFalse("未完成的图片应正常处理", resumed.get(2).isSkipped());
+        assertTrue(resumed.get(2).isSuccess());
+
+        config.setPipelineConfig(new PipelineConfig(2));
+        List<ImageProcessor.ProcessResult> pipelined =
+                imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+        for (ImageProcessor.ProcessResult result : pipelined) {
+            assertTrue("流水线模式下也应跳过全部已完成的图片", result.isSkipped());
+        }
+    }
+
+    /**
+     * 测试增量模式跳过输出已是最新的图片，源文件或水印设置变化后重新生成
+     */
+    @Test
+    public void testIncrementalSkipsUpToDateImages() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            imagePaths.add(createTestImage("incremental" + i + ".jpg", 64, 48).getAbsolutePath());
+        }
+
+        ConfigurationManager config = new ConfigurationManager();
+        config.setIncremental(true);
+        List<ImageProcessor.ProcessResult> firstRun =
+                imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+        assertFalse("首次运行应生成全部图片", firstRun.get(0).isSkipped() || firstRun.get(1).isSkipped());
+
+        List<ImageProcessor.ProcessResult> secondRun =
+                imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+        assertTrue("输出已是最新的图片应跳过", secondRun.get(0).isSkipped());
+        assertTrue("输出已是最新的图片应跳过", secondRun.get(1).isSkipped());
+
+        File changedSource = new File(imagePaths.get(1));
+        assertTrue(changedSource.setLastModified(changedSource.lastModified() - 60_000));
+        List<ImageProcessor.ProcessResult> afterTouch =
+                imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+        assertTrue("未变化的图片应跳过", afterTouch.get(0).isSkipped());
+        assertFalse("源文件变化的图片应重新生成", afterTouch.get(1).isSkipped());
+
+        config.setPipelineConfig(new PipelineConfig(2));
+        List<ImageProcessor.ProcessResult> newColor =
+                imageProcessor.processImages(imagePaths, 12, "red", "bottom-right", config);
+        assertFalse("水印设置变化后应重新生成", newColor.get(0).isSkipped());
+        assertTrue(newColor.get(0).isSuccess());
+    }
+
+    /**
+     * 测试批次结束时输出刷盘失败，不保存增量处理索引，下次运行不会跳过可能仍是旧内容的输出
+     */
+    @Test
+    public void testIncrementalIndexNotSavedWhenFlushFails() throws IOException {
+        List<String> imagePaths = Collections.singletonList(
+                createTestImage("flushfail.jpg", 64, 48).getAbsolutePath());
+        FileSystemSink failingSink = new FileSystemSink(OutputDurability.NONE) {
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("模拟刷盘失败");
+            }
+        };
+
+        ConfigurationManager config = new ConfigurationManager();
+        config.setIncremental(true);
+        config.setOutputSink(failingSink);
+        assertTrue(imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config).get(0).isSuccess());
+
+        config.setOutputSink(null);
+        assertFalse("刷盘失败的批次不应保存索引，下次应重新生成",
+                imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config).get(0).isSkipped());
+        assertTrue("刷盘成功后应保存索引",
+                imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config).get(0).isSkipped());
+    }
+
+    /**
+     * 测试预览模式按预览尺寸输出带_preview后缀的图片，两种处理模式结果一致
+     */
+    @Test
+    public void testPreviewProcessing() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        imagePaths.add(createTestImage("proof0.jpg", 640, 480).getAbsolutePath());
+        imagePaths.add(createTestImage("proof1.jpg", 60, 80).getAbsolutePath());
+
+        ConfigurationManager config = new ConfigurationManager();
+        config.setPreviewMaxEdge(100);
+        File watermarkDir = new File(tempDir, tempDir.getName() + "_watermark");
+        for (PipelineConfig pipelineConfig : new PipelineConfig[] {null, new PipelineConfig(2)}) {
+            config.setPipelineConfig(pipelineConfig);
+            List<ImageProcessor.ProcessResult> results =
+                    imageProcessor.processImages(imagePaths, 24, "white", "bottom-right", config);
+            assertTrue("应处理成功", results.get(0).isSuccess() && results.get(1).isSuccess());
+
+            BufferedImage proof = ImageIO.read(new File(watermarkDir, "proof0_preview.jpg"));
+            assertEquals("长边应缩小到预览尺寸", 100, proof.getWidth());
+            assertEquals(75, proof.getHeight());
+            BufferedImage small = ImageIO.read(new File(watermarkDir, "proof1_preview.jpg"));
+            assertEquals("小于预览尺寸的图片不应放大", 80, small.getHeight());
+            assertFalse("预览模式不应生成正式输出", new File(watermarkDir, "proof0_watermark.jpg").exists());
+            assertTrue(new File(watermarkDir, "proof0_preview.jpg").delete());
+        }
+    }
+
+    /**
+     * 测试一次处理按多个输出规格生成原尺寸、缩小和改变格式的输出，增量模式检查全部输出
+     */
+    @Test
+    public void testRenditions() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            imagePaths.add(createTestImage("multi" + i + ".jpg", 800, 600).getAbsolutePath());
+        }
+        File thumbDir = new File(tempDir, "thumbs");
+
+        ConfigurationManager config = new ConfigurationManager();
+        List<Rendition> renditions = new ArrayList<>();
+        renditions.add(Rendition.parse("edge=200,format=png,dir=" + thumbDir.getPath() + ",suffix=_thumb"));
+        renditions.add(Rendition.parse("edge=0"));
+        renditions.add(Rendition.parse("edge=400,quality=70"));
+        config.setRenditions(renditions);
+        config.setIncremental(true);
+        List<ImageProcessor.ProcessResult> results =
+                imageProcessor.processImages(imagePaths, 24, "white", "bottom-right", config);
+        assertTrue("应处理成功", results.get(0).isSuccess() && results.get(1).isSuccess());
+
+        File watermarkDir = new File(tempDir, tempDir.getName() + "_watermark");
+        assertEquals(800, ImageIO.read(new File(watermarkDir, "multi1_watermark.jpg")).getWidth());
+        assertEquals(400, ImageIO.read(new File(watermarkDir, "multi1_400.jpg")).getWidth());
+        FileOutputManager thumbOutput = renditions.get(0).getOutputManager();
+        File thumbFile = thumbOutput.resolveWatermarkFile(imagePaths.get(1));
+        assertEquals(thumbDir, thumbFile.getParentFile());
+        BufferedImage thumb = ImageIO.read(thumbFile);
+        assertEquals(200, thumb.getWidth());
+        assertEquals(150, thumb.getHeight());
+
+        assertTrue("全部输出已是最新时应跳过",
+                imageProcessor.processImages(imagePaths, 24, "white", "bottom-right", config).get(0).isSkipped());
+        File firstThumb = thumbOutput.resolveWatermarkFile(imagePaths.get(0));
+        assertTrue(firstThumb.delete());
+        List<ImageProcessor.ProcessResult> rerun =
+                imageProcessor.processImages(imagePaths, 24, "white", "bottom-right", config);
+        assertFalse("缺少任一输出时应重新生成", rerun.get(0).isSkipped());
+        assertTrue(rerun.get(1).isSkipped());
+        assertTrue(firstThumb.exists());
+    }
+
+    /**
+     * 测试不同目录中的同名图片输出到同一目录时各自使用由源目录确定的文件名，不互相覆盖；
+     * 文件名与处理顺序和是否跳过无关，增量模式下跳过的图片不会被其他图片占用文件名
+     */
+    @Test
+    public void testDeterministicOutputNames() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(new File(tempDir, "camera" + i).mkdir());
+            imagePaths.add(createTestImage("camera" + i + "/photo.jpg", 100 + i, 80).getAbsolutePath());
+        }
+        File sharedDir = new File(tempDir, "delivery");
+        Rendition rendition = Rendition.parse("edge=0,dir=" + sharedDir.getPath());
+
+        ConfigurationManager config = new ConfigurationManager();
+        config.setThreadCount(4);
+        config.setIncremental(true);
+        config.setRenditions(Collections.singletonList(rendition));
+        List<ImageProcessor.ProcessResult> results =
+                imageProcessor.processImages(imagePaths.subList(1, 4), 12, "white", "bottom-right", config);
+        for (ImageProcessor.ProcessResult result : results) {
+            assertTrue("应处理成功: " + result.getMessage(), result.isSuccess());
+        }
+
+        // 逆序处理全部图片，已处理的图片被跳过，新图片不应占用它们的文件名
+        List<String> reversed = new ArrayList<>(imagePaths);
+        Collections.reverse(reversed);
+        results = imageProcessor.processImages(reversed, 12, "white", "bottom-right", config);
+        assertFalse("新图片应被处理", results.get(3).isSkipped());
+        for (int i = 0; i < 3; i++) {
+            assertTrue("已处理的图片应被跳过", results.get(i).isSkipped());
+        }
+
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            File output = rendition.getOutputManager().resolveWatermarkFile(imagePaths.get(i));
+            assertEquals(sharedDir, output.getParentFile());
+            assertTrue("重名的输出应按源目录区分: " + output.getName(),
+                    output.getName().matches("photo_watermark_[0-9a-f]{8}\\.jpg"));
+            assertEquals("每个输出应对应各自的源图片", 100 + i, ImageIO.read(output).getWidth());
+            names.add(output.getName());
+        }
+        assertEquals("每张图片应各有一个输出", 4, names.size());
+        assertEquals("输出目录中只应有4个输出和索引文件", 5, sharedDir.list().length);
+    }
+
+    /**
+     * 测试调用方提供内存输出目标时，输出保存在内存中，不创建水印目录，流水线模式同样适用
+     */
+    @Test
+    public void testMemorySink() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            imagePaths.add(createTestImage("memory" + i + ".jpg", 320, 240).getAbsolutePath());
+        }
+
+        ConfigurationManager pipelineConfig = new ConfigurationManager();
+        pipelineConfig.setPipelineConfig(new PipelineConfig(2));
+        for (ConfigurationManager config : new ConfigurationManager[] {new ConfigurationManager(), pipelineConfig}) {
+            MemorySink sink = new MemorySink();
+            config.setOutputSink(sink);
+            config.setIncremental(true);
+            List<ImageProcessor.ProcessResult> results =
+                    imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+            for (ImageProcessor.ProcessResult result : results) {
+                assertTrue("应处理成功: " + result.getMessage(), result.isSuccess());
+            }
+
+            File watermarkDir = new File(tempDir, tempDir.getName() + "_watermark");
+            assertFalse("内存输出目标不应创建水印目录", watermarkDir.exists());
+            assertEquals(3, sink.size());
+            byte[] data = sink.get(new File(watermarkDir, "memory1_watermark.jpg"));
+            assertNotNull("输出应以输出文件路径为键", data);
+            assertEquals(320, ImageIO.read(new ByteArrayInputStream(data)).getWidth());
+        }
+    }
+
+    /**
+     * 测试不写出独立文件的输出目标不能与批处理日志同时使用
+     */
+    @Test
+    public void testJournalRejectedForMemorySink() throws IOException {
+        List<String> imagePaths = Collections.singletonList(
+                createTestImage("journalmemory.jpg", 64, 48).getAbsolutePath());
+        File journalFile = new File(tempDir, "memory.journal");
+
+        ConfigurationManager config = new ConfigurationManager();
+        config.setOutputSink(new MemorySink());
+        config.setJournalPath(journalFile.getAbsolutePath());
+        try {
+            imageProcessor.processImages(imagePaths, 12, "white", "bottom-right", config);
+            fail("内存输出目标与批处理日志同时使用时应抛出异常");
+        } catch (IllegalArgumentException e) {
+            assertFalse("拒绝时不应创建批处理日志", journalFile.exists());
+        }
+    }
+
+    /**
+     * 记录收到的信号的订阅者
+     */
+    private static class RecordingSubscriber implements Flow.Subscriber<ImageProcessor.ProcessResult> {
+        private final long initialRequest;
+        private final BlockingQueue<ImageProcessor.ProcessResult> results = new LinkedBlockingQueue<>();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        ImageProcessor.ProcessResult takeResult() throws InterruptedException {
+            ImageProcessor.ProcessResult result = results.poll(30, TimeUnit.SECONDS);
+            assertNotNull("应在超时前收到处理结果", result);
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(ImageProcessor.ProcessResult result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.photowatermark;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rendition类的单元测试
+ */
+public class RenditionTest {
+
+    /**
+     * 测试解析输出规格，省略的键使用默认值
+     */
+    @Test
+    public void testParse() {
+        Rendition web = Rendition.parse("edge=2048, format=JPEG, quality=85, dir=/out/web, suffix=_web");
+        assertEquals(2048, web.getMaxEdge());
+        assertEquals("格式名称应统一为jpg", "jpg", web.getFormatName());
+        assertEquals(0.85f, web.getQuality(), 1e-6f);
+        assertEquals(new File("/out/web"), web.getOutputDirectory());
+        assertEquals("_web", web.getFileNameSuffix());
+
+        Rendition master = Rendition.parse("edge=0");
+        assertTrue(master.isFullSize());
+        assertNull("未指定格式时与源文件相同", master.getFormatName());
+        assertTrue("未指定质量时使用编码器默认值", master.getQuality() < 0);
+        assertEquals(FileOutputManager.WATERMARK_FILE_SUFFIX, master.getFileNameSuffix());
+        assertEquals("缩小的规格默认以长边像素数为后缀", "_400", Rendition.parse("edge=400").getFileNameSuffix());
+
+        assertEquals("规格字符串应可重新解析", web.toString(), Rendition.parse(web.toString()).toString());
+    }
+
+    /**
+     * 测试无效的输出规格
+     */
+    @Test
+    public void testParseRejectsInvalidSpecs() {
+        for (String spec : new String[] {"", "edge", "edge=-1", "edge=abc", "quality=0", "quality=101", "size=10"}) {
+            try {
+                Rendition.parse(spec);
+                fail("应拒绝无效的输出规格: " + spec);
+            } catch (IllegalArgumentException e) {
+                // 预期的异常
+            }
+        }
+    }
+
+    /**
+     * 测试输出文件使用规格的目录、后缀和格式扩展名
+     */
+    @Test
+    public void testOutputFile() {
+        File source = new File("/photos/trip/beach.jpg");
+        assertEquals(new File("/photos/trip/trip_watermark/beach_watermark.jpg"),
+                Rendition.parse("edge=0").getOutputManager().resolveWatermarkFile(source.getPath()));
+        File thumb = Rendition.parse("edge=400,format=png,dir=/out/thumbs,suffix=_thumb").getOutputManager()
+                .resolveWatermarkFile(source.getPath());
+        assertEquals(new File("/out/thumbs"), thumb.getParentFile());
+        assertTrue("指定输出目录时应加入源目录的哈希: " + thumb.getName(),
+                thumb.getName().matches("beach_thumb_[0-9a-f]{8}\\.png"));
+    }
+}
@@ -1,8 +1,10 @@
 package com.photowatermark;
 
+import com.photowatermark.util.WatermarkOverlayCache;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 
@@ -66,5 +68,21 @@ public class WatermarkProcessorTest {
         watermarkProcessor.addTextWatermark(originalImage, "Test Watermark", 20, "white", "bottom-right", null);
     }
 
+    /**
+     * 测试相同水印文本和样式的图层从缓存中复用
+     */
+    @Test
+    public void testApplyWatermarkReusesCachedOverlay() throws IOException {
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+
+        watermarkProcessor.applyWatermark(image, "2023:06:01 10:00:00", 12, "white", "bottom-right");
+        watermarkProcessor.applyWatermark(image, "2023:06:01 10:00:00", 12, "white", "top-left");
+        watermarkProcessor.applyWatermark(image, "2023:06:01 10:00:00", 12, "red", "bottom-right");
+
+        WatermarkOverlayCache cache = watermarkProcessor.getOverlayCache();
+        assertEquals("位置不同但样式相同时应命中缓存", 1, cache.getHitCount());
+        assertEquals("颜色不同时应重新渲染", 2, cache.getMissCount());
+    }
+
     // TODO: 添加更多测试用例，包括使用真实图片文件的测试
 }
\ No newline at end of file
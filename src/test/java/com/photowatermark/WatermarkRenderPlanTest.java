@@ -0,0 +1,120 @@
+package com.photowatermark;
+
+import net.coobird.thumbnailator.geometry.Positions;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+/**
+ * WatermarkRenderPlan类的单元测试
+ */
+public class WatermarkRenderPlanTest {
+
+    /**
+     * 测试编译时解析字体、颜色和位置
+     */
+    @Test
+    public void testCompile() {
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(24, "red", "top-left");
+
+        assertEquals(24, plan.getFontSize());
+        assertEquals(24, plan.getFont().getSize());
+        assertEquals(Font.BOLD, plan.getFont().getStyle());
+        assertEquals(Color.RED, plan.getColor());
+        assertEquals(Positions.TOP_LEFT, plan.getAnchor());
+        assertEquals(0.5f, plan.getOpacity(), 0.0001f);
+        assertEquals("字体度量应使用计划中的字体", plan.getFont(), plan.getFontMetrics().getFont());
+    }
+
+    /**
+     * 测试十六进制颜色、大写参数和无效参数的处理
+     */
+    @Test
+    public void testCompileParsesVariants() {
+        assertEquals(new Color(0x12, 0x34, 0x56), WatermarkRenderPlan.compile(20, "#123456", "center").getColor());
+        assertEquals(Positions.BOTTOM_CENTER, WatermarkRenderPlan.compile(20, "white", "BOTTOM").getAnchor());
+        assertEquals("无效颜色应使用白色", Color.WHITE, WatermarkRenderPlan.compile(20, "#12345G", null).getColor());
+        assertEquals("未指定位置应使用右下角", Positions.BOTTOM_RIGHT, WatermarkRenderPlan.compile(20, null, null).getAnchor());
+    }
+
+    /**
+     * 测试水印图层尺寸包含边距，渲染提示不会被外部修改
+     */
+    @Test
+    public void testOverlaySizeAndHints() {
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(20, "white", "bottom-right");
+
+        int textWidth = plan.getFontMetrics().stringWidth("2023:06:01 10:00:00");
+        assertEquals(textWidth + 20, plan.getOverlayWidth("2023:06:01 10:00:00"));
+        assertEquals(plan.getFontMetrics().getHeight() + 20, plan.getOverlayHeight());
+
+        RenderingHints hints = plan.getRenderingHints();
+        assertEquals(RenderingHints.VALUE_TEXT_ANTIALIAS_ON, hints.get(RenderingHints.KEY_TEXT_ANTIALIASING));
+        hints.clear();
+        assertFalse("修改返回的副本不应影响计划", plan.getRenderingHints().isEmpty());
+    }
+
+    /**
+     * 测试从配置编译渲染计划
+     */
+    @Test
+    public void testCompileFromConfiguration() {
+        ConfigurationManager config = new ConfigurationManager(30, "blue", "center");
+        WatermarkRenderPlan plan = config.compileRenderPlan();
+
+        assertEquals(30, plan.getFontSize());
+        assertEquals(Color.BLUE, plan.getColor());
+        assertEquals(Positions.CENTER, plan.getAnchor());
+    }
+
+    /**
+     * 测试创建的水印图层与直接用drawText绘制的结果相同，包括字形图集不支持的文本
+     */
+    @Test
+    public void testCreateOverlayMatchesDrawText() {
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(36, "#FF8800", "bottom-right");
+        for (String text : new String[] {"2023-06-01 10:00:00", "拍摄于 2023-06-01"}) {
+            BufferedImage expected = new BufferedImage(plan.getOverlayWidth(text), plan.getOverlayHeight(),
+                    BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = expected.createGraphics();
+            plan.drawText(graphics, text);
+            graphics.dispose();
+
+            BufferedImage actual = plan.createOverlay(text);
+            assertEquals(BufferedImage.TYPE_INT_ARGB, actual.getType());
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    assertEquals(text + " 像素 (" + x + "," + y + ")", expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        }
+        assertTrue("时间文本应通过字形图集绘制", plan.getGlyphAtlas().getGlyphCount() > 0);
+    }
+
+    /**
+     * 测试预览计划按缩放比例缩小字体，字体不小于最小值，相同字体大小的计划被复用
+     */
+    @Test
+    public void testForPreviewScale() {
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(40, "#FF8800", "top-left").withPreview(512);
+        assertTrue(plan.isPreview());
+        assertFalse(plan.withPreview(0).isPreview());
+
+        WatermarkRenderPlan scaled = plan.forScale(0.25);
+        assertEquals(10, scaled.getFontSize());
+        assertEquals(plan.getColor(), scaled.getColor());
+        assertEquals(plan.getAnchor(), scaled.getAnchor());
+        assertEquals(512, scaled.getPreviewMaxEdge());
+        assertSame("相同字体大小的计划应复用", scaled, plan.forScale(0.26));
+
+        assertEquals("字体不应小于最小值", WatermarkRenderPlan.MIN_PREVIEW_FONT_SIZE,
+                plan.forScale(0.01).getFontSize());
+        assertSame("未缩小时应返回本计划", plan, plan.forScale(1.0));
+    }
+}
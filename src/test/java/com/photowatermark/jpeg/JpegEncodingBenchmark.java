@@ -0,0 +1,99 @@
+package com.photowatermark.jpeg;
+
+import com.photowatermark.ImageCodec;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * JPEG编码预设性能对比，模拟常见的2400万像素照片，比较各预设的编码耗时和输出文件大小
+ * 耗时较长，默认跳过，通过以下命令运行:
+ * mvn test -Dtest=JpegEncodingBenchmark -Dbenchmark=true
+ */
+public class JpegEncodingBenchmark {
+
+    // 2400万像素，3:2画幅
+    private static final int WIDTH = 6000;
+    private static final int HEIGHT = 4000;
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 5;
+
+    private BufferedImage image;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("未指定 -Dbenchmark=true，跳过性能对比", Boolean.getBoolean("benchmark"));
+        image = createPhoto();
+    }
+
+    /**
+     * 比较各预设编码同一张照片的平均耗时和文件大小
+     */
+    @Test
+    public void comparePresets() throws IOException {
+        ImageCodec codec = new ImageCodec();
+        JpegEncoding[] encodings = {
+            JpegEncoding.DEFAULT,
+            JpegEncoding.BALANCED,
+            JpegEncoding.ARCHIVE,
+            // 与default相同的质量，分别比较优化Huffman表和渐进式编码对文件大小的影响
+            JpegEncoding.parse("preset=default,optimize=true"),
+            JpegEncoding.parse("preset=default,progressive=true,optimize=true"),
+            JpegEncoding.parse("preset=archive,subsampling=444")
+        };
+        for (JpegEncoding encoding : encodings) {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                codec.encode(image, "jpg", encoding);
+            }
+
+            int size = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                size = codec.encode(image, "jpg", encoding).length;
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+            System.out.printf("%-70s 编码: %7.1f ms  %6.1f 百万像素/秒  大小: %6d KB%n", encoding, millis,
+                    WIDTH * (double) HEIGHT / 1000 / millis, size / 1024);
+        }
+    }
+
+    /**
+     * 创建带渐变和细节纹理的照片，纯渐变的压缩率与真实照片相差太大
+     */
+    private static BufferedImage createPhoto() {
+        BufferedImage photo = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = photo.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(30, 80, 160), WIDTH, HEIGHT, new Color(220, 180, 90)));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        Random random = new Random(42);
+        for (int i = 0; i < 4000; i++) {
+            graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            graphics.fillOval(random.nextInt(WIDTH), random.nextInt(HEIGHT), 10 + random.nextInt(200),
+                    10 + random.nextInt(200));
+        }
+        graphics.dispose();
+
+        // 叠加亮度噪点，模拟传感器噪声和细节
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int noise = random.nextInt(24) - 12;
+                int rgb = photo.getRGB(x, y);
+                photo.setRGB(x, y, clamp((rgb >> 16 & 0xFF) + noise) << 16 | clamp((rgb >> 8 & 0xFF) + noise) << 8
+                        | clamp((rgb & 0xFF) + noise));
+            }
+        }
+        return photo;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
@@ -0,0 +1,149 @@
+package com.photowatermark.jpeg;
+
+import com.photowatermark.ImageCodec;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * JpegEncoding类的单元测试
+ */
+public class JpegEncodingTest {
+
+    /**
+     * 测试解析预设名称和覆盖预设的键值对，规格字符串可以重新解析
+     */
+    @Test
+    public void testParse() {
+        assertSame(JpegEncoding.ARCHIVE, JpegEncoding.parse("archive"));
+        assertSame("预设名称不区分大小写", JpegEncoding.BALANCED, JpegEncoding.parse(" Balanced "));
+        assertTrue(JpegEncoding.DEFAULT.isDefault());
+        assertFalse(JpegEncoding.BALANCED.isDefault());
+
+        JpegEncoding encoding = JpegEncoding.parse("preset=default,quality=90,optimize=true,subsampling=444");
+        assertEquals("default", encoding.getPresetName());
+        assertEquals(0.9f, encoding.getQuality(), 1e-6);
+        assertFalse("未覆盖的设置应沿用预设", encoding.isProgressive());
+        assertTrue(encoding.isOptimizeHuffman());
+        assertEquals(JpegEncoding.ChromaSubsampling.S444, encoding.getSubsampling());
+
+        JpegEncoding reparsed = JpegEncoding.parse(encoding.toString());
+        assertEquals(encoding.toString(), reparsed.toString());
+        assertEquals("相同设置应生成相同的规格字符串", JpegEncoding.ARCHIVE.toString(),
+                JpegEncoding.parse(JpegEncoding.ARCHIVE.toString()).toString());
+
+        for (String invalid : new String[] {"", "ultra", "quality=0", "quality=abc", "progressive=maybe",
+                "subsampling=411", "speed=1", "fast", "preset=default,quality"}) {
+            try {
+                JpegEncoding.parse(invalid);
+                fail("无效的设置应抛出异常: " + invalid);
+            } catch (IllegalArgumentException e) {
+                // 预期的异常
+            }
+        }
+    }
+
+    /**
+     * 测试色度子采样写入帧头的采样因子，灰度图片不受影响
+     */
+    @Test
+    public void testChromaSubsampling() throws IOException {
+        ImageCodec codec = new ImageCodec();
+        BufferedImage photo = createPhoto(BufferedImage.TYPE_3BYTE_BGR, 160, 120);
+        String[][] cases = {{"444", "1", "1"}, {"422", "2", "1"}, {"420", "2", "2"}};
+        for (String[] expected : cases) {
+            byte[] jpeg = codec.encode(photo, "jpg", JpegEncoding.parse("preset=default,subsampling=" + expected[0]));
+            JpegFrame frame = JpegCoefficientReader.read(jpeg);
+            assertNotNull(frame);
+            assertEquals("亮度水平采样因子: " + expected[0], Integer.parseInt(expected[1]),
+                    frame.components[0].horizontalSampling);
+            assertEquals("亮度垂直采样因子: " + expected[0], Integer.parseInt(expected[2]),
+                    frame.components[0].verticalSampling);
+            for (int c = 1; c < frame.components.length; c++) {
+                assertEquals("色度分量不应上采样", 1, frame.components[c].horizontalSampling);
+                assertEquals("色度分量不应上采样", 1, frame.components[c].verticalSampling);
+            }
+            assertEquals(160, ImageIO.read(new ByteArrayInputStream(jpeg)).getWidth());
+        }
+
+        BufferedImage gray = createPhoto(BufferedImage.TYPE_BYTE_GRAY, 160, 120);
+        byte[] jpeg = codec.encode(gray, "jpg", JpegEncoding.parse("preset=default,subsampling=444"));
+        assertEquals("灰度图片只有一个分量", 1, JpegCoefficientReader.read(jpeg).components.length);
+    }
+
+    /**
+     * 测试渐进式编码写出SOF2帧，优化Huffman表在相同质量下减小文件，像素不变
+     */
+    @Test
+    public void testProgressiveAndOptimizedHuffman() throws IOException {
+        ImageCodec codec = new ImageCodec();
+        BufferedImage photo = createPhoto(BufferedImage.TYPE_3BYTE_BGR, 320, 240);
+
+        byte[] baseline = codec.encode(photo, "jpg", JpegEncoding.DEFAULT);
+        byte[] optimized = codec.encode(photo, "jpg", JpegEncoding.parse("preset=default,optimize=true"));
+        byte[] progressive = codec.encode(photo, "jpg", JpegEncoding.parse("preset=default,progressive=true"));
+
+        assertTrue("基线编码应写出SOF0帧", containsMarker(baseline, 0xC0));
+        assertTrue("渐进式编码应写出SOF2帧", containsMarker(progressive, 0xC2));
+        assertFalse("渐进式编码不应写出SOF0帧", containsMarker(progressive, 0xC0));
+        assertTrue("优化的Huffman表应减小文件", optimized.length < baseline.length);
+
+        // Huffman表只影响熵编码，解码后的像素相同
+        BufferedImage expected = ImageIO.read(new ByteArrayInputStream(baseline));
+        BufferedImage actual = ImageIO.read(new ByteArrayInputStream(optimized));
+        assertArrayEquals(expected.getRGB(0, 0, 320, 240, null, 0, 320), actual.getRGB(0, 0, 320, 240, null, 0, 320));
+
+        assertArrayEquals("默认设置应与未指定设置时的输出相同", codec.encode(photo, "jpg"),
+                codec.encode(photo, "jpg", JpegEncoding.DEFAULT));
+        assertTrue("质量参数应覆盖预设的质量", codec.encode(photo, "jpg", 0.3f, JpegEncoding.ARCHIVE).length
+                < codec.encode(photo, "jpg", JpegEncoding.ARCHIVE).length);
+        assertTrue("非JPEG输出不应使用JPEG编码设置", Arrays.equals(codec.encode(photo, "png"),
+                codec.encode(photo, "png", JpegEncoding.ARCHIVE)));
+    }
+
+    /**
+     * 在帧头之前的标记段中查找指定的标记
+     */
+    private static boolean containsMarker(byte[] jpeg, int marker) {
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xFF) == 0xFF) {
+            int type = jpeg[offset + 1] & 0xFF;
+            if (type == marker) {
+                return true;
+            }
+            if (type == 0xDA) {
+                return false;
+            }
+            offset += 2 + ((jpeg[offset + 2] & 0xFF) << 8 | (jpeg[offset + 3] & 0xFF));
+        }
+        return false;
+    }
+
+    private static BufferedImage createPhoto(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(30, 80, 160), width, height, new Color(220, 180, 90)));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(new Color(240, 40, 40));
+        graphics.fillOval(width / 4, height / 4, width / 2, height / 2);
+        graphics.dispose();
+
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, image.getRGB(x, y) ^ (random.nextInt(8) * 0x010101));
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,318 @@
+package com.photowatermark.jpeg;
+
+import com.photowatermark.WatermarkRenderPlan;
+import com.photowatermark.render.RenderingBackend;
+import net.coobird.thumbnailator.geometry.Positions;
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * JpegMcuTranscoder类的单元测试
+ */
+public class JpegMcuTranscoderTest {
+
+    private static final String TEXT = "2023-06-01 10:00:00";
+
+    /**
+     * 测试只有水印覆盖的MCU被重新编码，其余系数保持不变，水印区域与完整重新编码的结果接近
+     */
+    @Test
+    public void testOnlyWatermarkedMcusChange() throws IOException {
+        byte[] source = encode(createPhoto(BufferedImage.TYPE_3BYTE_BGR, 331, 247), null);
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(24, "white", "bottom-right");
+        BufferedImage overlay = plan.createOverlay(TEXT);
+
+        byte[] output = JpegMcuTranscoder.watermark(source, overlay, plan.getAnchor(), plan.getOpacity(),
+                plan.getBackend());
+        assertNotNull("基线JPEG应支持只重新编码部分MCU", output);
+
+        JpegFrame before = JpegCoefficientReader.read(source);
+        JpegFrame after = JpegCoefficientReader.read(output);
+        Point origin = plan.getAnchor().calculate(331, 247, overlay.getWidth(), overlay.getHeight(), 0, 0, 0, 0);
+        int changedBlocks = 0;
+        for (int c = 0; c < before.components.length; c++) {
+            JpegFrame.Component original = before.components[c];
+            JpegFrame.Component watermarked = after.components[c];
+            int blockWidth = 8 * before.maxHorizontalSampling / original.horizontalSampling;
+            int blockHeight = 8 * before.maxVerticalSampling / original.verticalSampling;
+            for (int row = 0; row < original.blocksPerColumn; row++) {
+                for (int column = 0; column < original.blocksPerLine; column++) {
+                    int offset = original.blockOffset(row, column);
+                    boolean same = true;
+                    for (int k = 0; k < 64; k++) {
+                        same &= original.coefficients[offset + k] == watermarked.coefficients[offset + k];
+                    }
+                    if (!same) {
+                        changedBlocks++;
+                        // 变化的块必须与水印图层相交
+                        assertTrue("水印以外的块不应变化: 分量 " + c + " 块 " + row + "," + column,
+                                (column + 1) * blockWidth > origin.x && (row + 1) * blockHeight > origin.y);
+                    }
+                }
+            }
+        }
+        assertTrue("水印覆盖的块应重新编码", changedBlocks > 0);
+
+        // 水印区域与解码后直接合成的结果接近
+        BufferedImage expected = ImageIO.read(new ByteArrayInputStream(source));
+        plan.getBackend().composite(expected, overlay, plan.getAnchor(), plan.getOpacity());
+        BufferedImage actual = ImageIO.read(new ByteArrayInputStream(output));
+        assertEquals(331, actual.getWidth());
+        assertEquals(247, actual.getHeight());
+        assertTrue("水印区域的平均误差应很小",
+                meanDifference(expected, actual, origin.x, origin.y, overlay.getWidth(), overlay.getHeight()) < 4);
+    }
+
+    /**
+     * 测试水印完全透明时输出的系数与源文件完全相同
+     */
+    @Test
+    public void testTransparentOverlayIsLossless() throws IOException {
+        byte[] source = encode(createPhoto(BufferedImage.TYPE_3BYTE_BGR, 200, 120), null);
+        BufferedImage overlay = new BufferedImage(50, 20, BufferedImage.TYPE_INT_ARGB);
+
+        byte[] output = JpegMcuTranscoder.watermark(source, overlay, Positions.CENTER, 0.5f,
+                RenderingBackend.forName(null));
+
+        assertSameCoefficients(JpegCoefficientReader.read(source), JpegCoefficientReader.read(output));
+        assertSamePixels(ImageIO.read(new ByteArrayInputStream(source)), ImageIO.read(new ByteArrayInputStream(output)));
+    }
+
+    /**
+     * 测试未修改的MCU直接复制源文件的熵编码数据
+     */
+    @Test
+    public void testUntouchedEntropyDataIsCopied() throws IOException {
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(20, "white", "bottom-right");
+        for (Integer restartInterval : new Integer[] {null, 5}) {
+            byte[] source = encode(createPhoto(BufferedImage.TYPE_3BYTE_BGR, 320, 200), restartInterval);
+            JpegFrame.Scan original = JpegCoefficientReader.read(source).scan;
+            assertNotNull("单个扫描的JPEG应保留熵编码数据", original);
+
+            BufferedImage transparent = new BufferedImage(50, 20, BufferedImage.TYPE_INT_ARGB);
+            JpegFrame.Scan copied = JpegCoefficientReader.read(JpegMcuTranscoder.watermark(source, transparent,
+                    Positions.CENTER, 0.5f, RenderingBackend.forName(null))).scan;
+            assertEquals("水印透明时熵编码数据应原样复制", original.intervalEnds[original.intervalEnds.length - 1],
+                    copied.intervalEnds[copied.intervalEnds.length - 1]);
+            assertArrayEquals(original.unitPositions, copied.unitPositions);
+
+            // 水印在右下角，第一行MCU的熵编码数据应与源文件相同
+            JpegFrame.Scan watermarked = JpegCoefficientReader.read(JpegMcuTranscoder.watermark(source,
+                    plan.createOverlay(TEXT), plan.getAnchor(), plan.getOpacity(), plan.getBackend())).scan;
+            int firstRowEnd = (int) (original.unitPositions[20] / 8);
+            for (int i = 0; i < firstRowEnd; i++) {
+                assertEquals("字节 " + i, original.data[i], watermarked.data[i]);
+            }
+        }
+    }
+
+    /**
+     * 测试全部系数重新做霍夫曼编码时系数保持不变
+     */
+    @Test
+    public void testFullReencodePreservesCoefficients() throws IOException {
+        for (int type : new int[] {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_3BYTE_BGR}) {
+            byte[] source = encode(createPhoto(type, 150, 90), 2);
+            JpegFrame frame = JpegCoefficientReader.read(source);
+            byte[] output = JpegCoefficientWriter.write(frame, source.length);
+
+            JpegFrame reencoded = JpegCoefficientReader.read(output);
+            assertSameCoefficients(frame, reencoded);
+            assertEquals("不应使用重启间隔", 1, reencoded.scan.intervalEnds.length);
+            assertSamePixels(ImageIO.read(new ByteArrayInputStream(source)),
+                    ImageIO.read(new ByteArrayInputStream(output)));
+        }
+    }
+
+    /**
+     * 测试灰度图片和带重启间隔的图片
+     */
+    @Test
+    public void testGrayscaleAndRestartIntervals() throws IOException {
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(20, "white", "top-left");
+        BufferedImage overlay = plan.createOverlay(TEXT);
+        for (int type : new int[] {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_3BYTE_BGR}) {
+            for (Integer restartInterval : new Integer[] {null, 3}) {
+                byte[] source = encode(createPhoto(type, 300, 100), restartInterval);
+                byte[] output = JpegMcuTranscoder.watermark(source, overlay, plan.getAnchor(), plan.getOpacity(),
+                        plan.getBackend());
+                assertNotNull(output);
+
+                BufferedImage original = ImageIO.read(new ByteArrayInputStream(source));
+                BufferedImage watermarked = ImageIO.read(new ByteArrayInputStream(output));
+                // 水印在左上角，右下部分应与源图片完全相同
+                for (int y = 64; y < 100; y++) {
+                    for (int x = 0; x < 300; x++) {
+                        assertEquals("类型 " + type + " 像素 (" + x + "," + y + ")",
+                                original.getRGB(x, y), watermarked.getRGB(x, y));
+                    }
+                }
+                assertNotEquals("水印区域应有变化", original.getRGB(15, 18), watermarked.getRGB(15, 18));
+            }
+        }
+    }
+
+    /**
+     * 测试不支持的JPEG返回null
+     */
+    @Test
+    public void testUnsupportedJpeg() throws IOException {
+        BufferedImage overlay = WatermarkRenderPlan.compile(20, "white", "center").createOverlay(TEXT);
+        BufferedImage photo = createPhoto(BufferedImage.TYPE_3BYTE_BGR, 160, 120);
+
+        ByteArrayOutputStream progressive = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(progressive)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.write(null, new IIOImage(photo, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        assertNull("渐进式JPEG不支持", JpegMcuTranscoder.watermark(progressive.toByteArray(), overlay,
+                Positions.CENTER, 0.5f, RenderingBackend.forName(null)));
+
+        byte[] rotated = insertExifOrientation(encode(photo, null), 6);
+        assertNull("需要按EXIF方向旋转的JPEG不支持", JpegMcuTranscoder.watermark(rotated, overlay,
+                Positions.CENTER, 0.5f, RenderingBackend.forName(null)));
+        assertNotNull("正常方向的JPEG应支持", JpegMcuTranscoder.watermark(insertExifOrientation(encode(photo, null), 1),
+                overlay, Positions.CENTER, 0.5f, RenderingBackend.forName(null)));
+    }
+
+    /**
+     * 测试DCT正反变换互逆
+     */
+    @Test
+    public void testDctRoundTrip() {
+        Random random = new Random(1);
+        double[] block = new double[64];
+        double[] original = new double[64];
+        for (int i = 0; i < 64; i++) {
+            original[i] = block[i] = random.nextInt(256) - 128;
+        }
+        JpegMcuTranscoder.forwardDct(block);
+        assertEquals("直流系数为平均值的8倍", sum(original) / 8, block[0], 1e-9);
+        JpegMcuTranscoder.inverseDct(block);
+        assertArrayEquals(original, block, 1e-9);
+    }
+
+    private static double sum(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static BufferedImage createPhoto(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(30, 80, 160), width, height, new Color(220, 180, 90)));
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+
+        Random random = new Random(42);
+        for (int i = 0; i < width * height / 20; i++) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt());
+        }
+        return image;
+    }
+
+    /**
+     * 编码为基线JPEG，可指定重启间隔
+     */
+    private static byte[] encode(BufferedImage image, Integer restartInterval) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+            if (restartInterval != null) {
+                String format = metadata.getNativeMetadataFormatName();
+                IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+                IIOMetadataNode markerSequence = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+                IIOMetadataNode dri = new IIOMetadataNode("dri");
+                dri.setAttribute("interval", String.valueOf(restartInterval));
+                markerSequence.insertBefore(dri, markerSequence.getFirstChild());
+                metadata.setFromTree(format, root);
+            }
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * 在SOI之后插入只包含方向标签的EXIF段
+     */
+    private static byte[] insertExifOrientation(byte[] jpeg, int orientation) {
+        byte[] exif = {
+            (byte) 0xFF, (byte) 0xE1, 0, 34,
+            'E', 'x', 'i', 'f', 0, 0,
+            'I', 'I', 0x2A, 0, 8, 0, 0, 0,
+            1, 0,
+            0x12, 0x01, 3, 0, 1, 0, 0, 0, (byte) orientation, 0, 0, 0,
+            0, 0, 0, 0
+        };
+        byte[] result = new byte[jpeg.length + exif.length];
+        System.arraycopy(jpeg, 0, result, 0, 2);
+        System.arraycopy(exif, 0, result, 2, exif.length);
+        System.arraycopy(jpeg, 2, result, 2 + exif.length, jpeg.length - 2);
+        return result;
+    }
+
+    private static double meanDifference(BufferedImage expected, BufferedImage actual, int x0, int y0, int width,
+                                         int height) {
+        long total = 0;
+        int count = 0;
+        for (int y = Math.max(0, y0); y < Math.min(expected.getHeight(), y0 + height); y++) {
+            for (int x = Math.max(0, x0); x < Math.min(expected.getWidth(), x0 + width); x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    total += Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF));
+                    count++;
+                }
+            }
+        }
+        return (double) total / count;
+    }
+
+    private static void assertSameCoefficients(JpegFrame expected, JpegFrame actual) {
+        assertEquals(expected.components.length, actual.components.length);
+        for (int c = 0; c < expected.components.length; c++) {
+            assertArrayEquals("分量 " + c + " 的系数应相同",
+                    expected.components[c].coefficients, actual.components[c].coefficients);
+        }
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("像素 (" + x + "," + y + ")", expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+}
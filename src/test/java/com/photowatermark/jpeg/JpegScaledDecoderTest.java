@@ -0,0 +1,159 @@
+package com.photowatermark.jpeg;
+
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * JpegScaledDecoder类的单元测试
+ */
+public class JpegScaledDecoderTest {
+
+    /**
+     * 测试只读取直流系数时，得到的系数与完整读取的每个块的直流系数相同
+     */
+    @Test
+    public void testDcOnlyMatchesFullRead() throws IOException {
+        byte[] jpeg = encode(createPhoto(BufferedImage.TYPE_3BYTE_BGR, 331, 247), false);
+
+        JpegFrame full = JpegCoefficientReader.read(jpeg);
+        JpegFrame dcOnly = JpegCoefficientReader.readDcOnly(jpeg);
+        assertNotNull(dcOnly);
+        for (int c = 0; c < full.components.length; c++) {
+            JpegFrame.Component expected = full.components[c];
+            JpegFrame.Component actual = dcOnly.components[c];
+            assertEquals("每个块只保存一个系数", expected.coefficients.length / 64, actual.coefficients.length);
+            for (int row = 0; row < expected.blocksPerColumn; row++) {
+                for (int column = 0; column < expected.blocksPerLine; column++) {
+                    assertEquals("分量 " + c + " 块 " + row + "," + column,
+                            expected.coefficients[expected.blockOffset(row, column)],
+                            actual.coefficients[actual.blockOffset(row, column)]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 测试1/8解码的每个像素接近完整解码后对应8x8块的平均值
+     */
+    @Test
+    public void testDecodeApproximatesBlockAverages() throws IOException {
+        for (int type : new int[] {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_3BYTE_BGR}) {
+            byte[] jpeg = encode(createPhoto(type, 331, 247), false);
+
+            BufferedImage scaled = JpegScaledDecoder.decode(jpeg);
+            assertNotNull(scaled);
+            assertEquals("宽度应向上取整", 42, scaled.getWidth());
+            assertEquals("高度应向上取整", 31, scaled.getHeight());
+            assertEquals(type == BufferedImage.TYPE_BYTE_GRAY ? BufferedImage.TYPE_BYTE_GRAY
+                    : BufferedImage.TYPE_INT_RGB, scaled.getType());
+
+            BufferedImage full = ImageIO.read(new ByteArrayInputStream(jpeg));
+            assertTrue("与块平均值的平均误差应很小", meanBlockDifference(full, scaled) < 6);
+        }
+    }
+
+    /**
+     * 测试按EXIF方向校正，渐进式JPEG不支持
+     */
+    @Test
+    public void testOrientationAndUnsupportedJpeg() throws IOException {
+        BufferedImage photo = createPhoto(BufferedImage.TYPE_3BYTE_BGR, 160, 96);
+
+        BufferedImage rotated = JpegScaledDecoder.decode(insertExifOrientation(encode(photo, false), 6));
+        assertNotNull(rotated);
+        assertEquals("方向6应旋转90度", 12, rotated.getWidth());
+        assertEquals("方向6应旋转90度", 20, rotated.getHeight());
+
+        assertNull("渐进式JPEG不支持", JpegScaledDecoder.decode(encode(photo, true)));
+    }
+
+    private static double meanBlockDifference(BufferedImage full, BufferedImage scaled) {
+        long total = 0;
+        int count = 0;
+        for (int blockY = 0; blockY < scaled.getHeight(); blockY++) {
+            for (int blockX = 0; blockX < scaled.getWidth(); blockX++) {
+                int[] sums = new int[3];
+                int pixels = 0;
+                for (int y = blockY * 8; y < Math.min(full.getHeight(), blockY * 8 + 8); y++) {
+                    for (int x = blockX * 8; x < Math.min(full.getWidth(), blockX * 8 + 8); x++) {
+                        int rgb = full.getRGB(x, y);
+                        for (int channel = 0; channel < 3; channel++) {
+                            sums[channel] += (rgb >> (channel * 8)) & 0xFF;
+                        }
+                        pixels++;
+                    }
+                }
+                // 边缘的块只统计图片内的像素，编码器填充的像素不参与比较
+                if (pixels < 64) {
+                    continue;
+                }
+                int rgb = scaled.getRGB(blockX, blockY);
+                for (int channel = 0; channel < 3; channel++) {
+                    total += Math.abs(sums[channel] / pixels - ((rgb >> (channel * 8)) & 0xFF));
+                    count++;
+                }
+            }
+        }
+        return (double) total / count;
+    }
+
+    private static BufferedImage createPhoto(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(30, 80, 160), width, height, new Color(220, 180, 90)));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(new Color(240, 40, 40));
+        graphics.fillOval(width / 4, height / 4, width / 2, height / 2);
+        graphics.dispose();
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, boolean progressive) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (progressive) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * 在SOI之后插入只包含方向标签的EXIF段
+     */
+    private static byte[] insertExifOrientation(byte[] jpeg, int orientation) {
+        byte[] exif = {
+            (byte) 0xFF, (byte) 0xE1, 0, 34,
+            'E', 'x', 'i', 'f', 0, 0,
+            'I', 'I', 0x2A, 0, 8, 0, 0, 0,
+            1, 0,
+            0x12, 0x01, 3, 0, 1, 0, 0, 0, (byte) orientation, 0, 0, 0,
+            0, 0, 0, 0
+        };
+        byte[] result = new byte[jpeg.length + exif.length];
+        System.arraycopy(jpeg, 0, result, 0, 2);
+        System.arraycopy(exif, 0, result, 2, exif.length);
+        System.arraycopy(jpeg, 2, result, 2 + exif.length, jpeg.length - 2);
+        return result;
+    }
+}
@@ -0,0 +1,264 @@
+package com.photowatermark.pipeline;
+
+import com.photowatermark.ExifReader;
+import com.photowatermark.FileOutputManager;
+import com.photowatermark.ImageCodec;
+import com.photowatermark.ImageProcessor;
+import com.photowatermark.WatermarkProcessor;
+import com.photowatermark.WatermarkRenderPlan;
+import com.photowatermark.util.MemoryAdmissionController;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ImagePipeline类的单元测试
+ */
+public class ImagePipelineTest {
+
+    private File tempDir;
+    private ImagePipeline pipeline;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("photowatermark_pipeline_test_").toFile();
+
+        PipelineConfig pipelineConfig = new PipelineConfig(2);
+        pipelineConfig.setQueueCapacity(1);
+        pipeline = new ImagePipeline(new ExifReader(), new WatermarkProcessor(), new FileOutputManager(),
+                new ImageCodec(), new MemoryAdmissionController(0), pipelineConfig);
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir);
+    }
+
+    /**
+     * 递归删除目录和文件
+     */
+    private void deleteRecursively(File file) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * 测试流水线处理结果顺序与输入一致，且失败任务不阻塞后续任务
+     */
+    @Test
+    public void testProcessPreservesOrderAndIsolatesFailures() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            BufferedImage image = new BufferedImage(80 + i * 10, 60, BufferedImage.TYPE_INT_RGB);
+            File file = new File(tempDir, "photo" + i + (i % 2 == 0 ? ".jpg" : ".png"));
+            ImageIO.write(image, i % 2 == 0 ? "jpg" : "png", file);
+            imagePaths.add(file.getAbsolutePath());
+        }
+        imagePaths.add(2, new File(tempDir, "missing.jpg").getAbsolutePath());
+
+        List<ImageProcessor.ProcessResult> results = pipeline.process(imagePaths, 12, "white", "bottom-right");
+
+        assertEquals("结果数量应与输入一致", imagePaths.size(), results.size());
+        for (int i = 0; i < imagePaths.size(); i++) {
+            assertEquals("结果顺序应与输入顺序一致", imagePaths.get(i), results.get(i).getImagePath());
+            assertEquals("只有不存在的文件应处理失败", i != 2, results.get(i).isSuccess());
+        }
+
+        File watermarkDir = new File(tempDir, tempDir.getName() + "_watermark");
+        BufferedImage output = ImageIO.read(new File(watermarkDir, "photo1_watermark.png"));
+        assertNotNull("应生成PNG水印图片", output);
+        assertEquals("输出图片宽度应与原图一致", 90, output.getWidth());
+        assertNotNull("应生成JPEG水印图片", ImageIO.read(new File(watermarkDir, "photo4_watermark.jpg")));
+    }
+
+    /**
+     * 测试空列表处理
+     */
+    @Test
+    public void testProcessEmptyList() {
+        List<ImageProcessor.ProcessResult> results = pipeline.process(new ArrayList<>(), 12, "white", "bottom-right");
+        assertTrue("结果列表应为空", results.isEmpty());
+    }
+
+    /**
+     * 测试阶段并发度设置的解析
+     */
+    @Test
+    public void testApplySpec() {
+        PipelineConfig pipelineConfig = new PipelineConfig(4);
+        pipelineConfig.applySpec("read=6, write=3,queue=10");
+
+        assertEquals("读取阶段并发度应为6", 6, pipelineConfig.getConcurrency(PipelineConfig.Stage.READ));
+        assertEquals("写出阶段并发度应为3", 3, pipelineConfig.getConcurrency(PipelineConfig.Stage.WRITE));
+        assertEquals("解码阶段保持默认并发度", 4, pipelineConfig.getConcurrency(PipelineConfig.Stage.DECODE));
+        assertEquals("队列容量应为10", 10, pipelineConfig.getQueueCapacity());
+    }
+
+    /**
+     * 测试未知阶段名称
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplySpecWithUnknownStage() {
+        new PipelineConfig(4).applySpec("resize=2");
+    }
+
+    /**
+     * 测试启用虚拟线程后IO密集阶段提高默认并发度，且仍可被阶段设置覆盖
+     */
+    @Test
+    public void testVirtualThreadsRaisesIoStageConcurrency() {
+        PipelineConfig pipelineConfig = new PipelineConfig(4);
+        pipelineConfig.setVirtualThreads(true);
+
+        assertTrue("读取阶段应为IO密集阶段", PipelineConfig.Stage.READ.isIoBound());
+        assertFalse("水印阶段不应为IO密集阶段", PipelineConfig.Stage.WATERMARK.isIoBound());
+        assertTrue("读取阶段并发度应提高", pipelineConfig.getConcurrency(PipelineConfig.Stage.READ) > 4);
+        assertEquals("CPU密集阶段保持默认并发度", 4, pipelineConfig.getConcurrency(PipelineConfig.Stage.WATERMARK));
+
+        pipelineConfig.applySpec("write=8");
+        assertEquals("阶段设置应覆盖虚拟线程默认值", 8, pipelineConfig.getConcurrency(PipelineConfig.Stage.WRITE));
+    }
+
+    /**
+     * 测试启用虚拟线程的流水线处理，不支持虚拟线程的运行环境回退为平台线程
+     */
+    @Test
+    public void testProcessWithVirtualThreads() throws IOException {
+        PipelineConfig pipelineConfig = new PipelineConfig(2);
+        pipelineConfig.setVirtualThreads(true);
+        ImagePipeline virtualPipeline = new ImagePipeline(new ExifReader(), new WatermarkProcessor(),
+                new FileOutputManager(), new ImageCodec(), new MemoryAdmissionController(0), pipelineConfig);
+
+        List<String> imagePaths = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            File file = new File(tempDir, "virtual" + i + ".jpg");
+            ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "jpg", file);
+            imagePaths.add(file.getAbsolutePath());
+        }
+
+        List<ImageProcessor.ProcessResult> results = virtualPipeline.process(imagePaths, 12, "white", "center");
+
+        assertEquals("结果数量应与输入一致", 4, results.size());
+        for (int i = 0; i < imagePaths.size(); i++) {
+            assertEquals("结果顺序应与输入顺序一致", imagePaths.get(i), results.get(i).getImagePath());
+            assertTrue("应处理成功", results.get(i).isSuccess());
+        }
+    }
+
+    /**
+     * 测试JPEG无损模式：基线JPEG直接转码，渐进式JPEG和PNG改为完整解码
+     */
+    @Test
+    public void testProcessWithLosslessJpeg() throws Exception {
+        BufferedImage image = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(40, 90, 150));
+        graphics.fillRect(0, 0, 160, 120);
+        graphics.dispose();
+
+        File baseline = new File(tempDir, "baseline.jpg");
+        ImageIO.write(image, "jpg", baseline);
+        File progressive = new File(tempDir, "progressive.jpg");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(progressive)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        File png = new File(tempDir, "photo.png");
+        ImageIO.write(image, "png", png);
+
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(12, "white", "bottom-right").withLosslessJpeg(true);
+        List<String> imagePaths = Arrays.asList(baseline.getAbsolutePath(), progressive.getAbsolutePath(),
+                png.getAbsolutePath());
+        List<ImageProcessor.ProcessResult> results = new ArrayList<>();
+        pipeline.process(imagePaths.iterator(), plan, (index, result) -> results.add(result));
+
+        assertEquals("结果数量应与输入一致", 3, results.size());
+        for (ImageProcessor.ProcessResult result : results) {
+            assertTrue("应处理成功: " + result.getImagePath(), result.isSuccess());
+        }
+
+        File watermarkDir = new File(tempDir, tempDir.getName() + "_watermark");
+        byte[] expected = new WatermarkProcessor().transcodeJpeg(Files.readAllBytes(baseline.toPath()),
+                "No EXIF Date", plan);
+        assertArrayEquals("基线JPEG应只重新编码水印区域", expected,
+                Files.readAllBytes(new File(watermarkDir, "baseline_watermark.jpg").toPath()));
+        assertNotNull("渐进式JPEG应完整解码后输出", ImageIO.read(new File(watermarkDir, "progressive_watermark.jpg")));
+        assertNotNull("PNG应照常输出", ImageIO.read(new File(watermarkDir, "photo_watermark.png")));
+    }
+
+    /**
+     * 测试超过分块阈值的PNG和BMP在流水线中分块处理，结果与不分块处理相同
+     */
+    @Test
+    public void testProcessWithTiledImages() throws Exception {
+        BufferedImage image = new BufferedImage(150, 110, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, 150, 110, Color.ORANGE));
+        graphics.fillRect(0, 0, 150, 110);
+        graphics.dispose();
+
+        File png = new File(tempDir, "scan.png");
+        ImageIO.write(image, "png", png);
+        File bmp = new File(tempDir, "scan.bmp");
+        ImageIO.write(image, "bmp", bmp);
+
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(14, "white", "center").withTileThreshold(1000);
+        List<ImageProcessor.ProcessResult> results = new ArrayList<>();
+        pipeline.process(Arrays.asList(png.getAbsolutePath(), bmp.getAbsolutePath()).iterator(), plan,
+                (index, result) -> results.add(result));
+
+        assertEquals("结果数量应与输入一致", 2, results.size());
+        for (ImageProcessor.ProcessResult result : results) {
+            assertTrue("应处理成功: " + result.getImagePath(), result.isSuccess());
+        }
+
+        File watermarkDir = new File(tempDir, tempDir.getName() + "_watermark");
+        for (String name : new String[] {"scan.png", "scan.bmp"}) {
+            File source = new File(tempDir, name);
+            File expected = new File(tempDir, "expected_" + name);
+            new WatermarkProcessor().addTextWatermark(source, null, "No EXIF Date", plan.withTileThreshold(0),
+                    expected);
+
+            String outputName = name.replace(".", "_watermark.");
+            BufferedImage actual = ImageIO.read(new File(watermarkDir, outputName));
+            BufferedImage reference = ImageIO.read(expected);
+            assertNotNull("分块处理的输出应是有效的图片: " + outputName, actual);
+            for (int y = 0; y < reference.getHeight(); y++) {
+                for (int x = 0; x < reference.getWidth(); x++) {
+                    assertEquals("分块处理结果应与整张图片处理相同: " + outputName,
+                            reference.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.photowatermark.png;
+
+import com.photowatermark.ImageCodec;
+import com.photowatermark.util.WorkerExecutors;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * PNG编码性能对比，模拟5000万像素的扫描件，比较ImageIO单线程编码与并行分块压缩各预设的耗时和文件大小
+ * 加速比取决于处理器核心数；耗时较长且需要较大的堆内存，默认跳过，通过以下命令运行:
+ * mvn test -Dtest=ParallelPngEncoderBenchmark -Dbenchmark=true -DargLine=-Xmx3g
+ */
+public class ParallelPngEncoderBenchmark {
+
+    // 约5000万像素，扫描件常见的3:2画幅
+    private static final int WIDTH = 8700;
+    private static final int HEIGHT = 5800;
+
+    private static final int WARMUP_ROUNDS = 1;
+    private static final int MEASURED_ROUNDS = 3;
+
+    private BufferedImage image;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("未指定 -Dbenchmark=true，跳过性能对比", Boolean.getBoolean("benchmark"));
+        image = createScan();
+    }
+
+    /**
+     * 比较各编码设置编码同一张扫描件的平均耗时和文件大小
+     */
+    @Test
+    public void compareEncodings() throws IOException {
+        System.out.println("处理器核心数: " + WorkerExecutors.getCpuParallelism());
+        ImageCodec codec = new ImageCodec();
+        PngEncoding[] encodings = {
+            PngEncoding.DEFAULT,
+            PngEncoding.FAST,
+            PngEncoding.BALANCED,
+            PngEncoding.ARCHIVE,
+            PngEncoding.parse("preset=balanced,filter=paeth")
+        };
+        for (PngEncoding encoding : encodings) {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                codec.encode(image, "png", -1, null, encoding);
+            }
+
+            int size = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                size = codec.encode(image, "png", -1, null, encoding).length;
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+            System.out.printf("%-45s 编码: %8.1f ms  %6.1f 百万像素/秒  大小: %7d KB%n", encoding, millis,
+                    WIDTH * (double) HEIGHT / 1000 / millis, size / 1024);
+        }
+    }
+
+    /**
+     * 估计并行分块压缩在多核处理器上的加速比
+     * 调用线程上必须串行完成的只有按顺序写出压缩数据并计算CRC，其余滤波和压缩都可以分给压缩线程池；
+     * 以实测的总耗时和串行部分耗时按Amdahl定律估计，单核机器上无法直接测得加速比时可作参考
+     */
+    @Test
+    public void estimateSpeedup() throws IOException {
+        PngEncoding encoding = PngEncoding.BALANCED;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ParallelPngEncoder.encode(image, encoding, output);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            output.reset();
+            ParallelPngEncoder.encode(image, encoding, output);
+        }
+        double totalMillis = (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+
+        byte[] encoded = output.toByteArray();
+        start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            CRC32 crc = new CRC32();
+            crc.update(encoded);
+            new ByteArrayOutputStream(encoded.length).write(encoded, 0, encoded.length);
+        }
+        double serialMillis = (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+
+        System.out.printf("实测处理器核心数: %d  编码: %.1f ms  其中串行写出: %.1f ms%n",
+                WorkerExecutors.getCpuParallelism(), totalMillis, serialMillis);
+        for (int cores : new int[] {2, 4, 8, 16}) {
+            double estimated = serialMillis + (totalMillis - serialMillis) / cores;
+            System.out.printf("估计 %2d 核: %8.1f ms  加速比 %.1fx%n", cores, estimated, totalMillis / estimated);
+        }
+    }
+
+    /**
+     * 创建带渐变、色块和轻微噪点的扫描件，纯渐变的压缩率与真实扫描件相差太大
+     */
+    private static BufferedImage createScan() {
+        BufferedImage scan = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scan.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(235, 225, 205), WIDTH, HEIGHT, new Color(200, 190, 170)));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        Random random = new Random(42);
+        for (int i = 0; i < 3000; i++) {
+            graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            graphics.fillRect(random.nextInt(WIDTH), random.nextInt(HEIGHT), 10 + random.nextInt(300),
+                    10 + random.nextInt(300));
+        }
+        graphics.dispose();
+
+        // 叠加轻微的亮度噪点，模拟扫描仪的噪声
+        int[] row = new int[WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            scan.getRGB(0, y, WIDTH, 1, row, 0, WIDTH);
+            for (int x = 0; x < WIDTH; x++) {
+                int noise = random.nextInt(6) - 3;
+                int rgb = row[x];
+                row[x] = clamp((rgb >> 16 & 0xFF) + noise) << 16 | clamp((rgb >> 8 & 0xFF) + noise) << 8
+                        | clamp((rgb & 0xFF) + noise);
+            }
+            scan.setRGB(0, y, WIDTH, 1, row, 0, WIDTH);
+        }
+        return scan;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
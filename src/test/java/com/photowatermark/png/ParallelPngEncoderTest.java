@@ -0,0 +1,190 @@
+package com.photowatermark.png;
+
+import com.photowatermark.ImageCodec;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * ParallelPngEncoder类的单元测试
+ */
+public class ParallelPngEncoderTest {
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 1000;
+
+    // 每块72行，1000行分为14块；带透明通道时每块54行，分为19块
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    /**
+     * 测试各种图片类型分多块压缩后都能被ImageIO解码，像素与原图相同
+     */
+    @Test
+    public void testImageTypes() throws IOException {
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR,
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY};
+        for (int type : types) {
+            BufferedImage image = createImage(type);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encode(image, PngEncoding.BALANCED)));
+            assertNotNull("输出应能被ImageIO解码，类型: " + type, decoded);
+            assertEquals("透明通道应保留，类型: " + type, image.getColorModel().hasAlpha(),
+                    decoded.getColorModel().hasAlpha());
+            if (type == BufferedImage.TYPE_BYTE_GRAY) {
+                assertEquals("灰度图片应写出为灰度PNG", 1, decoded.getRaster().getNumBands());
+            }
+            assertArrayEquals("像素应与原图相同，类型: " + type, pixels(image), pixels(decoded));
+        }
+    }
+
+    /**
+     * 测试各种滤波方式和压缩级别都能正确解码，输出与线程调度无关
+     */
+    @Test
+    public void testFiltersAndLevels() throws IOException {
+        BufferedImage image = createImage(BufferedImage.TYPE_INT_ARGB);
+        int[] expected = pixels(image);
+        for (PngEncoding.Filter filter : PngEncoding.Filter.values()) {
+            for (int level : new int[] {0, 1, 6}) {
+                PngEncoding encoding = new PngEncoding("balanced", level, filter);
+                byte[] png = encode(image, encoding);
+                assertArrayEquals("像素应与原图相同: " + encoding, expected,
+                        pixels(ImageIO.read(new ByteArrayInputStream(png))));
+                if (level == 1) {
+                    assertArrayEquals("相同设置的输出应完全相同: " + encoding, png, encode(image, encoding));
+                }
+            }
+        }
+    }
+
+    /**
+     * 测试预置字典使跨块的重复内容仍能被压缩：内容按行重复的图片，分块压缩后与整个数据流单线程压缩的大小接近，
+     * 没有预置字典时每块的第一行都要重新写出900字节的随机数据
+     */
+    @Test
+    public void testDictionaryPriming() throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(7);
+        int[] row = new int[WIDTH];
+        for (int x = 0; x < WIDTH; x++) {
+            row[x] = random.nextInt(0x1000000);
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            image.setRGB(0, y, WIDTH, 1, row, 0, WIDTH);
+        }
+
+        byte[] png = encode(image, new PngEncoding("balanced", 6, PngEncoding.Filter.NONE));
+        assertArrayEquals(pixels(image), pixels(ImageIO.read(new ByteArrayInputStream(png))));
+
+        // 与不滤波的扫描行整体压缩为一个数据流的大小比较
+        ByteArrayOutputStream scanlines = new ByteArrayOutputStream();
+        for (int y = 0; y < HEIGHT; y++) {
+            scanlines.write(0);
+            for (int x = 0; x < WIDTH; x++) {
+                scanlines.write(row[x] >> 16);
+                scanlines.write(row[x] >> 8);
+                scanlines.write(row[x]);
+            }
+        }
+        Deflater deflater = new Deflater(6);
+        deflater.setInput(scanlines.toByteArray());
+        deflater.finish();
+        byte[] buffer = new byte[scanlines.size()];
+        int singleStream = deflater.deflate(buffer);
+        deflater.end();
+        assertTrue("分块压缩的大小应与单个数据流接近: " + png.length + " / " + singleStream,
+                png.length < singleStream + WIDTH * 3);
+    }
+
+    /**
+     * 测试合并的Adler-32校验和与整段数据直接计算的结果相同
+     */
+    @Test
+    public void testAdler32Combine() {
+        byte[] data = new byte[200000];
+        new Random(3).nextBytes(data);
+        for (int split : new int[] {0, 1, 65521, 100000, 200000}) {
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            Adler32 whole = new Adler32();
+            whole.update(data);
+            assertEquals("分割位置: " + split, whole.getValue(),
+                    ParallelPngEncoder.adler32Combine(first.getValue(), second.getValue(), data.length - split));
+        }
+    }
+
+    /**
+     * 测试ImageCodec只在PNG输出且设置不是默认设置时使用并行编码器，不支持的图片类型仍使用ImageIO
+     */
+    @Test
+    public void testImageCodec() throws IOException {
+        ImageCodec codec = new ImageCodec();
+        BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB);
+
+        assertArrayEquals("默认设置应与未指定设置时的输出相同", codec.encode(image, "png"),
+                codec.encode(image, "png", -1, null, PngEncoding.DEFAULT));
+        assertArrayEquals("非PNG输出不应使用PNG编码设置", codec.encode(image, "bmp"),
+                codec.encode(image, "bmp", -1, null, PngEncoding.ARCHIVE));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ParallelPngEncoder.encode(image, PngEncoding.FAST, expected);
+        assertArrayEquals("PNG编码设置应生效", expected.toByteArray(),
+                codec.encode(image, "png", -1, null, PngEncoding.FAST));
+
+        BufferedImage deep = new BufferedImage(64, 64, BufferedImage.TYPE_USHORT_GRAY);
+        deep.getRaster().setSample(10, 10, 0, 40000);
+        assertFalse(ParallelPngEncoder.supports(deep));
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(
+                codec.encode(deep, "png", -1, null, PngEncoding.FAST)));
+        assertEquals("16位灰度应由ImageIO按原位深写出", 40000, decoded.getRaster().getSample(10, 10, 0));
+    }
+
+    private static byte[] encode(BufferedImage image, PngEncoding encoding) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ParallelPngEncoder.encode(image, encoding, output, CHUNK_BYTES);
+        return output.toByteArray();
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image.getRaster().getPixels(0, 0, image.getWidth(), image.getHeight(), (int[]) null);
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    /**
+     * 创建带渐变、图形和噪点的图片，带透明通道的类型同时写入变化的透明度
+     */
+    private static BufferedImage createImage(int type) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(30, 80, 160), WIDTH, HEIGHT, new Color(220, 180, 90)));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.setColor(new Color(240, 40, 40));
+        graphics.fillOval(WIDTH / 4, HEIGHT / 4, WIDTH / 2, HEIGHT / 2);
+        graphics.dispose();
+
+        Random random = new Random(42);
+        boolean alpha = image.getColorModel().hasAlpha();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int rgb = image.getRGB(x, y) ^ (random.nextInt(8) * 0x010101);
+                int a = alpha ? (x + y * 3) & 0xFF : 0xFF;
+                image.setRGB(x, y, a << 24 | rgb & 0xFFFFFF);
+            }
+        }
+        return image;
+    }
+}
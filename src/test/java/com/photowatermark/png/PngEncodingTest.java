@@ -0,0 +1,47 @@
+package com.photowatermark.png;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * PngEncoding类的单元测试
+ */
+public class PngEncodingTest {
+
+    /**
+     * 测试解析预设名称和覆盖预设的键值对，规格字符串可以重新解析
+     */
+    @Test
+    public void testParse() {
+        assertSame(PngEncoding.ARCHIVE, PngEncoding.parse("archive"));
+        assertSame("预设名称不区分大小写", PngEncoding.FAST, PngEncoding.parse(" Fast "));
+        assertTrue(PngEncoding.DEFAULT.isDefault());
+        assertFalse(PngEncoding.BALANCED.isDefault());
+
+        PngEncoding encoding = PngEncoding.parse("preset=fast,filter=paeth");
+        assertEquals("fast", encoding.getPresetName());
+        assertEquals("未覆盖的设置应沿用预设", 1, encoding.getLevel());
+        assertEquals(PngEncoding.Filter.PAETH, encoding.getFilter());
+
+        encoding = PngEncoding.parse("level=6");
+        assertEquals("未指定预设时基于balanced", "balanced", encoding.getPresetName());
+        assertEquals(6, encoding.getLevel());
+        assertEquals(PngEncoding.Filter.NONE, encoding.getFilter());
+
+        assertEquals(encoding.toString(), PngEncoding.parse(encoding.toString()).toString());
+        assertEquals("相同设置应生成相同的规格字符串", PngEncoding.ARCHIVE.toString(),
+                PngEncoding.parse(PngEncoding.ARCHIVE.toString()).toString());
+        assertSame(PngEncoding.DEFAULT, PngEncoding.parse(PngEncoding.DEFAULT.toString()));
+
+        for (String invalid : new String[] {"", "ultra", "level=10", "level=-1", "level=abc", "filter=median",
+                "threads=4", "preset=fast,level"}) {
+            try {
+                PngEncoding.parse(invalid);
+                fail("无效的设置应抛出异常: " + invalid);
+            } catch (IllegalArgumentException e) {
+                // 预期的异常
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.photowatermark.render;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.font.TextAttribute;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * GlyphAtlas类的单元测试
+ */
+public class GlyphAtlasTest {
+
+    private static final String[] TEXTS = {
+        "2023-06-01 10:00:00", "1999-12-31 23:59:59", "2024-02-29 08:17:46", "Sample Watermark", "AVATAR Wolf 11"
+    };
+
+    /**
+     * 测试拼接字形图块的结果与drawString逐像素相同
+     */
+    @Test
+    public void testMatchesDrawString() {
+        int[] fontSizes = {12, 24, 37, 60, 120};
+        Color[] colors = {Color.WHITE, Color.RED, new Color(30, 144, 255)};
+        for (int fontSize : fontSizes) {
+            for (Color color : colors) {
+                Font font = new Font("Arial", Font.BOLD, fontSize);
+                RenderingHints hints = createHints();
+                GlyphAtlas atlas = new GlyphAtlas(font, color, hints);
+
+                for (String text : TEXTS) {
+                    BufferedImage expected = createCanvas(font, text);
+                    Graphics2D graphics = expected.createGraphics();
+                    graphics.addRenderingHints(hints);
+                    graphics.setFont(font);
+                    graphics.setColor(color);
+                    graphics.drawString(text, 10, graphics.getFontMetrics().getAscent() + 10);
+                    int baseline = graphics.getFontMetrics().getAscent() + 10;
+                    graphics.dispose();
+
+                    BufferedImage actual = createCanvas(font, text);
+                    assertTrue(atlas.canRender(text));
+                    atlas.drawText(actual, text, 10, baseline);
+
+                    assertSamePixels("字号 " + fontSize + "，文本 " + text, expected, actual);
+                }
+            }
+        }
+    }
+
+    /**
+     * 测试每个字符只光栅化一次
+     */
+    @Test
+    public void testGlyphsAreRasterizedOnce() {
+        GlyphAtlas atlas = new GlyphAtlas(new Font("Arial", Font.BOLD, 36), Color.WHITE, createHints());
+        Font font = new Font("Arial", Font.BOLD, 36);
+        for (String text : new String[] {"2023-06-01 10:00:00", "2024-12-31 23:59:58", "1987-07-15 06:45:12"}) {
+            atlas.drawText(createCanvas(font, text), text, 10, 40);
+        }
+        assertEquals("时间文本只包含数字、短横线、冒号和空格", 13, atlas.getGlyphCount());
+    }
+
+    /**
+     * 测试不支持的文本
+     */
+    @Test
+    public void testCanRender() {
+        GlyphAtlas atlas = new GlyphAtlas(new Font("Arial", Font.BOLD, 20), Color.WHITE, createHints());
+        assertTrue(atlas.canRender("2023-06-01 10:00:00"));
+        assertFalse("非ASCII文本应使用drawString绘制", atlas.canRender("拍摄于 2023-06-01"));
+        assertFalse(atlas.canRender("line\nbreak"));
+        assertFalse(atlas.canRender(""));
+        assertFalse(atlas.canRender(null));
+
+        // 启用字距调整后字形可能落在非整数像素位置
+        Font kerning = new Font("Arial", Font.BOLD, 20)
+                .deriveFont(Collections.singletonMap(TextAttribute.KERNING, TextAttribute.KERNING_ON));
+        assertFalse("启用字距调整的字体应使用drawString绘制",
+                new GlyphAtlas(kerning, Color.WHITE, createHints()).canRender("AVATAR"));
+    }
+
+    private static RenderingHints createHints() {
+        RenderingHints hints = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        hints.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        return hints;
+    }
+
+    private static BufferedImage createCanvas(Font font, String text) {
+        Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        FontMetrics metrics = graphics.getFontMetrics(font);
+        graphics.dispose();
+        return new BufferedImage(metrics.stringWidth(text) + 20, metrics.getHeight() + 20, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    private static void assertSamePixels(String message, BufferedImage expected, BufferedImage actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                    fail(message + ": 像素 (" + x + "," + y + ") 不同，期望 "
+                            + Integer.toHexString(expected.getRGB(x, y)) + "，实际 " + Integer.toHexString(actual.getRGB(x, y)));
+                }
+            }
+        }
+    }
+}
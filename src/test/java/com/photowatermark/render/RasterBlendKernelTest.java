@@ -0,0 +1,158 @@
+package com.photowatermark.render;
+
+import net.coobird.thumbnailator.geometry.Positions;
+import org.junit.Test;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * RasterBlendKernel类的单元测试，逐像素与Java2D的合成结果比较
+ */
+public class RasterBlendKernelTest {
+
+    private static final int[] TARGET_TYPES = {
+        BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR
+    };
+
+    private static final float[] OPACITIES = {0.5f, 0.3f, 0.77f, 1.0f, 0.0f};
+
+    /**
+     * 测试各种图片类型和不透明度下与Java2D的结果逐像素相同
+     */
+    @Test
+    public void testMatchesJava2D() {
+        Random random = new Random(42);
+        for (int type : TARGET_TYPES) {
+            for (float opacity : OPACITIES) {
+                BufferedImage overlay = randomOverlay(random, 37, 23);
+                BufferedImage expected = randomImage(random, type, 80, 60);
+                BufferedImage actual = copy(expected);
+
+                drawWithJava2D(expected, overlay, 21, 17, opacity);
+                assertTrue(RasterBlendKernel.supports(actual, overlay));
+                RasterBlendKernel.blend(actual, overlay, 21, 17, RasterBlendKernel.toExtraAlpha(opacity));
+
+                assertSamePixels("类型 " + type + "，不透明度 " + opacity, expected, actual);
+            }
+        }
+    }
+
+    /**
+     * 测试水印图层超出目标图片边界时只合成重叠部分
+     */
+    @Test
+    public void testClipsToTarget() {
+        Random random = new Random(7);
+        int[][] origins = {{-10, -5}, {70, 50}, {-40, 10}, {100, 100}};
+        for (int[] origin : origins) {
+            BufferedImage overlay = randomOverlay(random, 30, 20);
+            BufferedImage expected = randomImage(random, BufferedImage.TYPE_3BYTE_BGR, 80, 60);
+            BufferedImage actual = copy(expected);
+
+            drawWithJava2D(expected, overlay, origin[0], origin[1], 0.5f);
+            RasterBlendKernel.blend(actual, overlay, origin[0], origin[1], RasterBlendKernel.toExtraAlpha(0.5f));
+
+            assertSamePixels("位置 " + origin[0] + "," + origin[1], expected, actual);
+        }
+    }
+
+    /**
+     * 测试子图片（像素数组带偏移）的合成结果
+     */
+    @Test
+    public void testSubimage() {
+        Random random = new Random(3);
+        BufferedImage parent = randomImage(random, BufferedImage.TYPE_3BYTE_BGR, 100, 80);
+        BufferedImage overlayParent = randomOverlay(random, 50, 40);
+        BufferedImage overlay = overlayParent.getSubimage(5, 7, 30, 20);
+
+        BufferedImage expected = copy(parent).getSubimage(10, 12, 60, 50);
+        BufferedImage actual = parent.getSubimage(10, 12, 60, 50);
+        drawWithJava2D(expected, overlay, 8, 9, 0.5f);
+        RasterBlendKernel.blend(actual, overlay, 8, 9, RasterBlendKernel.toExtraAlpha(0.5f));
+
+        assertSamePixels("子图片", expected, actual);
+    }
+
+    /**
+     * 测试内核不支持的类型由后端回退到Java2D
+     */
+    @Test
+    public void testUnsupportedTypesFallBack() {
+        BufferedImage overlay = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        assertFalse(RasterBlendKernel.supports(new BufferedImage(20, 20, BufferedImage.TYPE_4BYTE_ABGR), overlay));
+        assertFalse(RasterBlendKernel.supports(new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB),
+                new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB_PRE)));
+
+        BufferedImage indexed = new BufferedImage(20, 20, BufferedImage.TYPE_BYTE_INDEXED);
+        BufferedImage result = RasterBackend.INSTANCE.composite(indexed, overlay, Positions.CENTER, 0.5f);
+        assertEquals("回退到Java2D后端时应转换为直接颜色模型", BufferedImage.TYPE_INT_RGB, result.getType());
+    }
+
+    /**
+     * 测试整数乘法与Java2D的mul8table取值相同
+     */
+    @Test
+    public void testMul8() {
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) {
+                assertEquals(Math.round(a * b / 255.0f), RasterBlendKernel.mul8(a, b), 1);
+            }
+            assertEquals("乘以255应保持不变", a, RasterBlendKernel.mul8(a, 255));
+        }
+    }
+
+    private static void drawWithJava2D(BufferedImage target, BufferedImage overlay, int x, int y, float opacity) {
+        Graphics2D graphics = target.createGraphics();
+        graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+        graphics.drawImage(overlay, x, y, null);
+        graphics.dispose();
+    }
+
+    private static BufferedImage randomImage(Random random, int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * 生成随机水印图层，包括完全透明、完全不透明和半透明的像素
+     */
+    private static BufferedImage randomOverlay(Random random, int width, int height) {
+        BufferedImage overlay = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int choice = random.nextInt(4);
+                int alpha = choice == 0 ? 0 : choice == 1 ? 255 : random.nextInt(256);
+                overlay.setRGB(x, y, (alpha << 24) | (random.nextInt() & 0xFFFFFF));
+            }
+        }
+        return overlay;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        copy.setData(image.getRaster());
+        return copy;
+    }
+
+    private static void assertSamePixels(String message, BufferedImage expected, BufferedImage actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                    fail(message + ": 像素 (" + x + "," + y + ") 不同，期望 "
+                            + Integer.toHexString(expected.getRGB(x, y)) + "，实际 " + Integer.toHexString(actual.getRGB(x, y)));
+                }
+            }
+        }
+    }
+}
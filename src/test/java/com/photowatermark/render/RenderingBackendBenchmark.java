@@ -0,0 +1,184 @@
+package com.photowatermark.render;
+
+import com.photowatermark.ImageCodec;
+import com.photowatermark.WatermarkRenderPlan;
+import com.photowatermark.jpeg.JpegMcuTranscoder;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * 渲染后端性能对比，模拟常见的2400万像素JPEG照片，比较解码、合成、编码整个过程的耗时
+ * 耗时较长，默认跳过，通过以下命令运行:
+ * mvn test -Dtest=RenderingBackendBenchmark -Dbenchmark=true
+ */
+public class RenderingBackendBenchmark {
+
+    // 2400万像素，3:2画幅
+    private static final int WIDTH = 6000;
+    private static final int HEIGHT = 4000;
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 5;
+
+    private byte[] jpegData;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue("未指定 -Dbenchmark=true，跳过性能对比", Boolean.getBoolean("benchmark"));
+        jpegData = createPhoto();
+    }
+
+    /**
+     * 比较各后端处理同一张照片的平均耗时
+     */
+    @Test
+    public void compareBackends() throws IOException {
+        ImageCodec codec = new ImageCodec();
+        for (String backendName : new String[] {ThumbnailatorBackend.NAME, Java2DBackend.NAME, RasterBackend.NAME}) {
+            WatermarkRenderPlan plan = WatermarkRenderPlan.compile(60, "white", "bottom-right", backendName);
+            BufferedImage overlay = createOverlay(plan);
+
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                runOnce(codec, plan, overlay);
+            }
+
+            long compositeNanos = 0;
+            long totalNanos = 0;
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                long[] timings = runOnce(codec, plan, overlay);
+                compositeNanos += timings[0];
+                totalNanos += timings[1];
+            }
+            System.out.printf("%-14s 合成: %7.1f ms  解码+合成+编码: %7.1f ms%n", backendName,
+                    compositeNanos / 1e6 / MEASURED_ROUNDS, totalNanos / 1e6 / MEASURED_ROUNDS);
+        }
+    }
+
+    /**
+     * 只比较合成的耗时，使用覆盖较大区域的水印图层，突出混合本身的差异
+     */
+    @Test
+    public void compareCompositeOnly() throws IOException {
+        BufferedImage image = new ImageCodec().decode(jpegData, "benchmark.jpg");
+        for (String backendName : new String[] {Java2DBackend.NAME, RasterBackend.NAME}) {
+            WatermarkRenderPlan plan = WatermarkRenderPlan.compile(400, "white", "center", backendName);
+            BufferedImage overlay = createOverlay(plan);
+            RenderingBackend backend = plan.getBackend();
+
+            for (int i = 0; i < WARMUP_ROUNDS * 10; i++) {
+                backend.composite(image, overlay, plan.getAnchor(), plan.getOpacity());
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ROUNDS * 10; i++) {
+                backend.composite(image, overlay, plan.getAnchor(), plan.getOpacity());
+            }
+            System.out.printf("%-14s 合成 %dx%d 水印图层: %7.2f ms%n", backendName, overlay.getWidth(),
+                    overlay.getHeight(), (System.nanoTime() - start) / 1e6 / (MEASURED_ROUNDS * 10));
+        }
+    }
+
+    /**
+     * 比较逐个图片用drawString绘制时间水印与使用字形图集拼接的耗时
+     */
+    @Test
+    public void compareOverlayRendering() {
+        int rounds = 20000;
+        for (int fontSize : new int[] {24, 60, 120}) {
+            WatermarkRenderPlan plan = WatermarkRenderPlan.compile(fontSize, "white", "bottom-right");
+            String[] texts = new String[100];
+            for (int i = 0; i < texts.length; i++) {
+                texts[i] = String.format("2023-06-%02d 10:%02d:%02d", i % 28 + 1, i % 60, (i * 7) % 60);
+            }
+
+            double drawStringMicros = 0;
+            double atlasMicros = 0;
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    createOverlay(plan, texts[i % texts.length]);
+                }
+                drawStringMicros = (System.nanoTime() - start) / 1e3 / rounds;
+
+                start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    plan.createOverlay(texts[i % texts.length]);
+                }
+                atlasMicros = (System.nanoTime() - start) / 1e3 / rounds;
+            }
+            System.out.printf("字号 %3d  drawString: %7.1f us  字形图集: %7.1f us%n", fontSize, drawStringMicros,
+                    atlasMicros);
+        }
+    }
+
+    /**
+     * 比较完整解码、合成、编码与JPEG无损模式只重新编码水印区域的耗时
+     */
+    @Test
+    public void compareLosslessJpeg() throws IOException {
+        ImageCodec codec = new ImageCodec();
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(60, "white", "bottom-right");
+        BufferedImage overlay = createOverlay(plan);
+
+        double fullMillis = 0;
+        double losslessMillis = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + 1; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                runOnce(codec, plan, overlay);
+            }
+            fullMillis = (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                JpegMcuTranscoder.watermark(jpegData, overlay, plan.getAnchor(), plan.getOpacity(), plan.getBackend());
+            }
+            losslessMillis = (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+        }
+        System.out.printf("解码+合成+编码: %7.1f ms  只重新编码水印区域: %7.1f ms%n", fullMillis, losslessMillis);
+    }
+
+    private long[] runOnce(ImageCodec codec, WatermarkRenderPlan plan, BufferedImage overlay) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = codec.decode(jpegData, "benchmark.jpg");
+        long compositeStart = System.nanoTime();
+        BufferedImage result = plan.getBackend().composite(image, overlay, plan.getAnchor(), plan.getOpacity());
+        long compositeEnd = System.nanoTime();
+        codec.encode(result, "jpg");
+        return new long[] {compositeEnd - compositeStart, System.nanoTime() - start};
+    }
+
+    private static BufferedImage createOverlay(WatermarkRenderPlan plan) {
+        return createOverlay(plan, "2023:06:01 10:00:00");
+    }
+
+    private static BufferedImage createOverlay(WatermarkRenderPlan plan, String text) {
+        BufferedImage overlay = new BufferedImage(plan.getOverlayWidth(text), plan.getOverlayHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = overlay.createGraphics();
+        plan.drawText(graphics, text);
+        graphics.dispose();
+        return overlay;
+    }
+
+    private static byte[] createPhoto() throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(30, 80, 160), WIDTH, HEIGHT, new Color(220, 180, 90)));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.dispose();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,103 @@
+package com.photowatermark.render;
+
+import net.coobird.thumbnailator.geometry.Positions;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * RenderingBackend及其实现的单元测试
+ */
+public class RenderingBackendTest {
+
+    /**
+     * 测试按名称获取后端
+     */
+    @Test
+    public void testForName() {
+        assertSame(Java2DBackend.INSTANCE, RenderingBackend.forName(null));
+        assertSame(RasterBackend.INSTANCE, RenderingBackend.forName("RASTER"));
+        assertSame(Java2DBackend.INSTANCE, RenderingBackend.forName("Java2D"));
+        assertSame(ThumbnailatorBackend.INSTANCE, RenderingBackend.forName("thumbnailator"));
+        assertEquals(RenderingBackend.DEFAULT_NAME, RenderingBackend.forName("").getName());
+    }
+
+    /**
+     * 测试未知的后端名称
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testForUnknownName() {
+        RenderingBackend.forName("opengl");
+    }
+
+    /**
+     * 测试Java2D后端直接在原图上合成，结果与Thumbnailator后端一致
+     */
+    @Test
+    public void testJava2DMatchesThumbnailator() throws IOException {
+        BufferedImage overlay = createOverlay();
+        for (Positions anchor : new Positions[] {Positions.TOP_LEFT, Positions.CENTER, Positions.BOTTOM_RIGHT}) {
+            BufferedImage source = createPhoto(BufferedImage.TYPE_3BYTE_BGR);
+            BufferedImage expected = ThumbnailatorBackend.INSTANCE.composite(source, overlay, anchor, 0.5f);
+            assertNotSame("Thumbnailator后端应返回新图片", source, expected);
+
+            BufferedImage actual = Java2DBackend.INSTANCE.composite(source, overlay, anchor, 0.5f);
+            assertSame("Java2D后端应在原图上合成", source, actual);
+            assertTrue("两种后端的合成结果应一致: " + anchor, maxDifference(expected, actual) <= 1);
+        }
+    }
+
+    /**
+     * 测试索引色图片先转换为直接颜色模型，原图保持不变
+     */
+    @Test
+    public void testJava2DConvertsIndexedImage() {
+        BufferedImage indexed = new BufferedImage(40, 30, BufferedImage.TYPE_BYTE_INDEXED);
+        int before = indexed.getRGB(39, 29);
+
+        BufferedImage result = Java2DBackend.INSTANCE.composite(indexed, createOverlay(), Positions.BOTTOM_RIGHT, 0.5f);
+
+        assertNotSame(indexed, result);
+        assertEquals(BufferedImage.TYPE_INT_RGB, result.getType());
+        assertEquals("原图不应被修改", before, indexed.getRGB(39, 29));
+        assertNotEquals("水印区域应被合成", before, result.getRGB(39, 29));
+    }
+
+    private static BufferedImage createPhoto(int type) {
+        BufferedImage image = new BufferedImage(64, 48, type);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, new Color(x * 4, y * 5, (x + y) * 2).getRGB());
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage createOverlay() {
+        BufferedImage overlay = new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = overlay.createGraphics();
+        graphics.setColor(new Color(255, 255, 255, 200));
+        graphics.fillRect(2, 2, 18, 8);
+        graphics.dispose();
+        return overlay;
+    }
+
+    private static int maxDifference(BufferedImage expected, BufferedImage actual) {
+        int max = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    max = Math.max(max, Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF)));
+                }
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,206 @@
+package com.photowatermark.sink;
+
+import com.photowatermark.util.OutputDurability;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * 归档输出目标和内存输出目标的单元测试
+ */
+public class ArchiveSinkTest {
+
+    private File tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("photowatermark_sink_test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir);
+    }
+
+    /**
+     * 测试ZIP归档按相对路径写入未压缩的条目，关闭前不创建归档文件，也不留下临时文件
+     */
+    @Test
+    public void testZipArchive() throws IOException {
+        File archive = new File(tempDir, "delivery.zip");
+        byte[] first = randomBytes(1000, 1);
+        byte[] second = randomBytes(200000, 2);
+
+        try (ArchiveSink sink = ArchiveSink.open(archive, tempDir, OutputDurability.PER_FILE)) {
+            assertFalse("归档输出目标不写出单独的文件", sink.writesFiles());
+            sink.write(new File(tempDir, "a_watermark/first_watermark.jpg"), first);
+            sink.write(new File(tempDir, "b_watermark/second_watermark.jpg"),
+                    tempFile -> Files.write(tempFile.toPath(), second));
+            assertFalse("关闭前不应创建归档文件", archive.exists());
+        }
+
+        assertArrayEquals("目录中只应有归档文件", new String[] {"delivery.zip"}, tempDir.list());
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(2, zip.size());
+            ZipEntry entry = zip.getEntry("a_watermark/first_watermark.jpg");
+            assertNotNull("条目名应为相对于基准目录的路径", entry);
+            assertEquals("图片已经压缩，条目应不压缩存储", ZipEntry.STORED, entry.getMethod());
+            assertArrayEquals(first, zip.getInputStream(entry).readAllBytes());
+            assertArrayEquals(second, zip.getInputStream(zip.getEntry("b_watermark/second_watermark.jpg"))
+                    .readAllBytes());
+        }
+    }
+
+    /**
+     * 测试TAR归档的条目头、数据对齐和结尾，超长路径使用pax扩展头
+     */
+    @Test
+    public void testTarArchive() throws IOException {
+        String longName = String.join("/", "very_long_directory_name_".repeat(4), "nested_".repeat(10),
+                "photo_with_a_rather_long_file_name_".repeat(3) + "watermark.jpg");
+        assertTrue(longName.length() > 255);
+        byte[] first = randomBytes(513, 3);
+        byte[] second = randomBytes(70000, 4);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (TarSink sink = new TarSink(output, tempDir)) {
+            sink.write(new File(tempDir, "photos_watermark/first_watermark.jpg"), first);
+            sink.write(new File(tempDir, longName), second);
+        }
+
+        Map<String, byte[]> entries = readTar(output.toByteArray());
+        assertEquals(2, entries.size());
+        assertArrayEquals(first, entries.get("photos_watermark/first_watermark.jpg"));
+        assertArrayEquals("超长路径应完整保留", second, entries.get(longName));
+        assertEquals("归档长度应为512字节的整数倍", 0, output.size() % 512);
+    }
+
+    /**
+     * 测试同名条目被拒绝，基准目录之外的输出使用去掉根目录的绝对路径，关闭后不能再写入
+     */
+    @Test
+    public void testEntryNames() throws IOException {
+        ZipSink sink = new ZipSink(new ByteArrayOutputStream(), tempDir);
+        File target = new File(tempDir, "out_watermark/photo_watermark.jpg");
+        sink.write(target, new byte[] {1, 2, 3});
+        try {
+            sink.write(new File(tempDir, "out_watermark/../out_watermark/photo_watermark.jpg"), new byte[] {4});
+            fail("同名条目应被拒绝");
+        } catch (IOException e) {
+            // 预期的异常
+        }
+
+        File outside = new File(tempDir.getParentFile(), "elsewhere/photo.jpg").getAbsoluteFile();
+        String name = sink.getEntryName(outside);
+        assertFalse("条目名不应以根目录开头", name.startsWith("/"));
+        assertTrue(name.endsWith("elsewhere/photo.jpg"));
+
+        sink.close();
+        try {
+            sink.write(new File(tempDir, "late.jpg"), new byte[] {5});
+            fail("关闭后写入应抛出异常");
+        } catch (IOException e) {
+            // 预期的异常
+        }
+
+        try {
+            ArchiveSink.open(new File(tempDir, "delivery.7z"), tempDir, OutputDurability.NONE);
+            fail("不支持的扩展名应抛出异常");
+        } catch (IllegalArgumentException e) {
+            // 预期的异常
+        }
+    }
+
+    /**
+     * 测试内存输出目标按输出路径保存字节数据
+     */
+    @Test
+    public void testMemorySink() throws IOException {
+        MemorySink sink = new MemorySink();
+        File target = new File(tempDir, "out_watermark/photo_watermark.jpg");
+        sink.write(target, new byte[] {1, 2, 3});
+        sink.write(new File(tempDir, "tile_watermark.png"), tempFile -> Files.write(tempFile.toPath(),
+                new byte[] {4, 5}));
+
+        assertEquals(2, sink.size());
+        assertArrayEquals(new byte[] {1, 2, 3}, sink.get(target));
+        assertArrayEquals(new byte[] {4, 5}, sink.get(new File(tempDir, "tile_watermark.png")));
+        assertFalse("内存输出目标不应创建输出目录", new File(tempDir, "out_watermark").exists());
+        assertArrayEquals("不应留下临时文件", new String[0], tempDir.list());
+    }
+
+    /**
+     * 按ustar格式读取TAR归档，支持pax扩展头中的path
+     */
+    private static Map<String, byte[]> readTar(byte[] tar) {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        String paxPath = null;
+        int offset = 0;
+        while (offset + 512 <= tar.length && tar[offset] != 0) {
+            assertEquals("条目头应为ustar格式", "ustar", field(tar, offset + 257, 6));
+            long checksum = 0;
+            for (int i = 0; i < 512; i++) {
+                checksum += i >= 148 && i < 156 ? ' ' : tar[offset + i] & 0xFF;
+            }
+            assertEquals("条目头校验和", checksum, Long.parseLong(field(tar, offset + 148, 8).trim(), 8));
+
+            String name = field(tar, offset, 100);
+            String prefix = field(tar, offset + 345, 155);
+            int size = Integer.parseInt(field(tar, offset + 124, 12).trim(), 8);
+            char type = (char) tar[offset + 156];
+            byte[] data = Arrays.copyOfRange(tar, offset + 512, offset + 512 + size);
+            offset += 512 + (size + 511) / 512 * 512;
+
+            if (type == 'x') {
+                for (String record : new String(data, StandardCharsets.UTF_8).split("\n")) {
+                    String keyValue = record.substring(record.indexOf(' ') + 1);
+                    if (keyValue.startsWith("path=")) {
+                        paxPath = keyValue.substring("path=".length());
+                    }
+                }
+                continue;
+            }
+            entries.put(paxPath != null ? paxPath : prefix.isEmpty() ? name : prefix + "/" + name, data);
+            paxPath = null;
+        }
+        return entries;
+    }
+
+    private static String field(byte[] tar, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && tar[end] != 0) {
+            end++;
+        }
+        return new String(tar, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,253 @@
+package com.photowatermark.tile;
+
+import com.photowatermark.WatermarkProcessor;
+import com.photowatermark.WatermarkRenderPlan;
+import com.photowatermark.util.ImageHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TiledWatermarker类的单元测试
+ * 使用很小的行带高度，使水印跨越多个行带，结果应与整张图片解码后合成水印逐像素相同
+ */
+public class TiledWatermarkerTest {
+
+    private static final String TEXT = "2023-06-01 10:00:00";
+
+    // 行带高度小于水印高度，水印必然跨越多个行带
+    private static final int BAND_ROWS = 7;
+
+    private File tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("photowatermark_tile_test_").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = tempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        tempDir.delete();
+    }
+
+    /**
+     * 测试RGB和RGBA的PNG逐行流式解码后分块合成，结果与整张图片合成相同
+     */
+    @Test
+    public void testPngMatchesFullComposite() throws IOException {
+        for (int type : new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB}) {
+            File source = write(createPhoto(type, 203, 157), "png", "photo" + type + ".png");
+            File output = new File(tempDir, "photo" + type + "_watermark.png");
+
+            assertTiledMatchesFull(source, ImageHeader.Format.PNG, output, "center");
+        }
+    }
+
+    /**
+     * 测试带透明色的调色板PNG和4位灰度PNG按调色板和位深度正确展开
+     */
+    @Test
+    public void testIndexedAndLowBitDepthPng() throws IOException {
+        byte[] levels = new byte[16];
+        byte[] alphas = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            levels[i] = (byte) (i * 17);
+            alphas[i] = (byte) (i == 3 ? 0 : 255);
+        }
+        BufferedImage indexed = new BufferedImage(97, 61, BufferedImage.TYPE_BYTE_INDEXED,
+                new IndexColorModel(8, 16, levels, levels, levels, alphas));
+        BufferedImage gray = new BufferedImage(97, 61, BufferedImage.TYPE_BYTE_BINARY,
+                new IndexColorModel(4, 16, levels, levels, levels));
+        Random random = new Random(7);
+        for (int y = 0; y < 61; y++) {
+            for (int x = 0; x < 97; x++) {
+                indexed.getRaster().setSample(x, y, 0, random.nextInt(16));
+                gray.getRaster().setSample(x, y, 0, (x + y) % 16);
+            }
+        }
+
+        File indexedFile = write(indexed, "png", "indexed.png");
+        assertTiledMatchesFull(indexedFile, ImageHeader.Format.PNG, new File(tempDir, "indexed_watermark.png"),
+                "top-left");
+        File grayFile = write(gray, "png", "gray.png");
+        assertTiledMatchesFull(grayFile, ImageHeader.Format.PNG, new File(tempDir, "gray_watermark.png"),
+                "bottom-right");
+    }
+
+    /**
+     * 测试隔行扫描的PNG不支持流式解码，改用ImageIO读取器按源区域读取
+     */
+    @Test
+    public void testInterlacedPngFallsBackToImageReader() throws IOException {
+        File source = new File(tempDir, "interlaced.png");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(source)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.write(null, new IIOImage(createPhoto(BufferedImage.TYPE_3BYTE_BGR, 120, 90), null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        assertNull("隔行扫描的PNG不应流式解码", PngBandSource.open(source));
+
+        assertTiledMatchesFull(source, ImageHeader.Format.PNG, new File(tempDir, "interlaced_watermark.png"),
+                "center");
+    }
+
+    /**
+     * 测试BMP和TIFF按源区域读取、按行带定位写出
+     */
+    @Test
+    public void testBmpAndTiff() throws IOException {
+        BufferedImage image = createPhoto(BufferedImage.TYPE_3BYTE_BGR, 149, 83);
+
+        File bmp = write(image, "bmp", "scan.bmp");
+        assertTiledMatchesFull(bmp, ImageHeader.Format.BMP, new File(tempDir, "scan_watermark.bmp"), "center");
+
+        File tiff = write(image, "tif", "scan.tif");
+        assertTiledMatchesFull(tiff, ImageHeader.Format.TIFF, new File(tempDir, "scan_watermark.tif"), "bottom-left");
+    }
+
+    /**
+     * 测试像素数超过分块阈值的图片由WatermarkProcessor分块处理，结果与整张图片处理相同
+     */
+    @Test
+    public void testProcessorUsesTiledPathAboveThreshold() throws IOException {
+        File source = write(createPhoto(BufferedImage.TYPE_3BYTE_BGR, 180, 140), "png", "large.png");
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(16, "yellow", "bottom-right");
+        WatermarkProcessor processor = new WatermarkProcessor();
+
+        assertFalse("默认阈值下小图片不应分块处理",
+                processor.isTiled(source, ImageHeader.Format.PNG, "png", plan));
+        assertTrue("像素数超过阈值时应分块处理",
+                processor.isTiled(source, ImageHeader.Format.PNG, "png", plan.withTileThreshold(1000)));
+        assertFalse("阈值为0时不应分块处理",
+                processor.isTiled(source, ImageHeader.Format.PNG, "png", plan.withTileThreshold(0)));
+        assertFalse("JPEG不支持分块处理",
+                processor.isTiled(source, ImageHeader.Format.JPEG, "jpg", plan.withTileThreshold(1000)));
+
+        File full = new File(tempDir, "full.png");
+        processor.addTextWatermark(source, ImageHeader.Format.PNG, TEXT, plan, full);
+        File tiled = new File(tempDir, "tiled.png");
+        processor.addTextWatermark(source, ImageHeader.Format.PNG, TEXT, plan.withTileThreshold(1000), tiled);
+
+        assertSamePixels(ImageIO.read(full), ImageIO.read(tiled), false);
+    }
+
+    /**
+     * 测试源图片数据损坏时删除不完整的输出文件
+     */
+    @Test
+    public void testCorruptSourceRemovesPartialOutput() throws IOException {
+        File source = write(createPhoto(BufferedImage.TYPE_3BYTE_BGR, 160, 120), "png", "broken.png");
+        try (RandomAccessFile file = new RandomAccessFile(source, "rw")) {
+            file.setLength(file.length() / 2);
+        }
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(16, "white", "center");
+        File output = new File(tempDir, "broken_watermark.png");
+
+        try {
+            TiledWatermarker.watermark(source, ImageHeader.Format.PNG, output, "png", plan.createOverlay(TEXT),
+                    plan.getAnchor(), plan.getOpacity(), plan.getBackend(), BAND_ROWS);
+            fail("数据不完整的PNG应抛出IOException");
+        } catch (IOException e) {
+            assertFalse("不完整的输出文件应被删除", output.exists());
+        }
+    }
+
+    /**
+     * 分块处理图片，并与解码整张图片后用同一后端合成的结果逐像素比较
+     */
+    private void assertTiledMatchesFull(File source, ImageHeader.Format format, File output, String position)
+            throws IOException {
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(18, "#FF8040", position);
+        BufferedImage overlay = plan.createOverlay(TEXT);
+        String formatName = output.getName().substring(output.getName().lastIndexOf('.') + 1);
+
+        TiledWatermarker.watermark(source, format, output, formatName, overlay, plan.getAnchor(), plan.getOpacity(),
+                plan.getBackend(), BAND_ROWS);
+
+        BufferedImage decoded = ImageIO.read(source);
+        boolean alpha = decoded.getColorModel().hasAlpha() && "png".equals(formatName);
+        BufferedImage expected = new BufferedImage(decoded.getWidth(), decoded.getHeight(),
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = expected.createGraphics();
+        graphics.setComposite(AlphaComposite.Src);
+        graphics.drawImage(decoded, 0, 0, null);
+        graphics.dispose();
+        expected = plan.getBackend().composite(expected, overlay, plan.getAnchor(), plan.getOpacity());
+
+        BufferedImage actual = ImageIO.read(output);
+        assertNotNull("输出应是有效的图片: " + output.getName(), actual);
+        assertEquals("输出应保留透明通道: " + output.getName(), alpha, actual.getColorModel().hasAlpha());
+        assertSamePixels(expected, actual, alpha);
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual, boolean alpha) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int mask = alpha ? 0xFFFFFFFF : 0xFFFFFF;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int expectedPixel = expected.getRGB(x, y) & mask;
+                int actualPixel = actual.getRGB(x, y) & mask;
+                if (expectedPixel != actualPixel) {
+                    fail(String.format("像素(%d,%d)不一致: 期望 %08X，实际 %08X", x, y, expectedPixel, actualPixel));
+                }
+            }
+        }
+    }
+
+    private File write(BufferedImage image, String formatName, String name) throws IOException {
+        File file = new File(tempDir, name);
+        assertTrue("应能写出测试图片: " + name, ImageIO.write(image, formatName, file));
+        return file;
+    }
+
+    /**
+     * 创建带渐变和噪点的测试图片，带透明通道时左半部分半透明
+     */
+    private static BufferedImage createPhoto(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(30, 60, 120), width, height, new Color(200, 160, 40)));
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = image.getRGB(x, y) ^ (random.nextInt(16) * 0x010101);
+                int alpha = image.getColorModel().hasAlpha() && x < width / 2 ? 0x80 : 0xFF;
+                image.setRGB(x, y, alpha << 24 | (rgb & 0xFFFFFF));
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,238 @@
+package com.photowatermark.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * AtomicFileWriter类的单元测试
+ */
+public class AtomicFileWriterTest {
+
+    private File tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("photowatermark_writer_test_").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = tempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        tempDir.delete();
+    }
+
+    /**
+     * 测试写出后目标文件内容完整，目录中不留临时文件
+     */
+    @Test
+    public void testWriteReplacesTarget() throws IOException {
+        File target = new File(tempDir, "photo_watermark.jpg");
+        AtomicFileWriter writer = new AtomicFileWriter(OutputDurability.PER_FILE);
+
+        writer.write(target, "old".getBytes(StandardCharsets.UTF_8));
+        writer.write(target, "new".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("new", new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8));
+        assertArrayEquals("目录中只应有目标文件", new String[] {target.getName()}, tempDir.list());
+    }
+
+    /**
+     * 测试写入失败时目标文件保持原有的完整内容，临时文件被删除
+     */
+    @Test
+    public void testFailedWriteKeepsPreviousContent() throws IOException {
+        File target = new File(tempDir, "scan_watermark.png");
+        AtomicFileWriter writer = new AtomicFileWriter(OutputDurability.NONE);
+        writer.write(target, "complete".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            writer.write(target, tempFile -> {
+                Files.write(tempFile.toPath(), "partial".getBytes(StandardCharsets.UTF_8));
+                throw new IOException("模拟写入中断");
+            });
+            fail("写入失败应抛出IOException");
+        } catch (IOException e) {
+            assertEquals("模拟写入中断", e.getMessage());
+        }
+
+        assertEquals("complete", new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8));
+        assertArrayEquals("临时文件应被删除", new String[] {target.getName()}, tempDir.list());
+    }
+
+    /**
+     * 测试每N个文件刷盘和批次结束时刷盘，临时文件刷盘后才重命名为目标文件
+     */
+    @Test
+    public void testBatchedDurability() throws IOException {
+        AtomicFileWriter interval = new AtomicFileWriter(OutputDurability.every(3));
+        for (int i = 0; i < 5; i++) {
+            interval.write(new File(tempDir, "a" + i + ".jpg"), new byte[] {(byte) i});
+        }
+        assertEquals("第3个文件写出后应一起刷盘", 2, interval.getUnsyncedCount());
+        assertTrue("已刷盘的文件应已重命名", new File(tempDir, "a2.jpg").isFile());
+        assertFalse("未刷盘的文件不应已重命名", new File(tempDir, "a3.jpg").exists());
+        interval.close();
+        assertEquals("关闭时应刷出剩余的文件", 0, interval.getUnsyncedCount());
+        assertTrue(new File(tempDir, "a4.jpg").isFile());
+
+        AtomicFileWriter batch = new AtomicFileWriter(OutputDurability.BATCH);
+        for (int i = 0; i < 5; i++) {
+            batch.write(new File(tempDir, "b" + i + ".jpg"), new byte[] {(byte) i});
+        }
+        assertEquals("批次结束前不应刷盘", 5, batch.getUnsyncedCount());
+        assertFalse("批次结束前目标文件不应可见", new File(tempDir, "b0.jpg").exists());
+        File[] tempFiles = tempDir.listFiles((dir, name) -> name.startsWith(".b0.jpg."));
+        assertEquals(1, tempFiles.length);
+        assertTrue(tempFiles[0].delete());
+        try {
+            batch.flush();
+            fail("临时文件丢失时应抛出IOException");
+        } catch (IOException e) {
+            // 预期的异常
+        }
+        assertEquals(0, batch.getUnsyncedCount());
+        assertFalse(new File(tempDir, "b0.jpg").exists());
+        for (int i = 1; i < 5; i++) {
+            assertEquals("其余文件应照常重命名", i, Files.readAllBytes(new File(tempDir, "b" + i + ".jpg").toPath())[0]);
+        }
+
+        AtomicFileWriter none = new AtomicFileWriter(OutputDurability.NONE);
+        none.write(new File(tempDir, "c.jpg"), new byte[] {1});
+        assertEquals("不刷盘时不应记录文件", 0, none.getUnsyncedCount());
+        assertEquals("目录中不应残留临时文件", 0, tempDir.list((dir, name) -> name.endsWith(".tmp")).length);
+    }
+
+    /**
+     * 测试批次结束时刷盘的方式按组刷盘，各组的输出在批次中持续可见，批处理日志随每组写入完成记录
+     */
+    @Test
+    public void testBatchGroupsAdvanceJournal() throws IOException {
+        Path journalFile = new File(tempDir, "batch.journal").toPath();
+        AtomicFileWriter writer = new AtomicFileWriter(OutputDurability.BATCH, 2, Long.MAX_VALUE, Long.MAX_VALUE);
+        try (BatchJournal journal = BatchJournal.create(journalFile)) {
+            journal.setDeferCompletions(true);
+            writer.setFlushListener(journal);
+            for (int i = 0; i < 3; i++) {
+                File output = new File(tempDir, "g" + i + ".jpg");
+                writer.write(output, new byte[] {(byte) i});
+                journal.record(new File(tempDir, "g" + i + ".png").getPath(), true);
+            }
+            assertTrue("满一组后应重命名", new File(tempDir, "g1.jpg").isFile());
+            assertFalse("下一组尚未刷盘", new File(tempDir, "g2.jpg").exists());
+            journal.flush();
+            String content = new String(Files.readAllBytes(journalFile), StandardCharsets.UTF_8);
+            assertTrue("刷盘前已记录的完成记录应写入", content.contains("g0.png"));
+            assertFalse("刷盘开始后才记录的完成记录应等待下一组", content.contains("g1.png"));
+
+            writer.close();
+            assertTrue(new File(tempDir, "g2.jpg").isFile());
+        }
+        try (BatchJournal journal = BatchJournal.resume(journalFile)) {
+            assertEquals("全部完成记录应在输出刷盘后写入", 3, journal.getCompletedCount());
+        }
+    }
+
+    /**
+     * 测试某一组刷盘失败后，之后各组的完成记录也不写入，关闭写出器时报告失败
+     */
+    @Test
+    public void testFailedGroupWithholdsCompletions() throws IOException {
+        Path journalFile = new File(tempDir, "failed.journal").toPath();
+        AtomicFileWriter writer = new AtomicFileWriter(OutputDurability.BATCH, 100, Long.MAX_VALUE, Long.MAX_VALUE);
+        try (BatchJournal journal = BatchJournal.create(journalFile)) {
+            journal.setDeferCompletions(true);
+            writer.setFlushListener(journal);
+            writer.write(new File(tempDir, "f0.jpg"), new byte[] {1});
+            journal.record("/photos/f0.jpg", true);
+            for (File tempFile : tempDir.listFiles((dir, name) -> name.endsWith(".tmp"))) {
+                assertTrue(tempFile.delete());
+            }
+            try {
+                writer.flush();
+                fail("临时文件丢失时应抛出IOException");
+            } catch (IOException e) {
+                // 预期的异常
+            }
+            writer.write(new File(tempDir, "f1.jpg"), new byte[] {2});
+            journal.record("/photos/f1.jpg", true);
+            try {
+                writer.close();
+                fail("批次中有刷盘失败时关闭应抛出IOException");
+            } catch (IOException e) {
+                // 预期的异常
+            }
+        }
+        try (BatchJournal journal = BatchJournal.resume(journalFile)) {
+            assertEquals("刷盘失败后不应写入完成记录", 0, journal.getCompletedCount());
+        }
+    }
+
+    /**
+     * 测试第一次写入目录前删除以前的运行残留的临时文件，不删除其他文件
+     */
+    @Test
+    public void testRemovesStaleTempFiles() throws IOException {
+        File stale = new File(tempDir, ".photo_watermark.jpg.3fa9c2d1e0b47a68.tmp");
+        File unrelated = new File(tempDir, ".notes.tmp");
+        assertTrue(stale.createNewFile());
+        assertTrue(unrelated.createNewFile());
+
+        new AtomicFileWriter(OutputDurability.BATCH).write(new File(tempDir, "photo_watermark.jpg"), new byte[] {1});
+        assertFalse("残留的临时文件应被删除", stale.exists());
+        assertTrue("不是本程序生成的文件不应被删除", unrelated.exists());
+    }
+
+    /**
+     * 测试解析刷盘方式
+     */
+    @Test
+    public void testParseDurability() {
+        assertSame(OutputDurability.NONE, OutputDurability.parse("none"));
+        assertSame(OutputDurability.PER_FILE, OutputDurability.parse("FILE"));
+        assertSame("每1个文件等同于每个文件", OutputDurability.PER_FILE, OutputDurability.parse("1"));
+        assertSame(OutputDurability.BATCH, OutputDurability.parse(" batch "));
+        OutputDurability interval = OutputDurability.parse("200");
+        assertEquals(OutputDurability.Mode.INTERVAL, interval.getMode());
+        assertEquals(200, interval.getInterval());
+        assertEquals("200", interval.toString());
+
+        for (String invalid : new String[] {"", "0", "-5", "always"}) {
+            try {
+                OutputDurability.parse(invalid);
+                fail("无效的刷盘方式应抛出异常: " + invalid);
+            } catch (IllegalArgumentException e) {
+                // 预期的异常
+            }
+        }
+    }
+
+    /**
+     * 测试批处理日志写入完成记录前先刷出输出文件
+     */
+    @Test
+    public void testJournalFlushesOutputsFirst() throws IOException {
+        Path journalFile = new File(tempDir, "batch.journal").toPath();
+        AtomicFileWriter writer = new AtomicFileWriter(OutputDurability.BATCH);
+        try (BatchJournal journal = BatchJournal.create(journalFile)) {
+            journal.setOutputs(writer);
+            writer.write(new File(tempDir, "d.jpg"), new byte[] {1});
+            journal.record(new File(tempDir, "d.jpg").getPath(), true);
+            journal.flush();
+            assertEquals("日志写入前应刷出输出文件", 0, writer.getUnsyncedCount());
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.photowatermark.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * BatchJournal类的单元测试
+ */
+public class BatchJournalTest {
+
+    private Path journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        journalFile = Files.createTempFile("photowatermark_journal_test_", ".journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(journalFile);
+    }
+
+    /**
+     * 测试恢复时读入已完成的图片，失败的图片不视为完成
+     */
+    @Test
+    public void testResumeReadsCompletedRecords() throws IOException {
+        try (BatchJournal journal = BatchJournal.create(journalFile)) {
+            journal.record("/photos/a.jpg", true);
+            journal.record("/photos/b.jpg", false);
+            journal.record("/photos/tab\there.jpg", true);
+        }
+
+        try (BatchJournal journal = BatchJournal.resume(journalFile)) {
+            assertTrue("成功的图片应视为已完成", journal.isCompleted("/photos/a.jpg"));
+            assertTrue("路径中的特殊字符应正确还原", journal.isCompleted("/photos/tab\there.jpg"));
+            assertFalse("失败的图片不应视为已完成", journal.isCompleted("/photos/b.jpg"));
+            assertEquals(2, journal.getCompletedCount());
+        }
+    }
+
+    /**
+     * 测试相对路径与绝对路径指向同一文件时能够匹配
+     */
+    @Test
+    public void testPathsAreNormalized() throws IOException {
+        String relative = "target" + File.separator + "." + File.separator + "photo.jpg";
+        try (BatchJournal journal = BatchJournal.create(journalFile)) {
+            journal.record(relative, true);
+        }
+
+        try (BatchJournal journal = BatchJournal.resume(journalFile)) {
+            assertTrue("绝对路径应匹配相对路径的记录",
+                    journal.isCompleted(new File("target", "photo.jpg").getAbsolutePath()));
+        }
+    }
+
+    /**
+     * 测试写入中断留下的不完整记录和损坏的记录被忽略，且恢复后可以继续追加
+     */
+    @Test
+    public void testTornTailAndCorruptRecordsAreIgnored() throws IOException {
+        try (BatchJournal journal = BatchJournal.create(journalFile)) {
+            journal.record("/photos/a.jpg", true);
+            journal.record("/photos/b.jpg", true);
+        }
+
+        // 篡改第二条记录的路径，使校验失败
+        String content = new String(Files.readAllBytes(journalFile), StandardCharsets.UTF_8);
+        Files.write(journalFile, content.replace("/photos/b.jpg", "/photos/x.jpg").getBytes(StandardCharsets.UTF_8));
+        // 模拟写入过程中崩溃，末尾留下没有换行的半条记录
+        Files.write(journalFile, "DONE\t/photos/c.j".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (BatchJournal journal = BatchJournal.resume(journalFile)) {
+            assertTrue(journal.isCompleted("/photos/a.jpg"));
+            assertFalse("校验失败的记录应被忽略", journal.isCompleted("/photos/x.jpg"));
+            assertFalse("不完整的记录应被忽略", journal.isCompleted("/photos/c.jpg"));
+            journal.record("/photos/d.jpg", true);
+        }
+
+        try (BatchJournal journal = BatchJournal.resume(journalFile)) {
+            assertTrue("截掉不完整记录后追加的记录应可读取", journal.isCompleted("/photos/d.jpg"));
+            assertEquals(2, journal.getCompletedCount());
+        }
+    }
+
+    /**
+     * 测试恢复不存在的日志时从头开始
+     */
+    @Test
+    public void testResumeMissingJournal() throws IOException {
+        Files.delete(journalFile);
+        try (BatchJournal journal = BatchJournal.resume(journalFile)) {
+            assertEquals(0, journal.getCompletedCount());
+        }
+        assertTrue("应创建新的日志文件", Files.exists(journalFile));
+    }
+
+    /**
+     * 测试刷出输出和写入日志在后台线程进行，刷盘期间工作线程记录结果不被阻塞
+     */
+    @Test
+    public void testRecordDoesNotWaitForFlush() throws Exception {
+        CountDownLatch flushStarted = new CountDownLatch(1);
+        CountDownLatch releaseFlush = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (BatchJournal journal = BatchJournal.create(journalFile)) {
+            journal.setOutputs(() -> {
+                flushStarted.countDown();
+                try {
+                    releaseFlush.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            for (int i = 0; i < 256; i++) {
+                journal.record("/photos/" + i + ".jpg", true);
+            }
+            assertTrue("累计记录数达到上限时应开始刷盘", flushStarted.await(5, TimeUnit.SECONDS));
+
+            Future<?> record = executor.submit(() -> journal.record("/photos/late.jpg", true));
+            record.get(5, TimeUnit.SECONDS);
+            releaseFlush.countDown();
+        } finally {
+            releaseFlush.countDown();
+            executor.shutdownNow();
+        }
+
+        try (BatchJournal journal = BatchJournal.resume(journalFile)) {
+            assertEquals("全部记录应写入日志", 257, journal.getCompletedCount());
+        }
+    }
+
+    /**
+     * 测试记录数未达到上限时，间隔一定时间后由后台线程写入
+     */
+    @Test
+    public void testIntervalFlush() throws Exception {
+        try (BatchJournal journal = BatchJournal.create(journalFile)) {
+            journal.record("/photos/a.jpg", true);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!new String(Files.readAllBytes(journalFile), StandardCharsets.UTF_8).contains("/photos/a.jpg")) {
+                assertTrue("记录应在间隔后写入日志", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    /**
+     * 测试暂存完成记录时，完成记录在关闭时才写入，失败记录照常写入；丢弃的完成记录恢复时重新处理
+     */
+    @Test
+    public void testDeferredCompletions() throws IOException {
+        try (BatchJournal journal = BatchJournal.create(journalFile)) {
+            journal.setDeferCompletions(true);
+            journal.record("/photos/a.jpg", true);
+            journal.record("/photos/b.jpg", false);
+            journal.flush();
+            String content = new String(Files.readAllBytes(journalFile), StandardCharsets.UTF_8);
+            assertTrue("失败记录应照常写入", content.contains("/photos/b.jpg"));
+            assertFalse("完成记录不应在关闭前写入", content.contains("/photos/a.jpg"));
+        }
+        try (BatchJournal journal = BatchJournal.resume(journalFile)) {
+            assertTrue("关闭时应写入暂存的完成记录", journal.isCompleted("/photos/a.jpg"));
+            journal.setDeferCompletions(true);
+            journal.record("/photos/c.jpg", true);
+            assertEquals(1, journal.discardDeferredCompletions());
+        }
+        try (BatchJournal journal = BatchJournal.resume(journalFile)) {
+            assertFalse("丢弃的完成记录不应写入", journal.isCompleted("/photos/c.jpg"));
+            assertEquals(1, journal.getCompletedCount());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.photowatermark.util;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+/**
+ * ImageBufferPool类的单元测试
+ */
+public class ImageBufferPoolTest {
+
+    /**
+     * 测试按尺寸和类型复用缓冲区
+     */
+    @Test
+    public void testAcquireReusesReleasedBuffer() {
+        ImageBufferPool pool = new ImageBufferPool(16L * 1024 * 1024);
+
+        BufferedImage first = pool.acquire(100, 50, BufferedImage.TYPE_3BYTE_BGR);
+        pool.release(first);
+
+        assertSame("相同尺寸和类型应复用", first, pool.acquire(100, 50, BufferedImage.TYPE_3BYTE_BGR));
+        assertNotSame("类型不同不应复用", first, pool.acquire(100, 50, BufferedImage.TYPE_INT_RGB));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    /**
+     * 测试超过保留上限的缓冲区不会被缓存
+     */
+    @Test
+    public void testReleaseRespectsRetainedLimit() {
+        ImageBufferPool pool = new ImageBufferPool(100 * 50 * 3);
+
+        pool.release(new BufferedImage(100, 50, BufferedImage.TYPE_3BYTE_BGR));
+        pool.release(new BufferedImage(100, 50, BufferedImage.TYPE_3BYTE_BGR));
+
+        assertEquals("只应保留一个缓冲区", 100 * 50 * 3, pool.getRetainedBytes());
+        pool.acquire(100, 50, BufferedImage.TYPE_3BYTE_BGR);
+        assertEquals("取出后保留字节数应归零", 0, pool.getRetainedBytes());
+    }
+
+    /**
+     * 测试清空缓冲池后不再复用，保留字节数归零；调低上限后按新上限保留
+     */
+    @Test
+    public void testClearAndLowerLimit() {
+        ImageBufferPool pool = new ImageBufferPool(16L * 1024 * 1024);
+        BufferedImage image = new BufferedImage(100, 50, BufferedImage.TYPE_3BYTE_BGR);
+        pool.release(image);
+        pool.clear();
+
+        assertEquals("清空后保留字节数应归零", 0, pool.getRetainedBytes());
+        assertNotSame("清空后不应复用", image, pool.acquire(100, 50, BufferedImage.TYPE_3BYTE_BGR));
+
+        pool.setMaxRetainedBytes(100 * 50 * 3 - 1);
+        pool.release(image);
+        assertEquals("超过新上限的缓冲区不应保留", 0, pool.getRetainedBytes());
+    }
+}
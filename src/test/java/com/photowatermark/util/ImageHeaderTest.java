@@ -0,0 +1,79 @@
+package com.photowatermark.util;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * ImageHeader类的单元测试
+ */
+public class ImageHeaderTest {
+
+    /**
+     * 测试按特征字节识别支持的格式
+     */
+    @Test
+    public void testDetectSupportedFormats() throws IOException {
+        assertEquals(ImageHeader.Format.JPEG, detect(encode("jpg")));
+        assertEquals(ImageHeader.Format.PNG, detect(encode("png")));
+        assertEquals(ImageHeader.Format.GIF, detect(encode("gif")));
+        assertEquals(ImageHeader.Format.BMP, detect(encode("bmp")));
+    }
+
+    /**
+     * 测试识别已知但不支持的格式，以及非图片内容
+     */
+    @Test
+    public void testRejectUnsupportedContent() {
+        byte[] heic = {0, 0, 0, 24, 'f', 't', 'y', 'p', 'h', 'e', 'i', 'c', 0, 0, 0, 0};
+        byte[] webp = {'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P'};
+        byte[] text = "BM is not a bitmap".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(ImageHeader.Format.HEIF, detect(heic));
+        assertEquals(ImageHeader.Format.WEBP, detect(webp));
+        assertFalse("HEIC不应视为支持的格式", ImageHeader.of(heic, heic.length).isSupported());
+        assertNull("以BM开头的文本不应识别为BMP", detect(text));
+        assertNull("过短的内容无法识别", detect(new byte[] {(byte) 0xFF, (byte) 0xD8}));
+
+        try {
+            ImageHeader.of(text, text.length).checkSupported("notes.jpg");
+            fail("非图片内容应抛出异常");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("notes.jpg"));
+        }
+    }
+
+    /**
+     * 测试从文件读取文件头只保留开头部分
+     */
+    @Test
+    public void testReadFromFile() throws IOException {
+        File file = File.createTempFile("header_", ".jpg");
+        try {
+            Files.write(file.toPath(), encode("png"));
+            ImageHeader header = ImageHeader.read(file);
+            assertEquals("应按内容而不是扩展名识别", ImageHeader.Format.PNG, header.getFormat());
+            assertEquals(ImageHeader.LENGTH, header.getBytes().length);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static ImageHeader.Format detect(byte[] data) {
+        return ImageHeader.of(data, data.length).getFormat();
+    }
+
+    private static byte[] encode(String format) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), format, output);
+        return output.toByteArray();
+    }
+}
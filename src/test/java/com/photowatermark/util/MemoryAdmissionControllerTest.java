@@ -0,0 +1,131 @@
+package com.photowatermark.util;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * MemoryAdmissionController类的单元测试
+ */
+public class MemoryAdmissionControllerTest {
+
+    /**
+     * 测试根据图片头中的宽高估算内存占用
+     */
+    @Test
+    public void testEstimateFootprintFromHeader() throws IOException {
+        File file = File.createTempFile("admission_", ".png");
+        try {
+            ImageIO.write(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB), "png", file);
+            MemoryAdmissionController controller = new MemoryAdmissionController(64L * 1024 * 1024);
+
+            long footprint = controller.estimateFootprint(file, 0);
+            // 解码后的RGB像素(3字节) + ARGB工作副本(4字节) + 编码缓冲区
+            assertTrue("估算值应覆盖解码和工作缓冲区", footprint >= 200L * 100 * 7);
+            assertTrue("估算值不应远超实际需要", footprint < 200L * 100 * 16);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * 测试额度不足时阻塞，归还后继续
+     */
+    @Test
+    public void testAcquireBlocksUntilReleased() throws Exception {
+        MemoryAdmissionController controller = new MemoryAdmissionController(1024 * 1024);
+        MemoryAdmissionController.Permit first = controller.acquire(800 * 1024);
+
+        AtomicBoolean admitted = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                MemoryAdmissionController.Permit permit = controller.acquire(600 * 1024);
+                admitted.set(true);
+                permit.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        waiter.start();
+
+        assertFalse("预算不足时应阻塞", done.await(200, TimeUnit.MILLISECONDS));
+        first.close();
+        assertTrue("归还额度后应继续执行", done.await(5, TimeUnit.SECONDS));
+        assertTrue(admitted.get());
+        assertEquals("全部额度应已归还", controller.getBudgetBytes(), controller.getAvailableBytes());
+    }
+
+    /**
+     * 测试正在等待的大图不会被之后到达、额度足够的小图插队
+     */
+    @Test
+    public void testLargeWaiterIsNotOvertaken() throws Exception {
+        MemoryAdmissionController controller = new MemoryAdmissionController(1024 * 1024);
+        MemoryAdmissionController.Permit first = controller.acquire(800 * 1024);
+
+        CountDownLatch largeDone = new CountDownLatch(1);
+        Thread large = new Thread(() -> acquireAndRelease(controller, 600 * 1024, largeDone));
+        large.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (large.getState() != Thread.State.WAITING) {
+            assertTrue("大图应进入等待", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        CountDownLatch smallDone = new CountDownLatch(1);
+        new Thread(() -> acquireAndRelease(controller, 100 * 1024, smallDone)).start();
+        assertFalse("剩余额度足够的小图也应排在等待的大图之后", smallDone.await(200, TimeUnit.MILLISECONDS));
+
+        first.close();
+        assertTrue(largeDone.await(5, TimeUnit.SECONDS));
+        assertTrue(smallDone.await(5, TimeUnit.SECONDS));
+        assertEquals("全部额度应已归还", controller.getBudgetBytes(), controller.getAvailableBytes());
+    }
+
+    private static void acquireAndRelease(MemoryAdmissionController controller, long bytes, CountDownLatch done) {
+        try {
+            controller.acquire(bytes).close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        done.countDown();
+    }
+
+    /**
+     * 测试超过预算的申请按整个预算处理而不会永久阻塞
+     */
+    @Test
+    public void testOversizedRequestUsesWholeBudget() throws InterruptedException {
+        MemoryAdmissionController controller = new MemoryAdmissionController(1024 * 1024);
+        try (MemoryAdmissionController.Permit permit = controller.acquire(10L * 1024 * 1024)) {
+            assertEquals("应占用全部预算", controller.getBudgetBytes(), permit.getBytes());
+            assertEquals(0, controller.getAvailableBytes());
+        }
+        assertEquals(controller.getBudgetBytes(), controller.getAvailableBytes());
+    }
+
+    /**
+     * 测试预留的内存不参与准入分配，且最多预留预算的一半
+     */
+    @Test
+    public void testReservedBytesExcludedFromBudget() {
+        MemoryAdmissionController controller = new MemoryAdmissionController(4 * 1024 * 1024, 1024 * 1024);
+        assertEquals(1024 * 1024, controller.getReservedBytes());
+        assertEquals("预留部分不应参与分配", 3 * 1024 * 1024, controller.getBudgetBytes());
+        assertEquals(controller.getBudgetBytes(), controller.getAvailableBytes());
+
+        MemoryAdmissionController small = new MemoryAdmissionController(4 * 1024 * 1024, 64L * 1024 * 1024);
+        assertEquals("最多预留预算的一半", 2 * 1024 * 1024, small.getReservedBytes());
+        assertEquals(2 * 1024 * 1024, small.getBudgetBytes());
+    }
+}
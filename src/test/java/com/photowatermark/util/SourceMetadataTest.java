@@ -0,0 +1,258 @@
+package com.photowatermark.util;
+
+import com.photowatermark.ImageCodec;
+import com.photowatermark.WatermarkProcessor;
+import com.photowatermark.WatermarkRenderPlan;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * SourceMetadata类的单元测试
+ */
+public class SourceMetadataTest {
+
+    private static final byte[] XMP = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">test</x:xmpmeta>"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final ImageCodec codec = new ImageCodec();
+    private File tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("photowatermark_metadata_test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = tempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        tempDir.delete();
+    }
+
+    /**
+     * 测试JPEG输出原样复制EXIF、XMP和ICC配置文件，方向改为正常方向，多图片格式段被丢弃
+     */
+    @Test
+    public void testJpegPassthrough() throws IOException {
+        byte[] icc = ICC_Profile.getInstance(ColorSpace.CS_sRGB).getData();
+        byte[] source = insertSegments(codec.encode(new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), "jpg"),
+                exifSegment(6), jpegSegment(0xE1, "http://ns.adobe.com/xap/1.0/\0", XMP),
+                jpegSegment(0xE2, "ICC_PROFILE\0", concat(new byte[] {1, 1}, icc)),
+                jpegSegment(0xE2, "MPF\0", new byte[] {'M', 'M', 0, 0x2A}));
+
+        SourceMetadata metadata = SourceMetadata.read(source, ImageHeader.Format.JPEG);
+        byte[] encoded = codec.encode(new BufferedImage(32, 64, BufferedImage.TYPE_INT_RGB), "jpg");
+        byte[] output = metadata.insertInto(encoded, "jpg");
+
+        List<byte[]> segments = readJpegSegments(output);
+        assertEquals("JFIF应保持在第一个", 0xE0, segments.get(0)[1] & 0xFF);
+        assertArrayEquals("EXIF方向应改为正常方向", exifSegment(1), segments.get(1));
+        assertArrayEquals(jpegSegment(0xE1, "http://ns.adobe.com/xap/1.0/\0", XMP), segments.get(2));
+        assertArrayEquals(jpegSegment(0xE2, "ICC_PROFILE\0", concat(new byte[] {1, 1}, icc)), segments.get(3));
+        assertEquals("多图片格式段不应复制", 4, countAppSegments(segments));
+        assertEquals(32, ImageIO.read(new ByteArrayInputStream(output)).getWidth());
+
+        assertSame("不支持的输出格式应原样返回", encoded, metadata.insertInto(encoded, "bmp"));
+        assertSame(encoded, SourceMetadata.EMPTY.insertInto(encoded, "jpg"));
+        assertTrue(SourceMetadata.read(codec.encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "jpg"),
+                ImageHeader.Format.JPEG).isEmpty());
+    }
+
+    /**
+     * 测试PNG输出原样复制文本块，JPEG与PNG之间转换EXIF、XMP和ICC配置文件的封装
+     */
+    @Test
+    public void testPngConversion() throws IOException {
+        byte[] icc = ICC_Profile.getInstance(ColorSpace.CS_sRGB).getData();
+        byte[] jpeg = insertSegments(codec.encode(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "jpg"),
+                exifSegment(8), jpegSegment(0xE1, "http://ns.adobe.com/xap/1.0/\0", XMP),
+                jpegSegment(0xE2, "ICC_PROFILE\0", concat(new byte[] {1, 1}, icc)));
+
+        byte[] png = SourceMetadata.read(jpeg, ImageHeader.Format.JPEG)
+                .insertInto(codec.encode(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "png"), "png");
+        assertArrayEquals("eXIf块应为EXIF的TIFF数据", Arrays.copyOfRange(exifSegment(1), 10, exifSegment(1).length),
+                findPngChunk(png, "eXIf"));
+        byte[] iccp = findPngChunk(png, "iCCP");
+        assertNotNull(iccp);
+        int nameEnd = indexOf(iccp, (byte) 0);
+        assertArrayEquals("iCCP块应包含压缩的配置文件", icc, new InflaterInputStream(new ByteArrayInputStream(iccp,
+                nameEnd + 2, iccp.length - nameEnd - 2)).readAllBytes());
+        assertTrue(new String(findPngChunk(png, "iTXt"), StandardCharsets.UTF_8).endsWith(new String(XMP,
+                StandardCharsets.UTF_8)));
+        assertEquals(16, ImageIO.read(new ByteArrayInputStream(png)).getWidth());
+
+        // 带文本块的PNG：输出PNG时原样复制，转换为JPEG时只转换EXIF、XMP和ICC配置文件
+        byte[] text = pngChunk("tEXt", "Author\0test".getBytes(StandardCharsets.ISO_8859_1));
+        byte[] pngSource = insertPngChunks(codec.encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png"),
+                text, pngChunk("eXIf", findPngChunk(png, "eXIf")), pngChunk("iCCP", iccp));
+        SourceMetadata pngMetadata = SourceMetadata.read(pngSource, ImageHeader.Format.PNG);
+        byte[] pngOutput = pngMetadata.insertInto(
+                codec.encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png"), "png");
+        assertArrayEquals("Author\0test".getBytes(StandardCharsets.ISO_8859_1), findPngChunk(pngOutput, "tEXt"));
+        assertArrayEquals(iccp, findPngChunk(pngOutput, "iCCP"));
+
+        byte[] jpegOutput = pngMetadata.insertInto(
+                codec.encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "jpg"), "jpg");
+        List<byte[]> segments = readJpegSegments(jpegOutput);
+        assertArrayEquals(exifSegment(1), segments.get(1));
+        assertArrayEquals(jpegSegment(0xE2, "ICC_PROFILE\0", concat(new byte[] {1, 1}, icc)), segments.get(2));
+        assertEquals("文本块没有对应的JPEG标记段", 3, countAppSegments(segments));
+    }
+
+    /**
+     * 测试启用元数据复制后，完整解码的输出保留源文件的EXIF，按方向旋转后的像素不会被再次旋转
+     */
+    @Test
+    public void testWatermarkKeepsMetadata() throws IOException {
+        File source = new File(tempDir, "rotated.jpg");
+        Files.write(source.toPath(), insertSegments(
+                codec.encode(new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB), "jpg"), exifSegment(6)));
+        File output = new File(tempDir, "rotated_watermark.jpg");
+        File plain = new File(tempDir, "plain_watermark.jpg");
+
+        WatermarkProcessor processor = new WatermarkProcessor();
+        WatermarkRenderPlan plan = WatermarkRenderPlan.compile(12, "white", "bottom-right");
+        processor.addTextWatermark(source, null, "2024-01-01", plan.withMetadataPassthrough(true), output);
+        processor.addTextWatermark(source, null, "2024-01-01", plan, plain);
+
+        byte[] data = Files.readAllBytes(output.toPath());
+        assertArrayEquals("输出应包含方向已校正的EXIF", exifSegment(1), readJpegSegments(data).get(1));
+        assertEquals("像素应已按方向旋转", 200, ImageIO.read(output).getWidth());
+        assertEquals("未启用时不复制元数据", 1, countAppSegments(readJpegSegments(Files.readAllBytes(plain.toPath()))));
+    }
+
+    /**
+     * 创建只包含方向标签的大端序EXIF段
+     */
+    private static byte[] exifSegment(int orientation) {
+        return jpegSegment(0xE1, "Exif\0\0", new byte[] {
+            'M', 'M', 0, 0x2A, 0, 0, 0, 8,
+            0, 1,
+            0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+            0, 0, 0, 0
+        });
+    }
+
+    private static byte[] jpegSegment(int marker, String signature, byte[] data) {
+        byte[] prefix = signature.getBytes(StandardCharsets.ISO_8859_1);
+        int length = 2 + prefix.length + data.length;
+        return concat(new byte[] {(byte) 0xFF, (byte) marker, (byte) (length >> 8), (byte) length}, prefix, data);
+    }
+
+    /**
+     * 在编码器写出的JFIF段之后插入标记段，ImageIO要求JFIF紧跟SOI
+     */
+    private static byte[] insertSegments(byte[] jpeg, byte[]... segments) {
+        int pos = 4 + ((jpeg[4] & 0xFF) << 8 | (jpeg[5] & 0xFF));
+        byte[] result = Arrays.copyOf(jpeg, pos);
+        for (byte[] segment : segments) {
+            result = concat(result, segment);
+        }
+        return concat(result, Arrays.copyOfRange(jpeg, pos, jpeg.length));
+    }
+
+    /**
+     * 读取第一个扫描之前的全部标记段
+     */
+    private static List<byte[]> readJpegSegments(byte[] jpeg) {
+        List<byte[]> segments = new ArrayList<>();
+        int pos = 2;
+        while ((jpeg[pos + 1] & 0xFF) != 0xDA) {
+            int end = pos + 2 + ((jpeg[pos + 2] & 0xFF) << 8 | (jpeg[pos + 3] & 0xFF));
+            segments.add(Arrays.copyOfRange(jpeg, pos, end));
+            pos = end;
+        }
+        return segments;
+    }
+
+    private static int countAppSegments(List<byte[]> segments) {
+        int count = 0;
+        for (byte[] segment : segments) {
+            if ((segment[1] & 0xF0) == 0xE0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static byte[] pngChunk(String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.ISO_8859_1);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        return concat(intBytes(data.length), typeBytes, data, intBytes((int) crc.getValue()));
+    }
+
+    /**
+     * 在IHDR之后插入块
+     */
+    private static byte[] insertPngChunks(byte[] png, byte[]... chunks) {
+        byte[] result = Arrays.copyOf(png, 33);
+        for (byte[] chunk : chunks) {
+            result = concat(result, chunk);
+        }
+        return concat(result, Arrays.copyOfRange(png, 33, png.length));
+    }
+
+    /**
+     * 查找指定类型的第一个块，校验CRC后返回块数据
+     */
+    private static byte[] findPngChunk(byte[] png, String type) {
+        int pos = 8;
+        while (pos + 12 <= png.length) {
+            int length = (png[pos] & 0xFF) << 24 | (png[pos + 1] & 0xFF) << 16 | (png[pos + 2] & 0xFF) << 8
+                    | (png[pos + 3] & 0xFF);
+            if (new String(png, pos + 4, 4, StandardCharsets.ISO_8859_1).equals(type)) {
+                byte[] data = Arrays.copyOfRange(png, pos + 8, pos + 8 + length);
+                assertArrayEquals("块的CRC应正确", pngChunk(type, data), Arrays.copyOfRange(png, pos, pos + 12 + length));
+                return data;
+            }
+            pos += 12 + length;
+        }
+        return null;
+    }
+
+    private static int indexOf(byte[] data, byte value) {
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            output.writeBytes(part);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,83 @@
+package com.photowatermark.util;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * WatermarkOverlayCache类的单元测试
+ */
+public class WatermarkOverlayCacheTest {
+
+    private static final Font FONT = new Font("Arial", Font.BOLD, 20);
+
+    /**
+     * 测试相同键命中缓存，不同颜色、字体或不透明度重新渲染
+     */
+    @Test
+    public void testHitAndMiss() {
+        WatermarkOverlayCache cache = new WatermarkOverlayCache();
+        AtomicInteger renderCount = new AtomicInteger();
+
+        BufferedImage first = cache.get("No EXIF Date", FONT, Color.WHITE, 0.5f, () -> render(renderCount, 10));
+        BufferedImage second = cache.get("No EXIF Date", FONT, Color.WHITE, 0.5f, () -> render(renderCount, 10));
+        assertSame("相同的文本和样式应返回缓存的图层", first, second);
+
+        cache.get("No EXIF Date", FONT, Color.RED, 0.5f, () -> render(renderCount, 10));
+        cache.get("No EXIF Date", FONT.deriveFont(30f), Color.WHITE, 0.5f, () -> render(renderCount, 10));
+        cache.get("No EXIF Date", FONT, Color.WHITE, 0.8f, () -> render(renderCount, 10));
+
+        assertEquals(4, renderCount.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(4, cache.size());
+    }
+
+    /**
+     * 测试超出保留上限时淘汰最久未使用的图层
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        // 每个10x10的图层占400字节，上限只能保留两个
+        WatermarkOverlayCache cache = new WatermarkOverlayCache(800);
+        AtomicInteger renderCount = new AtomicInteger();
+
+        cache.get("a", FONT, Color.WHITE, 0.5f, () -> render(renderCount, 10));
+        cache.get("b", FONT, Color.WHITE, 0.5f, () -> render(renderCount, 10));
+        // 访问a使b成为最久未使用的图层
+        cache.get("a", FONT, Color.WHITE, 0.5f, () -> render(renderCount, 10));
+        cache.get("c", FONT, Color.WHITE, 0.5f, () -> render(renderCount, 10));
+
+        assertEquals(2, cache.size());
+        assertEquals(800, cache.getRetainedBytes());
+
+        cache.get("a", FONT, Color.WHITE, 0.5f, () -> render(renderCount, 10));
+        assertEquals("a应仍在缓存中", 3, renderCount.get());
+        cache.get("b", FONT, Color.WHITE, 0.5f, () -> render(renderCount, 10));
+        assertEquals("b应已被淘汰", 4, renderCount.get());
+    }
+
+    /**
+     * 测试超过保留上限的图层不放入缓存
+     */
+    @Test
+    public void testOversizedOverlayNotRetained() {
+        WatermarkOverlayCache cache = new WatermarkOverlayCache(100);
+        AtomicInteger renderCount = new AtomicInteger();
+
+        BufferedImage overlay = cache.get("big", FONT, Color.WHITE, 0.5f, () -> render(renderCount, 10));
+        assertNotNull(overlay);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getRetainedBytes());
+    }
+
+    private static BufferedImage render(AtomicInteger renderCount, int size) {
+        renderCount.incrementAndGet();
+        return new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    }
+}
@@ -0,0 +1,49 @@
+package com.photowatermark.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * WorkerExecutors类的单元测试
+ */
+public class WorkerExecutorsTest {
+
+    /**
+     * 测试平台线程执行器的线程名称和守护属性
+     */
+    @Test
+    public void testPlatformExecutorThreads() throws Exception {
+        ExecutorService executor = WorkerExecutors.newPlatformExecutor("test-worker", 2);
+        try {
+            Future<Thread> future = executor.submit(Thread::currentThread);
+            Thread thread = future.get(10, TimeUnit.SECONDS);
+            assertTrue("线程名称应带有前缀", thread.getName().startsWith("test-worker-"));
+            assertTrue("工作线程应为守护线程", thread.isDaemon());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 测试IO执行器在不支持虚拟线程时回退为平台线程
+     */
+    @Test
+    public void testIoExecutorFallback() throws Exception {
+        ExecutorService executor = WorkerExecutors.newIoExecutor("test-io", 2, true);
+        try {
+            String name = executor.submit(() -> Thread.currentThread().getName()).get(10, TimeUnit.SECONDS);
+            assertTrue("线程名称应带有前缀", name.startsWith("test-io-"));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("虚拟线程模式是否生效应与运行环境一致",
+                VirtualThreads.isSupported(), WorkerExecutors.isVirtualThreadModeActive(true));
+        assertFalse("未请求时不应启用虚拟线程", WorkerExecutors.isVirtualThreadModeActive(false));
+    }
+}